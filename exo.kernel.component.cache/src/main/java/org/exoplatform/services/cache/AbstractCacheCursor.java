@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The base class of the cursors, the subclasses only have to fetch the entries one chunk after the other.
+ *
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @version $Id$
+ */
+public abstract class AbstractCacheCursor<K extends Serializable, V> implements CacheCursor<K, V>
+{
+
+   private final int chunkSize;
+
+   /**
+    * The chunk to return by the next call to {@link #next()}, null if it has not been fetched yet
+    */
+   private Map<K, V> chunk;
+
+   private boolean started;
+
+   private boolean done;
+
+   /**
+    * @param chunkSize the maximum amount of entries of a chunk
+    * @throws IllegalArgumentException if the chunk size is not positive
+    */
+   protected AbstractCacheCursor(int chunkSize) throws IllegalArgumentException
+   {
+      if (chunkSize <= 0)
+      {
+         throw new IllegalArgumentException("The chunk size must be positive");
+      }
+      this.chunkSize = chunkSize;
+   }
+
+   /**
+    * Adds the next entries to the given chunk.
+    *
+    * @param chunk the chunk to fill
+    * @param max the maximum amount of entries to add
+    * @return <code>false</code> if there are no more entries, in which case this method is not called anymore
+    */
+   protected abstract boolean fetch(Map<K, V> chunk, int max);
+
+   /**
+    * @return the maximum amount of entries of a chunk
+    */
+   public int getChunkSize()
+   {
+      return chunkSize;
+   }
+
+   /**
+    * Indicates whether the first chunk has already been fetched, the cursors that cannot be split once the
+    * iteration has started rely on it.
+    */
+   protected boolean isStarted()
+   {
+      return started;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean hasNext()
+   {
+      while (chunk == null && !done)
+      {
+         Map<K, V> entries = new LinkedHashMap<K, V>();
+         started = true;
+         done = !fetch(entries, chunkSize);
+         if (!entries.isEmpty())
+         {
+            chunk = entries;
+         }
+      }
+      return chunk != null;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Map<K, V> next() throws NoSuchElementException
+   {
+      if (!hasNext())
+      {
+         throw new NoSuchElementException();
+      }
+      Map<K, V> result = chunk;
+      chunk = null;
+      return result;
+   }
+
+   /**
+    * This cursor cannot be split by default.
+    */
+   public CacheCursor<K, V> trySplit()
+   {
+      return null;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void close()
+   {
+      chunk = null;
+      started = true;
+      done = true;
+   }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.Future;
+
+/**
+ * An {@link ExoCache} whose lookups and writes can also be executed asynchronously, so that the calling
+ * thread does not wait for the network round trips of a replicated or distributed cache. The statistics
+ * and the listeners are updated once the operation completes, possibly from another thread. The futures
+ * of the writes may simply be ignored by the callers that don't need to know when the write completes.
+ *
+ * @param <K> the type of keys maintained by this cache
+ * @param <V> the type of cached values
+ * @version $Id$
+ * @LevelAPI Platform
+ */
+public interface AsyncExoCache<K extends Serializable, V> extends ExoCache<K, V>
+{
+
+   /**
+    * Performs a lookup operation asynchronously.
+    *
+    * @param key the cache key
+    * @return the future of the cached value which may be evaluated to null
+    */
+   public Future<V> getAsync(Serializable key);
+
+   /**
+    * Performs a put in the cache asynchronously.
+    *
+    * @param key the cache key
+    * @param value the cached value
+    * @return the future of the put which completes once the value is stored
+    * @throws NullPointerException if the key is null
+    */
+   public Future<?> putAsync(K key, V value) throws NullPointerException;
+
+   /**
+    * Performs a put in the cache asynchronously with a time to live specific to the entry, see
+    * {@link #put(Serializable, Object, long)}.
+    *
+    * @param key the cache key
+    * @param value the cached value
+    * @param liveTimeMillis the amount of milliseconds after which the entry expires, a negative value means
+    * that the entry never expires and 0 that the value is not cached
+    * @return the future of the put which completes once the value is stored
+    * @throws NullPointerException if the key is null
+    */
+   public Future<?> putAsync(K key, V value, long liveTimeMillis) throws NullPointerException;
+
+   /**
+    * Removes an entry from the cache asynchronously.
+    *
+    * @param key the cache key
+    * @return the future of the previously cached value
+    * @throws NullPointerException if the provided key is null
+    */
+   public Future<V> removeAsync(Serializable key) throws NullPointerException;
+}
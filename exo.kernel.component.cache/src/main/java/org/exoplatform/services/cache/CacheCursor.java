@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A cursor over the entries of an {@link ExoCache}, the entries are fetched lazily by chunks of bounded size
+ * so that the content of the cache is never copied at once. A cursor is weakly consistent: the entries put
+ * or removed while the iteration is in progress may or may not be returned, but an entry is never returned
+ * twice by a cursor and the cursors obtained from it thanks to {@link #trySplit()}.
+ * <p>
+ * A cursor is not thread safe, however the cursors obtained by splitting it can be consumed concurrently.
+ *
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @version $Id$
+ * @LevelAPI Platform
+ */
+public interface CacheCursor<K extends Serializable, V>
+{
+
+   /**
+    * Indicates whether there is at least one more chunk, the next chunk may be fetched by this method.
+    *
+    * @return <code>true</code> if {@link #next()} can be called
+    */
+   boolean hasNext();
+
+   /**
+    * Returns the next chunk of entries, it is never empty and contains at most the amount of entries
+    * requested when the cursor was opened.
+    *
+    * @return the next entries of the cache
+    * @throws NoSuchElementException if there are no more entries
+    */
+   Map<K, V> next() throws NoSuchElementException;
+
+   /**
+    * Tries to give a part of the remaining entries to a new cursor, so that both cursors can be consumed
+    * in parallel.
+    *
+    * @return a cursor over a part of the remaining entries which will not be returned by this cursor anymore
+    * or <code>null</code> if this cursor cannot be split
+    */
+   CacheCursor<K, V> trySplit();
+
+   /**
+    * Releases the resources held by the cursor, the cursor has no more entries afterwards.
+    */
+   void close();
+}
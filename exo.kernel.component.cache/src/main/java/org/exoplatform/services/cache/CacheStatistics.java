@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.annotations.ManagedName;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+
+/**
+ * The statistics of an {@link ExoCache}. The counters are striped so that the threads using the cache
+ * concurrently do not compete for them, and the durations are recorded into histograms of fixed size.
+ * Only one get or put out of 16 on average is timed, the loads are always timed since they are expected to
+ * be much more expensive than the call to {@link System#nanoTime()}.
+ * <p>
+ * The implementations of {@link ExoCache} record the operations as next:
+ * <pre>
+ * long start = statistics.startTimer();
+ * V value = ...;
+ * if (value == null)
+ *    statistics.recordMiss(start);
+ * else
+ *    statistics.recordHit(start);
+ * </pre>
+ *
+ * @version $Id$
+ */
+@Managed
+@NameTemplate({@Property(key = "service", value = "cache"), @Property(key = "name", value = "{Name}"),
+   @Property(key = "type", value = "statistics")})
+@ManagedDescription("Exo Cache statistics")
+public class CacheStatistics
+{
+
+   /**
+    * The value returned by {@link #startTimer()} when the operation is not sampled
+    */
+   private static final long NOT_TIMED = Long.MIN_VALUE;
+
+   /**
+    * One get or put out of SAMPLING_MASK + 1 is timed on average
+    */
+   private static final int SAMPLING_MASK = 15;
+
+   /**
+    * The amount of longs between two seeds, so that each seed sits on its own cache line
+    */
+   private static final int SEED_PADDING = 8;
+
+   private final ExoCache<?, ?> cache;
+
+   private final StripedCounter hits = new StripedCounter();
+
+   private final StripedCounter misses = new StripedCounter();
+
+   private final StripedCounter puts = new StripedCounter();
+
+   private final StripedCounter evictions = new StripedCounter();
+
+   private final StripedCounter droppedEvents = new StripedCounter();
+
+   private final LatencyHistogram getTimes = new LatencyHistogram();
+
+   private final LatencyHistogram putTimes = new LatencyHistogram();
+
+   private final LatencyHistogram loadTimes = new LatencyHistogram();
+
+   /**
+    * The states of the pseudo random generators used to sample the operations to time, a random sampling
+    * avoids to always time the same kind of operation when the gets and the puts follow a regular pattern.
+    * They are not updated atomically since a lost update does not matter.
+    */
+   private final long[] seeds = new long[StripedCounter.STRIPES * SEED_PADDING];
+
+   /**
+    * @param cache the cache whose statistics are collected
+    */
+   public CacheStatistics(ExoCache<?, ?> cache)
+   {
+      this.cache = cache;
+      for (int i = 0; i < StripedCounter.STRIPES; i++)
+      {
+         seeds[i * SEED_PADDING] = (i + 1) * 0x9e3779b97f4a7c15L;
+      }
+   }
+
+   @Managed
+   @ManagedName("Name")
+   @ManagedDescription("The cache name")
+   public String getName()
+   {
+      return cache.getName();
+   }
+
+   /**
+    * Starts timing a get or a put if this operation is sampled.
+    *
+    * @return the value to give to the method recording the operation
+    */
+   public long startTimer()
+   {
+      int index = StripedCounter.stripe() * SEED_PADDING;
+      long seed = seeds[index];
+      seed ^= seed << 13;
+      seed ^= seed >>> 7;
+      seed ^= seed << 17;
+      seeds[index] = seed == 0 ? 1 : seed;
+      return (seed & SAMPLING_MASK) == 0 ? System.nanoTime() : NOT_TIMED;
+   }
+
+   /**
+    * Records a lookup that found a value.
+    *
+    * @param start the value returned by {@link #startTimer()} when the lookup started
+    */
+   public void recordHit(long start)
+   {
+      hits.increment();
+      record(getTimes, start);
+   }
+
+   /**
+    * Records a lookup that found no value.
+    *
+    * @param start the value returned by {@link #startTimer()} when the lookup started
+    */
+   public void recordMiss(long start)
+   {
+      misses.increment();
+      record(getTimes, start);
+   }
+
+   /**
+    * Records the outcome of a bulk lookup, which is not timed.
+    *
+    * @param hitCount the amount of keys that have been found
+    * @param missCount the amount of keys that have not been found
+    */
+   public void recordGets(int hitCount, int missCount)
+   {
+      if (hitCount > 0)
+      {
+         hits.add(hitCount);
+      }
+      if (missCount > 0)
+      {
+         misses.add(missCount);
+      }
+   }
+
+   /**
+    * Records a put.
+    *
+    * @param start the value returned by {@link #startTimer()} when the put started
+    */
+   public void recordPut(long start)
+   {
+      puts.increment();
+      record(putTimes, start);
+   }
+
+   /**
+    * Records a bulk put, which is not timed.
+    *
+    * @param count the amount of entries that have been put
+    */
+   public void recordPuts(int count)
+   {
+      if (count > 0)
+      {
+         puts.add(count);
+      }
+   }
+
+   /**
+    * Records an entry removed from the cache because it expired or because the cache was full.
+    */
+   public void recordEviction()
+   {
+      evictions.increment();
+   }
+
+   /**
+    * Records entries removed from the cache because they expired or because the cache was full.
+    *
+    * @param count the amount of entries that have been evicted
+    */
+   public void recordEvictions(int count)
+   {
+      if (count > 0)
+      {
+         evictions.add(count);
+      }
+   }
+
+   /**
+    * Records an event that could not be delivered to the listeners because their queue was full.
+    */
+   public void recordDroppedEvent()
+   {
+      droppedEvents.increment();
+   }
+
+   /**
+    * Records the load of a value from the data source on a miss.
+    *
+    * @param start the value of {@link System#nanoTime()} when the load started
+    */
+   public void recordLoad(long start)
+   {
+      record(loadTimes, start);
+   }
+
+   private static void record(LatencyHistogram histogram, long start)
+   {
+      if (start != NOT_TIMED)
+      {
+         histogram.record(System.nanoTime() - start);
+      }
+   }
+
+   @Managed
+   @ManagedName("HitCount")
+   @ManagedDescription("The count of cache hits")
+   public long getHitCount()
+   {
+      return hits.sum();
+   }
+
+   @Managed
+   @ManagedName("MissCount")
+   @ManagedDescription("The count of cache misses")
+   public long getMissCount()
+   {
+      return misses.sum();
+   }
+
+   @Managed
+   @ManagedName("HitRatio")
+   @ManagedDescription("The ratio of the lookups that found a value, between 0 and 1")
+   public double getHitRatio()
+   {
+      long hitCount = hits.sum();
+      long total = hitCount + misses.sum();
+      return total == 0 ? 0 : (double)hitCount / total;
+   }
+
+   @Managed
+   @ManagedName("PutCount")
+   @ManagedDescription("The count of cache puts")
+   public long getPutCount()
+   {
+      return puts.sum();
+   }
+
+   @Managed
+   @ManagedName("EvictionCount")
+   @ManagedDescription("The count of entries evicted or expired")
+   public long getEvictionCount()
+   {
+      return evictions.sum();
+   }
+
+   @Managed
+   @ManagedName("DroppedEventCount")
+   @ManagedDescription("The count of events dropped because the listener queue was full")
+   public long getDroppedEventCount()
+   {
+      return droppedEvents.sum();
+   }
+
+   @Managed
+   @ManagedName("LoadCount")
+   @ManagedDescription("The count of values loaded from the data source")
+   public long getLoadCount()
+   {
+      return loadTimes.count();
+   }
+
+   @Managed
+   @ManagedName("GetTimeP50")
+   @ManagedDescription("The median duration of a lookup in milliseconds")
+   public double getGetTimeP50()
+   {
+      return toMillis(getTimes.percentile(0.5));
+   }
+
+   @Managed
+   @ManagedName("GetTimeP99")
+   @ManagedDescription("The 99th percentile of the duration of a lookup in milliseconds")
+   public double getGetTimeP99()
+   {
+      return toMillis(getTimes.percentile(0.99));
+   }
+
+   @Managed
+   @ManagedName("PutTimeP50")
+   @ManagedDescription("The median duration of a put in milliseconds")
+   public double getPutTimeP50()
+   {
+      return toMillis(putTimes.percentile(0.5));
+   }
+
+   @Managed
+   @ManagedName("PutTimeP99")
+   @ManagedDescription("The 99th percentile of the duration of a put in milliseconds")
+   public double getPutTimeP99()
+   {
+      return toMillis(putTimes.percentile(0.99));
+   }
+
+   @Managed
+   @ManagedName("LoadTimeP50")
+   @ManagedDescription("The median duration of a load in milliseconds")
+   public double getLoadTimeP50()
+   {
+      return toMillis(loadTimes.percentile(0.5));
+   }
+
+   @Managed
+   @ManagedName("LoadTimeP99")
+   @ManagedDescription("The 99th percentile of the duration of a load in milliseconds")
+   public double getLoadTimeP99()
+   {
+      return toMillis(loadTimes.percentile(0.99));
+   }
+
+   @Managed
+   @ManagedDescription("Reset all the statistics")
+   public void reset()
+   {
+      hits.reset();
+      misses.reset();
+      puts.reset();
+      evictions.reset();
+      droppedEvents.reset();
+      getTimes.reset();
+      putTimes.reset();
+      loadTimes.reset();
+   }
+
+   private static double toMillis(long nanos)
+   {
+      return nanos / 1000000d;
+   }
+
+   /**
+    * Converts a count into an int for the methods of {@link ExoCache} that return an int.
+    *
+    * @param count the count to convert
+    * @return the count or {@link Integer#MAX_VALUE} if the count is too large
+    */
+   public static int toInt(long count)
+   {
+      return count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)count;
+   }
+}
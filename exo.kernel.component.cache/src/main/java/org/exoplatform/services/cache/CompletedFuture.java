@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Future} that is already completed, used by the asynchronous operations that have nothing to
+ * execute such as the put of a null value.
+ *
+ * @param <V> the type of the result
+ * @version $Id$
+ */
+public class CompletedFuture<V> implements Future<V>
+{
+
+   private final V value;
+
+   public CompletedFuture(V value)
+   {
+      this.value = value;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean cancel(boolean mayInterruptIfRunning)
+   {
+      return false;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean isCancelled()
+   {
+      return false;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean isDone()
+   {
+      return true;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public V get()
+   {
+      return value;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public V get(long timeout, TimeUnit unit)
+   {
+      return value;
+   }
+}
@@ -25,6 +25,7 @@ import org.exoplatform.management.jmx.annotations.NameTemplate;
 import org.exoplatform.management.jmx.annotations.Property;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -83,6 +84,17 @@ public interface ExoCache<K extends Serializable, V>
     */
    public V get(Serializable key);
 
+   /**
+    * Performs a lookup operation of all the given keys at once, which is much cheaper than
+    * successive calls to {@link #get(Serializable)} when the cache is remote.
+    *
+    * @param keys the cache keys, the null keys are ignored
+    * @return a map containing the cached values, the keys with no entry or with an entry whose value
+    * was evaluated to null are not part of the map
+    * @throws NullPointerException if the provided argument is null
+    */
+   public Map<K, V> getAll(Collection<? extends K> keys) throws NullPointerException;
+
    /**
     * Removes an entry from the cache.
     *
@@ -92,6 +104,30 @@ public interface ExoCache<K extends Serializable, V>
     */
    public V remove(Serializable key) throws NullPointerException;
 
+   /**
+    * Removes all the entries of the given keys at once.
+    *
+    * @param keys the cache keys
+    * @throws NullPointerException if the provided argument is null
+    * @throws IllegalArgumentException if the provided collection contains a null key
+    */
+   public void removeAll(Collection<? extends K> keys) throws NullPointerException, IllegalArgumentException;
+
+   /**
+    * Removes all the entries whose key is a {@link String} starting with the given prefix, the other keys
+    * are ignored. Unlike a {@link #select(CachedObjectSelector)} with an {@link ExpireKeyStartWithSelector},
+    * the implementations rely on an index of the keys so that the cost only depends on the amount of
+    * removed entries. The index is built by the first call then maintained by the writes.
+    * <p>
+    * This is an optional operation, the caches that cannot find the keys by prefix, such as a cache
+    * stored into memcached which cannot list its keys, throw an {@link UnsupportedOperationException}.
+    *
+    * @param prefix the prefix of the keys to remove
+    * @throws NullPointerException if the provided prefix is null
+    * @throws UnsupportedOperationException if the cache cannot remove its entries by prefix
+    */
+   public void removeByPrefix(String prefix) throws NullPointerException;
+
    /**
     * Performs a put in the cache.
     *
@@ -101,6 +137,18 @@ public interface ExoCache<K extends Serializable, V>
     */
    public void put(K key, V value) throws NullPointerException;
 
+   /**
+    * Performs a put in the cache with a time to live specific to the entry, which takes precedence over
+    * the live time of the cache.
+    *
+    * @param key the cache key
+    * @param value the cached value
+    * @param liveTimeMillis the amount of milliseconds after which the entry expires, a negative value means
+    * that the entry never expires and 0 that the value is not cached
+    * @throws NullPointerException if the key is null
+    */
+   public void put(K key, V value, long liveTimeMillis) throws NullPointerException;
+
    /**
     * Performs a put of all the entries provided by the map argument.
     *
@@ -145,6 +193,17 @@ public interface ExoCache<K extends Serializable, V>
    @ManagedDescription("The maximum capacity")
    public int getMaxSize();
 
+   /**
+    * Returns the total weight of the entries in the cache as computed by the {@link Weigher}
+    * of the cache.
+    *
+    * @return the weight of the cache or -1 if the weight of the entries is not tracked
+    */
+   @Managed
+   @ManagedName("Weight")
+   @ManagedDescription("The total weight of the entries, -1 if not tracked")
+   public long getCacheWeight();
+
    /**
     * Sets the maximum capacity of the cache.
     *
@@ -173,7 +232,8 @@ public interface ExoCache<K extends Serializable, V>
    public void setLiveTime(long period);
 
    /**
-    * Returns the number of time the cache was queried and a valid entry was returned.
+    * Returns the number of time the cache was queried and a valid entry was returned. The value is capped to
+    * {@link Integer#MAX_VALUE}, the exact count is given by {@link #getStatistics()}.
     *
     * @return the cache hits
     */
@@ -183,7 +243,8 @@ public interface ExoCache<K extends Serializable, V>
    public int getCacheHit();
 
    /**
-    * Returns the number of time the cache was queried and no entry was returned.
+    * Returns the number of time the cache was queried and no entry was returned. The value is capped to
+    * {@link Integer#MAX_VALUE}, the exact count is given by {@link #getStatistics()}.
     *
     * @return the cache misses
     */
@@ -192,6 +253,13 @@ public interface ExoCache<K extends Serializable, V>
    @ManagedDescription("The count of cache misses")
    public int getCacheMiss();
 
+   /**
+    * Returns the statistics of the cache, they are registered as a managed object of their own.
+    *
+    * @return the cache statistics
+    */
+   public CacheStatistics getStatistics();
+
    /**
     * Returns a list of cached object that are considered as valid when the method is called. Any non valid
     * object will not be returnted.
@@ -211,6 +279,22 @@ public interface ExoCache<K extends Serializable, V>
     */
    public List<? extends V> removeCachedObjects();
 
+   /**
+    * Opens a cursor over the entries that are valid when the cursor reaches them. Unlike
+    * {@link #getCachedObjects()}, the entries are fetched by chunks so that the content of the cache is never
+    * copied at once, the cursors of the local caches can also be split to consume the entries in parallel.
+    *
+    * <p>
+    * This is an optional operation, the caches that cannot iterate over their entries, such as a cache
+    * stored into memcached, throw an {@link UnsupportedOperationException}.
+    *
+    * @param chunkSize the maximum amount of entries of a chunk
+    * @return a cursor over the entries of the cache
+    * @throws IllegalArgumentException if the chunk size is not positive
+    * @throws UnsupportedOperationException if the cache cannot iterate over its entries
+    */
+   public CacheCursor<K, V> openCursor(int chunkSize) throws IllegalArgumentException;
+
    /**
     * Add a listener.
     *
@@ -18,6 +18,10 @@
  */
 package org.exoplatform.services.cache;
 
+import org.exoplatform.commons.utils.ClassLoading;
+
+import java.io.Serializable;
+
 /**
  * This class defines the main configuration properties of an {@link org.exoplatform.services.cache.ExoCache}
  * 
@@ -28,6 +32,21 @@ package org.exoplatform.services.cache;
  */
 public class ExoCacheConfig implements Cloneable
 {
+   /**
+    * The default maximum amount of events waiting to be delivered asynchronously to the listeners.
+    */
+   public static final int DEFAULT_LISTENER_QUEUE_SIZE = 1024;
+
+   /**
+    * The default ratio of the keys whose accesses are recorded when the accesses are traced.
+    */
+   public static final double DEFAULT_TRACE_SAMPLING_RATE = 0.01;
+
+   /**
+    * The default live time in seconds of the local copies of a near cache.
+    */
+   public static final long DEFAULT_NEAR_CACHE_LIVE_TIME = 60;
+
    /**
     * The name of the cache.
     */
@@ -73,6 +92,74 @@ public class ExoCacheConfig implements Cloneable
     * Indicates whether or not the replication of the values should be avoided
     */
    public boolean avoidValueReplication;
+
+   /**
+    * Indicates whether the local cache should track the order of its entries thanks to
+    * striped buffers instead of a single lock
+    */
+   private boolean bufferedQueue;
+
+   /**
+    * Indicates whether the local cache should remove the expired entries proactively
+    */
+   private boolean activeExpiration;
+
+   /**
+    * The maximum total weight of the entries in cache, a value lower or equal to 0 means
+    * that the cache is not bounded by weight. For the off-heap caches, it is the amount of bytes
+    * of off-heap memory allocated to the values.
+    */
+   private long maxWeight;
+
+   /**
+    * The full qualified name of the {@link Weigher} to use
+    */
+   private String weigher;
+
+   /**
+    * Indicates whether the events of the local cache should be delivered asynchronously to the listeners
+    */
+   private boolean asyncListeners;
+
+   /**
+    * The maximum amount of events waiting to be delivered asynchronously to the listeners
+    */
+   private int listenerQueueSize = DEFAULT_LISTENER_QUEUE_SIZE;
+
+   /**
+    * The policy to apply when the listener queue is full, one of DISCARD, DISCARD_OLDEST and CALLER_RUNS
+    */
+   private String listenerOverflowPolicy;
+
+   /**
+    * The directory into which the accesses to the cache are recorded, the accesses are not recorded if not set
+    */
+   private String traceDirectory;
+
+   /**
+    * The ratio of the keys whose accesses are recorded
+    */
+   private double traceSamplingRate = DEFAULT_TRACE_SAMPLING_RATE;
+
+   /**
+    * The maximum amount of local copies of the entries, the near cache is disabled if lower or equal to 0
+    */
+   private int nearCacheMaxSize;
+
+   /**
+    * The live time in seconds of the local copies of the entries
+    */
+   private long nearCacheLiveTime = DEFAULT_NEAR_CACHE_LIVE_TIME;
+
+   /**
+    * The directory into which the hottest entries are saved on shutdown, the entries are not saved if not set
+    */
+   private String snapshotDirectory;
+
+   /**
+    * The maximum amount of entries to save, the max size of the cache if lower or equal to 0
+    */
+   private int snapshotMaxEntries;
    /**
     * Returns the cache name
     *
@@ -228,6 +315,309 @@ public class ExoCacheConfig implements Cloneable
       this.avoidValueReplication = avoidValueReplication;
    }
 
+   /**
+    * Indicates whether the local cache should track the order of its entries thanks to
+    * striped buffers instead of a single lock.
+    *
+    * @return <code>true</code> if the buffered queue is used, <code>false</code> otherwise
+    */
+   public boolean isBufferedQueue()
+   {
+      return bufferedQueue;
+   }
+
+   /**
+    * Sets whether the local cache should track the order of its entries thanks to
+    * striped buffers instead of a single lock.
+    *
+    * @param bufferedQueue <code>true</code> to use the buffered queue, <code>false</code> otherwise
+    */
+   public void setBufferedQueue(boolean bufferedQueue)
+   {
+      this.bufferedQueue = bufferedQueue;
+   }
+
+   /**
+    * Indicates whether the local cache should remove the expired entries proactively thanks to
+    * a timer wheel instead of only when they are read or evicted.
+    *
+    * @return <code>true</code> if the active expiration is enabled, <code>false</code> otherwise
+    */
+   public boolean isActiveExpiration()
+   {
+      return activeExpiration;
+   }
+
+   /**
+    * Sets whether the local cache should remove the expired entries proactively thanks to
+    * a timer wheel instead of only when they are read or evicted.
+    *
+    * @param activeExpiration <code>true</code> to enable the active expiration, <code>false</code> otherwise
+    */
+   public void setActiveExpiration(boolean activeExpiration)
+   {
+      this.activeExpiration = activeExpiration;
+   }
+
+   /**
+    * Returns the maximum total weight of the entries allowed in the cache, typically in bytes.
+    *
+    * @return the max weight of the cache, a value lower or equal to 0 means that the cache is not bounded by weight
+    */
+   public long getMaxWeight()
+   {
+      return maxWeight;
+   }
+
+   /**
+    * Sets the maximum total weight of the entries allowed in the cache, typically in bytes.
+    *
+    * @param maxWeight the max weight of the cache
+    */
+   public void setMaxWeight(long maxWeight)
+   {
+      this.maxWeight = maxWeight;
+   }
+
+   /**
+    * Returns the full qualified name of the {@link Weigher} to use.
+    *
+    * @return the full qualified name of the weigher
+    */
+   public String getWeigher()
+   {
+      return weigher;
+   }
+
+   /**
+    * Sets the full qualified name of the {@link Weigher} to use, if not set and a max weight has been
+    * defined, the {@link SerializationWeigher} is used.
+    *
+    * @param weigher the full qualified name of the weigher
+    */
+   public void setWeigher(String weigher)
+   {
+      this.weigher = weigher;
+   }
+
+   /**
+    * Indicates whether the events of the local cache should be added to a bounded queue and delivered
+    * asynchronously to the listeners instead of being delivered by the thread accessing the cache.
+    *
+    * @return <code>true</code> if the events are delivered asynchronously, <code>false</code> otherwise
+    */
+   public boolean isAsyncListeners()
+   {
+      return asyncListeners;
+   }
+
+   /**
+    * Sets whether the events of the local cache should be added to a bounded queue and delivered
+    * asynchronously to the listeners instead of being delivered by the thread accessing the cache.
+    *
+    * @param asyncListeners <code>true</code> to deliver the events asynchronously, <code>false</code> otherwise
+    */
+   public void setAsyncListeners(boolean asyncListeners)
+   {
+      this.asyncListeners = asyncListeners;
+   }
+
+   /**
+    * Returns the maximum amount of events waiting to be delivered asynchronously to the listeners.
+    *
+    * @return the size of the listener queue
+    */
+   public int getListenerQueueSize()
+   {
+      return listenerQueueSize;
+   }
+
+   /**
+    * Sets the maximum amount of events waiting to be delivered asynchronously to the listeners, it is
+    * rounded up to a power of two.
+    *
+    * @param listenerQueueSize the size of the listener queue
+    */
+   public void setListenerQueueSize(int listenerQueueSize)
+   {
+      this.listenerQueueSize = listenerQueueSize;
+   }
+
+   /**
+    * Returns the policy to apply when the listener queue is full.
+    *
+    * @return one of DISCARD, DISCARD_OLDEST and CALLER_RUNS, DISCARD if not set
+    */
+   public String getListenerOverflowPolicy()
+   {
+      return listenerOverflowPolicy;
+   }
+
+   /**
+    * Sets the policy to apply when the listener queue is full: DISCARD drops the new event,
+    * DISCARD_OLDEST drops the oldest pending event and CALLER_RUNS delivers the new event from the
+    * thread accessing the cache.
+    *
+    * @param listenerOverflowPolicy the name of the policy
+    */
+   public void setListenerOverflowPolicy(String listenerOverflowPolicy)
+   {
+      this.listenerOverflowPolicy = listenerOverflowPolicy;
+   }
+
+   /**
+    * Returns the directory into which the accesses to the cache are recorded.
+    *
+    * @return the trace directory or <code>null</code> if the accesses are not recorded
+    */
+   public String getTraceDirectory()
+   {
+      return traceDirectory;
+   }
+
+   /**
+    * Sets the directory into which the accesses to the cache are recorded, the trace file of the cache is
+    * named after the region. The trace can then be replayed with the
+    * {@link org.exoplatform.services.cache.trace.CacheSimulator} to find the best size of the cache.
+    *
+    * @param traceDirectory the trace directory, <code>null</code> to disable the recording
+    */
+   public void setTraceDirectory(String traceDirectory)
+   {
+      this.traceDirectory = traceDirectory;
+   }
+
+   /**
+    * Returns the ratio of the keys whose accesses are recorded.
+    *
+    * @return the sampling rate, between 0 and 1
+    */
+   public double getTraceSamplingRate()
+   {
+      return traceSamplingRate;
+   }
+
+   /**
+    * Sets the ratio of the keys whose accesses are recorded, either all the accesses to a key are recorded or
+    * none of them.
+    *
+    * @param traceSamplingRate the sampling rate, greater than 0 and lower or equal to 1
+    */
+   public void setTraceSamplingRate(double traceSamplingRate)
+   {
+      this.traceSamplingRate = traceSamplingRate;
+   }
+
+   /**
+    * Returns the maximum amount of entries of which a local copy is kept.
+    *
+    * @return the size of the near cache, 0 if the near cache is disabled
+    */
+   public int getNearCacheMaxSize()
+   {
+      return nearCacheMaxSize;
+   }
+
+   /**
+    * Sets the maximum amount of entries of which a local copy is kept. If greater than 0, the cache is decorated
+    * with a {@link org.exoplatform.services.cache.invalidation.NearExoCache} so that the most recently used
+    * entries are read from the local memory, it is mostly useful for the replicated and distributed caches.
+    *
+    * @param nearCacheMaxSize the size of the near cache, 0 to disable it
+    */
+   public void setNearCacheMaxSize(int nearCacheMaxSize)
+   {
+      this.nearCacheMaxSize = nearCacheMaxSize;
+   }
+
+   /**
+    * Returns the live time of the local copies of the entries.
+    *
+    * @return the live time in seconds
+    */
+   public long getNearCacheLiveTime()
+   {
+      return nearCacheLiveTime;
+   }
+
+   /**
+    * Sets the live time of the local copies of the entries, it bounds how long a local copy can be stale if
+    * the cache does not notify the modifications made by the other cluster nodes.
+    *
+    * @param nearCacheLiveTime the live time in seconds, 0 or less if the local copies never expire
+    */
+   public void setNearCacheLiveTime(long nearCacheLiveTime)
+   {
+      this.nearCacheLiveTime = nearCacheLiveTime;
+   }
+
+   /**
+    * Returns the directory into which the hottest entries of the cache are saved on shutdown.
+    *
+    * @return the snapshot directory or <code>null</code> if the entries are not saved
+    */
+   public String getSnapshotDirectory()
+   {
+      return snapshotDirectory;
+   }
+
+   /**
+    * Sets the directory into which the hottest entries of the cache are saved when the cache service stops,
+    * the snapshot file is named after the region. The entries are loaded back in the background when the
+    * cache is created again, with the time to live that they had left, so that the cache does not start cold.
+    * Only the local FIFO caches support it, and the loaded entries may be stale if the data has been
+    * modified in the meantime.
+    *
+    * @param snapshotDirectory the snapshot directory, <code>null</code> to disable the snapshots
+    */
+   public void setSnapshotDirectory(String snapshotDirectory)
+   {
+      this.snapshotDirectory = snapshotDirectory;
+   }
+
+   /**
+    * Returns the maximum amount of entries to save into the snapshot.
+    *
+    * @return the maximum amount of entries, 0 or less for the max size of the cache
+    */
+   public int getSnapshotMaxEntries()
+   {
+      return snapshotMaxEntries;
+   }
+
+   /**
+    * Sets the maximum amount of entries to save into the snapshot, the most recently put entries are saved.
+    *
+    * @param snapshotMaxEntries the maximum amount of entries, 0 or less for the max size of the cache
+    */
+   public void setSnapshotMaxEntries(int snapshotMaxEntries)
+   {
+      this.snapshotMaxEntries = snapshotMaxEntries;
+   }
+
+   /**
+    * Creates the {@link Weigher} corresponding to this configuration.
+    *
+    * @return the weigher to use or <code>null</code> if neither a max weight nor a weigher has been defined
+    * @throws ExoCacheInitException if the weigher cannot be created
+    */
+   @SuppressWarnings("unchecked")
+   public <K extends Serializable, V> Weigher<K, V> createWeigher() throws ExoCacheInitException
+   {
+      if (weigher == null || weigher.length() == 0)
+      {
+         return maxWeight > 0 ? (Weigher<K, V>)new SerializationWeigher() : null;
+      }
+      try
+      {
+         return (Weigher<K, V>)ClassLoading.loadClass(weigher, this).newInstance();
+      }
+      catch (Exception e)//NOSONAR
+      {
+         throw new ExoCacheInitException("Cannot create instance of Weigher of type " + weigher, e);
+      }
+   }
+
    /**
     * @see java.lang.Object#clone()
     */
@@ -34,6 +34,20 @@ public class ExpireKeyStartWithSelector<K extends Serializable, V> implements Ca
       keyStartWith_ = keyStartWith;
    }
 
+   /**
+    * Gives the prefix of the keys selected by the given selector if it is an {@link ExpireKeyStartWithSelector}
+    * whose behavior has not been overridden, the {@link ExoCache} implementations use it to remove the selected
+    * entries thanks to {@link ExoCache#removeByPrefix(String)} instead of walking all the entries.
+    *
+    * @param selector the selector
+    * @return the prefix or <code>null</code> if the selector is not an {@link ExpireKeyStartWithSelector}
+    */
+   public static String getKeyStartWith(CachedObjectSelector<?, ?> selector)
+   {
+      return selector.getClass() == ExpireKeyStartWithSelector.class
+         ? ((ExpireKeyStartWithSelector<?, ?>)selector).keyStartWith_ : null;
+   }
+
    public boolean select(K key, ObjectCacheInfo<? extends V> ocinfo)
    {
       String skey = (String)key;
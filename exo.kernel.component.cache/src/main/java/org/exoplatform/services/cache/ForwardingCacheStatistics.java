@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+/**
+ * The statistics of a cache that records nothing by itself and forwards everything to other statistics, it is
+ * meant for the caches that decorate another cache.
+ *
+ * @version $Id$
+ */
+public abstract class ForwardingCacheStatistics extends CacheStatistics
+{
+
+   /**
+    * @param cache the cache whose statistics are exposed
+    */
+   protected ForwardingCacheStatistics(ExoCache<?, ?> cache)
+   {
+      super(cache);
+   }
+
+   /**
+    * @return the statistics to which the calls are forwarded
+    */
+   protected abstract CacheStatistics delegate();
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#startTimer()
+    */
+   @Override
+   public long startTimer()
+   {
+      return delegate().startTimer();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#recordHit(long)
+    */
+   @Override
+   public void recordHit(long start)
+   {
+      delegate().recordHit(start);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#recordMiss(long)
+    */
+   @Override
+   public void recordMiss(long start)
+   {
+      delegate().recordMiss(start);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#recordGets(int, int)
+    */
+   @Override
+   public void recordGets(int hitCount, int missCount)
+   {
+      delegate().recordGets(hitCount, missCount);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#recordPut(long)
+    */
+   @Override
+   public void recordPut(long start)
+   {
+      delegate().recordPut(start);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#recordPuts(int)
+    */
+   @Override
+   public void recordPuts(int count)
+   {
+      delegate().recordPuts(count);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#recordEviction()
+    */
+   @Override
+   public void recordEviction()
+   {
+      delegate().recordEviction();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#recordEvictions(int)
+    */
+   @Override
+   public void recordEvictions(int count)
+   {
+      delegate().recordEvictions(count);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#recordDroppedEvent()
+    */
+   @Override
+   public void recordDroppedEvent()
+   {
+      delegate().recordDroppedEvent();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#recordLoad(long)
+    */
+   @Override
+   public void recordLoad(long start)
+   {
+      delegate().recordLoad(start);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getHitCount()
+    */
+   @Override
+   public long getHitCount()
+   {
+      return delegate().getHitCount();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getMissCount()
+    */
+   @Override
+   public long getMissCount()
+   {
+      return delegate().getMissCount();
+   }
+
+   /**
+    * Computed from {@link #getHitCount()} and {@link #getMissCount()} so that the subclasses only have to
+    * override them.
+    *
+    * @see org.exoplatform.services.cache.CacheStatistics#getHitRatio()
+    */
+   @Override
+   public double getHitRatio()
+   {
+      long hitCount = getHitCount();
+      long total = hitCount + getMissCount();
+      return total == 0 ? 0 : (double)hitCount / total;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getPutCount()
+    */
+   @Override
+   public long getPutCount()
+   {
+      return delegate().getPutCount();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getEvictionCount()
+    */
+   @Override
+   public long getEvictionCount()
+   {
+      return delegate().getEvictionCount();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getDroppedEventCount()
+    */
+   @Override
+   public long getDroppedEventCount()
+   {
+      return delegate().getDroppedEventCount();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getLoadCount()
+    */
+   @Override
+   public long getLoadCount()
+   {
+      return delegate().getLoadCount();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getGetTimeP50()
+    */
+   @Override
+   public double getGetTimeP50()
+   {
+      return delegate().getGetTimeP50();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getGetTimeP99()
+    */
+   @Override
+   public double getGetTimeP99()
+   {
+      return delegate().getGetTimeP99();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getPutTimeP50()
+    */
+   @Override
+   public double getPutTimeP50()
+   {
+      return delegate().getPutTimeP50();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getPutTimeP99()
+    */
+   @Override
+   public double getPutTimeP99()
+   {
+      return delegate().getPutTimeP99();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getLoadTimeP50()
+    */
+   @Override
+   public double getLoadTimeP50()
+   {
+      return delegate().getLoadTimeP50();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#getLoadTimeP99()
+    */
+   @Override
+   public double getLoadTimeP99()
+   {
+      return delegate().getLoadTimeP99();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheStatistics#reset()
+    */
+   @Override
+   public void reset()
+   {
+      delegate().reset();
+   }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A cursor fed by an iterator over entries, typically the weakly consistent iterator of a concurrent map,
+ * it cannot be split. The entries whose key or value is null are skipped.
+ *
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @version $Id$
+ */
+public class IteratorCacheCursor<K extends Serializable, V> extends AbstractCacheCursor<K, V>
+{
+
+   private final Iterator<? extends Map.Entry<? extends K, ? extends V>> iterator;
+
+   /**
+    * @param chunkSize the maximum amount of entries of a chunk
+    * @param iterator the iterator over the entries to return
+    * @throws IllegalArgumentException if the chunk size is not positive
+    */
+   public IteratorCacheCursor(int chunkSize, Iterator<? extends Map.Entry<? extends K, ? extends V>> iterator)
+      throws IllegalArgumentException
+   {
+      super(chunkSize);
+      this.iterator = iterator;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   protected boolean fetch(Map<K, V> chunk, int max)
+   {
+      while (chunk.size() < max && iterator.hasNext())
+      {
+         Map.Entry<? extends K, ? extends V> entry = iterator.next();
+         K key = entry.getKey();
+         V value = entry.getValue();
+         if (key != null && value != null)
+         {
+            chunk.put(key, value);
+         }
+      }
+      return iterator.hasNext();
+   }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds made of a fixed amount of buckets. Each power of two is split
+ * into four buckets of the same width, so that the percentiles are estimated with an error of at most
+ * 12.5% whatever the magnitude of the durations. The durations longer than 2^40 nanoseconds (about 18
+ * minutes) all go to the last bucket.
+ *
+ * @version $Id$
+ */
+class LatencyHistogram
+{
+
+   private static final int SUB_BUCKET_BITS = 2;
+
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   private static final int MAX_EXPONENT = 40;
+
+   /**
+    * The buckets of the powers of two up to 2^39 plus the overflow bucket
+    */
+   private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + 1;
+
+   private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+   /**
+    * Adds the given duration to the histogram
+    * @param nanos the duration in nanoseconds
+    */
+   void record(long nanos)
+   {
+      buckets.incrementAndGet(indexOf(nanos));
+   }
+
+   static int indexOf(long nanos)
+   {
+      if (nanos < SUB_BUCKETS)
+      {
+         return nanos < 0 ? 0 : (int)nanos;
+      }
+      int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+      if (exponent >= MAX_EXPONENT)
+      {
+         return BUCKETS - 1;
+      }
+      int subBucket = (int)(nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+   }
+
+   /**
+    * Gives the smallest duration that goes to the given bucket
+    */
+   static long lowerBoundOf(int index)
+   {
+      if (index < SUB_BUCKETS)
+      {
+         return index;
+      }
+      int shift = index / SUB_BUCKETS - 1;
+      return (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+   }
+
+   /**
+    * Gives the amount of durations recorded so far
+    */
+   long count()
+   {
+      long count = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         count += buckets.get(i);
+      }
+      return count;
+   }
+
+   /**
+    * Estimates the duration under which the given fraction of the recorded durations are.
+    * @param fraction the fraction of the durations, between 0 and 1
+    * @return the estimated duration in nanoseconds, 0 if nothing has been recorded
+    */
+   long percentile(double fraction)
+   {
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         counts[i] = buckets.get(i);
+         total += counts[i];
+      }
+      if (total == 0)
+      {
+         return 0;
+      }
+      long rank = Math.max(1, (long)Math.ceil(fraction * total));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         seen += counts[i];
+         if (seen >= rank)
+         {
+            // We take the middle of the bucket
+            long lowerBound = lowerBoundOf(i);
+            long upperBound = i == BUCKETS - 1 ? lowerBound : lowerBoundOf(i + 1) - 1;
+            return lowerBound + (upperBound - lowerBound) / 2;
+         }
+      }
+      return lowerBoundOf(BUCKETS - 1);
+   }
+
+   void reset()
+   {
+      for (int i = 0; i < BUCKETS; i++)
+      {
+         buckets.set(i, 0);
+      }
+   }
+}
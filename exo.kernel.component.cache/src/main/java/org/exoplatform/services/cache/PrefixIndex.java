@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A secondary index of the cache keys that are {@link String}, sorted so that all the keys starting with
+ * a given prefix can be found in a time that only depends on the amount of matching keys. It is meant to
+ * be maintained by the {@link ExoCache} implementations to support {@link ExoCache#removeByPrefix(String)}.
+ * <p>
+ * Each key is associated to the reference of its entry, so that a removal that races with a newer put of
+ * the same key can be made conditional and never drops the newer entry from the index.
+ *
+ * @param <R> the type of the entry references
+ * @version $Id$
+ */
+public class PrefixIndex<R>
+{
+
+   private final ConcurrentSkipListMap<String, R> entries = new ConcurrentSkipListMap<String, R>();
+
+   /**
+    * Indexes the given key, the key is ignored if it is not a {@link String}.
+    *
+    * @param key the cache key
+    * @param ref the reference of the entry
+    */
+   public void add(Object key, R ref)
+   {
+      if (key instanceof String)
+      {
+         entries.put((String)key, ref);
+      }
+   }
+
+   /**
+    * Indexes the given key unless it is already indexed, the key is ignored if it is not a {@link String}.
+    *
+    * @param key the cache key
+    * @param ref the reference of the entry
+    */
+   public void addIfAbsent(Object key, R ref)
+   {
+      if (key instanceof String)
+      {
+         entries.putIfAbsent((String)key, ref);
+      }
+   }
+
+   /**
+    * Removes the given key from the index only if it still refers to the given entry.
+    *
+    * @param key the cache key
+    * @param ref the reference of the removed entry
+    * @return <code>true</code> if the key has been removed from the index
+    */
+   public boolean remove(Object key, R ref)
+   {
+      return key instanceof String && entries.remove(key, ref);
+   }
+
+   /**
+    * Gives a live view of the indexed keys that start with the given prefix, in ascending order. The view
+    * can be iterated while the index is modified.
+    *
+    * @param prefix the prefix of the keys
+    * @return the keys starting with the prefix and the reference of their entry
+    */
+   public Map<String, R> getEntries(String prefix)
+   {
+      String upperBound = upperBound(prefix);
+      ConcurrentNavigableMap<String, R> view = entries.tailMap(prefix, true);
+      return upperBound == null ? view : view.headMap(upperBound, false);
+   }
+
+   /**
+    * Returns the amount of indexed keys.
+    */
+   public int size()
+   {
+      return entries.size();
+   }
+
+   /**
+    * Removes all the keys from the index.
+    */
+   public void clear()
+   {
+      entries.clear();
+   }
+
+   /**
+    * Computes the smallest string that is greater than all the strings starting with the given prefix.
+    *
+    * @return the upper bound or <code>null</code> if there is none
+    */
+   static String upperBound(String prefix)
+   {
+      int length = prefix.length();
+      while (length > 0 && prefix.charAt(length - 1) == Character.MAX_VALUE)
+      {
+         length--;
+      }
+      if (length == 0)
+      {
+         return null;
+      }
+      char last = prefix.charAt(length - 1);
+      return prefix.substring(0, length - 1) + (char)(last + 1);
+   }
+}
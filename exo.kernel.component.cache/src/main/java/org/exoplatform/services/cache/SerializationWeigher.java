@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * The default {@link Weigher} that uses the size in bytes of the serialized form of the key and the value.
+ * It is accurate but costly as every put requires a serialization, a dedicated weigher should be preferred
+ * for the regions with a high write rate. The values that cannot be serialized weigh 1.
+ *
+ * @version $Id$
+ */
+public class SerializationWeigher implements Weigher<Serializable, Object>
+{
+
+   /**
+    * Logger.
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.cache.SerializationWeigher");
+
+   /**
+    * {@inheritDoc}
+    */
+   public int weigh(Serializable key, Object value)
+   {
+      CountingOutputStream out = new CountingOutputStream();
+      try
+      {
+         ObjectOutputStream oos = new ObjectOutputStream(out);
+         oos.writeObject(key);
+         oos.writeObject(value);
+         oos.close();
+         return out.count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)out.count;
+      }
+      catch (IOException e)
+      {
+         if (LOG.isTraceEnabled())
+         {
+            LOG.trace("Cannot serialize the entry with the key " + key + ": " + e.getMessage());
+         }
+         return 1;
+      }
+   }
+
+   /**
+    * An output stream that only counts the written bytes
+    */
+   private static class CountingOutputStream extends OutputStream
+   {
+      long count;
+
+      @Override
+      public void write(int b)
+      {
+         count++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len)
+      {
+         count += len;
+      }
+   }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads its increments over several cells so that the threads updating it concurrently
+ * do not all compete for the same cache line. Each thread always updates the same cell chosen from its id,
+ * the value of the counter is the sum of all the cells.
+ *
+ * @version $Id$
+ */
+class StripedCounter
+{
+
+   /**
+    * The amount of longs between two cells, so that each cell sits on its own cache line
+    */
+   private static final int PADDING = 8;
+
+   /**
+    * The amount of cells, a power of two close to the amount of processors
+    */
+   static final int STRIPES;
+
+   static
+   {
+      int processors = Math.min(Runtime.getRuntime().availableProcessors(), 32);
+      int stripes = 1;
+      while (stripes < processors)
+      {
+         stripes <<= 1;
+      }
+      STRIPES = stripes;
+   }
+
+   private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+   /**
+    * Gives the index of the cell of the current thread
+    */
+   static int stripe()
+   {
+      long id = Thread.currentThread().getId();
+      int hash = (int)(id ^ (id >>> 32)) * 0x9e3779b9;
+      return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+   }
+
+   void increment()
+   {
+      cells.incrementAndGet(stripe() * PADDING);
+   }
+
+   void add(long delta)
+   {
+      cells.addAndGet(stripe() * PADDING, delta);
+   }
+
+   /**
+    * Gives the sum of all the cells, the increments that happen concurrently may be missed.
+    */
+   long sum()
+   {
+      long sum = 0;
+      for (int i = 0; i < STRIPES; i++)
+      {
+         sum += cells.get(i * PADDING);
+      }
+      return sum;
+   }
+
+   void reset()
+   {
+      for (int i = 0; i < STRIPES; i++)
+      {
+         cells.set(i * PADDING, 0);
+      }
+   }
+}
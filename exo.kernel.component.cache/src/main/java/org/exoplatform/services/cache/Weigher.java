@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache;
+
+import java.io.Serializable;
+
+/**
+ * A weigher computes the weight of the cache entries, the weight is used to bound the cache
+ * thanks to {@link ExoCacheConfig#getMaxWeight()} instead of the amount of entries.
+ * The weight of an entry is computed once when it is put into the cache, so it must not change over time.
+ *
+ * @param <K> the type of keys maintained by the cache
+ * @param <V> the type of cached values
+ * @version $Id$
+ * @LevelAPI Platform
+ */
+public interface Weigher<K extends Serializable, V>
+{
+
+   /**
+    * Returns the weight of the given entry, typically its approximate size in bytes.
+    *
+    * @param key the entry key
+    * @param value the entry value
+    * @return the weight of the entry, it must not be negative
+    */
+   int weigh(K key, V value);
+}
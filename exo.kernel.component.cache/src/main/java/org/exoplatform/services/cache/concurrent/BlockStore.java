@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stores byte arrays into direct {@link ByteBuffer} slabs. The slabs are split into blocks of the same size,
+ * a value is stored into as many blocks as needed which don't need to be contiguous, so that any freed block
+ * can be reused whatever the size of the next values. The slabs are allocated lazily and kept until the store
+ * is garbage collected.
+ * <p>
+ * This class is not thread safe, the writes must be guarded by the caller, the reads can be
+ * concurrent as long as no write happens at the same time.
+ *
+ * @version $Id$
+ */
+class BlockStore
+{
+
+   /**
+    * The size in bytes of a block
+    */
+   static final int BLOCK_SIZE = 256;
+
+   /**
+    * The maximum size in bytes of a slab
+    */
+   private static final int MAX_SLAB_SIZE = 1024 * 1024;
+
+   private final int blocksPerSlab;
+
+   private final int maxBlocks;
+
+   private final ByteBuffer[] slabs;
+
+   private int[] freeBlocks = new int[64];
+
+   private int freeCount;
+
+   /**
+    * The amount of blocks that have been used at least once
+    */
+   private int allocatedBlocks;
+
+   /**
+    * @param capacity the maximum amount of bytes of off-heap memory to use
+    */
+   BlockStore(long capacity)
+   {
+      this.maxBlocks = (int)Math.min(Math.max(capacity, 0) / BLOCK_SIZE, Integer.MAX_VALUE);
+      this.blocksPerSlab = Math.max(1, Math.min(MAX_SLAB_SIZE / BLOCK_SIZE, maxBlocks));
+      this.slabs = new ByteBuffer[(maxBlocks + blocksPerSlab - 1) / blocksPerSlab];
+   }
+
+   static int blocksFor(int length)
+   {
+      return Math.max(1, (length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+   }
+
+   int getMaxBlocks()
+   {
+      return maxBlocks;
+   }
+
+   int getAvailableBlocks()
+   {
+      return freeCount + maxBlocks - allocatedBlocks;
+   }
+
+   /**
+    * Allocates the blocks needed to store the given amount of bytes.
+    *
+    * @param length the amount of bytes to store
+    * @return the allocated blocks or <code>null</code> if there are not enough available blocks
+    */
+   int[] allocate(int length)
+   {
+      int count = blocksFor(length);
+      if (count > getAvailableBlocks())
+      {
+         return null;
+      }
+      int[] blocks = new int[count];
+      for (int i = 0; i < count; i++)
+      {
+         int block;
+         if (freeCount > 0)
+         {
+            block = freeBlocks[--freeCount];
+         }
+         else
+         {
+            block = allocatedBlocks++;
+            int slab = block / blocksPerSlab;
+            if (slabs[slab] == null)
+            {
+               int slabBlocks = Math.min(blocksPerSlab, maxBlocks - slab * blocksPerSlab);
+               slabs[slab] = ByteBuffer.allocateDirect(slabBlocks * BLOCK_SIZE);
+            }
+         }
+         blocks[i] = block;
+      }
+      return blocks;
+   }
+
+   /**
+    * Releases the given blocks so that they can be reused.
+    */
+   void free(int[] blocks)
+   {
+      if (freeCount + blocks.length > freeBlocks.length)
+      {
+         int[] newFreeBlocks = new int[Math.max(freeBlocks.length * 2, freeCount + blocks.length)];
+         System.arraycopy(freeBlocks, 0, newFreeBlocks, 0, freeCount);
+         freeBlocks = newFreeBlocks;
+      }
+      System.arraycopy(blocks, 0, freeBlocks, freeCount, blocks.length);
+      freeCount += blocks.length;
+   }
+
+   /**
+    * Releases all the blocks, the slabs are kept.
+    */
+   void reset()
+   {
+      freeCount = 0;
+      allocatedBlocks = 0;
+   }
+
+   void write(int[] blocks, byte[] data)
+   {
+      int position = 0;
+      for (int i = 0; i < blocks.length && position < data.length; i++)
+      {
+         int length = Math.min(BLOCK_SIZE, data.length - position);
+         ByteBuffer buffer = bufferOf(blocks[i]);
+         buffer.put(data, position, length);
+         position += length;
+      }
+   }
+
+   byte[] read(int[] blocks, int length)
+   {
+      byte[] data = new byte[length];
+      int position = 0;
+      for (int i = 0; i < blocks.length && position < length; i++)
+      {
+         int size = Math.min(BLOCK_SIZE, length - position);
+         ByteBuffer buffer = bufferOf(blocks[i]);
+         buffer.get(data, position, size);
+         position += size;
+      }
+      return data;
+   }
+
+   /**
+    * Returns a view of the slab positioned at the beginning of the given block, a view is used
+    * since the position of a buffer cannot be shared between threads
+    */
+   private ByteBuffer bufferOf(int block)
+   {
+      ByteBuffer buffer = slabs[block / blocksPerSlab].duplicate();
+      buffer.position((block % blocksPerSlab) * BLOCK_SIZE);
+      return buffer;
+   }
+}
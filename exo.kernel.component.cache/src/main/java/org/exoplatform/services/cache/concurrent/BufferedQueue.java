@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import org.exoplatform.services.log.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link Queue} implementation in which the writers never wait for each other. The insertions and the
+ * removals are first recorded into striped lock-free buffers, then they are applied by batches to the
+ * underlying linked list by the thread that manages to acquire the drain lock, the other threads simply go on.
+ * <p>
+ * The removal of an item is claimed atomically at call time so that {@link #remove(Item)} can still tell
+ * which thread removed it, only the unlinking is deferred to the next drain. Within a given thread the
+ * insertion order is preserved, across threads it is only approximated.
+ *
+ * @version $Id$
+ */
+public class BufferedQueue<I extends Item> implements Queue<I>
+{
+
+   /**
+    * The total amount of stripes, it must be a power of two
+    */
+   private static final int STRIPES;
+
+   static
+   {
+      int stripes = 1;
+      int processors = Runtime.getRuntime().availableProcessors();
+      while (stripes < processors && stripes < 64)
+      {
+         stripes <<= 1;
+      }
+      STRIPES = stripes;
+   }
+
+   /**
+    * The amount of pending events in a stripe from which the writer tries to drain the buffers
+    */
+   private static final int DRAIN_THRESHOLD = 64;
+
+   private final Log log;
+
+   private final Item head;
+
+   private final Item tail;
+
+   /**
+    * The amount of items that have been added and not yet claimed by a removal
+    */
+   private final AtomicInteger queueSize = new AtomicInteger();
+
+   private final Buffer[] buffers;
+
+   private final ReentrantLock drainLock = new ReentrantLock();
+
+   public BufferedQueue(Log log)
+   {
+      this.log = log;
+      this.head = new Item();
+      this.tail = new Item();
+      this.buffers = new Buffer[STRIPES];
+      for (int i = 0; i < buffers.length; i++)
+      {
+         buffers[i] = new Buffer();
+      }
+
+      //
+      head.next = tail;
+      tail.previous = head;
+
+      //
+      if (isTraceEnabled())
+      {
+         trace("Queue initialized with first=" + head.serial + " and last=" + tail.serial + " and " + STRIPES
+            + " stripes");
+      }
+   }
+
+   private boolean isTraceEnabled()
+   {
+      return log != null && log.isTraceEnabled();
+   }
+
+   private void trace(String message)
+   {
+      log.trace(message + " [" + Thread.currentThread().getName() + "]");
+   }
+
+   public int size()
+   {
+      return queueSize.get();
+   }
+
+   public void assertConsistency()
+   {
+      drainLock.lock();
+      try
+      {
+         drainBuffers();
+         int cachedQueueSize = queueSize.get();
+         int effectiveQueueSize = 0;
+         for (Item item = head.next; item != tail; item = item.next) //NOSONAR
+         {
+            effectiveQueueSize++;
+         }
+
+         if (effectiveQueueSize != cachedQueueSize)
+         {
+            throw new AssertionError("The cached queue size " + cachedQueueSize
+               + "  is different from the effective queue size" + effectiveQueueSize);
+         }
+      }
+      finally
+      {
+         drainLock.unlock();
+      }
+   }
+
+   /**
+    * Attempt to remove an item from the queue. The item is claimed immediately, it will be
+    * unlinked at the next drain.
+    *
+    * @param item the item to remove
+    * @return true if the item was removed by this thread
+    */
+   public boolean remove(I item)
+   {
+      if (!item.claim())
+      {
+         if (isTraceEnabled())
+         {
+            trace("Attempt to remove item=" + item.serial + " concurrently removed");
+         }
+         return false;
+      }
+      int newSize = queueSize.decrementAndGet();
+      Buffer buffer = getBuffer();
+      buffer.removals.offer(item);
+      if (isTraceEnabled())
+      {
+         trace("Claimed item=" + item.serial + " for removal with queue=" + newSize);
+      }
+      afterWrite(buffer);
+      return true;
+   }
+
+   /**
+    * Add the item to the head of the list, the item is actually linked at the next drain.
+    *
+    * @param item the item to add
+    */
+   public void add(I item)
+   {
+      int newSize = queueSize.incrementAndGet();
+      Buffer buffer = getBuffer();
+      buffer.additions.offer(item);
+      if (isTraceEnabled())
+      {
+         trace("Recorded item=" + item.serial + " for addition with queue=" + newSize);
+      }
+      afterWrite(buffer);
+   }
+
+   /**
+    * Attempt to trim the queue. Trim will occur if no other thread is already draining the buffers
+    * and the queue size is greater than the provided size.
+    *
+    * @param size the wanted size
+    * @return the list of evicted items
+    */
+   @SuppressWarnings("unchecked")
+   public ArrayList<I> trim(int size)
+   {
+      if (!drainLock.tryLock())
+      {
+         // Another thread is already applying the pending events
+         return null;
+      }
+      try
+      {
+         drainBuffers();
+         if (queueSize.get() > size)
+         {
+            ArrayList<I> evictedItems = new ArrayList<I>(queueSize.get() - size);
+            while (queueSize.get() > size)
+            {
+               Item last = tail.previous;
+               if (last == head)
+               {
+                  // The remaining items have been recorded after the drain
+                  break;
+               }
+               unlink(last);
+               if (last.claim())
+               {
+                  queueSize.decrementAndGet();
+                  evictedItems.add((I)last);
+               }
+            }
+            return evictedItems;
+         }
+      }
+      finally
+      {
+         drainLock.unlock();
+      }
+
+      //
+      return null;
+   }
+
+   private Buffer getBuffer()
+   {
+      return buffers[(int)Thread.currentThread().getId() & (STRIPES - 1)];
+   }
+
+   /**
+    * Drains the buffers if the given stripe has too many pending events and if no other thread
+    * is already doing it
+    */
+   private void afterWrite(Buffer buffer)
+   {
+      if (buffer.pending.incrementAndGet() >= DRAIN_THRESHOLD && drainLock.tryLock())
+      {
+         try
+         {
+            drainBuffers();
+         }
+         finally
+         {
+            drainLock.unlock();
+         }
+      }
+   }
+
+   /**
+    * Applies all the pending events to the linked list, the drain lock must be held
+    */
+   private void drainBuffers()
+   {
+      for (int i = 0; i < buffers.length; i++)
+      {
+         Buffer buffer = buffers[i];
+         int drained = 0;
+         Item item;
+         while ((item = buffer.additions.poll()) != null)
+         {
+            drained++;
+            if (item.isClaimed())
+            {
+               // Removed before being linked
+               continue;
+            }
+            Item next = head.next;
+            item.next = next;
+            next.previous = item;
+            head.next = item;
+            item.previous = head;
+         }
+         while ((item = buffer.removals.poll()) != null)
+         {
+            drained++;
+            // If not linked yet, the addition will be skipped since the item is claimed
+            unlink(item);
+         }
+         if (drained > 0)
+         {
+            buffer.pending.addAndGet(-drained);
+         }
+      }
+   }
+
+   private void unlink(Item item)
+   {
+      Item previous = item.previous;
+      Item next = item.next;
+      if (previous != null && next != null)
+      {
+         previous.next = next;
+         next.previous = previous;
+         item.previous = null;
+         item.next = null;
+         if (isTraceEnabled())
+         {
+            trace("Unlinked item=" + item.serial + " with previous=" + previous.serial + " and next=" + next.serial);
+         }
+      }
+   }
+
+   /**
+    * The buffers of a stripe
+    */
+   private static class Buffer
+   {
+      final ConcurrentLinkedQueue<Item> additions = new ConcurrentLinkedQueue<Item>();
+
+      final ConcurrentLinkedQueue<Item> removals = new ConcurrentLinkedQueue<Item>();
+
+      final AtomicInteger pending = new AtomicInteger();
+   }
+}
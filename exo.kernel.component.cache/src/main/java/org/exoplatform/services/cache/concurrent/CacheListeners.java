@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheStatistics;
+import org.exoplatform.services.cache.ExoCache;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The listeners of a local cache, the events are either delivered by the thread accessing the cache or added
+ * to a {@link ListenerQueue} when the cache has been configured to deliver them asynchronously.
+ *
+ * @version $Id$
+ */
+class CacheListeners<K, V>
+{
+
+   private final CopyOnWriteArrayList<ListenerContext<K, V>> listeners =
+      new CopyOnWriteArrayList<ListenerContext<K, V>>();
+
+   private final ExoCache<?, ?> cache;
+
+   private final CacheStatistics statistics;
+
+   private volatile ListenerQueue<K, V> queue;
+
+   /**
+    * @param cache the cache whose events are delivered
+    * @param statistics the statistics into which the dropped events are recorded
+    */
+   CacheListeners(ExoCache<?, ?> cache, CacheStatistics statistics)
+   {
+      this.cache = cache;
+      this.statistics = statistics;
+   }
+
+   void add(CacheListener<? super K, ? super V> listener)
+   {
+      if (listener == null)
+      {
+         throw new IllegalArgumentException("The listener cannot be null");
+      }
+      listeners.add(new ListenerContext<K, V>(listener, cache));
+   }
+
+   boolean isEmpty()
+   {
+      return listeners.isEmpty();
+   }
+
+   /**
+    * @see ListenerQueueSupport#setListenerQueue(int, ListenerOverflowPolicy)
+    */
+   void setQueue(int queueSize, ListenerOverflowPolicy policy)
+   {
+      if (queueSize <= 0)
+      {
+         queue = null;
+      }
+      else
+      {
+         ListenerOverflowPolicy overflowPolicy = policy == null ? ListenerOverflowPolicy.DISCARD : policy;
+         queue = new ListenerQueue<K, V>(listeners, queueSize, overflowPolicy, statistics);
+      }
+   }
+
+   /**
+    * @see ListenerQueueSupport#getListenerQueueSize()
+    */
+   int getQueueSize()
+   {
+      ListenerQueue<K, V> queue = this.queue;
+      return queue == null ? 0 : queue.getCapacity();
+   }
+
+   void onExpire(K key, V obj)
+   {
+      if (!listeners.isEmpty())
+      {
+         ListenerQueue<K, V> queue = this.queue;
+         if (queue != null)
+         {
+            queue.onExpire(key, obj);
+            return;
+         }
+         for (ListenerContext<K, V> context : listeners)
+            context.onExpire(key, obj);
+      }
+   }
+
+   void onRemove(K key, V obj)
+   {
+      if (!listeners.isEmpty())
+      {
+         ListenerQueue<K, V> queue = this.queue;
+         if (queue != null)
+         {
+            queue.onRemove(key, obj);
+            return;
+         }
+         for (ListenerContext<K, V> context : listeners)
+            context.onRemove(key, obj);
+      }
+   }
+
+   void onPut(K key, V obj)
+   {
+      if (!listeners.isEmpty())
+      {
+         ListenerQueue<K, V> queue = this.queue;
+         if (queue != null)
+         {
+            queue.onPut(key, obj);
+            return;
+         }
+         for (ListenerContext<K, V> context : listeners)
+            context.onPut(key, obj);
+      }
+   }
+
+   void onGet(K key, V obj)
+   {
+      if (!listeners.isEmpty())
+      {
+         ListenerQueue<K, V> queue = this.queue;
+         if (queue != null)
+         {
+            queue.onGet(key, obj);
+            return;
+         }
+         for (ListenerContext<K, V> context : listeners)
+            context.onGet(key, obj);
+      }
+   }
+
+   void onClearCache()
+   {
+      if (!listeners.isEmpty())
+      {
+         ListenerQueue<K, V> queue = this.queue;
+         if (queue != null)
+         {
+            queue.onClearCache();
+            return;
+         }
+         for (ListenerContext<K, V> context : listeners)
+            context.onClearCache();
+      }
+   }
+}
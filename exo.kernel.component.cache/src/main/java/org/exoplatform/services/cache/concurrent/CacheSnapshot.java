@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Saves the hottest entries of a {@link ConcurrentFIFOExoCache} into a file and loads them back, so that the
+ * cache does not start cold after a restart. As a FIFO cache does not track the accesses, the hottest entries
+ * are the most recently put ones, which are also the last ones that the cache would evict.
+ * <p>
+ * The file starts with a header made of a magic number and a version, followed by one record per entry made of
+ * the length of the record, the remaining time to live in milliseconds when the snapshot was taken (-1 if the
+ * entry never expires) and the serialized key and value. The entries are written from the oldest to the most
+ * recent one so that the loaded cache keeps the same FIFO order. The file is written sequentially through a
+ * {@link FileChannel} into a temporary file which is renamed once complete.
+ *
+ * @version $Id$
+ */
+class CacheSnapshot
+{
+
+   private static final int MAGIC = 0x45584f53;
+
+   private static final int VERSION = 1;
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private static final Comparator<ObjectRef<?, ?>> BY_SERIAL = new Comparator<ObjectRef<?, ?>>()
+   {
+      public int compare(ObjectRef<?, ?> ref1, ObjectRef<?, ?> ref2)
+      {
+         return ref1.serial < ref2.serial ? -1 : (ref1.serial == ref2.serial ? 0 : 1);
+      }
+   };
+
+   private CacheSnapshot()
+   {
+   }
+
+   /**
+    * Writes the most recently put valid entries of the given cache into the given file.
+    *
+    * @return the amount of entries written
+    */
+   static <K extends Serializable, V> int save(ConcurrentFIFOExoCache<K, V> cache, File file, int maxEntries)
+      throws IOException
+   {
+      List<ObjectRef<K, V>> refs = hottest(cache.getEntries().values(), maxEntries);
+      File tmp = new File(file.getPath() + ".tmp");
+      int count = 0;
+      FileOutputStream out = new FileOutputStream(tmp);
+      try
+      {
+         FileChannel channel = out.getChannel();
+         ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+         buffer.putInt(MAGIC).putInt(VERSION);
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         long now = System.currentTimeMillis();
+         for (int i = 0, length = refs.size(); i < length; i++)
+         {
+            ObjectRef<K, V> ref = refs.get(i);
+            long liveTime = ref.expirationTime == Long.MAX_VALUE ? -1 : ref.expirationTime - now;
+            V value = ref.getObject();
+            if (liveTime == 0 || liveTime < -1 || value == null)
+            {
+               continue;
+            }
+            bytes.reset();
+            try
+            {
+               ObjectOutputStream oos = new ObjectOutputStream(bytes);
+               oos.writeObject(ref.name);
+               oos.writeObject(value);
+               oos.close();
+            }
+            catch (NotSerializableException e)
+            {
+               // The entry is skipped
+               continue;
+            }
+            byte[] data = bytes.toByteArray();
+            if (buffer.remaining() < 12 + data.length)
+            {
+               write(channel, buffer);
+            }
+            buffer.putInt(8 + data.length).putLong(liveTime);
+            if (buffer.remaining() >= data.length)
+            {
+               buffer.put(data);
+            }
+            else
+            {
+               write(channel, buffer);
+               ByteBuffer wrapped = ByteBuffer.wrap(data);
+               while (wrapped.hasRemaining())
+               {
+                  channel.write(wrapped);
+               }
+            }
+            count++;
+         }
+         write(channel, buffer);
+         channel.force(false);
+      }
+      finally
+      {
+         out.close();
+      }
+      if (file.exists() && !file.delete() || !tmp.renameTo(file))
+      {
+         tmp.delete();
+         throw new IOException("Cannot rename " + tmp + " to " + file);
+      }
+      return count;
+   }
+
+   /**
+    * Puts the entries of the given snapshot file into the given cache with their remaining time to live, the
+    * keys that are already in the cache are skipped since their value is more recent.
+    *
+    * @return the amount of entries loaded
+    */
+   @SuppressWarnings("unchecked")
+   static <K extends Serializable, V> int load(ConcurrentFIFOExoCache<K, V> cache, File file) throws IOException
+   {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+      try
+      {
+         if (in.readInt() != MAGIC || in.readInt() != VERSION)
+         {
+            throw new IOException("The file " + file + " is not a cache snapshot");
+         }
+         int count = 0;
+         while (true)
+         {
+            int length;
+            try
+            {
+               length = in.readInt();
+            }
+            catch (EOFException e)
+            {
+               return count;
+            }
+            long liveTime = in.readLong();
+            byte[] data = new byte[length - 8];
+            in.readFully(data);
+            K key;
+            V value;
+            try
+            {
+               ObjectInputStream ois = new OffHeapExoCache.ContextObjectInputStream(new ByteArrayInputStream(data));
+               key = (K)ois.readObject();
+               value = (V)ois.readObject();
+            }
+            catch (ClassNotFoundException e)
+            {
+               // The entry is skipped
+               continue;
+            }
+            if (cache.putIfAbsent(key, value, liveTime))
+            {
+               count++;
+            }
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   /**
+    * Gives the most recently put valid references in the order in which they were put.
+    */
+   private static <K extends Serializable, V> List<ObjectRef<K, V>> hottest(Iterable<ObjectRef<K, V>> refs,
+      int maxEntries)
+   {
+      PriorityQueue<ObjectRef<K, V>> queue = new PriorityQueue<ObjectRef<K, V>>(Math.max(maxEntries, 1), BY_SERIAL);
+      for (ObjectRef<K, V> ref : refs)
+      {
+         if (!ref.isValid())
+         {
+            continue;
+         }
+         queue.add(ref);
+         if (queue.size() > maxEntries)
+         {
+            // The oldest reference is dropped
+            queue.poll();
+         }
+      }
+      List<ObjectRef<K, V>> result = new ArrayList<ObjectRef<K, V>>(queue);
+      Collections.sort(result, BY_SERIAL);
+      return result;
+   }
+
+   private static void write(FileChannel channel, ByteBuffer buffer) throws IOException
+   {
+      buffer.flip();
+      while (buffer.hasRemaining())
+      {
+         channel.write(buffer);
+      }
+      buffer.clear();
+   }
+}
@@ -18,11 +18,18 @@
  */
 package org.exoplatform.services.cache.concurrent;
 
+import org.exoplatform.services.cache.PrefixIndex;
+import org.exoplatform.services.cache.Weigher;
 import org.exoplatform.services.log.Log;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Really the cache state (we need it because of the clear cache consistency).
@@ -40,12 +47,40 @@ class CacheState<K extends Serializable, V>
 
    final Queue<ObjectRef<K, V>> queue;
 
+   /**
+    * The total weight of the entries of the queue
+    */
+   final AtomicLong weight = new AtomicLong();
+
+   /**
+    * The timer wheel used to expire the entries proactively
+    */
+   final TimerWheel<K, V> wheel = new TimerWheel<K, V>(System.currentTimeMillis());
+
+   /**
+    * The index of the keys by prefix, null until the first removal by prefix. It is maintained by
+    * the writes as soon as it is created.
+    */
+   private volatile PrefixIndex<ObjectRef<K, V>> prefixIndex;
+
+   /**
+    * Indicates whether the prefix index contains all the keys of the map
+    */
+   private volatile boolean prefixIndexReady;
+
    CacheState(ConcurrentFIFOExoCache<K, V> config, Log log)
    {
       this.log = log;
       this.config = config;
       this.map = new ConcurrentHashMap<K, ObjectRef<K, V>>();
-      this.queue = new SynchronizedQueue<ObjectRef<K, V>>(log);
+      this.queue =
+         config.isBufferedQueue() ? new BufferedQueue<ObjectRef<K, V>>(log) : new SynchronizedQueue<ObjectRef<K, V>>(
+            log);
+      if (config.prefixIndexed)
+      {
+         this.prefixIndex = new PrefixIndex<ObjectRef<K, V>>();
+         this.prefixIndexReady = true;
+      }
    }
 
    public void assertConsistency()
@@ -54,6 +89,10 @@ class CacheState<K extends Serializable, V>
       {
          ((SynchronizedQueue)queue).assertConsistency();
       }
+      else if (queue instanceof BufferedQueue)
+      {
+         ((BufferedQueue)queue).assertConsistency();
+      }
       int mapSize = map.size();
       int effectiveQueueSize = queue.size();
       if (effectiveQueueSize != mapSize)
@@ -61,37 +100,103 @@ class CacheState<K extends Serializable, V>
          throw new AssertionError("The map size is " + mapSize + " is different from the queue size "
             + effectiveQueueSize);
       }
+      for (ObjectRef<K, V> ref : wheel.getLinkedEntries())
+      {
+         if (map.get(ref.name) != ref)
+         {
+            throw new AssertionError("The item " + ref.serial + " is still linked to the timer wheel");
+         }
+      }
+   }
+
+   /**
+    * Gives the value of the given key if it is still valid, without updating the statistics nor notifying the
+    * listeners.
+    */
+   V peek(Serializable name)
+   {
+      ObjectRef<K, V> entry = map.get(name);
+      return entry != null && entry.isValid() ? entry.getObject() : null;
    }
 
    public V get(Serializable name)
    {
+      long start = config.statistics.startTimer();
       ObjectRef<K, V> entry = map.get(name);
       if (entry != null)
       {
          V o = entry.getObject();
          if (entry.isValid())
          {
-            config.hits.incrementAndGet();
+            config.statistics.recordHit(start);
             config.onGet(entry.name, o);
             return o;
          }
          else
          {
-            config.misses.incrementAndGet();
+            config.statistics.recordMiss(start);
             if (map.remove(name, entry))
             {
-               queue.remove(entry);
+               unindex(entry);
+               if (queue.remove(entry))
+               {
+                  weight.addAndGet(-entry.weight);
+               }
             }
             config.onExpire(entry.name, o);
          }
       }
       else
       {
-         config.misses.incrementAndGet();
+         config.statistics.recordMiss(start);
       }
       return null;
    }
 
+   /**
+    * Performs a lookup of all the given keys in one pass, the statistics are updated once for all the keys.
+    */
+   public Map<K, V> getAll(Collection<? extends K> names)
+   {
+      Map<K, V> result = new HashMap<K, V>();
+      int hitCount = 0;
+      int missCount = 0;
+      for (K name : names)
+      {
+         if (name == null)
+         {
+            continue;
+         }
+         ObjectRef<K, V> entry = map.get(name);
+         if (entry != null)
+         {
+            V o = entry.getObject();
+            if (entry.isValid())
+            {
+               hitCount++;
+               if (o != null)
+               {
+                  result.put(entry.name, o);
+               }
+               config.onGet(entry.name, o);
+               continue;
+            }
+            if (map.remove(name, entry))
+            {
+               unindex(entry);
+               if (queue.remove(entry))
+               {
+                  weight.addAndGet(-entry.weight);
+               }
+            }
+            config.onExpire(entry.name, o);
+         }
+         missCount++;
+      }
+      config.statistics.recordGets(hitCount, missCount);
+      return result;
+   }
+
    private boolean isTraceEnabled()
    {
       return log != null && log.isTraceEnabled();
@@ -110,15 +215,72 @@ class CacheState<K extends Serializable, V>
     * @param obj the cached value
     */
    void put(long expirationTime, K name, V obj)
+   {
+      ObjectRef<K, V> nextRef = newRef(expirationTime, name, obj);
+      added(nextRef, map.put(name, nextRef));
+   }
+
+   /**
+    * Do a put with the provided expiration time unless the key is mapped to a valid entry, an expired entry
+    * is replaced.
+    *
+    * @param expirationTime the expiration time
+    * @param name the cache key
+    * @param obj the cached value
+    * @return <code>true</code> if the value has been put, <code>false</code> otherwise
+    */
+   boolean putIfAbsent(long expirationTime, K name, V obj)
+   {
+      ObjectRef<K, V> nextRef = newRef(expirationTime, name, obj);
+      while (true)
+      {
+         ObjectRef<K, V> previousRef = map.putIfAbsent(name, nextRef);
+         if (previousRef == null)
+         {
+            added(nextRef, null);
+            return true;
+         }
+         else if (previousRef.isValid())
+         {
+            return false;
+         }
+         else if (map.replace(name, previousRef, nextRef))
+         {
+            added(nextRef, previousRef);
+            return true;
+         }
+      }
+   }
+
+   private ObjectRef<K, V> newRef(long expirationTime, K name, V obj)
+   {
+      Weigher<? super K, ? super V> weigher = config.weigher;
+      return new SimpleObjectRef<K, V>(expirationTime, name, obj, weigher == null ? 0 : weigher.weigh(name, obj));
+   }
+
+   /**
+    * Updates the queue, the index and the timer wheel once the given reference has been mapped in place of the
+    * given previous one, then evicts the entries that do not fit anymore and notifies the listeners.
+    */
+   private void added(ObjectRef<K, V> nextRef, ObjectRef<K, V> previousRef)
    {
       boolean trace = isTraceEnabled();
-      ObjectRef<K, V> nextRef = new SimpleObjectRef<K, V>(expirationTime, name, obj);
-      ObjectRef<K, V> previousRef = map.put(name, nextRef);
+      K name = nextRef.name;
+      long expirationTime = nextRef.expirationTime;
+      PrefixIndex<ObjectRef<K, V>> index = prefixIndex;
+      if (index != null)
+      {
+         index.add(name, nextRef);
+      }
 
       // Remove previous (promoted as first element)
       if (previousRef != null)
       {
-         queue.remove(previousRef);
+         unschedule(previousRef);
+         if (queue.remove(previousRef))
+         {
+            weight.addAndGet(-previousRef.weight);
+         }
          if (trace)
          {
             trace("Replaced item=" + previousRef.serial + " with item=" + nextRef.serial + " in the map");
@@ -130,26 +292,118 @@ class CacheState<K extends Serializable, V>
       }
 
       // Add to the queue
+      weight.addAndGet(nextRef.weight);
       queue.add(nextRef);
 
+      // A concurrent remove or put may have unmapped the entry before it was added to the queue
+      if (map.get(name) != nextRef && queue.remove(nextRef))
+      {
+         weight.addAndGet(-nextRef.weight);
+      }
+
+      // Schedule the proactive expiration
+      boolean activeExpiration = config.activeExpiration;
+      if (activeExpiration && expirationTime != Long.MAX_VALUE)
+      {
+         wheel.schedule(nextRef);
+      }
+
       // Perform eviction from queue
       ArrayList<ObjectRef<K, V>> evictedRefs = queue.trim(config.maxSize);
       if (evictedRefs != null)
       {
-         for (ObjectRef<K, V> evictedRef : evictedRefs)
-         {
-            // We remove it from the map only if it was the same entry
-            // it could have been removed concurrently by an explicit remove
-            // or by a promotion
-            map.remove(evictedRef.name, evictedRef);
+         evict(evictedRefs);
+      }
 
-            // Expiration callback
-            config.onExpire(evictedRef.name, evictedRef.getObject());
+      // Perform eviction from queue until the total weight fits
+      long maxWeight = config.maxWeight;
+      if (maxWeight > 0)
+      {
+         while (weight.get() > maxWeight)
+         {
+            int size = queue.size();
+            evictedRefs = size == 0 ? null : queue.trim(size - 1);
+            if (evictedRefs == null || evictedRefs.isEmpty())
+            {
+               // Nothing to evict or another thread is already evicting
+               break;
+            }
+            evict(evictedRefs);
          }
       }
 
+      // Expire the entries whose expiration time has been reached
+      if (activeExpiration)
+      {
+         expire();
+      }
+
       // Put callback
-      config.onPut(name, obj);
+      config.onPut(name, nextRef.getObject());
+   }
+
+   /**
+    * Advances the timer wheel and removes the expired entries if no other thread is already doing it.
+    */
+   void expire()
+   {
+      List<ObjectRef<K, V>> expiredRefs = wheel.advance(System.currentTimeMillis());
+      if (expiredRefs != null)
+      {
+         for (int i = 0, length = expiredRefs.size(); i < length; i++)
+         {
+            ObjectRef<K, V> expiredRef = expiredRefs.get(i);
+            // The entry could have been removed or replaced in the meantime
+            if (map.remove(expiredRef.name, expiredRef))
+            {
+               unindex(expiredRef);
+               if (queue.remove(expiredRef))
+               {
+                  weight.addAndGet(-expiredRef.weight);
+               }
+               if (isTraceEnabled())
+               {
+                  trace("Expired item=" + expiredRef.serial + " from the timer wheel");
+               }
+
+               // Expiration callback
+               config.onExpire(expiredRef.name, expiredRef.getObject());
+            }
+         }
+      }
+   }
+
+   /**
+    * Evicts the oldest entries until the queue fits into the maximum size, which is needed when the maximum
+    * size has been reduced since the eviction is otherwise only done by the puts.
+    */
+   public void trim()
+   {
+      ArrayList<ObjectRef<K, V>> evictedRefs = queue.trim(config.maxSize);
+      if (evictedRefs != null)
+      {
+         evict(evictedRefs);
+      }
+   }
+
+   private void evict(ArrayList<ObjectRef<K, V>> evictedRefs)
+   {
+      for (ObjectRef<K, V> evictedRef : evictedRefs)
+      {
+         weight.addAndGet(-evictedRef.weight);
+
+         // We remove it from the map only if it was the same entry
+         // it could have been removed concurrently by an explicit remove
+         // or by a promotion
+         if (map.remove(evictedRef.name, evictedRef))
+         {
+            unindex(evictedRef);
+            unschedule(evictedRef);
+         }
+
+         // Expiration callback
+         config.onExpire(evictedRef.name, evictedRef.getObject());
+      }
    }
 
    public V remove(Serializable name)
@@ -158,11 +412,17 @@ class CacheState<K extends Serializable, V>
       ObjectRef<K, V> item = map.remove(name);
       if (item != null)
       {
+         unindex(item);
+         unschedule(item);
          if (trace)
          {
             trace("Removed item=" + item.serial + " from the map going to remove it");
          }
          boolean removed = queue.remove(item);
+         if (removed)
+         {
+            weight.addAndGet(-item.weight);
+         }
          boolean valid = removed && item.isValid();
          V object = item.getObject();
          if (valid)
@@ -181,4 +441,64 @@ class CacheState<K extends Serializable, V>
          return null;
       }
    }
+
+   /**
+    * Removes all the entries whose key starts with the given prefix.
+    */
+   void removeByPrefix(String prefix)
+   {
+      PrefixIndex<ObjectRef<K, V>> index = getPrefixIndex();
+      for (Map.Entry<String, ObjectRef<K, V>> entry : index.getEntries(prefix).entrySet())
+      {
+         remove(entry.getKey());
+
+         // The index may still refer to an entry that was replaced concurrently
+         index.remove(entry.getKey(), entry.getValue());
+      }
+   }
+
+   /**
+    * Gives the prefix index, it is built from the content of the map the first time.
+    */
+   private PrefixIndex<ObjectRef<K, V>> getPrefixIndex()
+   {
+      if (!prefixIndexReady)
+      {
+         synchronized (this)
+         {
+            if (!prefixIndexReady)
+            {
+               // The index is published first so that the concurrent writes maintain it during the scan
+               PrefixIndex<ObjectRef<K, V>> index = new PrefixIndex<ObjectRef<K, V>>();
+               prefixIndex = index;
+               for (ObjectRef<K, V> ref : map.values())
+               {
+                  index.addIfAbsent(ref.name, ref);
+               }
+               prefixIndexReady = true;
+            }
+         }
+      }
+      return prefixIndex;
+   }
+
+   /**
+    * Unlinks the given entry from the timer wheel once it has been removed from the map
+    */
+   private void unschedule(ObjectRef<K, V> ref)
+   {
+      if (ref.expirationTime != Long.MAX_VALUE)
+      {
+         wheel.cancel(ref);
+      }
+   }
+
+   private void unindex(ObjectRef<K, V> ref)
+   {
+      PrefixIndex<ObjectRef<K, V>> index = prefixIndex;
+      if (index != null)
+      {
+         index.remove(ref.name, ref);
+      }
+   }
 }
@@ -18,17 +18,22 @@
  */
 package org.exoplatform.services.cache.concurrent;
 
+import org.exoplatform.services.cache.CacheCursor;
 import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheStatistics;
 import org.exoplatform.services.cache.CachedObjectSelector;
 import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExpireKeyStartWithSelector;
+import org.exoplatform.services.cache.Weigher;
 import org.exoplatform.services.log.Log;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An {@link org.exoplatform.services.cache.ExoCache} implementation based on {@link java.util.concurrent.ConcurrentHashMap}
@@ -37,7 +42,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @author <a href="mailto:julien.viet@exoplatform.com">Julien Viet</a>
  * @version $Revision$
  */
-public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCache<K, V>
+public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCache<K, V>, ListenerQueueSupport,
+   LiveTimeSupport
 {
 
    private static int DEFAULT_MAX_SIZE = 50;
@@ -48,13 +54,11 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
 
    volatile int maxSize;
 
-   private CopyOnWriteArrayList<ListenerContext<K, V>> listeners;
+   private final CacheListeners<K, V> listeners;
 
    private CacheState<K, V> state;
 
-   AtomicInteger hits = new AtomicInteger();
-
-   AtomicInteger misses = new AtomicInteger();
+   final CacheStatistics statistics = new CacheStatistics(this);
 
    private String label;
 
@@ -62,6 +66,19 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
 
    private boolean logEnabled = false;
 
+   private volatile boolean bufferedQueue;
+
+   volatile long maxWeight;
+
+   volatile Weigher<? super K, ? super V> weigher;
+
+   volatile boolean activeExpiration;
+
+   /**
+    * Indicates whether the keys are indexed by prefix, it is enabled by the first removal by prefix
+    */
+   volatile boolean prefixIndexed;
+
    public ConcurrentFIFOExoCache()
    {
       this(DEFAULT_MAX_SIZE);
@@ -94,7 +111,7 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
       this.state = new CacheState<K, V>(this, log);
       this.liveTimeMillis = -1;
       this.log = log;
-      this.listeners = new CopyOnWriteArrayList<ListenerContext<K, V>>();
+      this.listeners = new CacheListeners<K, V>(this, statistics);
    }
 
    public void assertConsistent()
@@ -164,7 +181,119 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
 
    public void setMaxSize(int max)
    {
+      int previous = this.maxSize;
       this.maxSize = max;
+      if (max < previous)
+      {
+         // The entries in excess are evicted right away from the cold end
+         state.trim();
+      }
+   }
+
+   /**
+    * Indicates whether the order of the entries is maintained by a {@link BufferedQueue} instead of
+    * a {@link SynchronizedQueue}.
+    *
+    * @return <code>true</code> if the buffered queue is used, <code>false</code> otherwise
+    */
+   public boolean isBufferedQueue()
+   {
+      return bufferedQueue;
+   }
+
+   /**
+    * Sets the type of queue that maintains the order of the entries. As the queue cannot be
+    * changed on the fly, the cache is cleared if the type of queue changes.
+    *
+    * @param bufferedQueue <code>true</code> to use a {@link BufferedQueue}, <code>false</code> to use
+    * a {@link SynchronizedQueue}
+    */
+   public void setBufferedQueue(boolean bufferedQueue)
+   {
+      if (this.bufferedQueue != bufferedQueue)
+      {
+         this.bufferedQueue = bufferedQueue;
+         clearCache();
+      }
+   }
+
+   /**
+    * Returns the maximum total weight of the entries, a value lower or equal to 0 means that
+    * the cache is not bounded by weight.
+    */
+   public long getMaxWeight()
+   {
+      return maxWeight;
+   }
+
+   /**
+    * Sets the maximum total weight of the entries, the entries are evicted in fifo order until
+    * the total weight fits. It is only taken into account if a {@link Weigher} has been set.
+    *
+    * @param maxWeight the maximum weight, a value lower or equal to 0 means that the cache is not
+    * bounded by weight
+    */
+   public void setMaxWeight(long maxWeight)
+   {
+      this.maxWeight = maxWeight;
+   }
+
+   public Weigher<? super K, ? super V> getWeigher()
+   {
+      return weigher;
+   }
+
+   /**
+    * Sets the weigher used to compute the weight of the entries, the entries already in the cache are
+    * considered as weightless.
+    *
+    * @param weigher the weigher or <code>null</code> to stop tracking the weight
+    */
+   public void setWeigher(Weigher<? super K, ? super V> weigher)
+   {
+      this.weigher = weigher;
+   }
+
+   /**
+    * Indicates whether the expired entries are removed proactively thanks to a timer wheel, instead of
+    * only when they are read or evicted.
+    *
+    * @return <code>true</code> if the active expiration is enabled, <code>false</code> otherwise
+    */
+   public boolean isActiveExpiration()
+   {
+      return activeExpiration;
+   }
+
+   /**
+    * Enables or disables the active expiration. The timer wheel is advanced by the writes and by a
+    * sweeper thread shared by all the caches. Only the entries put after enabling it are expired proactively.
+    *
+    * @param activeExpiration <code>true</code> to enable the active expiration, <code>false</code> otherwise
+    */
+   public void setActiveExpiration(boolean activeExpiration)
+   {
+      this.activeExpiration = activeExpiration;
+      if (activeExpiration)
+      {
+         ExpirationSweeper.register(this);
+      }
+      else
+      {
+         ExpirationSweeper.unregister(this);
+      }
+   }
+
+   /**
+    * Removes the entries whose expiration time has been reached and notifies the listeners. It is a no-op
+    * if the active expiration is disabled or if another thread is already doing it.
+    */
+   public void expireEntries()
+   {
+      if (activeExpiration)
+      {
+         state.expire();
+      }
    }
 
    public V get(Serializable name)
@@ -176,7 +305,34 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
       return state.get(name);
    }
 
+   /**
+    * Gives the value of the given key like {@link #get(Serializable)} but without updating the statistics nor
+    * notifying the listeners, it is meant for the lookups that are not made on behalf of the application.
+    */
+   public V peek(Serializable name)
+   {
+      if (name == null)
+      {
+         return null;
+      }
+      return state.peek(name);
+   }
+
+   public Map<K, V> getAll(Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      return state.getAll(names);
+   }
+
    public void put(K name, V obj)
+   {
+      put(name, obj, liveTimeMillis);
+   }
+
+   public void put(K name, V obj, long liveTimeMillis)
    {
       if (name == null)
       {
@@ -184,11 +340,41 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
       }
       if (liveTimeMillis != 0)
       {
+         long start = statistics.startTimer();
          long expirationTime = liveTimeMillis > 0 ? System.currentTimeMillis() + liveTimeMillis : Long.MAX_VALUE;
          state.put(expirationTime, name, obj);
+         statistics.recordPut(start);
       }
    }
 
+   /**
+    * Puts the given value unless the key is already mapped to a valid entry.
+    *
+    * @param name the cache key
+    * @param obj the cached value
+    * @param liveTimeMillis the live time in milliseconds, a negative value means that the entry never expires
+    * @return <code>true</code> if the value has been put, <code>false</code> otherwise
+    */
+   public boolean putIfAbsent(K name, V obj, long liveTimeMillis)
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      if (liveTimeMillis == 0)
+      {
+         return false;
+      }
+      long start = statistics.startTimer();
+      long expirationTime = liveTimeMillis > 0 ? System.currentTimeMillis() + liveTimeMillis : Long.MAX_VALUE;
+      if (state.putIfAbsent(expirationTime, name, obj))
+      {
+         statistics.recordPut(start);
+         return true;
+      }
+      return false;
+   }
+
    public void putMap(Map<? extends K, ? extends V> objs)
    {
       if (objs == null)
@@ -207,6 +393,7 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
       {
          state.put(expirationTime, entry.getKey(), entry.getValue());
       }
+      statistics.recordPuts(objs.size());
    }
 
    public V remove(Serializable name)
@@ -218,6 +405,35 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
       return state.remove(name);
    }
 
+   public void removeAll(Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      for (Serializable name : names)
+      {
+         if (name == null)
+         {
+            throw new IllegalArgumentException("No null cache key accepted");
+         }
+      }
+      for (Serializable name : names)
+      {
+         state.remove(name);
+      }
+   }
+
+   public void removeByPrefix(String prefix)
+   {
+      if (prefix == null)
+      {
+         throw new IllegalArgumentException("No null prefix accepted");
+      }
+      prefixIndexed = true;
+      state.removeByPrefix(prefix);
+   }
+
    public List<? extends V> getCachedObjects()
    {
       LinkedList<V> list = new LinkedList<V>();
@@ -239,6 +455,46 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
       return list;
    }
 
+   /**
+    * Writes the most recently put valid entries into the given file, so that they can be loaded back by
+    * {@link #loadSnapshot(File)} after a restart.
+    *
+    * @param file the snapshot file, it is replaced if it exists
+    * @param maxEntries the maximum amount of entries to write, the max size of the cache if 0 or less
+    * @return the amount of entries written
+    * @throws IOException if the file cannot be written
+    */
+   public int saveSnapshot(File file, int maxEntries) throws IOException
+   {
+      return CacheSnapshot.save(this, file, maxEntries > 0 ? maxEntries : maxSize);
+   }
+
+   /**
+    * Puts the entries of a file written by {@link #saveSnapshot(File, int)} into the cache with the time to
+    * live that they had left when the snapshot was taken. The keys that are already cached are skipped.
+    *
+    * @param file the snapshot file
+    * @return the amount of entries loaded
+    * @throws IOException if the file cannot be read
+    */
+   public int loadSnapshot(File file) throws IOException
+   {
+      return CacheSnapshot.load(this, file);
+   }
+
+   /**
+    * Gives the current entries, valid or not
+    */
+   Map<K, ObjectRef<K, V>> getEntries()
+   {
+      return state.map;
+   }
+
+   public CacheCursor<K, V> openCursor(int chunkSize)
+   {
+      return new ObjectRefCursor<K, V>(chunkSize, state.map.values());
+   }
+
    public void clearCache()
    {
       state = new CacheState<K, V>(this, log);
@@ -250,6 +506,12 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
       {
          throw new IllegalArgumentException("No null selector");
       }
+      String prefix = ExpireKeyStartWithSelector.getKeyStartWith(selector);
+      if (prefix != null)
+      {
+         removeByPrefix(prefix);
+         return;
+      }
       for (Map.Entry<K, ObjectRef<K, V>> entry : state.map.entrySet())
       {
          K key = entry.getKey();
@@ -266,23 +528,45 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
       return state.queue.size();
    }
 
+   public long getCacheWeight()
+   {
+      return weigher == null ? -1 : state.weight.get();
+   }
+
    public int getCacheHit()
    {
-      return hits.get();
+      return CacheStatistics.toInt(statistics.getHitCount());
    }
 
    public int getCacheMiss()
    {
-      return misses.get();
+      return CacheStatistics.toInt(statistics.getMissCount());
+   }
+
+   public CacheStatistics getStatistics()
+   {
+      return statistics;
    }
 
    public synchronized void addCacheListener(CacheListener<? super K, ? super V> listener)
    {
-      if (listener == null)
-      {
-         throw new IllegalArgumentException("The listener cannot be null");
-      }
-      listeners.add(new ListenerContext<K, V>(listener, this));
+      listeners.add(listener);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setListenerQueue(int queueSize, ListenerOverflowPolicy policy)
+   {
+      listeners.setQueue(queueSize, policy);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public int getListenerQueueSize()
+   {
+      return listeners.getQueueSize();
    }
 
    public boolean isLogEnabled()
@@ -299,36 +583,27 @@ public class ConcurrentFIFOExoCache<K extends Serializable, V> implements ExoCac
 
    void onExpire(K key, V obj)
    {
-      if (!listeners.isEmpty())
-         for (ListenerContext<K, V> context : listeners)
-            context.onExpire(key, obj);
+      statistics.recordEviction();
+      listeners.onExpire(key, obj);
    }
 
    void onRemove(K key, V obj)
    {
-      if (!listeners.isEmpty())
-         for (ListenerContext<K, V> context : listeners)
-            context.onRemove(key, obj);
+      listeners.onRemove(key, obj);
    }
 
    void onPut(K key, V obj)
    {
-      if (!listeners.isEmpty())
-         for (ListenerContext<K, V> context : listeners)
-            context.onPut(key, obj);
+      listeners.onPut(key, obj);
    }
 
    void onGet(K key, V obj)
    {
-      if (!listeners.isEmpty())
-         for (ListenerContext<K, V> context : listeners)
-            context.onGet(key, obj);
+      listeners.onGet(key, obj);
    }
 
    void onClearCache()
    {
-      if (!listeners.isEmpty())
-         for (ListenerContext<K, V> context : listeners)
-            context.onClearCache();
+      listeners.onClearCache();
    }
 }
\ No newline at end of file
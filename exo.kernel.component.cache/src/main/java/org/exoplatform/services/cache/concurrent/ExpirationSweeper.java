@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically expires the entries of the caches with an active expiration, so that the expired entries of
+ * the caches that are not written anymore are released too. A single daemon thread is shared by all the caches,
+ * the caches are weakly referenced.
+ *
+ * @version $Id$
+ */
+class ExpirationSweeper
+{
+
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.cache.ExpirationSweeper");
+
+   /**
+    * The period in milliseconds between two sweeps
+    */
+   private static final long PERIOD = 1000;
+
+   private static final Set<ConcurrentFIFOExoCache<?, ?>> CACHES = Collections.synchronizedSet(Collections
+      .newSetFromMap(new WeakHashMap<ConcurrentFIFOExoCache<?, ?>, Boolean>()));
+
+   private static ScheduledExecutorService executor;
+
+   private ExpirationSweeper()
+   {
+   }
+
+   static void register(ConcurrentFIFOExoCache<?, ?> cache)
+   {
+      CACHES.add(cache);
+      synchronized (ExpirationSweeper.class)
+      {
+         if (executor == null)
+         {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+               public Thread newThread(Runnable r)
+               {
+                  Thread t = new Thread(r, "exo-cache-expiration-sweeper");
+                  t.setDaemon(true);
+                  return t;
+               }
+            });
+            executor.scheduleWithFixedDelay(new Runnable()
+            {
+               public void run()
+               {
+                  sweep();
+               }
+            }, PERIOD, PERIOD, TimeUnit.MILLISECONDS);
+         }
+      }
+   }
+
+   static void unregister(ConcurrentFIFOExoCache<?, ?> cache)
+   {
+      CACHES.remove(cache);
+   }
+
+   private static void sweep()
+   {
+      ConcurrentFIFOExoCache<?, ?>[] caches;
+      synchronized (CACHES)
+      {
+         caches = CACHES.toArray(new ConcurrentFIFOExoCache<?, ?>[CACHES.size()]);
+      }
+      for (int i = 0; i < caches.length; i++)
+      {
+         try
+         {
+            caches[i].expireEntries();
+         }
+         catch (RuntimeException e)
+         {
+            LOG.warn("Could not expire the entries of the cache " + caches[i].getName(), e);
+         }
+      }
+   }
+}
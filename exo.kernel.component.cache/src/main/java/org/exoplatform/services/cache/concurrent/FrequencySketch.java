@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+/**
+ * A count-min sketch that estimates the access frequency of the keys with 4-bit counters. Four counters
+ * are updated per key and the minimum of them is the estimated frequency. Once the amount of increments
+ * reaches the sample size, all the counters are halved so that the old accesses fade away.
+ * <p>
+ * This class is not thread safe, the caller is expected to guard it.
+ *
+ * @version $Id$
+ */
+class FrequencySketch
+{
+
+   private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+      0xcbf29ce484222325L};
+
+   private static final long RESET_MASK = 0x7777777777777777L;
+
+   private static final long ONE_MASK = 0x1111111111111111L;
+
+   private static final int MAX_TABLE_LENGTH = 1 << 30;
+
+   private long[] table;
+
+   private int tableMask;
+
+   private int sampleSize;
+
+   private int size;
+
+   FrequencySketch(int maximumSize)
+   {
+      ensureCapacity(maximumSize);
+   }
+
+   /**
+    * Grows the table if needed to get an accurate estimation for the given amount of entries.
+    *
+    * @param maximumSize the maximum amount of entries of the cache
+    */
+   void ensureCapacity(int maximumSize)
+   {
+      int maximum = Math.min(Math.max(maximumSize, 16), MAX_TABLE_LENGTH);
+      if (table != null && table.length >= maximum)
+      {
+         return;
+      }
+      int length = 1;
+      while (length < maximum)
+      {
+         length <<= 1;
+      }
+      table = new long[length];
+      tableMask = length - 1;
+      sampleSize = maximum > Integer.MAX_VALUE / 10 ? Integer.MAX_VALUE : 10 * maximum;
+      size = 0;
+   }
+
+   /**
+    * Returns the estimated frequency of the given key, at most 15.
+    */
+   int frequency(Object key)
+   {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      int frequency = 15;
+      for (int i = 0; i < 4; i++)
+      {
+         int index = indexOf(hash, i);
+         int count = (int)((table[index] >>> ((start + i) << 2)) & 0xfL);
+         frequency = Math.min(frequency, count);
+      }
+      return frequency;
+   }
+
+   /**
+    * Increments the estimated frequency of the given key if it has not reached the maximum yet.
+    */
+   void increment(Object key)
+   {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++)
+      {
+         added |= incrementAt(indexOf(hash, i), start + i);
+      }
+      if (added && ++size >= sampleSize)
+      {
+         reset();
+      }
+   }
+
+   private boolean incrementAt(int i, int j)
+   {
+      int offset = j << 2;
+      long mask = 0xfL << offset;
+      if ((table[i] & mask) != mask)
+      {
+         table[i] += 1L << offset;
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Halves all the counters
+    */
+   private void reset()
+   {
+      int count = 0;
+      for (int i = 0; i < table.length; i++)
+      {
+         count += Long.bitCount(table[i] & ONE_MASK);
+         table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      size = (size >>> 1) - (count >>> 2);
+   }
+
+   private int indexOf(int item, int i)
+   {
+      long hash = (item + SEEDS[i]) * SEEDS[i];
+      hash += hash >>> 32;
+      return ((int)hash) & tableMask;
+   }
+
+   private static int spread(int x)
+   {
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      return (x >>> 16) ^ x;
+   }
+}
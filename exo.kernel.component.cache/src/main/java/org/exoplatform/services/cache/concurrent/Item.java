@@ -18,6 +18,7 @@
  */
 package org.exoplatform.services.cache.concurrent;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -29,6 +30,9 @@ public class Item
 
    private static final AtomicLong generator = new AtomicLong(0);
 
+   private static final AtomicIntegerFieldUpdater<Item> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(
+      Item.class, "state");
+
    final long serial = generator.incrementAndGet();
 
    final int hashCode = (int)(serial % Integer.MAX_VALUE);
@@ -37,6 +41,26 @@ public class Item
 
    Item next;
 
+   /**
+    * Used by the queues that defer the unlinking, 1 means that the removal of the item has been claimed
+    */
+   private volatile int state;
+
+   /**
+    * Claims the removal of this item.
+    *
+    * @return true if the removal has been claimed by this thread
+    */
+   boolean claim()
+   {
+      return STATE_UPDATER.compareAndSet(this, 0, 1);
+   }
+
+   boolean isClaimed()
+   {
+      return state != 0;
+   }
+
    /**
     * This is final on purpose, we rely on object equality in the concurrent has
     */
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers the events of the {@link ListenerQueue}s thanks to a small pool of daemon threads shared by all
+ * the caches. A queue is never drained by two threads at the same time, so that its events are delivered
+ * in order.
+ *
+ * @version $Id$
+ */
+class ListenerDispatcher
+{
+
+   private static final ThreadPoolExecutor EXECUTOR;
+
+   static
+   {
+      int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+      EXECUTOR =
+         new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+               private final AtomicInteger count = new AtomicInteger();
+
+               public Thread newThread(Runnable r)
+               {
+                  Thread t = new Thread(r, "exo-cache-listener-dispatcher-" + count.incrementAndGet());
+                  t.setDaemon(true);
+                  return t;
+               }
+            });
+      EXECUTOR.allowCoreThreadTimeOut(true);
+   }
+
+   private ListenerDispatcher()
+   {
+   }
+
+   /**
+    * Schedules the delivery of the pending events of the given queue
+    */
+   static void dispatch(ListenerQueue<?, ?> queue)
+   {
+      EXECUTOR.execute(queue);
+   }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+/**
+ * The policies that can be applied when the queue of events waiting to be delivered asynchronously to the
+ * listeners of a cache is full.
+ *
+ * @version $Id$
+ */
+public enum ListenerOverflowPolicy
+{
+
+   /**
+    * The new event is dropped
+    */
+   DISCARD,
+
+   /**
+    * The oldest pending event is dropped to make room for the new one
+    */
+   DISCARD_OLDEST,
+
+   /**
+    * The new event is delivered by the thread accessing the cache, it can then be delivered before
+    * older pending events
+    */
+   CALLER_RUNS
+}
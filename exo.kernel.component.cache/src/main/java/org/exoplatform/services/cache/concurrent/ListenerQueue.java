@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import org.exoplatform.services.cache.CacheStatistics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded ring buffer of the events to deliver to the listeners of a cache. The threads accessing the
+ * cache only add the events to the buffer, the events are then delivered in order by the
+ * {@link ListenerDispatcher}. When the buffer is full, the {@link ListenerOverflowPolicy} decides what
+ * happens to the new event, the dropped events are recorded into the statistics of the cache.
+ * <p>
+ * Each slot of the buffer has a sequence number that tells whether it is free or whether it holds an event
+ * ready to be delivered, so that neither the producers nor the consumers need a lock.
+ *
+ * @version $Id$
+ */
+class ListenerQueue<K, V> implements Runnable
+{
+
+   /**
+    * The maximum amount of events delivered in a row before leaving the dispatcher thread to another queue
+    */
+   private static final int DRAIN_BATCH = 256;
+
+   private static final int GET = 0;
+
+   private static final int PUT = 1;
+
+   private static final int REMOVE = 2;
+
+   private static final int EXPIRE = 3;
+
+   private static final int CLEAR = 4;
+
+   private final List<ListenerContext<K, V>> listeners;
+
+   private final ListenerOverflowPolicy policy;
+
+   private final CacheStatistics statistics;
+
+   private final Object[] events;
+
+   private final AtomicLongArray sequences;
+
+   private final int mask;
+
+   /**
+    * The position of the next event to add
+    */
+   private final AtomicLong tail = new AtomicLong();
+
+   /**
+    * The position of the next event to deliver
+    */
+   private final AtomicLong head = new AtomicLong();
+
+   /**
+    * Indicates whether the queue has been given to the dispatcher and not yet drained
+    */
+   private final AtomicBoolean scheduled = new AtomicBoolean();
+
+   /**
+    * @param listeners the listeners to which the events are delivered
+    * @param capacity the maximum amount of pending events, rounded up to a power of two
+    * @param policy the policy to apply when the queue is full
+    * @param statistics the statistics into which the dropped events are recorded
+    */
+   ListenerQueue(List<ListenerContext<K, V>> listeners, int capacity, ListenerOverflowPolicy policy,
+      CacheStatistics statistics)
+   {
+      int length = 1;
+      while (length < capacity && length < (1 << 30))
+      {
+         length <<= 1;
+      }
+      this.listeners = listeners;
+      this.policy = policy;
+      this.statistics = statistics;
+      this.events = new Object[length];
+      this.sequences = new AtomicLongArray(length);
+      this.mask = length - 1;
+      for (int i = 0; i < length; i++)
+      {
+         sequences.set(i, i);
+      }
+   }
+
+   ListenerOverflowPolicy getPolicy()
+   {
+      return policy;
+   }
+
+   int getCapacity()
+   {
+      return events.length;
+   }
+
+   void onExpire(K key, V obj)
+   {
+      add(new Event<K, V>(EXPIRE, key, obj));
+   }
+
+   void onRemove(K key, V obj)
+   {
+      add(new Event<K, V>(REMOVE, key, obj));
+   }
+
+   void onPut(K key, V obj)
+   {
+      add(new Event<K, V>(PUT, key, obj));
+   }
+
+   void onGet(K key, V obj)
+   {
+      add(new Event<K, V>(GET, key, obj));
+   }
+
+   void onClearCache()
+   {
+      add(new Event<K, V>(CLEAR, null, null));
+   }
+
+   private void add(Event<K, V> event)
+   {
+      while (!offer(event))
+      {
+         if (policy == ListenerOverflowPolicy.CALLER_RUNS)
+         {
+            deliver(event);
+            return;
+         }
+         else if (policy == ListenerOverflowPolicy.DISCARD_OLDEST)
+         {
+            if (poll() != null)
+            {
+               statistics.recordDroppedEvent();
+            }
+         }
+         else
+         {
+            statistics.recordDroppedEvent();
+            return;
+         }
+      }
+      if (scheduled.compareAndSet(false, true))
+      {
+         ListenerDispatcher.dispatch(this);
+      }
+   }
+
+   private boolean offer(Event<K, V> event)
+   {
+      for (;;)
+      {
+         long position = tail.get();
+         int index = (int)position & mask;
+         long difference = sequences.get(index) - position;
+         if (difference == 0)
+         {
+            if (tail.compareAndSet(position, position + 1))
+            {
+               events[index] = event;
+               // Publishes the event
+               sequences.set(index, position + 1);
+               return true;
+            }
+         }
+         else if (difference < 0)
+         {
+            // The slot still holds an event that has not been delivered
+            return false;
+         }
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private Event<K, V> poll()
+   {
+      for (;;)
+      {
+         long position = head.get();
+         int index = (int)position & mask;
+         long difference = sequences.get(index) - (position + 1);
+         if (difference == 0)
+         {
+            if (head.compareAndSet(position, position + 1))
+            {
+               Event<K, V> event = (Event<K, V>)events[index];
+               events[index] = null;
+               // Releases the slot for the next round
+               sequences.set(index, position + events.length);
+               return event;
+            }
+         }
+         else if (difference < 0)
+         {
+            // The queue is empty or the next event is not yet published
+            return null;
+         }
+      }
+   }
+
+   /**
+    * Delivers the pending events, the queue is given back to the dispatcher if it still has events
+    * once the batch is delivered.
+    */
+   public void run()
+   {
+      try
+      {
+         for (int i = 0; i < DRAIN_BATCH; i++)
+         {
+            Event<K, V> event = poll();
+            if (event == null)
+            {
+               break;
+            }
+            deliver(event);
+         }
+      }
+      finally
+      {
+         scheduled.set(false);
+      }
+      // An event could have been added after the last poll, in which case the producer may have seen
+      // the queue as scheduled
+      long position = head.get();
+      if (sequences.get((int)position & mask) - (position + 1) >= 0 && scheduled.compareAndSet(false, true))
+      {
+         ListenerDispatcher.dispatch(this);
+      }
+   }
+
+   private void deliver(Event<K, V> event)
+   {
+      for (ListenerContext<K, V> context : listeners)
+      {
+         switch (event.type)
+         {
+            case GET :
+               context.onGet(event.key, event.value);
+               break;
+            case PUT :
+               context.onPut(event.key, event.value);
+               break;
+            case REMOVE :
+               context.onRemove(event.key, event.value);
+               break;
+            case EXPIRE :
+               context.onExpire(event.key, event.value);
+               break;
+            default :
+               context.onClearCache();
+         }
+      }
+   }
+
+   private static class Event<K, V>
+   {
+      private final int type;
+
+      private final K key;
+
+      private final V value;
+
+      Event(int type, K key, V value)
+      {
+         this.type = type;
+         this.key = key;
+         this.value = value;
+      }
+   }
+}
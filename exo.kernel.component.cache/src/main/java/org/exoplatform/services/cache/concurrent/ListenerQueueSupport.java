@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+/**
+ * Implemented by the local caches that can deliver their events asynchronously to their listeners, so that
+ * the {@link org.exoplatform.services.cache.CacheService} can configure the delivery of any of them the same
+ * way.
+ *
+ * @version $Id$
+ */
+public interface ListenerQueueSupport
+{
+
+   /**
+    * Sets how the events are delivered to the listeners. If the queue size is greater than 0, the events are
+    * added to a bounded queue of that size and delivered in order by a dispatcher shared by all the caches,
+    * otherwise they are delivered by the thread accessing the cache.
+    *
+    * @param queueSize the maximum amount of pending events, 0 to deliver the events synchronously
+    * @param policy the policy to apply when the queue is full, {@link ListenerOverflowPolicy#DISCARD} if null
+    */
+   void setListenerQueue(int queueSize, ListenerOverflowPolicy policy);
+
+   /**
+    * Returns the maximum amount of events waiting to be delivered to the listeners.
+    *
+    * @return the size of the listener queue, 0 if the events are delivered synchronously
+    */
+   int getListenerQueueSize();
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+/**
+ * Implemented by the local caches whose live time is kept in milliseconds, so that the components built on
+ * top of any of them can rely on the exact live time rather than on {@link
+ * org.exoplatform.services.cache.ExoCache#getLiveTime()} which is in seconds.
+ *
+ * @version $Id$
+ */
+public interface LiveTimeSupport
+{
+
+   /**
+    * @return the live time of the entries in milliseconds, -1 if they never expire
+    */
+   long getLiveTimeMillis();
+
+   /**
+    * Sets the live time of the entries in milliseconds.
+    *
+    * @param liveTimeMillis the live time in milliseconds, a negative value means that the entries never expire
+    */
+   void setLiveTimeMillis(long liveTimeMillis);
+}
@@ -0,0 +1,1323 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import org.exoplatform.services.cache.CacheCursor;
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheStatistics;
+import org.exoplatform.services.cache.CachedObjectSelector;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ObjectCacheInfo;
+import org.exoplatform.services.log.Log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An {@link org.exoplatform.services.cache.ExoCache} implementation dedicated to the numeric ids, it only accepts
+ * {@link Long} and {@link Integer} keys. The keys are unboxed and stored into open-addressing tables made of
+ * primitive arrays, so that no map entry nor key object is retained per cached value. The keys are boxed again
+ * only when they are given to the listeners or to the selectors. A {@link Long} and an {@link Integer} of the
+ * same value are distinct keys as they are not equal.
+ * <p>
+ * A call to {@link #put(Serializable, Object)} with any other type of key is rejected with an
+ * {@link IllegalArgumentException} while a call to {@link #get(Serializable)} is simply a miss. The entries
+ * are evicted in FIFO order once the maximum size is reached.
+ * <p>
+ * The entries are spread into segments, each of them being guarded by its own read write lock.
+ *
+ * @version $Id$
+ */
+public class LongKeyExoCache<K extends Serializable, V> implements ExoCache<K, V>, ListenerQueueSupport,
+   LiveTimeSupport
+{
+
+   private static int DEFAULT_MAX_SIZE = 50;
+
+   /**
+    * The maximum amount of segments
+    */
+   private static final int MAX_SEGMENTS = 16;
+
+   /**
+    * The minimum amount of entries per segment
+    */
+   private static final int MIN_SEGMENT_SIZE = 64;
+
+   /**
+    * The initial length of the table of a segment, always a power of two
+    */
+   private static final int INITIAL_CAPACITY = 16;
+
+   /**
+    * The kind of a slot that has never been used
+    */
+   private static final byte FREE = 0;
+
+   /**
+    * The kind of a slot whose entry has been removed
+    */
+   private static final byte DELETED = 1;
+
+   /**
+    * The kind of a slot that contains a {@link Long} key
+    */
+   private static final byte LONG = 2;
+
+   /**
+    * The kind of a slot that contains an {@link Integer} key
+    */
+   private static final byte INTEGER = 3;
+
+   private final Log log;
+
+   private volatile long liveTimeMillis;
+
+   private volatile int maxSize;
+
+   private final CacheListeners<K, V> listeners;
+
+   private volatile Storage storage;
+
+   private final CacheStatistics statistics = new CacheStatistics(this);
+
+   private String label;
+
+   private String name;
+
+   private boolean logEnabled = false;
+
+   public LongKeyExoCache()
+   {
+      this(DEFAULT_MAX_SIZE);
+   }
+
+   public LongKeyExoCache(Log log)
+   {
+      this(DEFAULT_MAX_SIZE, log);
+   }
+
+   public LongKeyExoCache(int maxSize)
+   {
+      this(null, maxSize);
+   }
+
+   public LongKeyExoCache(int maxSize, Log log)
+   {
+      this(null, maxSize, log);
+   }
+
+   public LongKeyExoCache(String name, int maxSize)
+   {
+      this(name, maxSize, null);
+   }
+
+   public LongKeyExoCache(String name, int maxSize, Log log)
+   {
+      this.maxSize = maxSize;
+      this.name = name;
+      this.liveTimeMillis = -1;
+      this.log = log;
+      this.listeners = new CacheListeners<K, V>(this, statistics);
+      this.storage = new Storage(maxSize);
+   }
+
+   public String getName()
+   {
+      return name;
+   }
+
+   public void setName(String s)
+   {
+      name = s;
+   }
+
+   public String getLabel()
+   {
+      if (label == null)
+      {
+         if (name.length() > 30)
+         {
+            String shortLabel = name.substring(name.lastIndexOf(".") + 1);
+            setLabel(shortLabel);
+            return shortLabel;
+         }
+         return name;
+      }
+      return label;
+   }
+
+   public void setLabel(String name)
+   {
+      label = name;
+   }
+
+   public long getLiveTime()
+   {
+      long tmp = getLiveTimeMillis();
+      return tmp == -1 ? -1 : tmp / 1000;
+   }
+
+   public void setLiveTime(long period)
+   {
+      setLiveTimeMillis(period * 1000);
+   }
+
+   public long getLiveTimeMillis()
+   {
+      return liveTimeMillis;
+   }
+
+   public void setLiveTimeMillis(long liveTimeMillis)
+   {
+      if (liveTimeMillis < 0)
+      {
+         liveTimeMillis = -1;
+      }
+      this.liveTimeMillis = liveTimeMillis;
+   }
+
+   public int getMaxSize()
+   {
+      return maxSize;
+   }
+
+   /**
+    * Sets the maximum amount of entries. If the new size requires another amount of segments, the
+    * storage is rebuilt and the entries are moved into the new segments, the ones that do not fit anymore
+    * are evicted.
+    */
+   public synchronized void setMaxSize(int max)
+   {
+      this.maxSize = max;
+      Storage storage = this.storage;
+      if (storage.segments.length != segmentsFor(max))
+      {
+         rebuild();
+         return;
+      }
+      List<Evicted> evicted = new ArrayList<Evicted>();
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         Segment segment = storage.segments[i];
+         segment.lock.writeLock().lock();
+         try
+         {
+            segment.maxSize = segmentShare(max, storage.segments.length, i);
+            segment.evict(evicted);
+         }
+         finally
+         {
+            segment.lock.writeLock().unlock();
+         }
+      }
+      onEvict(evicted);
+   }
+
+   /**
+    * Gives the segment of the current storage of the given hash with its write lock held, a storage replaced
+    * while waiting for the lock is not used.
+    */
+   private Segment lockSegmentFor(int hash)
+   {
+      for (;;)
+      {
+         Storage storage = this.storage;
+         Segment segment = storage.segmentFor(hash);
+         segment.lock.writeLock().lock();
+         if (storage == this.storage)
+         {
+            return segment;
+         }
+         segment.lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Replaces the storage with one that matches the current max size. The segments of the previous storage
+    * are write locked while their entries are moved in FIFO order so that no modification is lost, then they
+    * are emptied.
+    */
+   private void rebuild()
+   {
+      Storage previous = this.storage;
+      Storage next = new Storage(maxSize);
+      List<Evicted> evicted = new ArrayList<Evicted>();
+      for (int i = 0; i < previous.segments.length; i++)
+      {
+         previous.segments[i].lock.writeLock().lock();
+      }
+      try
+      {
+         for (int i = 0; i < previous.segments.length; i++)
+         {
+            Segment segment = previous.segments[i];
+            for (int j = segment.head; j >= 0; j = segment.after[j])
+            {
+               long key = segment.keys[j];
+               byte kind = segment.kinds[j];
+               int hash = hash(key);
+               Object value = segment.values[j];
+               if (!next.segmentFor(hash).put(key, kind, hash, value, segment.expirationTimeAt(j), evicted))
+               {
+                  evicted.add(new Evicted(key, kind, value));
+               }
+            }
+            segment.clear();
+         }
+         this.storage = next;
+      }
+      finally
+      {
+         for (int i = previous.segments.length - 1; i >= 0; i--)
+         {
+            previous.segments[i].lock.writeLock().unlock();
+         }
+      }
+      onEvict(evicted);
+   }
+
+   @SuppressWarnings("unchecked")
+   public V get(Serializable name)
+   {
+      if (name == null)
+      {
+         return null;
+      }
+      long start = statistics.startTimer();
+      byte kind = kindOf(name);
+      if (kind == FREE)
+      {
+         statistics.recordMiss(start);
+         return null;
+      }
+      long key = ((Number)name).longValue();
+      int hash = hash(key);
+      Segment segment = storage.segmentFor(hash);
+      Object value = null;
+      long expirationTime = 0;
+      segment.lock.readLock().lock();
+      try
+      {
+         int index = segment.indexOf(key, kind, hash);
+         if (index >= 0)
+         {
+            value = segment.values[index];
+            expirationTime = segment.expirationTimeAt(index);
+         }
+      }
+      finally
+      {
+         segment.lock.readLock().unlock();
+      }
+      if (value != null && System.currentTimeMillis() < expirationTime)
+      {
+         statistics.recordHit(start);
+         onGet((K)name, (V)value);
+         return (V)value;
+      }
+      statistics.recordMiss(start);
+      if (value != null)
+      {
+         // The entry has expired
+         boolean expired = false;
+         segment.lock.writeLock().lock();
+         try
+         {
+            int index = segment.indexOf(key, kind, hash);
+            if (index >= 0 && segment.values[index] == value && segment.expirationTimeAt(index) == expirationTime)
+            {
+               segment.removeAt(index);
+               expired = true;
+            }
+         }
+         finally
+         {
+            segment.lock.writeLock().unlock();
+         }
+         if (expired)
+         {
+            onExpire((K)name, (V)value);
+         }
+      }
+      return null;
+   }
+
+   public Map<K, V> getAll(Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      Map<K, V> result = new HashMap<K, V>();
+      for (K name : names)
+      {
+         V value = get(name);
+         if (value != null)
+         {
+            result.put(name, value);
+         }
+      }
+      return result;
+   }
+
+   public void put(K name, V obj)
+   {
+      put(name, obj, liveTimeMillis);
+   }
+
+   public void put(K name, V obj, long liveTimeMillis)
+   {
+      checkKey(name);
+      if (liveTimeMillis != 0)
+      {
+         long expirationTime = liveTimeMillis > 0 ? System.currentTimeMillis() + liveTimeMillis : Long.MAX_VALUE;
+         put(expirationTime, name, obj);
+      }
+   }
+
+   public void putMap(Map<? extends K, ? extends V> objs)
+   {
+      if (objs == null)
+      {
+         throw new IllegalArgumentException("No null map accepted");
+      }
+      long expirationTime = liveTimeMillis > 0 ? System.currentTimeMillis() + liveTimeMillis : Long.MAX_VALUE;
+      for (Serializable name : objs.keySet())
+      {
+         checkKey(name);
+      }
+      for (Map.Entry<? extends K, ? extends V> entry : objs.entrySet())
+      {
+         put(expirationTime, entry.getKey(), entry.getValue());
+      }
+   }
+
+   /**
+    * Do a put with the provided expiration time.
+    *
+    * @param expirationTime the expiration time
+    * @param name the cache key
+    * @param obj the cached value
+    */
+   private void put(long expirationTime, K name, V obj)
+   {
+      long start = statistics.startTimer();
+      long key = ((Number)name).longValue();
+      int hash = hash(key);
+      List<Evicted> evicted = new ArrayList<Evicted>();
+      boolean stored;
+      Segment segment = lockSegmentFor(hash);
+      try
+      {
+         stored = segment.put(key, kindOf(name), hash, obj, expirationTime, evicted);
+      }
+      finally
+      {
+         segment.lock.writeLock().unlock();
+      }
+      onEvict(evicted);
+      if (stored)
+      {
+         onPut(name, obj);
+         statistics.recordPut(start);
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   public V remove(Serializable name)
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      byte kind = kindOf(name);
+      if (kind == FREE)
+      {
+         return null;
+      }
+      long key = ((Number)name).longValue();
+      int hash = hash(key);
+      Object value = null;
+      long expirationTime = 0;
+      Segment segment = lockSegmentFor(hash);
+      try
+      {
+         int index = segment.indexOf(key, kind, hash);
+         if (index >= 0)
+         {
+            value = segment.values[index];
+            expirationTime = segment.expirationTimeAt(index);
+            segment.removeAt(index);
+         }
+      }
+      finally
+      {
+         segment.lock.writeLock().unlock();
+      }
+      if (value != null)
+      {
+         if (System.currentTimeMillis() < expirationTime)
+         {
+            onRemove((K)name, (V)value);
+            return (V)value;
+         }
+         else
+         {
+            onExpire((K)name, (V)value);
+         }
+      }
+      return null;
+   }
+
+   public void removeAll(Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      for (Serializable name : names)
+      {
+         if (name == null)
+         {
+            throw new IllegalArgumentException("No null cache key accepted");
+         }
+      }
+      for (Serializable name : names)
+      {
+         remove(name);
+      }
+   }
+
+   /**
+    * Does nothing as a numeric key never starts with a given prefix.
+    */
+   public void removeByPrefix(String prefix)
+   {
+      if (prefix == null)
+      {
+         throw new IllegalArgumentException("No null prefix accepted");
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   public List<? extends V> getCachedObjects()
+   {
+      Storage storage = this.storage;
+      LinkedList<V> list = new LinkedList<V>();
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         for (Snapshot<K> snapshot : storage.<K> snapshot(i))
+         {
+            list.add((V)snapshot.value);
+         }
+      }
+      return list;
+   }
+
+   public List<? extends V> removeCachedObjects()
+   {
+      List<? extends V> list = getCachedObjects();
+      clearCache();
+      return list;
+   }
+
+   public CacheCursor<K, V> openCursor(int chunkSize)
+   {
+      Storage storage = this.storage;
+      return new StorageCursor(chunkSize, storage, 0, storage.segments.length);
+   }
+
+   public void clearCache()
+   {
+      Storage storage = this.storage;
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         Segment segment = storage.segments[i];
+         segment.lock.writeLock().lock();
+         try
+         {
+            segment.clear();
+         }
+         finally
+         {
+            segment.lock.writeLock().unlock();
+         }
+      }
+   }
+
+   public void select(CachedObjectSelector<? super K, ? super V> selector) throws Exception
+   {
+      if (selector == null)
+      {
+         throw new IllegalArgumentException("No null selector");
+      }
+      Storage storage = this.storage;
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         for (Snapshot<K> snapshot : storage.<K> snapshot(i))
+         {
+            ObjectCacheInfo<V> info = new SnapshotInfo(snapshot);
+            if (selector.select(snapshot.key, info))
+            {
+               selector.onSelect(this, snapshot.key, info);
+            }
+         }
+      }
+   }
+
+   public int getCacheSize()
+   {
+      Storage storage = this.storage;
+      int size = 0;
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         Segment segment = storage.segments[i];
+         segment.lock.readLock().lock();
+         try
+         {
+            size += segment.size;
+         }
+         finally
+         {
+            segment.lock.readLock().unlock();
+         }
+      }
+      return size;
+   }
+
+   public long getCacheWeight()
+   {
+      return -1;
+   }
+
+   public int getCacheHit()
+   {
+      return CacheStatistics.toInt(statistics.getHitCount());
+   }
+
+   public int getCacheMiss()
+   {
+      return CacheStatistics.toInt(statistics.getMissCount());
+   }
+
+   public CacheStatistics getStatistics()
+   {
+      return statistics;
+   }
+
+   public synchronized void addCacheListener(CacheListener<? super K, ? super V> listener)
+   {
+      listeners.add(listener);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setListenerQueue(int queueSize, ListenerOverflowPolicy policy)
+   {
+      listeners.setQueue(queueSize, policy);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public int getListenerQueueSize()
+   {
+      return listeners.getQueueSize();
+   }
+
+   public boolean isLogEnabled()
+   {
+      return logEnabled;
+   }
+
+   public void setLogEnabled(boolean logEnabled)
+   {
+      this.logEnabled = logEnabled;
+   }
+
+   /**
+    * Checks that the internal structures of all the segments are consistent, only meant for testing.
+    */
+   public void assertConsistent()
+   {
+      Storage storage = this.storage;
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         Segment segment = storage.segments[i];
+         segment.lock.readLock().lock();
+         try
+         {
+            segment.assertConsistent();
+         }
+         finally
+         {
+            segment.lock.readLock().unlock();
+         }
+      }
+   }
+
+   //
+
+   @SuppressWarnings("unchecked")
+   private void onEvict(List<Evicted> evicted)
+   {
+      for (int i = 0, length = evicted.size(); i < length; i++)
+      {
+         Evicted entry = evicted.get(i);
+         K key = LongKeyExoCache.<K> toKey(entry.key, entry.kind);
+         if (log != null && log.isTraceEnabled())
+         {
+            log.trace("Evicted key=" + key + " [" + Thread.currentThread().getName() + "]");
+         }
+         onExpire(key, (V)entry.value);
+      }
+   }
+
+   void onExpire(K key, V obj)
+   {
+      statistics.recordEviction();
+      listeners.onExpire(key, obj);
+   }
+
+   void onRemove(K key, V obj)
+   {
+      listeners.onRemove(key, obj);
+   }
+
+   void onPut(K key, V obj)
+   {
+      listeners.onPut(key, obj);
+   }
+
+   void onGet(K key, V obj)
+   {
+      listeners.onGet(key, obj);
+   }
+
+   /**
+    * Rejects the keys that cannot be stored
+    */
+   private static void checkKey(Serializable name)
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      if (kindOf(name) == FREE)
+      {
+         throw new IllegalArgumentException("Only Long and Integer cache keys are accepted, got "
+            + name.getClass().getName());
+      }
+   }
+
+   /**
+    * Gives the kind of slot matching the type of the given key, {@link #FREE} if the type is not supported
+    */
+   private static byte kindOf(Object key)
+   {
+      Class<?> type = key.getClass();
+      if (type == Long.class)
+      {
+         return LONG;
+      }
+      else if (type == Integer.class)
+      {
+         return INTEGER;
+      }
+      return FREE;
+   }
+
+   /**
+    * Boxes the given key according to its kind
+    */
+   @SuppressWarnings("unchecked")
+   private static <K> K toKey(long key, byte kind)
+   {
+      if (kind == LONG)
+      {
+         return (K)Long.valueOf(key);
+      }
+      return (K)Integer.valueOf((int)key);
+   }
+
+   /**
+    * Mixes the bits of the given key, the high bits select the segment and the low bits the slot
+    */
+   private static int hash(long key)
+   {
+      key = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+      key = (key ^ (key >>> 33)) * 0xc4ceb9fe1a85ec53L;
+      return (int)(key ^ (key >>> 33));
+   }
+
+   /**
+    * Gives the amount of segments to use, a power of two such that each segment has enough entries
+    */
+   static int segmentsFor(int maxSize)
+   {
+      int segments = 1;
+      while (segments < MAX_SEGMENTS && maxSize / (segments * 2) >= MIN_SEGMENT_SIZE)
+      {
+         segments <<= 1;
+      }
+      return segments;
+   }
+
+   /**
+    * Gives the part of the given total that is allocated to the segment of the given index
+    */
+   private static int segmentShare(int total, int segments, int index)
+   {
+      if (total <= 0)
+      {
+         return 0;
+      }
+      return total / segments + (index < total % segments ? 1 : 0);
+   }
+
+   /**
+    * An entry that has been evicted
+    */
+   private static class Evicted
+   {
+      final long key;
+
+      final byte kind;
+
+      final Object value;
+
+      Evicted(long key, byte kind, Object value)
+      {
+         this.key = key;
+         this.kind = kind;
+         this.value = value;
+      }
+   }
+
+   /**
+    * A copy of a valid entry
+    */
+   private static class Snapshot<K>
+   {
+      final K key;
+
+      final long expirationTime;
+
+      final Object value;
+
+      Snapshot(K key, long expirationTime, Object value)
+      {
+         this.key = key;
+         this.expirationTime = expirationTime;
+         this.value = value;
+      }
+   }
+
+   /**
+    * The {@link ObjectCacheInfo} of a snapshot
+    */
+   private class SnapshotInfo implements ObjectCacheInfo<V>
+   {
+      private final Snapshot<K> snapshot;
+
+      SnapshotInfo(Snapshot<K> snapshot)
+      {
+         this.snapshot = snapshot;
+      }
+
+      public long getExpireTime()
+      {
+         return snapshot.expirationTime;
+      }
+
+      @SuppressWarnings("unchecked")
+      public V get()
+      {
+         return (V)snapshot.value;
+      }
+   }
+
+   /**
+    * A part of the cache. The entries are stored into parallel arrays indexed by slot, the slot of a key
+    * being found by linear probing from its hash. The removed entries leave a {@link #DELETED} slot so that
+    * the probing sequences of the other keys are not broken, these slots are reclaimed when the table is
+    * rehashed. The entries are also linked in FIFO order through the <code>before</code> and
+    * <code>after</code> arrays of slots. All the methods must be called with the lock held, the write lock
+    * being required for any modification.
+    */
+   private static class Segment
+   {
+      final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+      long[] keys;
+
+      byte[] kinds;
+
+      Object[] values;
+
+      /**
+       * The expiration times, null as long as all the entries of the segment never expire
+       */
+      long[] expirationTimes;
+
+      int[] before;
+
+      int[] after;
+
+      /**
+       * The slot of the oldest entry, -1 if the segment is empty
+       */
+      int head;
+
+      /**
+       * The slot of the newest entry, -1 if the segment is empty
+       */
+      int tail;
+
+      /**
+       * The amount of entries
+       */
+      int size;
+
+      /**
+       * The amount of slots that are not {@link #FREE}
+       */
+      int used;
+
+      int maxSize;
+
+      Segment(int maxSize)
+      {
+         this.maxSize = maxSize;
+         allocate(INITIAL_CAPACITY, false);
+      }
+
+      private void allocate(int capacity, boolean withExpirationTimes)
+      {
+         keys = new long[capacity];
+         kinds = new byte[capacity];
+         values = new Object[capacity];
+         expirationTimes = withExpirationTimes ? new long[capacity] : null;
+         before = new int[capacity];
+         after = new int[capacity];
+         head = -1;
+         tail = -1;
+         used = 0;
+      }
+
+      /**
+       * Gives the slot of the given key, -1 if it is not in the segment
+       */
+      int indexOf(long key, byte kind, int hash)
+      {
+         int mask = kinds.length - 1;
+         for (int i = hash & mask;; i = (i + 1) & mask)
+         {
+            byte k = kinds[i];
+            if (k == FREE)
+            {
+               return -1;
+            }
+            else if (k == kind && keys[i] == key)
+            {
+               return i;
+            }
+         }
+      }
+
+      long expirationTimeAt(int index)
+      {
+         return expirationTimes == null ? Long.MAX_VALUE : expirationTimes[index];
+      }
+
+      /**
+       * Stores the given value, the oldest entries are evicted if needed.
+       *
+       * @return <code>false</code> if the value could not be stored because the segment cannot have any entry
+       */
+      boolean put(long key, byte kind, int hash, Object value, long expirationTime, List<Evicted> evicted)
+      {
+         int index = indexOf(key, kind, hash);
+         if (index >= 0)
+         {
+            unlink(index);
+         }
+         else if (maxSize <= 0)
+         {
+            return false;
+         }
+         else
+         {
+            if ((used + 1) * 4L > kinds.length * 3L)
+            {
+               // Too many slots are used, the table grows unless most of them are deleted slots
+               rehash(size * 2 >= kinds.length ? kinds.length << 1 : kinds.length);
+            }
+            index = freeSlot(hash);
+            if (kinds[index] == FREE)
+            {
+               used++;
+            }
+            keys[index] = key;
+            kinds[index] = kind;
+            size++;
+         }
+         values[index] = value;
+         if (expirationTimes == null && expirationTime != Long.MAX_VALUE)
+         {
+            expirationTimes = new long[kinds.length];
+            Arrays.fill(expirationTimes, Long.MAX_VALUE);
+         }
+         if (expirationTimes != null)
+         {
+            expirationTimes[index] = expirationTime;
+         }
+         link(index);
+         evict(evicted);
+         return true;
+      }
+
+      /**
+       * Evicts the oldest entries until the segment fits into its maximum size.
+       */
+      void evict(List<Evicted> evicted)
+      {
+         while (size > Math.max(maxSize, 0))
+         {
+            int index = head;
+            evicted.add(new Evicted(keys[index], kinds[index], values[index]));
+            removeAt(index);
+         }
+      }
+
+      /**
+       * Removes the entry of the given slot
+       */
+      void removeAt(int index)
+      {
+         unlink(index);
+         values[index] = null;
+         size--;
+         if (kinds[(index + 1) & (kinds.length - 1)] == FREE)
+         {
+            // No probing sequence goes through this slot to reach another key, it can be freed
+            kinds[index] = FREE;
+            used--;
+         }
+         else
+         {
+            kinds[index] = DELETED;
+         }
+      }
+
+      void clear()
+      {
+         allocate(INITIAL_CAPACITY, false);
+         size = 0;
+      }
+
+      /**
+       * Gives the first slot that is free or deleted starting from the given hash
+       */
+      private int freeSlot(int hash)
+      {
+         int mask = kinds.length - 1;
+         int i = hash & mask;
+         while (kinds[i] != FREE && kinds[i] != DELETED)
+         {
+            i = (i + 1) & mask;
+         }
+         return i;
+      }
+
+      /**
+       * Copies all the entries into new tables of the given length, the FIFO order is kept
+       */
+      private void rehash(int capacity)
+      {
+         long[] oldKeys = keys;
+         byte[] oldKinds = kinds;
+         Object[] oldValues = values;
+         long[] oldExpirationTimes = expirationTimes;
+         int[] oldAfter = after;
+         int oldHead = head;
+         allocate(capacity, oldExpirationTimes != null);
+         for (int i = oldHead; i >= 0; i = oldAfter[i])
+         {
+            int index = freeSlot(hash(oldKeys[i]));
+            keys[index] = oldKeys[i];
+            kinds[index] = oldKinds[i];
+            values[index] = oldValues[i];
+            if (oldExpirationTimes != null)
+            {
+               expirationTimes[index] = oldExpirationTimes[i];
+            }
+            link(index);
+            used++;
+         }
+      }
+
+      /**
+       * Adds the given slot as the newest entry
+       */
+      private void link(int index)
+      {
+         before[index] = tail;
+         after[index] = -1;
+         if (tail >= 0)
+         {
+            after[tail] = index;
+         }
+         else
+         {
+            head = index;
+         }
+         tail = index;
+      }
+
+      private void unlink(int index)
+      {
+         int previous = before[index];
+         int next = after[index];
+         if (previous >= 0)
+         {
+            after[previous] = next;
+         }
+         else
+         {
+            head = next;
+         }
+         if (next >= 0)
+         {
+            before[next] = previous;
+         }
+         else
+         {
+            tail = previous;
+         }
+      }
+
+      void assertConsistent()
+      {
+         int count = 0;
+         int previous = -1;
+         for (int i = head; i >= 0; i = after[i])
+         {
+            if (kinds[i] != LONG && kinds[i] != INTEGER)
+            {
+               throw new AssertionError("The slot " + i + " is linked but empty");
+            }
+            if (before[i] != previous)
+            {
+               throw new AssertionError("The slot " + i + " is not properly linked");
+            }
+            if (indexOf(keys[i], kinds[i], hash(keys[i])) != i)
+            {
+               throw new AssertionError("The key " + keys[i] + " cannot be found");
+            }
+            previous = i;
+            count++;
+         }
+         if (previous != tail)
+         {
+            throw new AssertionError("The tail " + tail + " is not the last linked slot " + previous);
+         }
+         if (count != size)
+         {
+            throw new AssertionError("The size " + size + " does not match the amount of linked slots " + count);
+         }
+         int notFree = 0;
+         for (int i = 0; i < kinds.length; i++)
+         {
+            if (kinds[i] != FREE)
+            {
+               notFree++;
+            }
+         }
+         if (notFree != used)
+         {
+            throw new AssertionError("The amount of used slots " + used + " should be " + notFree);
+         }
+         if (size > Math.max(maxSize, 0))
+         {
+            throw new AssertionError("The size " + size + " exceeds the maximum size " + maxSize);
+         }
+      }
+   }
+
+   /**
+    * Really the cache state (we need it because the segments depend on the max size).
+    */
+   private static class Storage
+   {
+      final Segment[] segments;
+
+      Storage(int maxSize)
+      {
+         int length = segmentsFor(maxSize);
+         this.segments = new Segment[length];
+         for (int i = 0; i < length; i++)
+         {
+            segments[i] = new Segment(segmentShare(maxSize, length, i));
+         }
+      }
+
+      /**
+       * Gives the segment of the given hash, its high bits are used since the low bits select the slot
+       */
+      Segment segmentFor(int hash)
+      {
+         return segments[(hash >>> 28) & (segments.length - 1)];
+      }
+
+      /**
+       * Copies the valid entries of the segment of the given index
+       */
+      <K> List<Snapshot<K>> snapshot(int index)
+      {
+         Segment segment = segments[index];
+         long now = System.currentTimeMillis();
+         segment.lock.readLock().lock();
+         try
+         {
+            List<Snapshot<K>> snapshots = new ArrayList<Snapshot<K>>(segment.size);
+            for (int j = segment.head; j >= 0; j = segment.after[j])
+            {
+               long expirationTime = segment.expirationTimeAt(j);
+               if (now < expirationTime)
+               {
+                  K key = LongKeyExoCache.<K> toKey(segment.keys[j], segment.kinds[j]);
+                  snapshots.add(new Snapshot<K>(key, expirationTime, segment.values[j]));
+               }
+            }
+            return snapshots;
+         }
+         finally
+         {
+            segment.lock.readLock().unlock();
+         }
+      }
+   }
+
+   /**
+    * A cursor over the segments of a storage, the primitive keys of a segment are copied in FIFO order when it
+    * is opened then the entries are looked up chunk by chunk.
+    */
+   private class StorageCursor extends SegmentCursor<K, V>
+   {
+      private final Storage storage;
+
+      private Segment segment;
+
+      private long[] keys;
+
+      private byte[] kinds;
+
+      private int index;
+
+      StorageCursor(int chunkSize, Storage storage, int start, int end)
+      {
+         super(chunkSize, start, end);
+         this.storage = storage;
+      }
+
+      @Override
+      protected void open(int index)
+      {
+         segment = storage.segments[index];
+         segment.lock.readLock().lock();
+         try
+         {
+            keys = new long[segment.size];
+            kinds = new byte[segment.size];
+            int i = 0;
+            for (int j = segment.head; j >= 0; j = segment.after[j], i++)
+            {
+               keys[i] = segment.keys[j];
+               kinds[i] = segment.kinds[j];
+            }
+         }
+         finally
+         {
+            segment.lock.readLock().unlock();
+         }
+         this.index = 0;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      protected boolean fetchSegment(Map<K, V> chunk, int max)
+      {
+         long now = System.currentTimeMillis();
+         segment.lock.readLock().lock();
+         try
+         {
+            while (chunk.size() < max && index < keys.length)
+            {
+               long key = keys[index];
+               byte kind = kinds[index++];
+               int i = segment.indexOf(key, kind, hash(key));
+               if (i >= 0 && now < segment.expirationTimeAt(i))
+               {
+                  chunk.put(LongKeyExoCache.<K> toKey(key, kind), (V)segment.values[i]);
+               }
+            }
+         }
+         finally
+         {
+            segment.lock.readLock().unlock();
+         }
+         if (index < keys.length)
+         {
+            return true;
+         }
+         release();
+         return false;
+      }
+
+      @Override
+      protected SegmentCursor<K, V> newCursor(int start, int end)
+      {
+         return new StorageCursor(getChunkSize(), storage, start, end);
+      }
+
+      @Override
+      public void close()
+      {
+         super.close();
+         release();
+      }
+
+      private void release()
+      {
+         keys = null;
+         kinds = null;
+         segment = null;
+      }
+   }
+}
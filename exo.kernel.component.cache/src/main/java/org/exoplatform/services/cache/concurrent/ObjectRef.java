@@ -35,10 +35,38 @@ abstract class ObjectRef<K extends Serializable, V> extends Item implements Obje
 
    protected final K name;
 
+   /**
+    * The weight of the entry, 0 if the weight is not tracked
+    */
+   protected final int weight;
+
+   /**
+    * The next entry in the same bucket of the {@link TimerWheel}, only accessed by the thread
+    * that holds the lock of the wheel
+    */
+   ObjectRef<K, V> timerNext;
+
+   /**
+    * The previous entry in the same bucket of the {@link TimerWheel}, null if it is the first one
+    */
+   ObjectRef<K, V> timerPrevious;
+
+   /**
+    * The level and the index of the bucket of the {@link TimerWheel} the entry is linked to, -1 if
+    * it is not linked
+    */
+   int timerSlot = -1;
+
    protected ObjectRef(long expirationTime, K name)
+   {
+      this(expirationTime, name, 0);
+   }
+
+   protected ObjectRef(long expirationTime, K name, int weight)
    {
       this.name = name;
       this.expirationTime = expirationTime;
+      this.weight = weight;
    }
 
    public abstract boolean isValid();
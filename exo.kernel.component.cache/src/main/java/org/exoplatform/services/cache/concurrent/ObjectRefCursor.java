@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import org.exoplatform.services.cache.AbstractCacheCursor;
+import org.exoplatform.services.cache.CacheCursor;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A cursor over the references of a concurrent map, the invalid references are skipped. As such an iterator
+ * cannot be partitioned, the cursor is split by hash: the cursors obtained by splitting a cursor all iterate
+ * over the whole map but each of them only returns the keys of its own share of the hash values. A cursor can
+ * only be split before its first chunk is fetched.
+ *
+ * @version $Id$
+ */
+class ObjectRefCursor<K extends Serializable, V> extends AbstractCacheCursor<K, V>
+{
+
+   /**
+    * Beyond this amount of shares, iterating over the whole map costs more than processing a share
+    */
+   private static final int MAX_SHARES = 64;
+
+   private final Collection<? extends ObjectRef<K, V>> refs;
+
+   /**
+    * The share of the hash values of this cursor
+    */
+   private int share;
+
+   /**
+    * The amount of shares, a power of two
+    */
+   private int shares;
+
+   private Iterator<? extends ObjectRef<K, V>> iterator;
+
+   ObjectRefCursor(int chunkSize, Collection<? extends ObjectRef<K, V>> refs)
+   {
+      this(chunkSize, refs, 0, 1);
+   }
+
+   private ObjectRefCursor(int chunkSize, Collection<? extends ObjectRef<K, V>> refs, int share, int shares)
+   {
+      super(chunkSize);
+      this.refs = refs;
+      this.share = share;
+      this.shares = shares;
+   }
+
+   @Override
+   protected boolean fetch(Map<K, V> chunk, int max)
+   {
+      if (iterator == null)
+      {
+         iterator = refs.iterator();
+      }
+      int mask = shares - 1;
+      while (chunk.size() < max && iterator.hasNext())
+      {
+         ObjectRef<K, V> ref = iterator.next();
+         if (mask != 0 && (spread(ref.name.hashCode()) & mask) != share)
+         {
+            continue;
+         }
+         V object = ref.getObject();
+         if (object != null && ref.isValid())
+         {
+            chunk.put(ref.name, object);
+         }
+      }
+      return iterator.hasNext();
+   }
+
+   @Override
+   public CacheCursor<K, V> trySplit()
+   {
+      if (isStarted() || shares >= MAX_SHARES)
+      {
+         return null;
+      }
+      shares <<= 1;
+      return new ObjectRefCursor<K, V>(getChunkSize(), refs, share + (shares >>> 1), shares);
+   }
+
+   private static int spread(int h)
+   {
+      h ^= (h >>> 20) ^ (h >>> 12);
+      return h ^ (h >>> 7) ^ (h >>> 4);
+   }
+}
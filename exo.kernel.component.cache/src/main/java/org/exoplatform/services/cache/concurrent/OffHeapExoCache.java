@@ -0,0 +1,1269 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import org.exoplatform.services.cache.CacheCursor;
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheStatistics;
+import org.exoplatform.services.cache.CachedObjectSelector;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExpireKeyStartWithSelector;
+import org.exoplatform.services.cache.ObjectCacheInfo;
+import org.exoplatform.services.cache.PrefixIndex;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An {@link org.exoplatform.services.cache.ExoCache} implementation that keeps the values serialized out of the
+ * java heap, into direct {@link java.nio.ByteBuffer} slabs managed by a {@link BlockStore}. Only the keys and a
+ * compact index of the blocks of each value remain on the heap, which allows to cache a large amount of data
+ * without increasing the GC pauses.
+ * <p>
+ * The values must be serializable, a value that cannot be serialized is not cached. Each call to
+ * {@link #get(Serializable)} returns a new copy of the value so the modifications of a value are not reflected
+ * into the cache. The entries are evicted in FIFO order once the maximum size is reached or once there is no
+ * more room in the off-heap memory whose size is defined by the max weight in bytes.
+ * <p>
+ * The entries are spread into segments, each of them being guarded by its own read write lock.
+ *
+ * @version $Id$
+ */
+public class OffHeapExoCache<K extends Serializable, V> implements ExoCache<K, V>, ListenerQueueSupport,
+   LiveTimeSupport
+{
+
+   /**
+    * Logger.
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.cache.OffHeapExoCache");
+
+   private static int DEFAULT_MAX_SIZE = 50;
+
+   /**
+    * The default amount of off-heap memory in bytes
+    */
+   public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+   /**
+    * The maximum amount of segments
+    */
+   private static final int MAX_SEGMENTS = 16;
+
+   /**
+    * The minimum amount of entries per segment
+    */
+   private static final int MIN_SEGMENT_SIZE = 64;
+
+   /**
+    * The minimum amount of off-heap memory per segment
+    */
+   private static final long MIN_SEGMENT_WEIGHT = 1024 * 1024;
+
+   private final Log log;
+
+   private volatile long liveTimeMillis;
+
+   private volatile int maxSize;
+
+   private volatile long maxWeight;
+
+   private final CacheListeners<K, V> listeners;
+
+   private volatile Storage storage;
+
+   private final CacheStatistics statistics = new CacheStatistics(this);
+
+   /**
+    * Indicates whether the keys are indexed by prefix, it is enabled by the first removal by prefix
+    */
+   private volatile boolean prefixIndexed;
+
+   private String label;
+
+   private String name;
+
+   private boolean logEnabled = false;
+
+   public OffHeapExoCache()
+   {
+      this(DEFAULT_MAX_SIZE);
+   }
+
+   public OffHeapExoCache(Log log)
+   {
+      this(DEFAULT_MAX_SIZE, log);
+   }
+
+   public OffHeapExoCache(int maxSize)
+   {
+      this(null, maxSize);
+   }
+
+   public OffHeapExoCache(int maxSize, Log log)
+   {
+      this(null, maxSize, log);
+   }
+
+   public OffHeapExoCache(String name, int maxSize)
+   {
+      this(name, maxSize, null);
+   }
+
+   public OffHeapExoCache(String name, int maxSize, Log log)
+   {
+      this.maxSize = maxSize;
+      this.maxWeight = DEFAULT_MAX_WEIGHT;
+      this.name = name;
+      this.liveTimeMillis = -1;
+      this.log = log;
+      this.listeners = new CacheListeners<K, V>(this, statistics);
+      this.storage = new Storage(maxSize, maxWeight);
+   }
+
+   public String getName()
+   {
+      return name;
+   }
+
+   public void setName(String s)
+   {
+      name = s;
+   }
+
+   public String getLabel()
+   {
+      if (label == null)
+      {
+         if (name.length() > 30)
+         {
+            String shortLabel = name.substring(name.lastIndexOf(".") + 1);
+            setLabel(shortLabel);
+            return shortLabel;
+         }
+         return name;
+      }
+      return label;
+   }
+
+   public void setLabel(String name)
+   {
+      label = name;
+   }
+
+   public long getLiveTime()
+   {
+      long tmp = getLiveTimeMillis();
+      return tmp == -1 ? -1 : tmp / 1000;
+   }
+
+   public void setLiveTime(long period)
+   {
+      setLiveTimeMillis(period * 1000);
+   }
+
+   public long getLiveTimeMillis()
+   {
+      return liveTimeMillis;
+   }
+
+   public void setLiveTimeMillis(long liveTimeMillis)
+   {
+      if (liveTimeMillis < 0)
+      {
+         liveTimeMillis = -1;
+      }
+      this.liveTimeMillis = liveTimeMillis;
+   }
+
+   public int getMaxSize()
+   {
+      return maxSize;
+   }
+
+   /**
+    * Sets the maximum amount of entries. If the new size requires another amount of segments, the
+    * storage is rebuilt as explained in {@link #setMaxWeight(long)}.
+    */
+   public synchronized void setMaxSize(int max)
+   {
+      this.maxSize = max;
+      Storage storage = this.storage;
+      if (storage.segments.length != segmentsFor(max, maxWeight))
+      {
+         rebuild();
+         return;
+      }
+      List<Evicted<K>> evicted = new ArrayList<Evicted<K>>();
+      boolean withValues = !listeners.isEmpty();
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         Segment<K> segment = storage.segments[i];
+         segment.lock.writeLock().lock();
+         try
+         {
+            segment.maxSize = segmentShare(max, storage.segments.length, i);
+            segment.evict(0, evicted, withValues);
+         }
+         finally
+         {
+            segment.lock.writeLock().unlock();
+         }
+      }
+      onEvict(evicted);
+   }
+
+   /**
+    * @return the maximum amount of bytes of off-heap memory used to store the values
+    */
+   public long getMaxWeight()
+   {
+      return maxWeight;
+   }
+
+   /**
+    * Sets the maximum amount of bytes of off-heap memory used to store the values, a value lower or equal to
+    * 0 restores the default value. If the value changes, the storage is rebuilt: the entries are moved into
+    * the new storage, the oldest ones being evicted if they don't fit anymore. The off-heap memory of the
+    * previous storage is only released once it is garbage collected, so until then the cache can use up to
+    * its previous max weight on top of the new one.
+    */
+   public synchronized void setMaxWeight(long maxWeight)
+   {
+      if (maxWeight <= 0)
+      {
+         maxWeight = DEFAULT_MAX_WEIGHT;
+      }
+      if (this.maxWeight != maxWeight)
+      {
+         this.maxWeight = maxWeight;
+         rebuild();
+      }
+   }
+
+   /**
+    * Gives the segment of the current storage in which the given key is stored with its write lock held, a
+    * storage replaced while waiting for the lock is not used.
+    */
+   private Segment<K> lockSegmentFor(Object key)
+   {
+      for (;;)
+      {
+         Storage storage = this.storage;
+         Segment<K> segment = storage.segmentFor(key);
+         segment.lock.writeLock().lock();
+         if (storage == this.storage)
+         {
+            return segment;
+         }
+         segment.lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Replaces the storage with one that matches the current max size and max weight. The segments of the
+    * previous storage are write locked while their entries are moved so that no modification is lost, then
+    * they are emptied.
+    */
+   private void rebuild()
+   {
+      Storage previous = this.storage;
+      Storage next = new Storage(maxSize, maxWeight);
+      List<Evicted<K>> evicted = new ArrayList<Evicted<K>>();
+      boolean withValues = !listeners.isEmpty();
+      for (int i = 0; i < previous.segments.length; i++)
+      {
+         previous.segments[i].lock.writeLock().lock();
+      }
+      try
+      {
+         for (int i = 0; i < previous.segments.length; i++)
+         {
+            Segment<K> segment = previous.segments[i];
+            for (Entry<K> entry : segment.map.values())
+            {
+               byte[] data = segment.store.read(entry.blocks, entry.length);
+               if (!next.segmentFor(entry.key).put(entry.expirationTime, entry.key, data, evicted, withValues))
+               {
+                  evicted.add(new Evicted<K>(entry.key, withValues ? data : null));
+               }
+            }
+            segment.clear();
+         }
+         this.storage = next;
+      }
+      finally
+      {
+         for (int i = previous.segments.length - 1; i >= 0; i--)
+         {
+            previous.segments[i].lock.writeLock().unlock();
+         }
+      }
+      onEvict(evicted);
+   }
+
+   public V get(Serializable name)
+   {
+      if (name == null)
+      {
+         return null;
+      }
+      long start = statistics.startTimer();
+      Segment<K> segment = storage.segmentFor(name);
+      Entry<K> entry;
+      byte[] data = null;
+      segment.lock.readLock().lock();
+      try
+      {
+         entry = segment.map.get(name);
+         if (entry != null && entry.isValid())
+         {
+            data = segment.store.read(entry.blocks, entry.length);
+         }
+      }
+      finally
+      {
+         segment.lock.readLock().unlock();
+      }
+      if (data != null)
+      {
+         V o = deserialize(data);
+         statistics.recordHit(start);
+         onGet(entry.key, o);
+         return o;
+      }
+      statistics.recordMiss(start);
+      if (entry != null)
+      {
+         // The entry has expired
+         boolean withValues = !listeners.isEmpty();
+         segment.lock.writeLock().lock();
+         try
+         {
+            if (segment.map.get(name) == entry)
+            {
+               data = segment.remove(entry, withValues);
+            }
+            else
+            {
+               entry = null;
+            }
+         }
+         finally
+         {
+            segment.lock.writeLock().unlock();
+         }
+         if (entry != null && withValues)
+         {
+            onExpire(entry.key, deserialize(data));
+         }
+         else if (entry != null)
+         {
+            statistics.recordEviction();
+         }
+      }
+      return null;
+   }
+
+   public Map<K, V> getAll(Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      Map<K, V> result = new HashMap<K, V>();
+      for (K name : names)
+      {
+         V value = get(name);
+         if (value != null)
+         {
+            result.put(name, value);
+         }
+      }
+      return result;
+   }
+
+   public void put(K name, V obj)
+   {
+      put(name, obj, liveTimeMillis);
+   }
+
+   public void put(K name, V obj, long liveTimeMillis)
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      if (liveTimeMillis != 0)
+      {
+         long expirationTime = liveTimeMillis > 0 ? System.currentTimeMillis() + liveTimeMillis : Long.MAX_VALUE;
+         put(expirationTime, name, obj);
+      }
+   }
+
+   public void putMap(Map<? extends K, ? extends V> objs)
+   {
+      if (objs == null)
+      {
+         throw new IllegalArgumentException("No null map accepted");
+      }
+      long expirationTime = liveTimeMillis > 0 ? System.currentTimeMillis() + liveTimeMillis : Long.MAX_VALUE;
+      for (Serializable name : objs.keySet())
+      {
+         if (name == null)
+         {
+            throw new IllegalArgumentException("No null cache key accepted");
+         }
+      }
+      for (Map.Entry<? extends K, ? extends V> entry : objs.entrySet())
+      {
+         put(expirationTime, entry.getKey(), entry.getValue());
+      }
+   }
+
+   /**
+    * Do a put with the provided expiration time.
+    *
+    * @param expirationTime the expiration time
+    * @param name the cache key
+    * @param obj the cached value
+    */
+   private void put(long expirationTime, K name, V obj)
+   {
+      long start = statistics.startTimer();
+      byte[] data = serialize(name, obj);
+      if (data == null)
+      {
+         return;
+      }
+      List<Evicted<K>> evicted = new ArrayList<Evicted<K>>();
+      boolean stored;
+      Segment<K> segment = lockSegmentFor(name);
+      try
+      {
+         stored = segment.put(expirationTime, name, data, evicted, !listeners.isEmpty());
+      }
+      finally
+      {
+         segment.lock.writeLock().unlock();
+      }
+      onEvict(evicted);
+      if (stored)
+      {
+         onPut(name, obj);
+         statistics.recordPut(start);
+      }
+      else if (log != null && log.isTraceEnabled())
+      {
+         log.trace("The value of the key " + name + " is too large to be stored [" + Thread.currentThread().getName()
+            + "]");
+      }
+   }
+
+   public V remove(Serializable name)
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      Entry<K> entry;
+      byte[] data = null;
+      Segment<K> segment = lockSegmentFor(name);
+      try
+      {
+         entry = segment.map.get(name);
+         if (entry != null)
+         {
+            data = segment.remove(entry, true);
+         }
+      }
+      finally
+      {
+         segment.lock.writeLock().unlock();
+      }
+      if (entry != null)
+      {
+         V object = deserialize(data);
+         if (entry.isValid())
+         {
+            onRemove(entry.key, object);
+            return object;
+         }
+         else
+         {
+            onExpire(entry.key, object);
+         }
+      }
+      return null;
+   }
+
+   public void removeAll(Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      for (Serializable name : names)
+      {
+         if (name == null)
+         {
+            throw new IllegalArgumentException("No null cache key accepted");
+         }
+      }
+      for (Serializable name : names)
+      {
+         remove(name);
+      }
+   }
+
+   public void removeByPrefix(String prefix)
+   {
+      if (prefix == null)
+      {
+         throw new IllegalArgumentException("No null prefix accepted");
+      }
+      prefixIndexed = true;
+      Storage storage = this.storage;
+      boolean withValues = !listeners.isEmpty();
+      List<Snapshot<K>> removed = new ArrayList<Snapshot<K>>();
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         Segment<K> segment = storage.segments[i];
+         segment.lock.writeLock().lock();
+         try
+         {
+            for (Entry<K> entry : segment.getPrefixIndex().getEntries(prefix).values())
+            {
+               removed.add(new Snapshot<K>(entry.key, entry.expirationTime, segment.remove(entry, withValues)));
+            }
+         }
+         finally
+         {
+            segment.lock.writeLock().unlock();
+         }
+      }
+      long now = System.currentTimeMillis();
+      for (int i = 0, length = removed.size(); i < length; i++)
+      {
+         Snapshot<K> snapshot = removed.get(i);
+         boolean valid = now < snapshot.expirationTime;
+         if (!withValues)
+         {
+            if (!valid)
+            {
+               statistics.recordEviction();
+            }
+         }
+         else if (valid)
+         {
+            onRemove(snapshot.key, this.<V> deserialize(snapshot.data));
+         }
+         else
+         {
+            onExpire(snapshot.key, this.<V> deserialize(snapshot.data));
+         }
+      }
+   }
+
+   public List<? extends V> getCachedObjects()
+   {
+      Storage storage = this.storage;
+      LinkedList<V> list = new LinkedList<V>();
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         for (Snapshot<K> snapshot : storage.snapshot(i))
+         {
+            list.add(this.<V> deserialize(snapshot.data));
+         }
+      }
+      return list;
+   }
+
+   public List<? extends V> removeCachedObjects()
+   {
+      List<? extends V> list = getCachedObjects();
+      clearCache();
+      return list;
+   }
+
+   public CacheCursor<K, V> openCursor(int chunkSize)
+   {
+      Storage storage = this.storage;
+      return new StorageCursor(chunkSize, storage, 0, storage.segments.length);
+   }
+
+   public void clearCache()
+   {
+      Storage storage = this.storage;
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         Segment<K> segment = storage.segments[i];
+         segment.lock.writeLock().lock();
+         try
+         {
+            segment.clear();
+         }
+         finally
+         {
+            segment.lock.writeLock().unlock();
+         }
+      }
+   }
+
+   public void select(CachedObjectSelector<? super K, ? super V> selector) throws Exception
+   {
+      if (selector == null)
+      {
+         throw new IllegalArgumentException("No null selector");
+      }
+      String prefix = ExpireKeyStartWithSelector.getKeyStartWith(selector);
+      if (prefix != null)
+      {
+         removeByPrefix(prefix);
+         return;
+      }
+      // The segments are copied one after the other so that only one of them is in memory at once
+      Storage storage = this.storage;
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         for (Snapshot<K> snapshot : storage.snapshot(i))
+         {
+            ObjectCacheInfo<V> info = new SnapshotInfo(snapshot);
+            if (selector.select(snapshot.key, info))
+            {
+               selector.onSelect(this, snapshot.key, info);
+            }
+         }
+      }
+   }
+
+   public int getCacheSize()
+   {
+      Storage storage = this.storage;
+      int size = 0;
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         Segment<K> segment = storage.segments[i];
+         segment.lock.readLock().lock();
+         try
+         {
+            size += segment.map.size();
+         }
+         finally
+         {
+            segment.lock.readLock().unlock();
+         }
+      }
+      return size;
+   }
+
+   /**
+    * @return the total amount of bytes of the serialized values
+    */
+   public long getCacheWeight()
+   {
+      Storage storage = this.storage;
+      long weight = 0;
+      for (int i = 0; i < storage.segments.length; i++)
+      {
+         Segment<K> segment = storage.segments[i];
+         segment.lock.readLock().lock();
+         try
+         {
+            weight += segment.weight;
+         }
+         finally
+         {
+            segment.lock.readLock().unlock();
+         }
+      }
+      return weight;
+   }
+
+   public int getCacheHit()
+   {
+      return CacheStatistics.toInt(statistics.getHitCount());
+   }
+
+   public int getCacheMiss()
+   {
+      return CacheStatistics.toInt(statistics.getMissCount());
+   }
+
+   public CacheStatistics getStatistics()
+   {
+      return statistics;
+   }
+
+   public synchronized void addCacheListener(CacheListener<? super K, ? super V> listener)
+   {
+      listeners.add(listener);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setListenerQueue(int queueSize, ListenerOverflowPolicy policy)
+   {
+      listeners.setQueue(queueSize, policy);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public int getListenerQueueSize()
+   {
+      return listeners.getQueueSize();
+   }
+
+   public boolean isLogEnabled()
+   {
+      return logEnabled;
+   }
+
+   public void setLogEnabled(boolean logEnabled)
+   {
+      this.logEnabled = logEnabled;
+   }
+
+   //
+
+   private byte[] serialize(K name, V obj)
+   {
+      try
+      {
+         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+         ObjectOutputStream oos = new ObjectOutputStream(baos);
+         oos.writeObject(obj);
+         oos.close();
+         return baos.toByteArray();
+      }
+      catch (IOException e)
+      {
+         LOG.warn("The value of the key " + name + " cannot be serialized, it won't be cached: " + e.getMessage());
+         return null;
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private <T> T deserialize(byte[] data)
+   {
+      if (data == null)
+      {
+         return null;
+      }
+      try
+      {
+         ObjectInputStream ois = new ContextObjectInputStream(new ByteArrayInputStream(data));
+         try
+         {
+            return (T)ois.readObject();
+         }
+         finally
+         {
+            ois.close();
+         }
+      }
+      catch (IOException e)
+      {
+         throw new IllegalStateException("Could not deserialize a value of the cache " + name, e);
+      }
+      catch (ClassNotFoundException e)
+      {
+         throw new IllegalStateException("Could not deserialize a value of the cache " + name, e);
+      }
+   }
+
+   private void onEvict(List<Evicted<K>> evicted)
+   {
+      for (int i = 0, length = evicted.size(); i < length; i++)
+      {
+         Evicted<K> entry = evicted.get(i);
+         if (log != null && log.isTraceEnabled())
+         {
+            log.trace("Evicted key=" + entry.key + " [" + Thread.currentThread().getName() + "]");
+         }
+         onExpire(entry.key, this.<V> deserialize(entry.data));
+      }
+   }
+
+   void onExpire(K key, V obj)
+   {
+      statistics.recordEviction();
+      listeners.onExpire(key, obj);
+   }
+
+   void onRemove(K key, V obj)
+   {
+      listeners.onRemove(key, obj);
+   }
+
+   void onPut(K key, V obj)
+   {
+      listeners.onPut(key, obj);
+   }
+
+   void onGet(K key, V obj)
+   {
+      listeners.onGet(key, obj);
+   }
+
+   void onClearCache()
+   {
+      listeners.onClearCache();
+   }
+
+   /**
+    * Gives the amount of segments to use, a power of two such that each segment has enough entries and memory
+    */
+   static int segmentsFor(int maxSize, long maxWeight)
+   {
+      int segments = 1;
+      while (segments < MAX_SEGMENTS && maxSize / (segments * 2) >= MIN_SEGMENT_SIZE
+         && maxWeight / (segments * 2) >= MIN_SEGMENT_WEIGHT)
+      {
+         segments <<= 1;
+      }
+      return segments;
+   }
+
+   /**
+    * Gives the part of the given total that is allocated to the segment of the given index
+    */
+   private static int segmentShare(int total, int segments, int index)
+   {
+      if (total <= 0)
+      {
+         return 0;
+      }
+      return total / segments + (index < total % segments ? 1 : 0);
+   }
+
+   /**
+    * The on-heap index of an entry, it refers to the blocks in which the value is stored
+    */
+   private static class Entry<K>
+   {
+      final K key;
+
+      final long expirationTime;
+
+      final int[] blocks;
+
+      final int length;
+
+      Entry(K key, long expirationTime, int[] blocks, int length)
+      {
+         this.key = key;
+         this.expirationTime = expirationTime;
+         this.blocks = blocks;
+         this.length = length;
+      }
+
+      boolean isValid()
+      {
+         return System.currentTimeMillis() < expirationTime;
+      }
+   }
+
+   /**
+    * An entry that has been evicted, the serialized value is only kept when there are listeners
+    */
+   private static class Evicted<K>
+   {
+      final K key;
+
+      final byte[] data;
+
+      Evicted(K key, byte[] data)
+      {
+         this.key = key;
+         this.data = data;
+      }
+   }
+
+   /**
+    * A copy of a valid entry
+    */
+   private static class Snapshot<K>
+   {
+      final K key;
+
+      final long expirationTime;
+
+      final byte[] data;
+
+      Snapshot(K key, long expirationTime, byte[] data)
+      {
+         this.key = key;
+         this.expirationTime = expirationTime;
+         this.data = data;
+      }
+   }
+
+   /**
+    * The {@link ObjectCacheInfo} of a snapshot, the value is deserialized lazily
+    */
+   private class SnapshotInfo implements ObjectCacheInfo<V>
+   {
+      private final Snapshot<K> snapshot;
+
+      SnapshotInfo(Snapshot<K> snapshot)
+      {
+         this.snapshot = snapshot;
+      }
+
+      public long getExpireTime()
+      {
+         return snapshot.expirationTime;
+      }
+
+      public V get()
+      {
+         return deserialize(snapshot.data);
+      }
+   }
+
+   /**
+    * A part of the cache, the entries are kept in FIFO order. All the methods must be called with the
+    * lock held, the write lock being required for any modification.
+    */
+   private static class Segment<K>
+   {
+      final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+      final LinkedHashMap<Object, Entry<K>> map = new LinkedHashMap<Object, Entry<K>>();
+
+      final BlockStore store;
+
+      int maxSize;
+
+      /**
+       * The total amount of bytes of the serialized values
+       */
+      long weight;
+
+      /**
+       * The index of the keys by prefix, null until the first removal by prefix
+       */
+      PrefixIndex<Entry<K>> prefixIndex;
+
+      Segment(int maxSize, long maxWeight)
+      {
+         this.maxSize = maxSize;
+         this.store = new BlockStore(maxWeight);
+      }
+
+      /**
+       * Stores the given value, the oldest entries are evicted if needed.
+       *
+       * @return <code>false</code> if the value could not be stored because it is too large
+       */
+      boolean put(long expirationTime, K key, byte[] data, List<Evicted<K>> evicted, boolean withValues)
+      {
+         Entry<K> previous = map.get(key);
+         if (previous != null)
+         {
+            remove(previous, false);
+         }
+         int blocks = BlockStore.blocksFor(data.length);
+         if (maxSize <= 0 || blocks > store.getMaxBlocks())
+         {
+            return false;
+         }
+         evict(blocks, evicted, withValues);
+         int[] allocated = store.allocate(data.length);
+         store.write(allocated, data);
+         Entry<K> entry = new Entry<K>(key, expirationTime, allocated, data.length);
+         map.put(key, entry);
+         if (prefixIndex != null)
+         {
+            prefixIndex.add(key, entry);
+         }
+         weight += data.length;
+         return true;
+      }
+
+      /**
+       * Evicts the oldest entries until there is room for one more entry of the given amount of blocks,
+       * if the amount of blocks is 0 the entries are only evicted until the segment fits into its maximum size.
+       */
+      void evict(int blocks, List<Evicted<K>> evicted, boolean withValues)
+      {
+         int size = blocks > 0 ? maxSize - 1 : maxSize;
+         Iterator<Entry<K>> iterator = map.values().iterator();
+         while ((map.size() > Math.max(size, 0) || store.getAvailableBlocks() < blocks) && iterator.hasNext())
+         {
+            Entry<K> entry = iterator.next();
+            byte[] data = withValues ? store.read(entry.blocks, entry.length) : null;
+            iterator.remove();
+            release(entry);
+            evicted.add(new Evicted<K>(entry.key, data));
+         }
+      }
+
+      /**
+       * Removes the given entry.
+       *
+       * @return the serialized value if requested
+       */
+      byte[] remove(Entry<K> entry, boolean withValue)
+      {
+         byte[] data = withValue ? store.read(entry.blocks, entry.length) : null;
+         map.remove(entry.key);
+         release(entry);
+         return data;
+      }
+
+      private void release(Entry<K> entry)
+      {
+         store.free(entry.blocks);
+         weight -= entry.length;
+         if (prefixIndex != null)
+         {
+            prefixIndex.remove(entry.key, entry);
+         }
+      }
+
+      void clear()
+      {
+         map.clear();
+         store.reset();
+         weight = 0;
+         if (prefixIndex != null)
+         {
+            prefixIndex.clear();
+         }
+      }
+
+      /**
+       * Gives the prefix index, it is built from the content of the segment the first time.
+       */
+      PrefixIndex<Entry<K>> getPrefixIndex()
+      {
+         if (prefixIndex == null)
+         {
+            prefixIndex = new PrefixIndex<Entry<K>>();
+            for (Entry<K> entry : map.values())
+            {
+               prefixIndex.add(entry.key, entry);
+            }
+         }
+         return prefixIndex;
+      }
+   }
+
+   /**
+    * Really the cache state (we need it because the segments depend on the max size and the max weight).
+    */
+   private class Storage
+   {
+      final Segment<K>[] segments;
+
+      @SuppressWarnings("unchecked")
+      Storage(int maxSize, long maxWeight)
+      {
+         int length = segmentsFor(maxSize, maxWeight);
+         this.segments = new Segment[length];
+         for (int i = 0; i < length; i++)
+         {
+            segments[i] = new Segment<K>(segmentShare(maxSize, length, i), maxWeight / length);
+            if (prefixIndexed)
+            {
+               segments[i].prefixIndex = new PrefixIndex<Entry<K>>();
+            }
+         }
+      }
+
+      Segment<K> segmentFor(Object key)
+      {
+         int h = key.hashCode();
+         h ^= (h >>> 20) ^ (h >>> 12);
+         h ^= (h >>> 7) ^ (h >>> 4);
+         return segments[h & (segments.length - 1)];
+      }
+
+      /**
+       * Copies the valid entries of the segment of the given index
+       */
+      List<Snapshot<K>> snapshot(int index)
+      {
+         Segment<K> segment = segments[index];
+         segment.lock.readLock().lock();
+         try
+         {
+            List<Snapshot<K>> snapshots = new ArrayList<Snapshot<K>>(segment.map.size());
+            for (Entry<K> entry : segment.map.values())
+            {
+               if (entry.isValid())
+               {
+                  snapshots.add(new Snapshot<K>(entry.key, entry.expirationTime, segment.store.read(entry.blocks,
+                     entry.length)));
+               }
+            }
+            return snapshots;
+         }
+         finally
+         {
+            segment.lock.readLock().unlock();
+         }
+      }
+   }
+
+   /**
+    * A cursor over the segments of a storage, the keys of a segment are copied when it is opened then the
+    * values are read and deserialized chunk by chunk, out of the lock of the segment.
+    */
+   private class StorageCursor extends SegmentCursor<K, V>
+   {
+      private final Storage storage;
+
+      private Segment<K> segment;
+
+      private Object[] keys;
+
+      private int index;
+
+      StorageCursor(int chunkSize, Storage storage, int start, int end)
+      {
+         super(chunkSize, start, end);
+         this.storage = storage;
+      }
+
+      @Override
+      protected void open(int index)
+      {
+         segment = storage.segments[index];
+         segment.lock.readLock().lock();
+         try
+         {
+            keys = segment.map.keySet().toArray();
+         }
+         finally
+         {
+            segment.lock.readLock().unlock();
+         }
+         this.index = 0;
+      }
+
+      @Override
+      protected boolean fetchSegment(Map<K, V> chunk, int max)
+      {
+         List<Snapshot<K>> snapshots = new ArrayList<Snapshot<K>>();
+         segment.lock.readLock().lock();
+         try
+         {
+            while (chunk.size() + snapshots.size() < max && index < keys.length)
+            {
+               Entry<K> entry = segment.map.get(keys[index]);
+               keys[index++] = null;
+               if (entry != null && entry.isValid())
+               {
+                  snapshots.add(new Snapshot<K>(entry.key, entry.expirationTime, segment.store.read(entry.blocks,
+                     entry.length)));
+               }
+            }
+         }
+         finally
+         {
+            segment.lock.readLock().unlock();
+         }
+         for (int i = 0, length = snapshots.size(); i < length; i++)
+         {
+            Snapshot<K> snapshot = snapshots.get(i);
+            V value = OffHeapExoCache.this.<V> deserialize(snapshot.data);
+            if (value != null)
+            {
+               chunk.put(snapshot.key, value);
+            }
+         }
+         if (index < keys.length)
+         {
+            return true;
+         }
+         release();
+         return false;
+      }
+
+      @Override
+      protected SegmentCursor<K, V> newCursor(int start, int end)
+      {
+         return new StorageCursor(getChunkSize(), storage, start, end);
+      }
+
+      @Override
+      public void close()
+      {
+         super.close();
+         release();
+      }
+
+      private void release()
+      {
+         keys = null;
+         segment = null;
+      }
+   }
+
+   /**
+    * An {@link ObjectInputStream} that resolves the classes with the context class loader first
+    */
+   static class ContextObjectInputStream extends ObjectInputStream
+   {
+      ContextObjectInputStream(InputStream in) throws IOException
+      {
+         super(in);
+      }
+
+      @Override
+      protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+      {
+         ClassLoader cl = Thread.currentThread().getContextClassLoader();
+         if (cl != null)
+         {
+            try
+            {
+               return Class.forName(desc.getName(), false, cl);
+            }
+            catch (ClassNotFoundException e)
+            {
+               // Try with the default class loader
+            }
+         }
+         return super.resolveClass(desc);
+      }
+   }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import org.exoplatform.services.cache.AbstractCacheCursor;
+import org.exoplatform.services.cache.CacheCursor;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * A cursor over a range of segments of a cache, the segments are iterated one after the other and the
+ * segments that have not been opened yet can be given to another cursor.
+ *
+ * @version $Id$
+ */
+abstract class SegmentCursor<K extends Serializable, V> extends AbstractCacheCursor<K, V>
+{
+
+   /**
+    * The index of the current segment
+    */
+   private int segment;
+
+   /**
+    * The index of the first segment that is out of the range of this cursor
+    */
+   private int end;
+
+   /**
+    * Indicates whether the current segment has been opened
+    */
+   private boolean opened;
+
+   SegmentCursor(int chunkSize, int start, int end)
+   {
+      super(chunkSize);
+      this.segment = start;
+      this.end = end;
+   }
+
+   /**
+    * Prepares the iteration over the given segment, typically by copying its keys.
+    */
+   protected abstract void open(int segment);
+
+   /**
+    * Adds the next entries of the opened segment to the given chunk.
+    *
+    * @return <code>false</code> if there are no more entries in the segment
+    */
+   protected abstract boolean fetchSegment(Map<K, V> chunk, int max);
+
+   /**
+    * Creates a cursor over the given range of segments.
+    */
+   protected abstract SegmentCursor<K, V> newCursor(int start, int end);
+
+   @Override
+   protected boolean fetch(Map<K, V> chunk, int max)
+   {
+      while (chunk.size() < max)
+      {
+         if (!opened)
+         {
+            if (segment >= end)
+            {
+               return false;
+            }
+            open(segment);
+            opened = true;
+         }
+         if (!fetchSegment(chunk, max))
+         {
+            opened = false;
+            segment++;
+         }
+      }
+      return true;
+   }
+
+   @Override
+   public CacheCursor<K, V> trySplit()
+   {
+      int start = opened ? segment + 1 : segment;
+      if (end - start < (opened ? 1 : 2))
+      {
+         return null;
+      }
+      int middle = (start + end) >>> 1;
+      CacheCursor<K, V> cursor = newCursor(middle, end);
+      end = middle;
+      return cursor;
+   }
+}
@@ -33,7 +33,12 @@ class SimpleObjectRef<K extends Serializable, V> extends ObjectRef<K, V>
 
    SimpleObjectRef(long expirationTime, K name, V object)
    {
-      super(expirationTime, name);
+      this(expirationTime, name, object, 0);
+   }
+
+   SimpleObjectRef(long expirationTime, K name, V object, int weight)
+   {
+      super(expirationTime, name, weight);
       this.object = object;
    }
 
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A hierarchical timing wheel that finds the expired entries in amortized O(1). Each level is made of buckets
+ * that cover a span of time, the first level has buckets of 128 ms, the next one buckets of 8 s and so on.
+ * When the wheel advances, the buckets of the elapsed spans are emptied, their entries are either expired or
+ * moved down to a more precise level.
+ * <p>
+ * The entries to schedule are first recorded into a lock-free queue, they are added to the wheel by the
+ * thread that advances it. The entries that are removed from the cache are cancelled the same way, they are
+ * unlinked from their bucket by the thread that holds the lock so that the wheel does not retain their value
+ * until their expiration time.
+ *
+ * @version $Id$
+ */
+class TimerWheel<K extends Serializable, V>
+{
+
+   /**
+    * The amount of buckets of each level, it must be a power of two
+    */
+   private static final int[] BUCKETS = {64, 64, 64, 64, 16};
+
+   /**
+    * The span in milliseconds of a bucket of each level expressed as a power of two,
+    * the span of a level is the span of a bucket of the next level
+    */
+   private static final int[] SHIFT = {7, 13, 19, 25, 31};
+
+   private final ObjectRef<K, V>[][] wheel;
+
+   private final ConcurrentLinkedQueue<ObjectRef<K, V>> pending = new ConcurrentLinkedQueue<ObjectRef<K, V>>();
+
+   private final ConcurrentLinkedQueue<ObjectRef<K, V>> cancelled = new ConcurrentLinkedQueue<ObjectRef<K, V>>();
+
+   /**
+    * The scheduled entries that were already expired when they were added by a cancellation, they are
+    * returned by the next advance
+    */
+   private final List<ObjectRef<K, V>> overdue = new ArrayList<ObjectRef<K, V>>();
+
+   private final ReentrantLock lock = new ReentrantLock();
+
+   /**
+    * The last time in milliseconds at which the wheel has been advanced
+    */
+   private long time;
+
+   @SuppressWarnings("unchecked")
+   TimerWheel(long time)
+   {
+      this.time = time;
+      this.wheel = new ObjectRef[BUCKETS.length][];
+      for (int i = 0; i < BUCKETS.length; i++)
+      {
+         wheel[i] = new ObjectRef[BUCKETS[i]];
+      }
+   }
+
+   /**
+    * Records the entry, it will be added to the wheel at the next advance.
+    *
+    * @param ref the entry to schedule
+    */
+   void schedule(ObjectRef<K, V> ref)
+   {
+      pending.offer(ref);
+   }
+
+   /**
+    * Records the cancellation of an entry that has been removed from the cache, it is unlinked from the wheel
+    * right away if no other thread holds the lock, otherwise at the next advance.
+    *
+    * @param ref the entry to cancel
+    */
+   void cancel(ObjectRef<K, V> ref)
+   {
+      cancelled.offer(ref);
+      if (lock.tryLock())
+      {
+         try
+         {
+            drain(overdue);
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+   }
+
+   /**
+    * Advances the wheel to the given time if no other thread is already doing it.
+    *
+    * @param currentTime the current time in milliseconds
+    * @return the entries whose expiration time has been reached or <code>null</code> if
+    * the wheel is already being advanced
+    */
+   List<ObjectRef<K, V>> advance(long currentTime)
+   {
+      if (!lock.tryLock())
+      {
+         return null;
+      }
+      try
+      {
+         List<ObjectRef<K, V>> expired = new ArrayList<ObjectRef<K, V>>(overdue);
+         overdue.clear();
+         long previousTime = time;
+         if (currentTime > previousTime)
+         {
+            time = currentTime;
+            for (int i = 0; i < BUCKETS.length; i++)
+            {
+               long previousTicks = previousTime >>> SHIFT[i];
+               long delta = (currentTime >>> SHIFT[i]) - previousTicks;
+               if (delta <= 0)
+               {
+                  break;
+               }
+               expire(i, previousTicks, delta, expired);
+            }
+         }
+         drain(expired);
+         return expired;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Adds the pending entries to the wheel, or to the given list if they are already expired, then unlinks
+    * the cancelled ones. The entries that are cancelled before being added are not found.
+    */
+   private void drain(List<ObjectRef<K, V>> expired)
+   {
+      ObjectRef<K, V> ref;
+      while ((ref = pending.poll()) != null)
+      {
+         if (ref.expirationTime <= time)
+         {
+            expired.add(ref);
+         }
+         else
+         {
+            add(ref);
+         }
+      }
+      while ((ref = cancelled.poll()) != null)
+      {
+         unlink(ref);
+      }
+   }
+
+   /**
+    * Empties the buckets of the given level from the previous tick to the current one
+    */
+   private void expire(int level, long previousTicks, long delta, List<ObjectRef<K, V>> expired)
+   {
+      ObjectRef<K, V>[] buckets = wheel[level];
+      int mask = buckets.length - 1;
+      // The current bucket is included so that its entries are moved down to a more precise level
+      int steps = (int)Math.min(delta + 1, buckets.length);
+      int start = (int)(previousTicks & mask);
+      int end = start + steps;
+      for (int i = start; i < end; i++)
+      {
+         ObjectRef<K, V> ref = buckets[i & mask];
+         buckets[i & mask] = null;
+         while (ref != null)
+         {
+            ObjectRef<K, V> next = ref.timerNext;
+            ref.timerNext = null;
+            ref.timerPrevious = null;
+            ref.timerSlot = -1;
+            if (ref.expirationTime <= time)
+            {
+               expired.add(ref);
+            }
+            else
+            {
+               // Move it to the bucket that corresponds to the remaining time
+               add(ref);
+            }
+            ref = next;
+         }
+      }
+   }
+
+   /**
+    * Links the entry to the bucket that corresponds to its expiration time
+    */
+   private void add(ObjectRef<K, V> ref)
+   {
+      long duration = ref.expirationTime - time;
+      int level = BUCKETS.length - 1;
+      for (int i = 0; i < BUCKETS.length - 1; i++)
+      {
+         if (duration < (1L << SHIFT[i + 1]))
+         {
+            level = i;
+            break;
+         }
+      }
+      ObjectRef<K, V>[] buckets = wheel[level];
+      int index = (int)((ref.expirationTime >>> SHIFT[level]) & (buckets.length - 1));
+      ObjectRef<K, V> head = buckets[index];
+      if (head != null)
+      {
+         head.timerPrevious = ref;
+      }
+      ref.timerNext = head;
+      ref.timerSlot = level << 8 | index;
+      buckets[index] = ref;
+   }
+
+   /**
+    * Unlinks the entry from its bucket if it is still linked to one
+    */
+   private void unlink(ObjectRef<K, V> ref)
+   {
+      int slot = ref.timerSlot;
+      if (slot < 0)
+      {
+         return;
+      }
+      ObjectRef<K, V> previous = ref.timerPrevious;
+      ObjectRef<K, V> next = ref.timerNext;
+      if (previous == null)
+      {
+         wheel[slot >>> 8][slot & 0xFF] = next;
+      }
+      else
+      {
+         previous.timerNext = next;
+      }
+      if (next != null)
+      {
+         next.timerPrevious = previous;
+      }
+      ref.timerNext = null;
+      ref.timerPrevious = null;
+      ref.timerSlot = -1;
+   }
+
+   /**
+    * Gives the entries linked to the wheel once the pending schedules and cancellations have been applied,
+    * for testing purpose
+    */
+   List<ObjectRef<K, V>> getLinkedEntries()
+   {
+      lock.lock();
+      try
+      {
+         drain(overdue);
+         List<ObjectRef<K, V>> linked = new ArrayList<ObjectRef<K, V>>();
+         for (ObjectRef<K, V>[] buckets : wheel)
+         {
+            for (ObjectRef<K, V> ref : buckets)
+            {
+               for (; ref != null; ref = ref.timerNext)
+               {
+                  linked.add(ref);
+               }
+            }
+         }
+         return linked;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+}
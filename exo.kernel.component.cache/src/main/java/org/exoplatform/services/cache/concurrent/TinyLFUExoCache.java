@@ -0,0 +1,1035 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.concurrent;
+
+import org.exoplatform.services.cache.CacheCursor;
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheStatistics;
+import org.exoplatform.services.cache.CachedObjectSelector;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExpireKeyStartWithSelector;
+import org.exoplatform.services.cache.PrefixIndex;
+import org.exoplatform.services.log.Log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An {@link org.exoplatform.services.cache.ExoCache} implementation based on {@link java.util.concurrent.ConcurrentHashMap}
+ * that uses the W-TinyLFU policy. The new entries go first into a small LRU window, the entries leaving the
+ * window compete with the least recently used entry of the main space which is a segmented LRU made of a
+ * probation and a protected segment. The entry with the highest estimated frequency according to a
+ * {@link FrequencySketch} is kept, so that a burst of keys accessed only once cannot flush the hot entries.
+ * <p>
+ * The reads never block, the accesses are recorded into lossy striped buffers that are applied to the
+ * policy by batches. The writes are serialized by the policy lock.
+ *
+ * @version $Id$
+ */
+public class TinyLFUExoCache<K extends Serializable, V> implements ExoCache<K, V>, ListenerQueueSupport,
+   LiveTimeSupport
+{
+
+   private static int DEFAULT_MAX_SIZE = 50;
+
+   /**
+    * The percentage of the maximum size allocated to the window
+    */
+   private static final int WINDOW_PERCENTAGE = 1;
+
+   /**
+    * The percentage of the main space allocated to the protected segment
+    */
+   private static final int PROTECTED_PERCENTAGE = 80;
+
+   /**
+    * The total amount of read buffers, it must be a power of two
+    */
+   private static final int READ_BUFFERS;
+
+   static
+   {
+      int stripes = 1;
+      int processors = Runtime.getRuntime().availableProcessors();
+      while (stripes < processors && stripes < 64)
+      {
+         stripes <<= 1;
+      }
+      READ_BUFFERS = stripes;
+   }
+
+   /**
+    * The amount of accesses in a read buffer from which the reader tries to apply them
+    */
+   private static final int READ_DRAIN_THRESHOLD = 32;
+
+   /**
+    * The amount of accesses in a read buffer from which the new accesses are dropped
+    */
+   private static final int READ_BUFFER_MAX = 128;
+
+   private static final int NONE = 0;
+
+   private static final int WINDOW = 1;
+
+   private static final int PROBATION = 2;
+
+   private static final int PROTECTED = 3;
+
+   private final Log log;
+
+   private volatile long liveTimeMillis;
+
+   private volatile int maxSize;
+
+   private final CacheListeners<K, V> listeners;
+
+   private volatile Policy policy;
+
+   private final CacheStatistics statistics = new CacheStatistics(this);
+
+   /**
+    * Indicates whether the keys are indexed by prefix, it is enabled by the first removal by prefix
+    */
+   private volatile boolean prefixIndexed;
+
+   private String label;
+
+   private String name;
+
+   private boolean logEnabled = false;
+
+   public TinyLFUExoCache()
+   {
+      this(DEFAULT_MAX_SIZE);
+   }
+
+   public TinyLFUExoCache(Log log)
+   {
+      this(DEFAULT_MAX_SIZE, log);
+   }
+
+   public TinyLFUExoCache(int maxSize)
+   {
+      this(null, maxSize);
+   }
+
+   public TinyLFUExoCache(int maxSize, Log log)
+   {
+      this(null, maxSize, log);
+   }
+
+   public TinyLFUExoCache(String name, int maxSize)
+   {
+      this(name, maxSize, null);
+   }
+
+   public TinyLFUExoCache(String name, int maxSize, Log log)
+   {
+      this.maxSize = maxSize;
+      this.name = name;
+      this.liveTimeMillis = -1;
+      this.log = log;
+      this.listeners = new CacheListeners<K, V>(this, statistics);
+      this.policy = new Policy(maxSize);
+   }
+
+   public void assertConsistent()
+   {
+      policy.assertConsistency();
+   }
+
+   public String getName()
+   {
+      return name;
+   }
+
+   public void setName(String s)
+   {
+      name = s;
+   }
+
+   public String getLabel()
+   {
+      if (label == null)
+      {
+         if (name.length() > 30)
+         {
+            String shortLabel = name.substring(name.lastIndexOf(".") + 1);
+            setLabel(shortLabel);
+            return shortLabel;
+         }
+         return name;
+      }
+      return label;
+   }
+
+   public void setLabel(String name)
+   {
+      label = name;
+   }
+
+   public long getLiveTime()
+   {
+      long tmp = getLiveTimeMillis();
+      return tmp == -1 ? -1 : tmp / 1000;
+   }
+
+   public void setLiveTime(long period)
+   {
+      setLiveTimeMillis(period * 1000);
+   }
+
+   public long getLiveTimeMillis()
+   {
+      return liveTimeMillis;
+   }
+
+   public void setLiveTimeMillis(long liveTimeMillis)
+   {
+      if (liveTimeMillis < 0)
+      {
+         liveTimeMillis = -1;
+      }
+      this.liveTimeMillis = liveTimeMillis;
+   }
+
+   public int getMaxSize()
+   {
+      return maxSize;
+   }
+
+   public void setMaxSize(int max)
+   {
+      this.maxSize = max;
+      Policy policy = this.policy;
+      ArrayList<Node<K, V>> evicted = new ArrayList<Node<K, V>>();
+      policy.lock.lock();
+      try
+      {
+         policy.sketch.ensureCapacity(max);
+         policy.drainReads();
+         policy.evict(evicted);
+      }
+      finally
+      {
+         policy.lock.unlock();
+      }
+      onEvict(evicted);
+   }
+
+   public V get(Serializable name)
+   {
+      if (name == null)
+      {
+         return null;
+      }
+      long start = statistics.startTimer();
+      Policy policy = this.policy;
+      Node<K, V> node = policy.map.get(name);
+      if (node != null)
+      {
+         V o = node.getObject();
+         if (node.isValid())
+         {
+            statistics.recordHit(start);
+            policy.recordRead(node);
+            onGet(node.name, o);
+            return o;
+         }
+         else
+         {
+            statistics.recordMiss(start);
+            policy.remove(node);
+            onExpire(node.name, o);
+         }
+      }
+      else
+      {
+         statistics.recordMiss(start);
+      }
+      return null;
+   }
+
+   public Map<K, V> getAll(Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      Map<K, V> result = new HashMap<K, V>();
+      for (K name : names)
+      {
+         V value = get(name);
+         if (value != null)
+         {
+            result.put(name, value);
+         }
+      }
+      return result;
+   }
+
+   public void put(K name, V obj)
+   {
+      put(name, obj, liveTimeMillis);
+   }
+
+   public void put(K name, V obj, long liveTimeMillis)
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      if (liveTimeMillis != 0)
+      {
+         long expirationTime = liveTimeMillis > 0 ? System.currentTimeMillis() + liveTimeMillis : Long.MAX_VALUE;
+         put(expirationTime, name, obj);
+      }
+   }
+
+   public void putMap(Map<? extends K, ? extends V> objs)
+   {
+      if (objs == null)
+      {
+         throw new IllegalArgumentException("No null map accepted");
+      }
+      long expirationTime = liveTimeMillis > 0 ? System.currentTimeMillis() + liveTimeMillis : Long.MAX_VALUE;
+      for (Serializable name : objs.keySet())
+      {
+         if (name == null)
+         {
+            throw new IllegalArgumentException("No null cache key accepted");
+         }
+      }
+      for (Map.Entry<? extends K, ? extends V> entry : objs.entrySet())
+      {
+         put(expirationTime, entry.getKey(), entry.getValue());
+      }
+   }
+
+   /**
+    * Do a put with the provided expiration time.
+    *
+    * @param expirationTime the expiration time
+    * @param name the cache key
+    * @param obj the cached value
+    */
+   private void put(long expirationTime, K name, V obj)
+   {
+      long start = statistics.startTimer();
+      Node<K, V> node = new Node<K, V>(expirationTime, name, obj);
+      Policy policy = this.policy;
+      ArrayList<Node<K, V>> evicted = new ArrayList<Node<K, V>>();
+      policy.lock.lock();
+      try
+      {
+         policy.drainReads();
+         policy.add(node, evicted);
+      }
+      finally
+      {
+         policy.lock.unlock();
+      }
+      onEvict(evicted);
+      onPut(name, obj);
+      statistics.recordPut(start);
+   }
+
+   public V remove(Serializable name)
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      Policy policy = this.policy;
+      Node<K, V> node;
+      policy.lock.lock();
+      try
+      {
+         node = policy.map.remove(name);
+         if (node != null)
+         {
+            policy.unindex(node);
+            policy.unlink(node);
+         }
+      }
+      finally
+      {
+         policy.lock.unlock();
+      }
+      if (node != null)
+      {
+         V object = node.getObject();
+         if (node.isValid())
+         {
+            onRemove(node.name, object);
+            return object;
+         }
+         else
+         {
+            onExpire(node.name, object);
+         }
+      }
+      return null;
+   }
+
+   public void removeAll(Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      for (Serializable name : names)
+      {
+         if (name == null)
+         {
+            throw new IllegalArgumentException("No null cache key accepted");
+         }
+      }
+      for (Serializable name : names)
+      {
+         remove(name);
+      }
+   }
+
+   public void removeByPrefix(String prefix)
+   {
+      if (prefix == null)
+      {
+         throw new IllegalArgumentException("No null prefix accepted");
+      }
+      prefixIndexed = true;
+      Policy policy = this.policy;
+      List<Node<K, V>> removed = new ArrayList<Node<K, V>>();
+      policy.lock.lock();
+      try
+      {
+         Map<String, Node<K, V>> entries = policy.getPrefixIndex().getEntries(prefix);
+         for (Node<K, V> node : entries.values())
+         {
+            if (policy.map.remove(node.name, node))
+            {
+               policy.unlink(node);
+               removed.add(node);
+            }
+         }
+         entries.clear();
+      }
+      finally
+      {
+         policy.lock.unlock();
+      }
+      for (int i = 0, length = removed.size(); i < length; i++)
+      {
+         Node<K, V> node = removed.get(i);
+         V object = node.getObject();
+         if (node.isValid())
+         {
+            onRemove(node.name, object);
+         }
+         else
+         {
+            onExpire(node.name, object);
+         }
+      }
+   }
+
+   public List<? extends V> getCachedObjects()
+   {
+      LinkedList<V> list = new LinkedList<V>();
+      for (Node<K, V> node : policy.map.values())
+      {
+         V object = node.getObject();
+         if (node.isValid())
+         {
+            list.add(object);
+         }
+      }
+      return list;
+   }
+
+   public List<? extends V> removeCachedObjects()
+   {
+      List<? extends V> list = getCachedObjects();
+      clearCache();
+      return list;
+   }
+
+   public CacheCursor<K, V> openCursor(int chunkSize)
+   {
+      return new ObjectRefCursor<K, V>(chunkSize, policy.map.values());
+   }
+
+   public void clearCache()
+   {
+      policy = new Policy(maxSize);
+   }
+
+   public void select(CachedObjectSelector<? super K, ? super V> selector) throws Exception
+   {
+      if (selector == null)
+      {
+         throw new IllegalArgumentException("No null selector");
+      }
+      String prefix = ExpireKeyStartWithSelector.getKeyStartWith(selector);
+      if (prefix != null)
+      {
+         removeByPrefix(prefix);
+         return;
+      }
+      for (Map.Entry<K, Node<K, V>> entry : policy.map.entrySet())
+      {
+         K key = entry.getKey();
+         Node<K, V> info = entry.getValue();
+         if (selector.select(key, info))
+         {
+            selector.onSelect(this, key, info);
+         }
+      }
+   }
+
+   public int getCacheSize()
+   {
+      return policy.map.size();
+   }
+
+   public long getCacheWeight()
+   {
+      return -1;
+   }
+
+   public int getCacheHit()
+   {
+      return CacheStatistics.toInt(statistics.getHitCount());
+   }
+
+   public int getCacheMiss()
+   {
+      return CacheStatistics.toInt(statistics.getMissCount());
+   }
+
+   public CacheStatistics getStatistics()
+   {
+      return statistics;
+   }
+
+   public synchronized void addCacheListener(CacheListener<? super K, ? super V> listener)
+   {
+      listeners.add(listener);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setListenerQueue(int queueSize, ListenerOverflowPolicy policy)
+   {
+      listeners.setQueue(queueSize, policy);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public int getListenerQueueSize()
+   {
+      return listeners.getQueueSize();
+   }
+
+   public boolean isLogEnabled()
+   {
+      return logEnabled;
+   }
+
+   public void setLogEnabled(boolean logEnabled)
+   {
+      this.logEnabled = logEnabled;
+   }
+
+   //
+
+   private void onEvict(List<Node<K, V>> evicted)
+   {
+      for (int i = 0, length = evicted.size(); i < length; i++)
+      {
+         Node<K, V> node = evicted.get(i);
+         if (log != null && log.isTraceEnabled())
+         {
+            log.trace("Evicted item=" + node.serial + " [" + Thread.currentThread().getName() + "]");
+         }
+         onExpire(node.name, node.getObject());
+      }
+   }
+
+   void onExpire(K key, V obj)
+   {
+      statistics.recordEviction();
+      listeners.onExpire(key, obj);
+   }
+
+   void onRemove(K key, V obj)
+   {
+      listeners.onRemove(key, obj);
+   }
+
+   void onPut(K key, V obj)
+   {
+      listeners.onPut(key, obj);
+   }
+
+   void onGet(K key, V obj)
+   {
+      listeners.onGet(key, obj);
+   }
+
+   void onClearCache()
+   {
+      listeners.onClearCache();
+   }
+
+   /**
+    * A cache entry, it knows the segment in which it is linked
+    */
+   private static class Node<K extends Serializable, V> extends SimpleObjectRef<K, V>
+   {
+      /**
+       * The segment of the node, only accessed under the policy lock
+       */
+      int queue;
+
+      Node(long expirationTime, K name, V object)
+      {
+         super(expirationTime, name, object);
+      }
+   }
+
+   /**
+    * A LRU list of nodes, the most recently used node is the next of the sentinel, the least recently used
+    * node is its previous.
+    */
+   private static class Segment
+   {
+      final Item sentinel = new Item();
+
+      int size;
+
+      Segment()
+      {
+         sentinel.next = sentinel;
+         sentinel.previous = sentinel;
+      }
+
+      void addFirst(Item item)
+      {
+         Item next = sentinel.next;
+         item.next = next;
+         item.previous = sentinel;
+         next.previous = item;
+         sentinel.next = item;
+         size++;
+      }
+
+      void remove(Item item)
+      {
+         item.previous.next = item.next;
+         item.next.previous = item.previous;
+         item.previous = null;
+         item.next = null;
+         size--;
+      }
+
+      void moveToFirst(Item item)
+      {
+         remove(item);
+         addFirst(item);
+      }
+
+      Item last()
+      {
+         Item last = sentinel.previous;
+         return last == sentinel ? null : last;
+      }
+   }
+
+   /**
+    * The accesses recorded by the readers of a stripe
+    */
+   private static class ReadBuffer
+   {
+      final ConcurrentLinkedQueue<Item> accesses = new ConcurrentLinkedQueue<Item>();
+
+      final AtomicInteger pending = new AtomicInteger();
+   }
+
+   /**
+    * Really the cache state (we need it because of the clear cache consistency).
+    */
+   private class Policy
+   {
+      final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<K, Node<K, V>>();
+
+      final ReentrantLock lock = new ReentrantLock();
+
+      final FrequencySketch sketch;
+
+      final Segment window = new Segment();
+
+      final Segment probation = new Segment();
+
+      final Segment protectedSegment = new Segment();
+
+      final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFERS];
+
+      /**
+       * The index of the keys by prefix, null until the first removal by prefix
+       */
+      private PrefixIndex<Node<K, V>> prefixIndex;
+
+      Policy(int maxSize)
+      {
+         this.sketch = new FrequencySketch(maxSize);
+         for (int i = 0; i < readBuffers.length; i++)
+         {
+            readBuffers[i] = new ReadBuffer();
+         }
+         if (prefixIndexed)
+         {
+            prefixIndex = new PrefixIndex<Node<K, V>>();
+         }
+      }
+
+      /**
+       * Gives the prefix index, it is built from the content of the map the first time. The lock must be held
+       */
+      PrefixIndex<Node<K, V>> getPrefixIndex()
+      {
+         if (prefixIndex == null)
+         {
+            prefixIndex = new PrefixIndex<Node<K, V>>();
+            for (Node<K, V> node : map.values())
+            {
+               prefixIndex.add(node.name, node);
+            }
+         }
+         return prefixIndex;
+      }
+
+      /**
+       * Removes the node from the prefix index if any, the lock must be held
+       */
+      void unindex(Node<K, V> node)
+      {
+         if (prefixIndex != null)
+         {
+            prefixIndex.remove(node.name, node);
+         }
+      }
+
+      /**
+       * Records the access to the given node, the access is dropped if the buffer is full
+       */
+      void recordRead(Node<K, V> node)
+      {
+         ReadBuffer buffer = readBuffers[(int)Thread.currentThread().getId() & (READ_BUFFERS - 1)];
+         if (buffer.pending.get() >= READ_BUFFER_MAX)
+         {
+            return;
+         }
+         buffer.accesses.offer(node);
+         if (buffer.pending.incrementAndGet() >= READ_DRAIN_THRESHOLD && lock.tryLock())
+         {
+            try
+            {
+               drainReads();
+            }
+            finally
+            {
+               lock.unlock();
+            }
+         }
+      }
+
+      /**
+       * Applies the recorded accesses to the policy, the lock must be held
+       */
+      @SuppressWarnings("unchecked")
+      void drainReads()
+      {
+         for (int i = 0; i < readBuffers.length; i++)
+         {
+            ReadBuffer buffer = readBuffers[i];
+            int drained = 0;
+            Item item;
+            while ((item = buffer.accesses.poll()) != null)
+            {
+               drained++;
+               onAccess((Node<K, V>)item);
+            }
+            if (drained > 0)
+            {
+               buffer.pending.addAndGet(-drained);
+            }
+         }
+      }
+
+      private void onAccess(Node<K, V> node)
+      {
+         switch (node.queue)
+         {
+            case WINDOW :
+               sketch.increment(node.name);
+               window.moveToFirst(node);
+               break;
+            case PROBATION :
+               sketch.increment(node.name);
+               probation.remove(node);
+               protectedSegment.addFirst(node);
+               node.queue = PROTECTED;
+               demote();
+               break;
+            case PROTECTED :
+               sketch.increment(node.name);
+               protectedSegment.moveToFirst(node);
+               break;
+            default :
+               // The node has been removed in the meantime
+               break;
+         }
+      }
+
+      /**
+       * Adds or replaces a node, the lock must be held
+       */
+      void add(Node<K, V> node, List<Node<K, V>> evicted)
+      {
+         sketch.increment(node.name);
+         Node<K, V> previous = map.put(node.name, node);
+         if (prefixIndex != null)
+         {
+            prefixIndex.add(node.name, node);
+         }
+         if (previous != null && previous.queue != NONE)
+         {
+            // The new node takes the place of the previous one
+            Segment segment = segmentOf(previous.queue);
+            node.queue = previous.queue;
+            unlink(previous);
+            segment.addFirst(node);
+            evict(evicted);
+         }
+         else
+         {
+            window.addFirst(node);
+            node.queue = WINDOW;
+            evict(evicted);
+         }
+      }
+
+      /**
+       * Removes the node if it is still mapped
+       */
+      void remove(Node<K, V> node)
+      {
+         lock.lock();
+         try
+         {
+            if (map.remove(node.name, node))
+            {
+               unindex(node);
+               unlink(node);
+            }
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+
+      /**
+       * Unlinks the node from its segment, the lock must be held
+       */
+      void unlink(Node<K, V> node)
+      {
+         if (node.queue != NONE)
+         {
+            segmentOf(node.queue).remove(node);
+            node.queue = NONE;
+         }
+      }
+
+      private Segment segmentOf(int queue)
+      {
+         return queue == WINDOW ? window : (queue == PROBATION ? probation : protectedSegment);
+      }
+
+      /**
+       * Moves the least recently used protected nodes to the probation segment as long as the protected
+       * segment exceeds its capacity
+       */
+      private void demote()
+      {
+         int protectedCapacity = protectedCapacity();
+         while (protectedSegment.size > protectedCapacity)
+         {
+            Item last = protectedSegment.last();
+            protectedSegment.remove(last);
+            probation.addFirst(last);
+            ((Node<?, ?>)last).queue = PROBATION;
+         }
+      }
+
+      private int windowCapacity()
+      {
+         return Math.max(1, maxSize * WINDOW_PERCENTAGE / 100);
+      }
+
+      private int protectedCapacity()
+      {
+         return Math.max(0, maxSize - windowCapacity()) * PROTECTED_PERCENTAGE / 100;
+      }
+
+      /**
+       * Moves the nodes in excess from the window to the probation segment, then evicts from the main space
+       * until the cache fits into its maximum size. A candidate coming from the window is admitted only if
+       * it is more frequently used than the victim of the probation segment.
+       *
+       * @param evicted the list to which the evicted nodes are added
+       */
+      @SuppressWarnings("unchecked")
+      void evict(List<Node<K, V>> evicted)
+      {
+         demote();
+         Item candidate = null;
+         int windowCapacity = windowCapacity();
+         while (window.size > windowCapacity)
+         {
+            Item last = window.last();
+            window.remove(last);
+            probation.addFirst(last);
+            ((Node<K, V>)last).queue = PROBATION;
+            if (candidate == null)
+            {
+               candidate = last;
+            }
+         }
+         int maximum = Math.max(maxSize, 0);
+         while (window.size + probation.size + protectedSegment.size > maximum)
+         {
+            Item victim = probation.last();
+            if (victim == null)
+            {
+               victim = protectedSegment.last();
+               if (victim == null)
+               {
+                  victim = window.last();
+               }
+            }
+            if (candidate != null && candidate != victim)
+            {
+               Node<K, V> candidateNode = (Node<K, V>)candidate;
+               Node<K, V> victimNode = (Node<K, V>)victim;
+               if (sketch.frequency(candidateNode.name) <= sketch.frequency(victimNode.name))
+               {
+                  // The candidate is rejected, the next candidate is the node moved after it
+                  victim = candidate;
+                  candidate = candidate.previous == probation.sentinel ? null : candidate.previous;
+               }
+            }
+            else if (candidate == victim)
+            {
+               candidate = null;
+            }
+            Node<K, V> node = (Node<K, V>)victim;
+            map.remove(node.name, node);
+            unindex(node);
+            unlink(node);
+            evicted.add(node);
+         }
+      }
+
+      void assertConsistency()
+      {
+         lock.lock();
+         try
+         {
+            drainReads();
+            assertSegment(window, WINDOW);
+            assertSegment(probation, PROBATION);
+            assertSegment(protectedSegment, PROTECTED);
+            int mapSize = map.size();
+            int size = window.size + probation.size + protectedSegment.size;
+            if (size != mapSize)
+            {
+               throw new AssertionError("The map size is " + mapSize + " is different from the policy size " + size);
+            }
+            if (size > Math.max(maxSize, 0))
+            {
+               throw new AssertionError("The policy size " + size + " is greater than the max size " + maxSize);
+            }
+            if (prefixIndex != null)
+            {
+               int indexable = 0;
+               for (K key : map.keySet())
+               {
+                  if (key instanceof String)
+                  {
+                     indexable++;
+                  }
+               }
+               if (prefixIndex.size() != indexable)
+               {
+                  throw new AssertionError("The amount of String keys " + indexable
+                     + " is different from the prefix index size " + prefixIndex.size());
+               }
+            }
+         }
+         finally
+         {
+            lock.unlock();
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      private void assertSegment(Segment segment, int queue)
+      {
+         int effectiveSize = 0;
+         for (Item item = segment.sentinel.next; item != segment.sentinel; item = item.next)
+         {
+            effectiveSize++;
+            Node<K, V> node = (Node<K, V>)item;
+            if (node.queue != queue || map.get(node.name) != node)
+            {
+               throw new AssertionError("The item " + node.serial + " is not properly linked");
+            }
+         }
+         if (effectiveSize != segment.size)
+         {
+            throw new AssertionError("The cached segment size " + segment.size
+               + " is different from the effective segment size " + effectiveSize);
+         }
+      }
+   }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.future;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A loader that can also retrieve several values at once. When the loader of a future cache implements this
+ * interface, the misses of the same context that happen within a short window are merged into one call to
+ * {@link #retrieveAll(Object, Collection)}.
+ *
+ * @version $Id$
+ * @param <K> the key type parameter
+ * @param <V> the value type parameter
+ * @param <C> the context type parameter
+ */
+public interface BatchLoader<K, V, C> extends Loader<K, V, C>
+{
+
+   /**
+    * Retrieves the values of the given keys within the specified context. The keys whose resource is not found
+    * must not be part of the returned map or must be mapped to null.
+    *
+    * @param context the context
+    * @param keys the keys
+    * @return the values found
+    * @throws Exception any exception that would prevent the values to be loaded
+    */
+   Map<K, V> retrieveAll(C context, Collection<K> keys) throws Exception;
+
+}
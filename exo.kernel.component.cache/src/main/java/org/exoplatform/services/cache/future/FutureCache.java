@@ -18,18 +18,44 @@
  */
 package org.exoplatform.services.cache.future;
 
+import org.exoplatform.services.cache.CacheStatistics;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A future cache that prevents the loading of the same resource twice. This should be used when the resource
  * to load is very expensive or cannot be concurrently retrieved (like a classloading). 
+ * <p>
+ * The resources can also be retrieved without blocking thanks to {@link #getAsync(Object, Object)}, in which case
+ * they are loaded by the executor of the future cache. The values for which {@link #isRefreshNeeded(Object, Object)}
+ * returns <code>true</code> are reloaded in the background while the current value is still returned. When the
+ * negative caching is enabled, the keys for which the loader returned null are remembered during the configured
+ * time such that the loader is not called again for them.
+ * <p>
+ * If the loader is a {@link BatchLoader} and a maximum batch size greater than 1 has been set, the misses of
+ * the same context are merged into batches. The first miss of a batch waits for the batch window or until the
+ * batch reaches its maximum size, then all the keys of the batch are retrieved at once. The batches are
+ * disabled by default since a miss then pays the batch window even when no other miss is pending.
  *
  * @author <a href="mailto:julien.viet@exoplatform.com">Julien Viet</a>
  * @version $Revision$
@@ -40,19 +66,77 @@ import java.util.concurrent.FutureTask;
 public abstract class FutureCache<K, V, C>
 {
 
+   /** . */
+   private static final int DEFAULT_NEGATIVE_MAX_SIZE = 1000;
+
+   /** . */
+   private static final long DEFAULT_BATCH_WINDOW = 5;
+
+   /** . */
+   private static final int DEFAULT_MAX_BATCH_SIZE = 1;
+
+   /** Used by the tasks that are completed by a batch. */
+   private static final Runnable NOTHING = new Runnable()
+   {
+      public void run()
+      {
+      }
+   };
+
    /** . */
    private final Loader<K, V, C> loader;
 
    /** . */
    private final ConcurrentMap<K, FutureTask<V>> futureEntries;
 
+   /** The executor used to load the resources asynchronously, null to use the default one. */
+   private final Executor executor;
+
+   /** The time to live in milliseconds of the negative entries, 0 if the negative caching is disabled. */
+   private volatile long negativeTimeToLive;
+
+   /** . */
+   private volatile int negativeMaxSize = DEFAULT_NEGATIVE_MAX_SIZE;
+
+   /** The expiration time of the keys for which the loader returned null, guarded by itself. */
+   private final Map<K, Long> negativeEntries = new LinkedHashMap<K, Long>()
+   {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Long> eldest)
+      {
+         return size() > negativeMaxSize;
+      }
+   };
+
+   /** The time in milliseconds during which the misses are merged into the same batch. */
+   private volatile long batchWindow = DEFAULT_BATCH_WINDOW;
+
+   /** The maximum amount of keys of a batch, the batches are disabled if lower or equal to 1. */
+   private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+   /** The batches that still accept new keys per context, guarded by itself. */
+   private final Map<C, Batch> openBatches = new HashMap<C, Batch>();
+
    /** . */
    private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.cache.FutureCache");
 
 
    public FutureCache(Loader<K, V, C> loader)
+   {
+      this(loader, null);
+   }
+
+   /**
+    * @param loader the loader of the resources
+    * @param executor the executor used to load the resources asynchronously, if null a default
+    * executor shared by all the future caches is used
+    */
+   public FutureCache(Loader<K, V, C> loader, Executor executor)
    {
       this.loader = loader;
+      this.executor = executor;
       this.futureEntries = new ConcurrentHashMap<K, FutureTask<V>>();
    }
 
@@ -60,6 +144,131 @@ public abstract class FutureCache<K, V, C>
 
    protected abstract void put(K key, V value);
 
+   /**
+    * Gives the statistics in which the loads are recorded, a call to {@link BatchLoader#retrieveAll} is
+    * recorded as one load. By default the loads are not recorded.
+    *
+    * @return the statistics or <code>null</code> if the loads should not be recorded
+    */
+   protected CacheStatistics getStatistics()
+   {
+      return null;
+   }
+
+   /**
+    * Indicates whether the given cached value should be reloaded in the background, the value is still
+    * returned to the caller while it is reloaded. By default the values are never reloaded.
+    *
+    * @param key the key of the value
+    * @param value the cached value
+    * @return <code>true</code> if the value should be reloaded, <code>false</code> otherwise
+    */
+   protected boolean isRefreshNeeded(K key, V value)
+   {
+      return false;
+   }
+
+   /**
+    * @return the time to live in milliseconds of the negative entries, 0 if the negative caching is disabled
+    */
+   public long getNegativeTimeToLive()
+   {
+      return negativeTimeToLive;
+   }
+
+   /**
+    * Sets the time to live of the negative entries, a value lower or equal to 0 disables the negative caching.
+    *
+    * @param negativeTimeToLive the time to live in milliseconds
+    */
+   public void setNegativeTimeToLive(long negativeTimeToLive)
+   {
+      this.negativeTimeToLive = negativeTimeToLive < 0 ? 0 : negativeTimeToLive;
+      if (negativeTimeToLive <= 0)
+      {
+         clearNegativeEntries();
+      }
+   }
+
+   /**
+    * @return the maximum amount of negative entries
+    */
+   public int getNegativeMaxSize()
+   {
+      return negativeMaxSize;
+   }
+
+   /**
+    * Sets the maximum amount of negative entries, once reached the oldest negative entries are evicted.
+    *
+    * @param negativeMaxSize the maximum amount of negative entries
+    */
+   public void setNegativeMaxSize(int negativeMaxSize)
+   {
+      this.negativeMaxSize = negativeMaxSize;
+   }
+
+   /**
+    * @return the time in milliseconds during which the misses are merged into the same batch
+    */
+   public long getBatchWindow()
+   {
+      return batchWindow;
+   }
+
+   /**
+    * Sets the time during which the misses are merged into the same batch, only used with a {@link BatchLoader}.
+    *
+    * @param batchWindow the batch window in milliseconds
+    */
+   public void setBatchWindow(long batchWindow)
+   {
+      this.batchWindow = batchWindow;
+   }
+
+   /**
+    * @return the maximum amount of keys of a batch
+    */
+   public int getMaxBatchSize()
+   {
+      return maxBatchSize;
+   }
+
+   /**
+    * Sets the maximum amount of keys of a batch, only used with a {@link BatchLoader}. A value lower or equal
+    * to 1 disables the batches, which is the default.
+    *
+    * @param maxBatchSize the maximum amount of keys of a batch
+    */
+   public void setMaxBatchSize(int maxBatchSize)
+   {
+      this.maxBatchSize = maxBatchSize;
+   }
+
+   /**
+    * Forgets that the loader returned null for the given key, the next lookup will call the loader.
+    *
+    * @param key the key of the negative entry to remove
+    */
+   public void removeNegativeEntry(K key)
+   {
+      synchronized (negativeEntries)
+      {
+         negativeEntries.remove(key);
+      }
+   }
+
+   /**
+    * Removes all the negative entries.
+    */
+   public void clearNegativeEntries()
+   {
+      synchronized (negativeEntries)
+      {
+         negativeEntries.clear();
+      }
+   }
+
    /**
     * Perform a cache lookup for the specified key within the specified context.
     * When the value cannot be loaded (because it does not exist or it failed or anything else that
@@ -74,75 +283,513 @@ public abstract class FutureCache<K, V, C>
       // First we try a simple cache get
       V value = get(key);
 
-      // If it does not succeed then we go through a process that will avoid to load
-      // the same resource concurrently
-      if (value == null)
+      if (value != null)
       {
-         // Create our future
-         FutureTask<V> future = new FutureTask<V>(new Callable<V>()
+         if (isRefreshNeeded(key, value))
          {
-            public V call() throws Exception
-            {
-               // Retrieve the value from the loader
-               V value = loader.retrieve(context, key);
+            // The current value is returned while it is reloaded
+            load(context, key, true);
+         }
+      }
+      else if (!isNegativelyCached(key))
+      {
+         // If it does not succeed then we go through a process that will avoid to load
+         // the same resource concurrently
+         try
+         {
+            // Returns the value
+            value = load(context, key, false).get();
+         }
+         catch (ExecutionException e)
+         {
+            LOG.error("Computing of resource " + key + " threw an exception", e.getCause());
+         }
+         catch (Exception e)
+         {
+            LOG.error("Retrieval of resource " + key + " threw an exception", e);
+         }
+      }
 
-               //
-               if (value != null)
-               {
-                  // Cache it, it is made available to other threads (unless someone removes it)
-                  put(key, value);
+      //
+      return value;
+   }
 
-                  // Return value
-                  return value;
-               }
-               else
-               {
-                  return null;
-               }
-            }
-         });
+   /**
+    * Perform a cache lookup for the specified key within the specified context without blocking. If
+    * the value is not cached, it is loaded by the executor of the future cache. The returned future gives
+    * the value null when the value cannot be loaded, it cannot be cancelled since the loading of the resource
+    * can be shared with other callers.
+    *
+    * @param context the context in which the resource is accessed
+    * @param key the key identifying the resource
+    * @return the future value
+    */
+   public final Future<V> getAsync(final C context, final K key)
+   {
+      // First we try a simple cache get
+      V value = get(key);
 
-         // This boolean means we inserted in the local
-         boolean inserted = true;
+      if (value != null)
+      {
+         if (isRefreshNeeded(key, value))
+         {
+            // The current value is returned while it is reloaded
+            load(context, key, true);
+         }
+         return new DoneFuture<V>(value);
+      }
+      else if (isNegativelyCached(key))
+      {
+         return new DoneFuture<V>(null);
+      }
+      return new SharedFuture<V>(load(context, key, true));
+   }
 
-         //
-         try
+   /**
+    * Gives the task loading the given key, a new task is created if no task is in progress for this key.
+    *
+    * @param context the context in which the resource is accessed
+    * @param key the key identifying the resource
+    * @param async indicates whether a new task should be run by the executor or by the current thread
+    * @return the task loading the resource
+    */
+   private FutureTask<V> load(final C context, final K key, boolean async)
+   {
+      if (maxBatchSize > 1 && loader instanceof BatchLoader)
+      {
+         return loadInBatch(context, key, async);
+      }
+
+      // Create our future
+      FutureTask<V> future = new LoadTask(key, new Callable<V>()
+      {
+         public V call() throws Exception
          {
-            FutureTask<V> phantom = futureEntries.putIfAbsent(key, future);
+            // Retrieve the value from the loader
+            V value;
+            long start = System.nanoTime();
+            try
+            {
+               value = loader.retrieve(context, key);
+            }
+            catch (Exception e)
+            {
+               LOG.error("Computing of resource " + key + " threw an exception", e);
+               return null;
+            }
+            finally
+            {
+               recordLoad(start);
+            }
 
-            // Use the value that could have been inserted by another thread
-            if (phantom != null)
+            //
+            if (value != null)
             {
-               future = phantom;
-               inserted = false;
+               // Cache it, it is made available to other threads (unless someone removes it)
+               put(key, value);
+
+               // Return value
+               return value;
             }
             else
             {
-               future.run();
+               putNegative(key);
+               return null;
             }
+         }
+      });
 
-            // Returns the value
-            value = future.get();
+      FutureTask<V> phantom = futureEntries.putIfAbsent(key, future);
+
+      // Use the value that could have been inserted by another thread
+      if (phantom != null)
+      {
+         return phantom;
+      }
+      if (async)
+      {
+         try
+         {
+            getExecutor().execute(future);
          }
-         catch (ExecutionException e)
+         catch (RejectedExecutionException e)
          {
-            LOG.error("Computing of resource " + key + " threw an exception", e.getCause());
+            // The executor is saturated so the current thread loads the resource
+            future.run();
          }
-         catch (Exception e)
+      }
+      else
+      {
+         future.run();
+      }
+      return future;
+   }
+
+   /**
+    * Gives the task loading the given key, a new task is created and added to the open batch of the context
+    * if no task is in progress for this key. If a new batch is created, it is run by the current thread or
+    * by the executor once the batch is closed.
+    */
+   private FutureTask<V> loadInBatch(C context, K key, boolean async)
+   {
+      LoadTask future = new LoadTask(key);
+      FutureTask<V> phantom = futureEntries.putIfAbsent(key, future);
+
+      // Use the value that could have been inserted by another thread
+      if (phantom != null)
+      {
+         return phantom;
+      }
+      final Batch batch;
+      synchronized (openBatches)
+      {
+         Batch current = openBatches.get(context);
+         if (current == null)
          {
-            LOG.error("Retrieval of resource " + key + " threw an exception", e);
+            batch = new Batch(context);
+            openBatches.put(context, batch);
          }
-         finally
+         else
          {
-            // Clean up the per key map but only if our insertion succeeded and with our future
-            if (inserted)
+            batch = null;
+            current.tasks.add(future);
+            if (current.tasks.size() >= maxBatchSize)
             {
-               futureEntries.remove(key, future);
+               // The batch is full, we wake up the thread in charge of it
+               close(current);
+               openBatches.notifyAll();
             }
+            return future;
          }
+         batch.tasks.add(future);
       }
+      if (async)
+      {
+         try
+         {
+            getExecutor().execute(new Runnable()
+            {
+               public void run()
+               {
+                  runBatch(batch);
+               }
+            });
+         }
+         catch (RejectedExecutionException e)
+         {
+            // The executor is saturated so the current thread loads the resources
+            runBatch(batch);
+         }
+      }
+      else
+      {
+         runBatch(batch);
+      }
+      return future;
+   }
 
-      //
-      return value;
+   /**
+    * Waits until the batch is full or until the end of the batch window, then retrieves all its keys
+    * at once and completes its tasks.
+    */
+   @SuppressWarnings("unchecked")
+   private void runBatch(Batch batch)
+   {
+      synchronized (openBatches)
+      {
+         long deadline = System.currentTimeMillis() + batchWindow;
+         long remaining;
+         while (!batch.closed && (remaining = deadline - System.currentTimeMillis()) > 0)
+         {
+            try
+            {
+               openBatches.wait(remaining);
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+               break;
+            }
+         }
+         close(batch);
+      }
+      List<K> keys = new ArrayList<K>(batch.tasks.size());
+      for (LoadTask task : batch.tasks)
+      {
+         keys.add(task.key);
+      }
+      Map<K, V> values = null;
+      long start = System.nanoTime();
+      try
+      {
+         values = ((BatchLoader<K, V, C>)loader).retrieveAll(batch.context, keys);
+      }
+      catch (Exception e)
+      {
+         LOG.error("Computing of resources " + keys + " threw an exception", e);
+      }
+      finally
+      {
+         recordLoad(start);
+      }
+      for (LoadTask task : batch.tasks)
+      {
+         V value = null;
+         try
+         {
+            if (values != null)
+            {
+               value = values.get(task.key);
+               if (value != null)
+               {
+                  // Cache it, it is made available to other threads (unless someone removes it)
+                  put(task.key, value);
+               }
+               else
+               {
+                  putNegative(task.key);
+               }
+            }
+         }
+         catch (RuntimeException e)
+         {
+            LOG.error("Caching of resource " + task.key + " threw an exception", e);
+         }
+         finally
+         {
+            task.complete(value);
+         }
+      }
+   }
+
+   /**
+    * Prevents the batch from accepting new keys, the lock of the open batches must be held
+    */
+   private void close(Batch batch)
+   {
+      if (!batch.closed)
+      {
+         batch.closed = true;
+         if (openBatches.get(batch.context) == batch)
+         {
+            openBatches.remove(batch.context);
+         }
+      }
+   }
+
+   private Executor getExecutor()
+   {
+      return executor == null ? DefaultExecutor.INSTANCE : executor;
+   }
+
+   private boolean isNegativelyCached(K key)
+   {
+      if (negativeTimeToLive <= 0)
+      {
+         return false;
+      }
+      synchronized (negativeEntries)
+      {
+         Long expirationTime = negativeEntries.get(key);
+         if (expirationTime == null)
+         {
+            return false;
+         }
+         else if (expirationTime.longValue() > System.currentTimeMillis())
+         {
+            return true;
+         }
+         negativeEntries.remove(key);
+         return false;
+      }
+   }
+
+   private void recordLoad(long start)
+   {
+      CacheStatistics statistics = getStatistics();
+      if (statistics != null)
+      {
+         statistics.recordLoad(start);
+      }
+   }
+
+   private void putNegative(K key)
+   {
+      long timeToLive = negativeTimeToLive;
+      if (timeToLive > 0)
+      {
+         synchronized (negativeEntries)
+         {
+            // Removed first to be the youngest entry
+            negativeEntries.remove(key);
+            negativeEntries.put(key, System.currentTimeMillis() + timeToLive);
+         }
+      }
+   }
+
+   /**
+    * The task loading a resource, it cleans up the per key map once done
+    */
+   private class LoadTask extends FutureTask<V>
+   {
+
+      /** . */
+      private final K key;
+
+      LoadTask(K key, Callable<V> callable)
+      {
+         super(callable);
+         this.key = key;
+      }
+
+      /**
+       * Creates a task that is completed by a batch
+       */
+      LoadTask(K key)
+      {
+         super(NOTHING, null);
+         this.key = key;
+      }
+
+      void complete(V value)
+      {
+         set(value);
+      }
+
+      @Override
+      protected void done()
+      {
+         futureEntries.remove(key, this);
+      }
+   }
+
+   /**
+    * The misses of a context that are retrieved at once
+    */
+   private class Batch
+   {
+
+      /** . */
+      final C context;
+
+      /** The tasks of the batch, guarded by the lock of the open batches until the batch is closed. */
+      final List<LoadTask> tasks = new ArrayList<LoadTask>();
+
+      /** Indicates whether the batch still accepts new keys, guarded by the lock of the open batches. */
+      boolean closed;
+
+      Batch(C context)
+      {
+         this.context = context;
+      }
+   }
+
+   /**
+    * A future whose value is already known
+    */
+   private static class DoneFuture<V> implements Future<V>
+   {
+
+      /** . */
+      private final V value;
+
+      DoneFuture(V value)
+      {
+         this.value = value;
+      }
+
+      public boolean cancel(boolean mayInterruptIfRunning)
+      {
+         return false;
+      }
+
+      public boolean isCancelled()
+      {
+         return false;
+      }
+
+      public boolean isDone()
+      {
+         return true;
+      }
+
+      public V get()
+      {
+         return value;
+      }
+
+      public V get(long timeout, TimeUnit unit)
+      {
+         return value;
+      }
+   }
+
+   /**
+    * A view of a task shared between several callers that prevents its cancellation
+    */
+   private static class SharedFuture<V> implements Future<V>
+   {
+
+      /** . */
+      private final Future<V> future;
+
+      SharedFuture(Future<V> future)
+      {
+         this.future = future;
+      }
+
+      public boolean cancel(boolean mayInterruptIfRunning)
+      {
+         return false;
+      }
+
+      public boolean isCancelled()
+      {
+         return false;
+      }
+
+      public boolean isDone()
+      {
+         return future.isDone();
+      }
+
+      public V get() throws InterruptedException, ExecutionException
+      {
+         return future.get();
+      }
+
+      public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+      {
+         return future.get(timeout, unit);
+      }
+   }
+
+   /**
+    * The executor used by default to load the resources asynchronously, it is created on first use.
+    */
+   private static class DefaultExecutor
+   {
+
+      /** . */
+      static final Executor INSTANCE;
+
+      static
+      {
+         int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+         final AtomicInteger count = new AtomicInteger();
+         ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+               new ThreadFactory()
+               {
+                  public Thread newThread(Runnable r)
+                  {
+                     Thread thread = new Thread(r, "exo-future-cache-loader-" + count.incrementAndGet());
+                     thread.setDaemon(true);
+                     return thread;
+                  }
+               });
+         executor.allowCoreThreadTimeOut(true);
+         INSTANCE = executor;
+      }
    }
 }
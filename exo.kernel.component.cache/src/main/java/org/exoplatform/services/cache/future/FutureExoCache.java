@@ -18,38 +18,222 @@
  */
 package org.exoplatform.services.cache.future;
 
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.CacheStatistics;
 import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.concurrent.LiveTimeSupport;
 
 import java.io.Serializable;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 /**
+ * A {@link FutureCache} backed by an {@link ExoCache}. When a refresh ahead ratio is set, a value that has been
+ * loaded for more than this ratio of the live time of the cache is reloaded in the background while the current
+ * value is still returned, so that the popular entries never expire.
+ *
  * @author <a href="mailto:julien.viet@exoplatform.com">Julien Viet</a>
  * @version $Revision$
  */
 public class FutureExoCache<K extends Serializable, V, C> extends FutureCache<K, V, C>
 {
 
+   /**
+    * The maximum amount of load times kept when the cache has no maximum size
+    */
+   private static final int DEFAULT_MAX_LOAD_TIMES = 10000;
+
    /** . */
    private final ExoCache<K, V> cache;
 
+   /** The ratio of the live time from which the values are reloaded, 0 if disabled. */
+   private volatile float refreshAheadRatio;
+
+   /**
+    * The time at which the values have been loaded, only filled when the refresh ahead is enabled. It is
+    * bounded by the maximum size of the cache, the load times of the keys that are not cached anymore are
+    * removed when the cache notifies it, on a miss or once the bound is exceeded.
+    */
+   private final ConcurrentMap<K, Long> loadTimes = new ConcurrentHashMap<K, Long>();
+
+   /** . */
+   private boolean listening;
+
    public FutureExoCache(Loader<K, V, C> loader, ExoCache<K, V> cache)
    {
-      super(loader);
+      this(loader, cache, null);
+   }
+
+   /**
+    * @param loader the loader of the resources
+    * @param cache the cache in which the resources are stored
+    * @param executor the executor used to load the resources asynchronously, if null a default
+    * executor shared by all the future caches is used
+    */
+   public FutureExoCache(Loader<K, V, C> loader, ExoCache<K, V> cache, Executor executor)
+   {
+      super(loader, executor);
 
       //
       this.cache = cache;
    }
 
+   /**
+    * @return the ratio of the live time from which the values are reloaded, 0 if the refresh ahead is disabled
+    */
+   public float getRefreshAheadRatio()
+   {
+      return refreshAheadRatio;
+   }
+
+   /**
+    * Sets the ratio of the live time of the cache from which a value is reloaded in the background.
+    *
+    * @param refreshAheadRatio a ratio strictly between 0 and 1, or 0 to disable the refresh ahead
+    * @throws IllegalArgumentException if the ratio is out of range
+    */
+   public synchronized void setRefreshAheadRatio(float refreshAheadRatio)
+   {
+      if (refreshAheadRatio < 0 || refreshAheadRatio >= 1)
+      {
+         throw new IllegalArgumentException("The refresh ahead ratio must be between 0 and 1");
+      }
+      if (refreshAheadRatio > 0 && !listening)
+      {
+         // We listen to the cache to forget the load time of the entries that are no more cached
+         cache.addCacheListener(new LoadTimeCleaner());
+         listening = true;
+      }
+      else if (refreshAheadRatio == 0)
+      {
+         loadTimes.clear();
+      }
+      this.refreshAheadRatio = refreshAheadRatio;
+   }
+
    @Override
    protected V get(K key)
    {
-      return cache.get(key);
+      V value = cache.get(key);
+      if (value == null && refreshAheadRatio > 0)
+      {
+         // The entry may have been evicted without any notification
+         loadTimes.remove(key);
+      }
+      return value;
    }
 
    @Override
    protected void put(K key, V entry)
    {
       cache.put(key, entry);
+      if (refreshAheadRatio > 0)
+      {
+         long now = System.currentTimeMillis();
+         loadTimes.put(key, now);
+         int maxSize = cache.getMaxSize();
+         int maxLoadTimes = maxSize > 0 ? maxSize : DEFAULT_MAX_LOAD_TIMES;
+         if (loadTimes.size() > maxLoadTimes)
+         {
+            purgeLoadTimes(now, maxLoadTimes);
+         }
+      }
    }
-}
 
+   /**
+    * Removes the load times of the values that have expired, then some other load times until there is room
+    * for a quarter of the given maximum, the values whose load time is removed are simply not refreshed ahead.
+    */
+   private void purgeLoadTimes(long now, int maxLoadTimes)
+   {
+      long liveTime = getLiveTimeMillis();
+      if (liveTime > 0)
+      {
+         for (Iterator<Long> it = loadTimes.values().iterator(); it.hasNext();)
+         {
+            if (now - it.next().longValue() >= liveTime)
+            {
+               it.remove();
+            }
+         }
+      }
+      int target = maxLoadTimes - maxLoadTimes / 4;
+      for (Iterator<K> it = loadTimes.keySet().iterator(); it.hasNext() && loadTimes.size() > target;)
+      {
+         it.next();
+         it.remove();
+      }
+   }
+
+   /**
+    * @return the live time of the cache in milliseconds, exact if the cache supports it
+    */
+   private long getLiveTimeMillis()
+   {
+      return cache instanceof LiveTimeSupport ? ((LiveTimeSupport)cache).getLiveTimeMillis() : cache
+         .getLiveTime() * 1000;
+   }
+
+   /**
+    * @return the amount of load times kept, only meant for testing
+    */
+   int getLoadTimeCount()
+   {
+      return loadTimes.size();
+   }
+
+   @Override
+   protected CacheStatistics getStatistics()
+   {
+      return cache.getStatistics();
+   }
+
+   @Override
+   protected boolean isRefreshNeeded(K key, V value)
+   {
+      float ratio = refreshAheadRatio;
+      if (ratio <= 0)
+      {
+         return false;
+      }
+      long liveTime = getLiveTimeMillis();
+      if (liveTime <= 0)
+      {
+         return false;
+      }
+      Long loadTime = loadTimes.get(key);
+      return loadTime != null && System.currentTimeMillis() - loadTime.longValue() >= (long)(liveTime * ratio);
+   }
+
+   /**
+    * Removes the load time of the entries that are removed from the cache
+    */
+   private class LoadTimeCleaner implements CacheListener<K, V>
+   {
+      public void onExpire(CacheListenerContext context, K key, V obj) throws Exception
+      {
+         loadTimes.remove(key);
+      }
+
+      public void onRemove(CacheListenerContext context, K key, V obj) throws Exception
+      {
+         loadTimes.remove(key);
+      }
+
+      public void onPut(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onGet(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onClearCache(CacheListenerContext context) throws Exception
+      {
+         loadTimes.clear();
+      }
+   }
+}
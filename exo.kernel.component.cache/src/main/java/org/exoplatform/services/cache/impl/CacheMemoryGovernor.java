@@ -0,0 +1,597 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.impl;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.annotations.ManagedName;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.CacheStatistics;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.concurrent.TinyLFUExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.picocontainer.Startable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically redistributes the maximum sizes of the local caches of the {@link CacheService} within a global
+ * memory budget. At each round, the hits, the misses and the size of each region since the previous round are
+ * collected and the memory of a region is estimated from its maximum size and the average size of its entries.
+ * Then:
+ * <ul>
+ * <li>the regions that are far from being full give back their unused capacity,</li>
+ * <li>if the budget is exceeded, the regions that serve the least hits per byte are shrunk,</li>
+ * <li>the full regions that miss the most per byte are grown, either with the remaining budget or with the
+ * capacity taken from the regions that serve fewer hits per byte.</li>
+ * </ul>
+ * The sizes change by a small step per round so that the regions converge progressively, they never go below
+ * the minimum size nor above the configured size multiplied by the max growth. The decisions are logged and
+ * the most recent ones are exposed over JMX.
+ * <p>
+ * If a {@link CacheMemoryPressureMonitor} is also declared, the governor is the only one that grows the regions
+ * and it resizes them through the monitor so that they never exceed the ceilings lowered by the monitor under
+ * memory pressure, nothing is grown while the heap is under pressure.
+ * <p>
+ * Only the {@link ConcurrentFIFOExoCache} and the {@link TinyLFUExoCache} are governed since they can be resized
+ * without losing their content, the off-heap caches are anyway not part of the heap budget. The component is
+ * declared as next:
+ * <pre>
+ * &lt;component&gt;
+ *    &lt;type&gt;org.exoplatform.services.cache.impl.CacheMemoryGovernor&lt;/type&gt;
+ *    &lt;init-params&gt;
+ *       &lt;value-param&gt;
+ *          &lt;name&gt;memory-budget&lt;/name&gt;
+ *          &lt;value&gt;268435456&lt;/value&gt;
+ *       &lt;/value-param&gt;
+ *    &lt;/init-params&gt;
+ * &lt;/component&gt;
+ * </pre>
+ *
+ * @version $Id$
+ */
+@Managed
+@NameTemplate(@Property(key = "service", value = "cachememorygovernor"))
+@ManagedDescription("Cache memory governor")
+public class CacheMemoryGovernor implements Startable
+{
+
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.cache.CacheMemoryGovernor");
+
+   /**
+    * The name of the parameter defining the period in seconds between two rounds, 0 to disable them
+    */
+   public static final String PERIOD = "period";
+
+   /**
+    * The name of the parameter defining the memory budget in bytes of all the governed regions
+    */
+   public static final String MEMORY_BUDGET = "memory-budget";
+
+   /**
+    * The name of the parameter defining the memory budget as a ratio of the max heap size, it is only used
+    * when the memory budget is not defined
+    */
+   public static final String HEAP_RATIO = "heap-ratio";
+
+   /**
+    * The name of the parameter defining the estimated size in bytes of an entry of a region whose weight is
+    * unknown
+    */
+   public static final String ENTRY_SIZE = "entry-size";
+
+   /**
+    * The name of the parameter defining the minimum size of a region
+    */
+   public static final String MIN_SIZE = "min-size";
+
+   /**
+    * The name of the parameter defining how many times a region can exceed its configured size
+    */
+   public static final String MAX_GROWTH = "max-growth";
+
+   /**
+    * The name of the parameter defining the ratio of its size by which a region is resized at each round
+    */
+   public static final String STEP = "step";
+
+   /**
+    * The name of the parameter defining the comma separated list of the regions that must not be governed
+    */
+   public static final String EXCLUDED_REGIONS = "excluded-regions";
+
+   private static final long DEFAULT_PERIOD = 60;
+
+   private static final double DEFAULT_HEAP_RATIO = 0.2;
+
+   private static final long DEFAULT_ENTRY_SIZE = 1024;
+
+   private static final int DEFAULT_MIN_SIZE = 16;
+
+   private static final int DEFAULT_MAX_GROWTH = 4;
+
+   private static final double DEFAULT_STEP = 0.1;
+
+   /**
+    * The maximum amount of decisions kept for JMX
+    */
+   private static final int MAX_DECISIONS = 100;
+
+   private final CacheService cacheService;
+
+   /**
+    * The monitor that lowers the ceilings of the regions under memory pressure, <code>null</code> if none
+    */
+   private final CacheMemoryPressureMonitor monitor;
+
+   private final long period;
+
+   private volatile long memoryBudget;
+
+   private final long entrySize;
+
+   private final int minSize;
+
+   private final int maxGrowth;
+
+   private final double step;
+
+   private final Set<String> excludedRegions;
+
+   /**
+    * The state of the governed regions by name
+    */
+   private final Map<String, RegionState> states = new HashMap<String, RegionState>();
+
+   private final LinkedList<String> decisions = new LinkedList<String>();
+
+   private long estimatedMemory;
+
+   private long rounds;
+
+   private ScheduledExecutorService executor;
+
+   public CacheMemoryGovernor(CacheService cacheService, InitParams params)
+   {
+      this(cacheService, null, params);
+   }
+
+   public CacheMemoryGovernor(CacheService cacheService, CacheMemoryPressureMonitor monitor, InitParams params)
+   {
+      this.cacheService = cacheService;
+      this.monitor = monitor;
+      this.period = CacheParams.getLong(params, PERIOD, DEFAULT_PERIOD);
+      long budget =
+         (long)(Runtime.getRuntime().maxMemory() * CacheParams.getDouble(params, HEAP_RATIO, DEFAULT_HEAP_RATIO));
+      this.memoryBudget = CacheParams.getLong(params, MEMORY_BUDGET, budget);
+      this.entrySize = Math.max(1, CacheParams.getLong(params, ENTRY_SIZE, DEFAULT_ENTRY_SIZE));
+      this.minSize = Math.max(1, (int)CacheParams.getLong(params, MIN_SIZE, DEFAULT_MIN_SIZE));
+      this.maxGrowth = Math.max(1, (int)CacheParams.getLong(params, MAX_GROWTH, DEFAULT_MAX_GROWTH));
+      this.step = Math.min(Math.max(CacheParams.getDouble(params, STEP, DEFAULT_STEP), 0.01), 0.5);
+      this.excludedRegions = CacheParams.getRegions(params, EXCLUDED_REGIONS);
+      if (monitor != null)
+      {
+         monitor.delegateTo(this);
+      }
+   }
+
+   public void start()
+   {
+      if (period <= 0)
+      {
+         return;
+      }
+      synchronized (this)
+      {
+         executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+         {
+            public Thread newThread(Runnable r)
+            {
+               Thread t = new Thread(r, "exo-cache-memory-governor");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+         executor.scheduleWithFixedDelay(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  rebalance();
+               }
+               catch (RuntimeException e)
+               {
+                  LOG.warn("Could not rebalance the sizes of the caches", e);
+               }
+            }
+         }, period, period, TimeUnit.SECONDS);
+      }
+   }
+
+   public void stop()
+   {
+      synchronized (this)
+      {
+         if (executor != null)
+         {
+            executor.shutdownNow();
+            executor = null;
+         }
+      }
+   }
+
+   @Managed
+   @ManagedName("MemoryBudget")
+   @ManagedDescription("The memory budget in bytes of all the governed regions")
+   public long getMemoryBudget()
+   {
+      return memoryBudget;
+   }
+
+   @Managed
+   public void setMemoryBudget(long memoryBudget)
+   {
+      if (memoryBudget <= 0)
+      {
+         throw new IllegalArgumentException("The memory budget must be positive");
+      }
+      this.memoryBudget = memoryBudget;
+   }
+
+   @Managed
+   @ManagedName("EstimatedMemory")
+   @ManagedDescription("The memory in bytes of all the governed regions estimated at the last round")
+   public synchronized long getEstimatedMemory()
+   {
+      return estimatedMemory;
+   }
+
+   @Managed
+   @ManagedName("Period")
+   @ManagedDescription("The period in seconds between two rounds, 0 if they are only triggered manually")
+   public long getPeriod()
+   {
+      return period;
+   }
+
+   @Managed
+   @ManagedName("Rounds")
+   @ManagedDescription("The amount of rounds done so far")
+   public synchronized long getRounds()
+   {
+      return rounds;
+   }
+
+   @Managed
+   @ManagedName("Decisions")
+   @ManagedDescription("The most recent decisions, the latest first")
+   public synchronized String[] getDecisions()
+   {
+      return decisions.toArray(new String[decisions.size()]);
+   }
+
+   /**
+    * Does a round, the maximum sizes of the governed regions are adjusted according to what they did since
+    * the previous round.
+    */
+   @Managed
+   @ManagedDescription("Rebalances the sizes of the regions now")
+   public synchronized void rebalance()
+   {
+      rounds++;
+      List<Region> regions = collect();
+      long budget = memoryBudget;
+      long used = 0;
+      for (Region region : regions)
+      {
+         used += region.memory();
+      }
+
+      // The unused capacity is given back
+      for (Region region : regions)
+      {
+         if (!region.isFull() && region.maxSize > minSize)
+         {
+            int target = Math.max((int)Math.ceil(region.size / (1 - step)), region.maxSize - stepOf(region));
+            if (target < region.maxSize)
+            {
+               used -= region.resize(target, "underused");
+            }
+         }
+      }
+
+      // The regions that serve the least hits per byte are shrunk until the budget is met
+      while (used > budget)
+      {
+         Region donor = donor(regions, null, Double.MAX_VALUE);
+         if (donor == null)
+         {
+            break;
+         }
+         used -= donor.resize(donor.maxSize - stepOf(donor), "over budget");
+      }
+
+      // The regions that miss the most per byte are grown, unless the heap is under pressure
+      List<Region> candidates = new ArrayList<Region>();
+      boolean underPressure = monitor != null && monitor.isUnderPressure();
+      for (Region region : regions)
+      {
+         if (!underPressure && region.gain() > 0 && region.maxSize < region.ceiling && !region.resized)
+         {
+            candidates.add(region);
+         }
+      }
+      Collections.sort(candidates, new Comparator<Region>()
+      {
+         public int compare(Region r1, Region r2)
+         {
+            return Double.compare(r2.gain(), r1.gain());
+         }
+      });
+      for (Region candidate : candidates)
+      {
+         int target = Math.min(candidate.ceiling, candidate.maxSize + stepOf(candidate));
+         long missing = used + (target - candidate.maxSize) * candidate.entrySize - budget;
+         if (missing > 0)
+         {
+            Region donor = donor(regions, candidate, candidate.gain());
+            if (donor != null)
+            {
+               long entries = Math.min(stepOf(donor), (missing + donor.entrySize - 1) / donor.entrySize);
+               used -= donor.resize(donor.maxSize - (int)entries, "given to " + candidate.name);
+            }
+            // Only what fits into the budget is taken
+            target = (int)Math.min(target, candidate.maxSize + Math.max(0, budget - used) / candidate.entrySize);
+            if (target <= candidate.maxSize)
+            {
+               continue;
+            }
+         }
+         used -= candidate.resize(target, "missing");
+      }
+      estimatedMemory = used;
+   }
+
+   /**
+    * Gives the region that serves the least hits per byte among the regions that can be shrunk
+    *
+    * @param regions the governed regions
+    * @param excluded a region that cannot be chosen, the one to grow
+    * @param maxLoss the loss above which a region is not worth being shrunk
+    * @return the region to shrink, <code>null</code> if none
+    */
+   private Region donor(List<Region> regions, Region excluded, double maxLoss)
+   {
+      Region donor = null;
+      for (Region region : regions)
+      {
+         if (region != excluded && region.maxSize > minSize && !region.grown && region.loss() < maxLoss
+            && (donor == null || region.loss() < donor.loss()))
+         {
+            donor = region;
+         }
+      }
+      return donor;
+   }
+
+   private int stepOf(Region region)
+   {
+      return Math.max(1, (int)(region.maxSize * step));
+   }
+
+   /**
+    * Collects what the governed regions did since the previous round
+    */
+   private List<Region> collect()
+   {
+      List<Region> regions = new ArrayList<Region>();
+      Set<String> names = new HashSet<String>();
+      for (ExoCache<? extends Serializable, ?> cache : cacheService.getAllCacheInstances())
+      {
+         if (cache == null || !isGoverned(cache))
+         {
+            continue;
+         }
+         String name = cache.getName();
+         CacheStatistics statistics = cache.getStatistics();
+         int maxSize = cache.getMaxSize();
+         if (maxSize <= 0)
+         {
+            continue;
+         }
+         RegionState state = states.get(name);
+         if (state == null)
+         {
+            // A region shrunk by the monitor is known by its size before the shrink
+            int originalSize = monitor == null ? -1 : monitor.getOriginalSize(name);
+            state = new RegionState(originalSize > 0 ? originalSize : maxSize);
+            states.put(name, state);
+         }
+         long hits = statistics.getHitCount();
+         long misses = statistics.getMissCount();
+         int size = cache.getCacheSize();
+         long weight = cache.getCacheWeight();
+         long averageSize = weight > 0 && size > 0 ? Math.max(1, weight / size) : entrySize;
+         Region region = new Region(cache, hits - state.hits, misses - state.misses, size, maxSize, averageSize);
+         region.ceiling = Math.max(state.configuredMaxSize * maxGrowth, minSize);
+         if (monitor != null)
+         {
+            region.ceiling = Math.min(region.ceiling, monitor.getCeiling(name));
+         }
+         state.hits = hits;
+         state.misses = misses;
+         regions.add(region);
+         names.add(name);
+      }
+      states.keySet().retainAll(names);
+      return regions;
+   }
+
+   private boolean isGoverned(ExoCache<?, ?> cache)
+   {
+      return (cache instanceof ConcurrentFIFOExoCache || cache instanceof TinyLFUExoCache)
+         && cache.getStatistics() != null && !excludedRegions.contains(cache.getName());
+   }
+
+   private void addDecision(String decision)
+   {
+      if (LOG.isDebugEnabled())
+      {
+         LOG.debug(decision);
+      }
+      decisions.addFirst(decision);
+      if (decisions.size() > MAX_DECISIONS)
+      {
+         decisions.removeLast();
+      }
+   }
+
+   /**
+    * What is remembered of a region between two rounds
+    */
+   private static class RegionState
+   {
+      final int configuredMaxSize;
+
+      long hits;
+
+      long misses;
+
+      RegionState(int configuredMaxSize)
+      {
+         this.configuredMaxSize = configuredMaxSize;
+      }
+   }
+
+   /**
+    * What a region did during the last period
+    */
+   private class Region
+   {
+      final ExoCache<?, ?> cache;
+
+      final String name;
+
+      final long hits;
+
+      final long misses;
+
+      final int size;
+
+      final long entrySize;
+
+      int maxSize;
+
+      int ceiling;
+
+      boolean resized;
+
+      boolean grown;
+
+      Region(ExoCache<?, ?> cache, long hits, long misses, int size, int maxSize, long entrySize)
+      {
+         this.cache = cache;
+         this.name = cache.getName();
+         this.hits = Math.max(0, hits);
+         this.misses = Math.max(0, misses);
+         this.size = size;
+         this.maxSize = maxSize;
+         this.entrySize = entrySize;
+      }
+
+      long memory()
+      {
+         return maxSize * entrySize;
+      }
+
+      boolean isFull()
+      {
+         return size >= maxSize * (1 - step);
+      }
+
+      /**
+       * The misses per byte, an estimation of the hits that more capacity would bring
+       */
+      double gain()
+      {
+         return isFull() ? (double)misses / memory() : 0;
+      }
+
+      /**
+       * The hits per byte, an estimation of the hits that less capacity would lose
+       */
+      double loss()
+      {
+         return isFull() ? (double)hits / memory() : 0;
+      }
+
+      /**
+       * Changes the maximum size of the region.
+       *
+       * @return the amount of bytes released, negative if the region has been grown
+       */
+      long resize(int newMaxSize, String reason)
+      {
+         newMaxSize = Math.max(minSize, Math.min(ceiling, newMaxSize));
+         int oldMaxSize = maxSize;
+         if (newMaxSize == oldMaxSize)
+         {
+            return 0;
+         }
+         if (monitor == null)
+         {
+            cache.setMaxSize(newMaxSize);
+         }
+         else
+         {
+            // The monitor may have lowered the ceiling since the collect
+            newMaxSize = monitor.resize(cache, newMaxSize);
+            if (newMaxSize == oldMaxSize)
+            {
+               return 0;
+            }
+         }
+         maxSize = newMaxSize;
+         resized = true;
+         grown |= newMaxSize > oldMaxSize;
+         addDecision("Round " + rounds + ": " + name + " " + oldMaxSize + " -> " + newMaxSize + " (" + reason
+            + ", hits=" + hits + ", misses=" + misses + ", size=" + size + ")");
+         return (oldMaxSize - newMaxSize) * entrySize;
+      }
+   }
+}
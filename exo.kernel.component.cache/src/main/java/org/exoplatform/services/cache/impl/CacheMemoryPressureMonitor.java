@@ -0,0 +1,566 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.impl;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.management.annotations.Managed;
+import org.exoplatform.management.annotations.ManagedDescription;
+import org.exoplatform.management.annotations.ManagedName;
+import org.exoplatform.management.jmx.annotations.NameTemplate;
+import org.exoplatform.management.jmx.annotations.Property;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.concurrent.TinyLFUExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.picocontainer.Startable;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Shrinks the local caches of the {@link CacheService} step by step when the old generation fills up, which
+ * is less brutal than clearing them. The monitor sets a collection usage threshold on the tenured heap pool so
+ * that the JVM notifies it as soon as a garbage collection leaves the pool above the usage threshold, the usage
+ * is also checked periodically. Then:
+ * <ul>
+ * <li>as long as the usage is above the usage threshold, each governed region is shrunk by a step of its
+ * original size, the entries in excess being evicted from the cold end, until it reaches its floor,</li>
+ * <li>once the usage goes back below the recovery threshold, each shrunk region is grown back by a step of its
+ * original size at each check until it recovers its original size.</li>
+ * </ul>
+ * The shrinks and the growths are logged and the most recent ones are exposed over JMX.
+ * <p>
+ * When a {@link CacheMemoryGovernor} is also declared, it is the only one that grows the regions: the monitor
+ * then only lowers the ceiling of each region under pressure and raises it back once recovered, and the
+ * governor never resizes a region above its ceiling nor grows anything while the usage is above the usage
+ * threshold. The original sizes are kept until the ceilings are lifted so that the governor does not take
+ * a shrunk size for a configured one.
+ * <p>
+ * Only the {@link ConcurrentFIFOExoCache} and the {@link TinyLFUExoCache} are governed since they are the
+ * ones that live in the heap and that can be resized without losing their content. The component is declared as
+ * next:
+ * <pre>
+ * &lt;component&gt;
+ *    &lt;type&gt;org.exoplatform.services.cache.impl.CacheMemoryPressureMonitor&lt;/type&gt;
+ *    &lt;init-params&gt;
+ *       &lt;value-param&gt;
+ *          &lt;name&gt;usage-threshold&lt;/name&gt;
+ *          &lt;value&gt;0.85&lt;/value&gt;
+ *       &lt;/value-param&gt;
+ *       &lt;value-param&gt;
+ *          &lt;name&gt;floor&lt;/name&gt;
+ *          &lt;value&gt;0.25&lt;/value&gt;
+ *       &lt;/value-param&gt;
+ *    &lt;/init-params&gt;
+ * &lt;/component&gt;
+ * </pre>
+ *
+ * @version $Id$
+ */
+@Managed
+@NameTemplate(@Property(key = "service", value = "cachememorypressuremonitor"))
+@ManagedDescription("Cache memory pressure monitor")
+public class CacheMemoryPressureMonitor implements Startable
+{
+
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.cache.CacheMemoryPressureMonitor");
+
+   /**
+    * The name of the parameter defining the period in seconds between two checks of the memory usage, 0 to
+    * only rely on the notifications of the JVM
+    */
+   public static final String PERIOD = "period";
+
+   /**
+    * The name of the parameter defining the ratio of the tenured pool above which the regions are shrunk
+    */
+   public static final String USAGE_THRESHOLD = "usage-threshold";
+
+   /**
+    * The name of the parameter defining the ratio of the tenured pool below which the regions are grown back
+    */
+   public static final String RECOVERY_THRESHOLD = "recovery-threshold";
+
+   /**
+    * The name of the parameter defining the ratio of its original size below which a region is never shrunk
+    */
+   public static final String FLOOR = "floor";
+
+   /**
+    * The name of the parameter defining the ratio of its original size by which a region is resized at each
+    * step
+    */
+   public static final String STEP = "step";
+
+   /**
+    * The name of the parameter defining the comma separated list of the regions that must not be shrunk
+    */
+   public static final String EXCLUDED_REGIONS = "excluded-regions";
+
+   private static final long DEFAULT_PERIOD = 5;
+
+   private static final double DEFAULT_USAGE_THRESHOLD = 0.85;
+
+   private static final double DEFAULT_RECOVERY_THRESHOLD = 0.6;
+
+   private static final double DEFAULT_FLOOR = 0.25;
+
+   private static final double DEFAULT_STEP = 0.25;
+
+   /**
+    * The maximum amount of events kept for JMX
+    */
+   private static final int MAX_EVENTS = 100;
+
+   private final CacheService cacheService;
+
+   private final long period;
+
+   private final double usageThreshold;
+
+   private final double recoveryThreshold;
+
+   private final double floor;
+
+   private final double step;
+
+   private final Set<String> excludedRegions;
+
+   /**
+    * The original maximum size of the shrunk regions by name
+    */
+   private final Map<String, Integer> originalSizes = new HashMap<String, Integer>();
+
+   /**
+    * The maximum size that the shrunk regions can currently have by name
+    */
+   private final Map<String, Integer> ceilings = new HashMap<String, Integer>();
+
+   private final LinkedList<String> events = new LinkedList<String>();
+
+   private long shrinks;
+
+   private boolean underPressure;
+
+   /**
+    * Indicates whether a {@link CacheMemoryGovernor} decides of the sizes of the regions
+    */
+   private volatile boolean delegated;
+
+   private MemoryPoolMXBean pool;
+
+   private NotificationListener listener;
+
+   private ScheduledExecutorService executor;
+
+   public CacheMemoryPressureMonitor(CacheService cacheService, InitParams params)
+   {
+      this.cacheService = cacheService;
+      this.period = CacheParams.getLong(params, PERIOD, DEFAULT_PERIOD);
+      this.usageThreshold = CacheParams.getRatio(params, USAGE_THRESHOLD, DEFAULT_USAGE_THRESHOLD);
+      this.recoveryThreshold =
+         Math.min(usageThreshold, CacheParams.getRatio(params, RECOVERY_THRESHOLD, DEFAULT_RECOVERY_THRESHOLD));
+      this.floor = CacheParams.getRatio(params, FLOOR, DEFAULT_FLOOR);
+      this.step = Math.max(0.01, CacheParams.getRatio(params, STEP, DEFAULT_STEP));
+      this.excludedRegions = CacheParams.getRegions(params, EXCLUDED_REGIONS);
+   }
+
+   public void start()
+   {
+      synchronized (this)
+      {
+         executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+         {
+            public Thread newThread(Runnable r)
+            {
+               Thread t = new Thread(r, "exo-cache-memory-pressure-monitor");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+         final Runnable check = new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  check();
+               }
+               catch (RuntimeException e)
+               {
+                  LOG.warn("Could not check the memory pressure", e);
+               }
+            }
+         };
+         pool = findTenuredPool();
+         if (pool == null)
+         {
+            LOG.warn("No heap memory pool supports the collection usage threshold, the memory pressure will only "
+               + "be checked periodically");
+         }
+         else
+         {
+            long max = pool.getUsage().getMax();
+            pool.setCollectionUsageThreshold((long)(max * usageThreshold));
+            listener = new NotificationListener()
+            {
+               public void handleNotification(Notification notification, Object handback)
+               {
+                  if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()))
+                  {
+                     // The notifications are sent by a thread of the JVM that must not be blocked
+                     ScheduledExecutorService executor = CacheMemoryPressureMonitor.this.executor;
+                     if (executor != null)
+                     {
+                        executor.execute(check);
+                     }
+                  }
+               }
+            };
+            ((NotificationEmitter)ManagementFactory.getMemoryMXBean()).addNotificationListener(listener, null, null);
+         }
+         if (period > 0)
+         {
+            executor.scheduleWithFixedDelay(check, period, period, TimeUnit.SECONDS);
+         }
+      }
+   }
+
+   public void stop()
+   {
+      synchronized (this)
+      {
+         if (listener != null)
+         {
+            try
+            {
+               ((NotificationEmitter)ManagementFactory.getMemoryMXBean()).removeNotificationListener(listener);
+            }
+            catch (ListenerNotFoundException e)
+            {
+               LOG.debug("The memory listener was already removed", e);
+            }
+            listener = null;
+         }
+         if (pool != null)
+         {
+            pool.setCollectionUsageThreshold(0);
+            pool = null;
+         }
+         if (executor != null)
+         {
+            executor.shutdownNow();
+            executor = null;
+         }
+      }
+   }
+
+   @Managed
+   @ManagedName("UsageThreshold")
+   @ManagedDescription("The ratio of the tenured pool above which the regions are shrunk")
+   public double getUsageThreshold()
+   {
+      return usageThreshold;
+   }
+
+   @Managed
+   @ManagedName("RecoveryThreshold")
+   @ManagedDescription("The ratio of the tenured pool below which the regions are grown back")
+   public double getRecoveryThreshold()
+   {
+      return recoveryThreshold;
+   }
+
+   @Managed
+   @ManagedName("Usage")
+   @ManagedDescription("The ratio of the tenured pool used after the last garbage collection, -1 if unknown")
+   public synchronized double getUsage()
+   {
+      if (pool == null)
+      {
+         return -1;
+      }
+      MemoryUsage usage = pool.getCollectionUsage();
+      return usage == null || usage.getMax() <= 0 ? -1 : (double)usage.getUsed() / usage.getMax();
+   }
+
+   @Managed
+   @ManagedName("UnderPressure")
+   @ManagedDescription("Indicates whether the usage exceeded the usage threshold at the last check")
+   public synchronized boolean isUnderPressure()
+   {
+      return underPressure;
+   }
+
+   @Managed
+   @ManagedName("Shrinks")
+   @ManagedDescription("The amount of regions shrunk so far")
+   public synchronized long getShrinks()
+   {
+      return shrinks;
+   }
+
+   @Managed
+   @ManagedName("ShrunkRegions")
+   @ManagedDescription("The regions that are currently below their original size")
+   public synchronized String[] getShrunkRegions()
+   {
+      return originalSizes.keySet().toArray(new String[originalSizes.size()]);
+   }
+
+   @Managed
+   @ManagedName("Events")
+   @ManagedDescription("The most recent shrinks and growths, the latest first")
+   public synchronized String[] getEvents()
+   {
+      return events.toArray(new String[events.size()]);
+   }
+
+   /**
+    * Checks the usage of the tenured pool after the last garbage collection, the regions are shrunk if it
+    * exceeds the usage threshold and grown back if it is below the recovery threshold.
+    */
+   @Managed
+   @ManagedDescription("Checks the memory pressure now")
+   public synchronized void check()
+   {
+      double usage = getUsage();
+      if (usage < 0)
+      {
+         return;
+      }
+      if (usage >= usageThreshold)
+      {
+         shrink();
+      }
+      else if (usage < recoveryThreshold)
+      {
+         grow();
+      }
+   }
+
+   /**
+    * Shrinks each governed region by a step of its original size without going below its floor.
+    */
+   @Managed
+   @ManagedDescription("Shrinks the regions by one step now")
+   public synchronized void shrink()
+   {
+      underPressure = true;
+      for (ExoCache<? extends Serializable, ?> cache : cacheService.getAllCacheInstances())
+      {
+         if (cache == null || !isGoverned(cache))
+         {
+            continue;
+         }
+         String name = cache.getName();
+         int maxSize = cache.getMaxSize();
+         Integer originalSize = originalSizes.get(name);
+         int original = originalSize == null ? maxSize : originalSize.intValue();
+         if (original <= 0)
+         {
+            continue;
+         }
+         int ceiling = Math.min(maxSize, getCeiling(name));
+         int target = Math.max(Math.max(1, (int)(original * floor)), ceiling - stepOf(original));
+         if (target < ceiling)
+         {
+            if (originalSize == null)
+            {
+               originalSizes.put(name, original);
+            }
+            ceilings.put(name, target);
+            shrinks++;
+            if (target < maxSize)
+            {
+               int size = cache.getCacheSize();
+               cache.setMaxSize(target);
+               addEvent("Shrunk " + name + " " + maxSize + " -> " + target + " (original=" + original
+                  + ", evicted=" + Math.max(0, size - target) + ")");
+            }
+            else
+            {
+               addEvent("Lowered the ceiling of " + name + " to " + target + " (original=" + original + ")");
+            }
+         }
+      }
+   }
+
+   /**
+    * Raises the ceiling of each shrunk region by a step of its original size without exceeding its original
+    * size. Unless a {@link CacheMemoryGovernor} decides of the sizes, the regions are grown up to their new
+    * ceiling.
+    */
+   @Managed
+   @ManagedDescription("Grows the shrunk regions back by one step now")
+   public synchronized void grow()
+   {
+      underPressure = false;
+      if (originalSizes.isEmpty())
+      {
+         return;
+      }
+      Set<String> names = new HashSet<String>();
+      for (ExoCache<? extends Serializable, ?> cache : cacheService.getAllCacheInstances())
+      {
+         if (cache == null)
+         {
+            continue;
+         }
+         String name = cache.getName();
+         Integer originalSize = originalSizes.get(name);
+         if (originalSize == null)
+         {
+            continue;
+         }
+         int original = originalSize.intValue();
+         int target = Math.min(original, getCeiling(name) + stepOf(original));
+         int maxSize = cache.getMaxSize();
+         if (!delegated && target > maxSize)
+         {
+            cache.setMaxSize(target);
+            addEvent("Grown " + name + " " + maxSize + " -> " + target + " (original=" + original + ")");
+         }
+         else if (delegated)
+         {
+            addEvent("Raised the ceiling of " + name + " to " + target + " (original=" + original + ")");
+         }
+         if (target < original)
+         {
+            ceilings.put(name, target);
+            names.add(name);
+         }
+      }
+      // The regions that recovered their original size or that are gone are forgotten
+      originalSizes.keySet().retainAll(names);
+      ceilings.keySet().retainAll(names);
+   }
+
+   /**
+    * Lets the given governor decide of the sizes of the regions, the monitor then only lowers and raises their
+    * ceilings when the pressure changes and the governor resizes the regions through
+    * {@link #resize(ExoCache, int)}.
+    */
+   void delegateTo(CacheMemoryGovernor governor)
+   {
+      this.delegated = governor != null;
+   }
+
+   /**
+    * Gives the maximum size that a region can currently have
+    *
+    * @param name the name of the region
+    * @return the ceiling of the region, {@link Integer#MAX_VALUE} if it has not been shrunk
+    */
+   synchronized int getCeiling(String name)
+   {
+      Integer ceiling = ceilings.get(name);
+      return ceiling == null ? Integer.MAX_VALUE : ceiling.intValue();
+   }
+
+   /**
+    * Gives the size that a region had before being shrunk
+    *
+    * @param name the name of the region
+    * @return the original size of the region, -1 if it has not been shrunk
+    */
+   synchronized int getOriginalSize(String name)
+   {
+      Integer originalSize = originalSizes.get(name);
+      return originalSize == null ? -1 : originalSize.intValue();
+   }
+
+   /**
+    * Changes the maximum size of a region without exceeding its current ceiling, the check and the change are
+    * atomic so that a region cannot be grown over a ceiling that has just been lowered.
+    *
+    * @param cache the region to resize
+    * @param maxSize the requested maximum size
+    * @return the maximum size of the region once resized
+    */
+   synchronized int resize(ExoCache<?, ?> cache, int maxSize)
+   {
+      int target = Math.min(maxSize, getCeiling(cache.getName()));
+      if (target != cache.getMaxSize())
+      {
+         cache.setMaxSize(target);
+      }
+      return target;
+   }
+
+   private int stepOf(int original)
+   {
+      return Math.max(1, (int)(original * step));
+   }
+
+   private boolean isGoverned(ExoCache<?, ?> cache)
+   {
+      return (cache instanceof ConcurrentFIFOExoCache || cache instanceof TinyLFUExoCache)
+         && !excludedRegions.contains(cache.getName());
+   }
+
+   private void addEvent(String event)
+   {
+      LOG.info(event);
+      events.addFirst(event);
+      if (events.size() > MAX_EVENTS)
+      {
+         events.removeLast();
+      }
+   }
+
+   /**
+    * Gives the heap pool with the largest max size among the pools that support the collection usage
+    * threshold, which is the old generation with the usual garbage collectors
+    */
+   private static MemoryPoolMXBean findTenuredPool()
+   {
+      MemoryPoolMXBean tenured = null;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+      {
+         if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+            && pool.getUsage().getMax() > 0
+            && (tenured == null || pool.getUsage().getMax() > tenured.getUsage().getMax()))
+         {
+            tenured = pool;
+         }
+      }
+      return tenured;
+   }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.impl;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Reads the value parameters shared by the components that tune the cache regions, a parameter that is
+ * missing or blank gives the default value.
+ *
+ * @version $Id$
+ */
+final class CacheParams
+{
+
+   private CacheParams()
+   {
+   }
+
+   /**
+    * @return the trimmed value of the given parameter or <code>null</code> if it is missing or blank
+    */
+   static String getValueParam(InitParams params, String name)
+   {
+      if (params != null)
+      {
+         ValueParam param = params.getValueParam(name);
+         if (param != null && param.getValue() != null && param.getValue().trim().length() > 0)
+         {
+            return param.getValue().trim();
+         }
+      }
+      return null;
+   }
+
+   static long getLong(InitParams params, String name, long defaultValue)
+   {
+      String value = getValueParam(params, name);
+      return value == null ? defaultValue : Long.parseLong(value);
+   }
+
+   static double getDouble(InitParams params, String name, double defaultValue)
+   {
+      String value = getValueParam(params, name);
+      return value == null ? defaultValue : Double.parseDouble(value);
+   }
+
+   /**
+    * @return the value of the given parameter bounded to [0, 1]
+    */
+   static double getRatio(InitParams params, String name, double defaultValue)
+   {
+      String value = getValueParam(params, name);
+      return value == null ? defaultValue : Math.min(Math.max(Double.parseDouble(value), 0), 1);
+   }
+
+   /**
+    * @return the names of the regions listed in the given parameter separated by commas
+    */
+   static Set<String> getRegions(InitParams params, String name)
+   {
+      Set<String> regions = new HashSet<String>();
+      String value = getValueParam(params, name);
+      if (value != null)
+      {
+         StringTokenizer st = new StringTokenizer(value, ",");
+         while (st.hasMoreTokens())
+         {
+            String region = st.nextToken().trim();
+            if (region.length() > 0)
+            {
+               regions.add(region);
+            }
+         }
+      }
+      return regions;
+   }
+}
@@ -29,15 +29,26 @@ import org.exoplatform.services.cache.ExoCacheConfigPlugin;
 import org.exoplatform.services.cache.ExoCacheFactory;
 import org.exoplatform.services.cache.ExoCacheInitException;
 import org.exoplatform.services.cache.SimpleExoCache;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.concurrent.ListenerOverflowPolicy;
+import org.exoplatform.services.cache.concurrent.ListenerQueueSupport;
+import org.exoplatform.services.cache.concurrent.OffHeapExoCache;
 import org.exoplatform.services.cache.invalidation.InvalidationExoCache;
+import org.exoplatform.services.cache.invalidation.NearExoCache;
+import org.exoplatform.services.cache.trace.TraceRecorder;
+import org.exoplatform.services.cache.trace.TracingExoCache;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
+import org.picocontainer.Startable;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
@@ -50,7 +61,7 @@ import java.util.concurrent.FutureTask;
  */
 @SuppressWarnings("deprecation")
 @ManagedBy(CacheServiceManaged.class)
-public class CacheServiceImpl implements CacheService
+public class CacheServiceImpl implements CacheService, Startable
 {
    /**
     * Logger.
@@ -70,6 +81,11 @@ public class CacheServiceImpl implements CacheService
 
    private final ExoCacheFactory factory_;
 
+   /**
+    * The caches whose hottest entries are saved on shutdown, by region
+    */
+   private final ConcurrentHashMap<String, Snapshot> snapshots_ = new ConcurrentHashMap<String, Snapshot>();
+
    CacheServiceManaged managed;
 
    /**
@@ -204,11 +220,152 @@ public class CacheServiceImpl implements CacheService
       {
          managed.registerCache(simple);
       }
+      String snapshotDirectory = safeConfig.getSnapshotDirectory();
+      if (snapshotDirectory != null && snapshotDirectory.trim().length() > 0)
+      {
+         snapshot(simple, new File(snapshotDirectory.trim()), safeConfig.getSnapshotMaxEntries());
+      }
       // If the flag avoid value replication is enabled and the cache is replicated
       // or distributed we wrap the eXo cache instance into an InvalidationExoCache 
       // to enable the invalidation
-      return safeConfig.avoidValueReplication() && (safeConfig.isRepicated() || safeConfig.isDistributed())
-         ? new InvalidationExoCache(simple) : simple;
+      ExoCache cache = simple;
+      if (safeConfig.avoidValueReplication() && (safeConfig.isRepicated() || safeConfig.isDistributed()))
+      {
+         cache = new InvalidationExoCache(simple);
+      }
+      else if (safeConfig.getNearCacheMaxSize() > 0)
+      {
+         // The most recently used entries are copied locally
+         cache = new NearExoCache(simple, safeConfig.getNearCacheMaxSize(), safeConfig.getNearCacheLiveTime() * 1000);
+      }
+      String traceDirectory = safeConfig.getTraceDirectory();
+      if (traceDirectory != null && traceDirectory.trim().length() > 0)
+      {
+         cache = trace(cache, new File(traceDirectory.trim()), safeConfig.getTraceSamplingRate());
+      }
+      return cache;
+   }
+
+   /**
+    * Decorates the given cache so that its accesses are recorded into a trace file named after the region
+    * @param cache the cache to trace
+    * @param directory the directory of the trace file
+    * @param samplingRate the ratio of the keys to record
+    * @return the decorated cache or the given cache if the trace file cannot be created
+    */
+   @SuppressWarnings({"rawtypes", "unchecked"})
+   private ExoCache trace(ExoCache cache, File directory, double samplingRate)
+   {
+      File file = new File(directory, cache.getName().replaceAll("[^\\w.-]", "_") + ".trace");
+      try
+      {
+         return new TracingExoCache(cache, new TraceRecorder(file, samplingRate));
+      }
+      catch (IOException e)
+      {
+         LOG.error("Could not record the accesses to the cache " + cache.getName() + " into " + file, e);
+      }
+      catch (IllegalArgumentException e)
+      {
+         LOG.error("Could not record the accesses to the cache " + cache.getName() + ": " + e.getMessage());
+      }
+      return cache;
+   }
+
+   /**
+    * Registers the given cache so that its hottest entries are saved on shutdown, the entries saved by the
+    * previous shutdown are loaded in the background
+    * @param cache the cache to snapshot
+    * @param directory the directory of the snapshot file
+    * @param maxEntries the maximum amount of entries to save
+    */
+   @SuppressWarnings("rawtypes")
+   private void snapshot(ExoCache cache, File directory, int maxEntries)
+   {
+      if (!(cache instanceof ConcurrentFIFOExoCache))
+      {
+         LOG.warn("The cache " + cache.getName() + " of type " + cache.getClass().getName()
+            + " does not support the snapshots, its entries won't be saved");
+         return;
+      }
+      final ConcurrentFIFOExoCache fifo = (ConcurrentFIFOExoCache)cache;
+      File file = new File(directory, cache.getName().replaceAll("[^\\w.-]", "_") + ".snapshot");
+      snapshots_.put(cache.getName(), new Snapshot(fifo, file, maxEntries));
+      if (!file.exists())
+      {
+         return;
+      }
+      // The file is renamed first so that a new snapshot can be saved while it is loaded
+      final File loading = new File(file.getPath() + ".loading");
+      if (loading.exists() && !loading.delete() || !file.renameTo(loading))
+      {
+         LOG.warn("Could not load the snapshot " + file + " of the cache " + cache.getName());
+         return;
+      }
+      Thread loader = new Thread("exo-cache-snapshot-loader-" + cache.getName())
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               int count = fifo.loadSnapshot(loading);
+               if (LOG.isDebugEnabled())
+               {
+                  LOG.debug(count + " entries have been loaded into the cache " + fifo.getName());
+               }
+            }
+            catch (IOException e)
+            {
+               LOG.error("Could not load the snapshot " + loading + " of the cache " + fifo.getName(), e);
+            }
+            finally
+            {
+               if (!loading.delete())
+               {
+                  LOG.warn("Could not delete the snapshot " + loading);
+               }
+            }
+         }
+      };
+      loader.setDaemon(true);
+      loader.start();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void start()
+   {
+   }
+
+   /**
+    * Saves the hottest entries of the caches that have a snapshot directory
+    */
+   public void stop()
+   {
+      for (Snapshot snapshot : snapshots_.values())
+      {
+         File directory = snapshot.file.getParentFile();
+         if (directory != null && !directory.exists() && !directory.mkdirs())
+         {
+            LOG.error("Could not create the snapshot directory " + directory);
+            continue;
+         }
+         try
+         {
+            int count = snapshot.cache.saveSnapshot(snapshot.file, snapshot.maxEntries);
+            if (LOG.isDebugEnabled())
+            {
+               LOG.debug(count + " entries of the cache " + snapshot.cache.getName() + " have been saved");
+            }
+         }
+         catch (IOException e)
+         {
+            LOG.error("Could not save the snapshot " + snapshot.file + " of the cache " + snapshot.cache.getName(),
+               e);
+         }
+      }
    }
 
    public Collection<ExoCache<? extends Serializable, ?>> getAllCacheInstances()
@@ -251,6 +408,26 @@ public class CacheServiceImpl implements CacheService
       return caches;
    }
 
+   /**
+    * A cache whose hottest entries are saved on shutdown
+    */
+   @SuppressWarnings("rawtypes")
+   private static class Snapshot
+   {
+      final ConcurrentFIFOExoCache cache;
+
+      final File file;
+
+      final int maxEntries;
+
+      Snapshot(ConcurrentFIFOExoCache cache, File file, int maxEntries)
+      {
+         this.cache = cache;
+         this.file = file;
+         this.maxEntries = maxEntries;
+      }
+   }
+
    /**
     * Default implementation of an {@link org.exoplatform.services.cache.ExoCacheFactory}
     */
@@ -269,6 +446,18 @@ public class CacheServiceImpl implements CacheService
          simple.setMaxSize(config.getMaxSize());
          simple.setLiveTime(config.getLiveTime());
          simple.setLogEnabled(config.isLogEnabled());
+         if (simple instanceof ConcurrentFIFOExoCache)
+         {
+            configure((ConcurrentFIFOExoCache)simple, config);
+         }
+         else if (simple instanceof OffHeapExoCache)
+         {
+            ((OffHeapExoCache)simple).setMaxWeight(config.getMaxWeight());
+         }
+         if (config.isAsyncListeners())
+         {
+            configureListeners(simple, config);
+         }
          if (simple.isLogEnabled())
          {
             simple.addCacheListener(loggingListener_);
@@ -276,6 +465,53 @@ public class CacheServiceImpl implements CacheService
          return simple;
       }
 
+      /**
+       * Applies the settings that are specific to the local caches
+       * @param cache the local cache to configure
+       * @param config the ExoCache configuration
+       */
+      @SuppressWarnings({"rawtypes", "unchecked"})
+      private void configure(ConcurrentFIFOExoCache cache, ExoCacheConfig config) throws ExoCacheInitException
+      {
+         cache.setBufferedQueue(config.isBufferedQueue());
+         cache.setActiveExpiration(config.isActiveExpiration());
+         cache.setMaxWeight(config.getMaxWeight());
+         cache.setWeigher(config.createWeigher());
+      }
+
+      /**
+       * Makes the local cache deliver its events asynchronously to the listeners
+       * @param cache the local cache to configure
+       * @param config the ExoCache configuration
+       */
+      @SuppressWarnings("rawtypes")
+      private void configureListeners(ExoCache cache, ExoCacheConfig config) throws ExoCacheInitException
+      {
+         ListenerOverflowPolicy policy = ListenerOverflowPolicy.DISCARD;
+         String policyName = config.getListenerOverflowPolicy();
+         if (policyName != null && policyName.trim().length() > 0)
+         {
+            try
+            {
+               policy = ListenerOverflowPolicy.valueOf(policyName.trim().toUpperCase(Locale.ENGLISH));
+            }
+            catch (IllegalArgumentException e)
+            {
+               throw new ExoCacheInitException("Unknown listener overflow policy " + policyName, e);
+            }
+         }
+         int queueSize = config.getListenerQueueSize();
+         if (cache instanceof ListenerQueueSupport)
+         {
+            ((ListenerQueueSupport)cache).setListenerQueue(queueSize, policy);
+         }
+         else
+         {
+            LOG.warn("The cache " + config.getName() + " of type " + cache.getClass().getName()
+               + " cannot deliver its events asynchronously, they will be delivered synchronously");
+         }
+      }
+
       /**
        * Create a new instance of ExoCache according to the given configuration
        * @param config the ExoCache configuration
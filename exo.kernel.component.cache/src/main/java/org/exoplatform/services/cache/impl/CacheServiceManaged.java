@@ -84,6 +84,10 @@ public class CacheServiceManaged implements ManagementAware
       if (context != null)
       {
          context.register(cache);
+         if (cache.getStatistics() != null)
+         {
+            context.register(cache.getStatistics());
+         }
       }
    }
 }
@@ -18,10 +18,13 @@
  */
 package org.exoplatform.services.cache.invalidation;
 
+import org.exoplatform.services.cache.CacheCursor;
 import org.exoplatform.services.cache.CacheListener;
 import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.CacheStatistics;
 import org.exoplatform.services.cache.CachedObjectSelector;
 import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.IteratorCacheCursor;
 import org.exoplatform.services.cache.ObjectCacheInfo;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
@@ -32,6 +35,8 @@ import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -147,6 +152,24 @@ public class InvalidationExoCache<K extends Serializable, V> implements ExoCache
       return result == null ? null : localCache.get(name);
    }
 
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getAll(java.util.Collection)
+    */
+   public Map<K, V> getAll(Collection<? extends K> keys)
+   {
+      Map<K, HashCode<V>> hashCodes = delegate.getAll(keys);
+      Map<K, V> result = new HashMap<K, V>();
+      for (K key : hashCodes.keySet())
+      {
+         V value = localCache.get(key);
+         if (value != null)
+         {
+            result.put(key, value);
+         }
+      }
+      return result;
+   }
+
    /**
     * @see org.exoplatform.services.cache.ExoCache#remove(java.io.Serializable)
     */
@@ -157,6 +180,22 @@ public class InvalidationExoCache<K extends Serializable, V> implements ExoCache
       return value;
    }
 
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeAll(java.util.Collection)
+    */
+   public void removeAll(Collection<? extends K> keys) throws IllegalArgumentException
+   {
+      delegate.removeAll(keys);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeByPrefix(java.lang.String)
+    */
+   public void removeByPrefix(String prefix) throws NullPointerException
+   {
+      delegate.removeByPrefix(prefix);
+   }
+
    /**
     * @see org.exoplatform.services.cache.ExoCache#put(java.io.Serializable, java.lang.Object)
     */
@@ -165,6 +204,14 @@ public class InvalidationExoCache<K extends Serializable, V> implements ExoCache
       delegate.put(key, new HashCode<V>(value));
    }
 
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#put(java.io.Serializable, java.lang.Object, long)
+    */
+   public void put(K key, V value, long liveTimeMillis) throws NullPointerException
+   {
+      delegate.put(key, new HashCode<V>(value), liveTimeMillis);
+   }
+
    /**
     * @see org.exoplatform.services.cache.ExoCache#putMap(java.util.Map)
     */
@@ -247,6 +294,14 @@ public class InvalidationExoCache<K extends Serializable, V> implements ExoCache
       return delegate.getMaxSize();
    }
 
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheWeight()
+    */
+   public long getCacheWeight()
+   {
+      return delegate.getCacheWeight();
+   }
+
    /**
     * @see org.exoplatform.services.cache.ExoCache#setMaxSize(int)
     */
@@ -287,6 +342,14 @@ public class InvalidationExoCache<K extends Serializable, V> implements ExoCache
       return delegate.getCacheMiss();
    }
 
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getStatistics()
+    */
+   public CacheStatistics getStatistics()
+   {
+      return delegate.getStatistics();
+   }
+
    /**
     * @see org.exoplatform.services.cache.ExoCache#getCachedObjects()
     */
@@ -305,6 +368,14 @@ public class InvalidationExoCache<K extends Serializable, V> implements ExoCache
       return list;
    }
 
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#openCursor(int)
+    */
+   public CacheCursor<K, V> openCursor(int chunkSize)
+   {
+      return new IteratorCacheCursor<K, V>(chunkSize, localCache.entrySet().iterator());
+   }
+
    /**
     * @see org.exoplatform.services.cache.ExoCache#addCacheListener(org.exoplatform.services.cache.CacheListener)
     */
@@ -0,0 +1,732 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.invalidation;
+
+import org.exoplatform.services.cache.CacheCursor;
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.CacheStatistics;
+import org.exoplatform.services.cache.CachedObjectSelector;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ForwardingCacheStatistics;
+import org.exoplatform.services.cache.ObjectCacheInfo;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This eXo cache type is a decorator keeping a bounded local copy, called L1, of the most recently used entries
+ * of another cache, typically a replicated or distributed one, so that most of the reads are served from the
+ * local memory. The values are stored as they are into the decorated cache, so that the region can still be
+ * read without this decorator, by the nodes that don't use it or by any other consumer of the region. The
+ * decorated cache is expected to notify its listeners of the modifications made by the other cluster nodes:
+ * <ul>
+ * <li>a put of another instance than the one of the local copy invalidates the local copy, which is the case
+ * of any put made by another node since its value has been deserialized, while the notification of a put made
+ * locally gives the instance that has been put,</li>
+ * <li>a removal, an expiration or a clear of the decorated cache invalidates the local copies.</li>
+ * </ul>
+ * The local copies also have their own live time, which bounds how long a local copy can be stale when
+ * the decorated cache does not notify the remote modifications.
+ *
+ * @version $Id$
+ */
+public class NearExoCache<K extends Serializable, V> implements ExoCache<K, V>, CacheListener<K, V>
+{
+   /**
+    * Logger.
+    */
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.cache.NearExoCache");
+
+   /**
+    * The eXo cache instance whose entries are copied locally
+    */
+   private final ExoCache<K, V> delegate;
+
+   /**
+    * The local copies of the entries
+    */
+   private final ConcurrentFIFOExoCache<K, V> local;
+
+   /**
+    * The clock of the invalidations, it is incremented by each of them. It is used to detect the invalidations
+    * of a key that happened while its entry was read from the decorated cache.
+    */
+   private final AtomicLong clock = new AtomicLong();
+
+   /**
+    * The stamp of the last invalidation of the most recently invalidated keys, from the oldest to the most
+    * recent one, the map is bounded by the maximum amount of local copies
+    */
+   private final LinkedHashMap<Object, Long> stamps;
+
+   /**
+    * The stamp of the last invalidation of the keys that are no longer in {@link #stamps}, guarded by
+    * {@link #stamps}
+    */
+   private long floor;
+
+   /**
+    * The statistics of the cache, the hits of the local copies are added to the ones of the decorated cache
+    */
+   private final CacheStatistics statistics;
+
+   /**
+    * The listeners of the cache
+    */
+   private final CopyOnWriteArrayList<CacheListener<? super K, ? super V>> listeners;
+
+   /**
+    * @param delegate the underneath eXo cache instance, it should notify its listeners of the modifications
+    * made by the other cluster nodes
+    * @param localMaxSize the maximum amount of local copies
+    * @param localLiveTimeMillis the live time in milliseconds of the local copies, a value lower or equal to 0
+    * means that they only expire when they are invalidated
+    */
+   public NearExoCache(ExoCache<K, V> delegate, int localMaxSize, long localLiveTimeMillis)
+   {
+      this.delegate = delegate;
+      this.local = new ConcurrentFIFOExoCache<K, V>(localMaxSize);
+      this.local.setLiveTimeMillis(localLiveTimeMillis > 0 ? localLiveTimeMillis : -1);
+      final int maxStamps = Math.max(localMaxSize, 1);
+      this.stamps = new LinkedHashMap<Object, Long>()
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Entry<Object, Long> eldest)
+         {
+            if (size() > maxStamps)
+            {
+               // The eldest stamp is the highest one of the keys that are not tracked anymore
+               floor = eldest.getValue();
+               return true;
+            }
+            return false;
+         }
+      };
+      this.statistics = new NearCacheStatistics(this);
+      this.listeners = new CopyOnWriteArrayList<CacheListener<? super K, ? super V>>();
+      // We listen to the cache in order to be notified of the modifications made by the other nodes
+      this.delegate.addCacheListener(this);
+   }
+
+   /**
+    * @return the maximum amount of local copies
+    */
+   public int getLocalMaxSize()
+   {
+      return local.getMaxSize();
+   }
+
+   /**
+    * @return the amount of local copies
+    */
+   public int getLocalCacheSize()
+   {
+      return local.getCacheSize();
+   }
+
+   /**
+    * @return the statistics of the local copies
+    */
+   public CacheStatistics getLocalStatistics()
+   {
+      return local.getStatistics();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getName()
+    */
+   public String getName()
+   {
+      return delegate.getName();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setName(java.lang.String)
+    */
+   public void setName(String name)
+   {
+      delegate.setName(name);
+      local.setName(name);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getLabel()
+    */
+   public String getLabel()
+   {
+      return delegate.getLabel();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setLabel(java.lang.String)
+    */
+   public void setLabel(String s)
+   {
+      delegate.setLabel(s);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#get(java.io.Serializable)
+    */
+   @SuppressWarnings("unchecked")
+   public V get(Serializable name)
+   {
+      if (name == null)
+      {
+         return null;
+      }
+      V result = local.get(name);
+      if (result == null)
+      {
+         long stamp = clock.get();
+         result = delegate.get(name);
+         if (result != null)
+         {
+            cacheLocally((K)name, result, stamp);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getAll(java.util.Collection)
+    */
+   public Map<K, V> getAll(Collection<? extends K> keys) throws NullPointerException
+   {
+      if (keys == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      Map<K, V> result = new HashMap<K, V>();
+      List<K> missing = new ArrayList<K>();
+      for (K key : keys)
+      {
+         V value = local.get(key);
+         if (value == null)
+         {
+            missing.add(key);
+         }
+         else
+         {
+            result.put(key, value);
+         }
+      }
+      if (!missing.isEmpty())
+      {
+         long stamp = clock.get();
+         for (Entry<K, V> entry : delegate.getAll(missing).entrySet())
+         {
+            if (entry.getValue() != null)
+            {
+               cacheLocally(entry.getKey(), entry.getValue(), stamp);
+               result.put(entry.getKey(), entry.getValue());
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Keeps a local copy of an entry read from the decorated cache unless the key has been invalidated since the
+    * read started.
+    */
+   private void cacheLocally(K key, V value, long stamp)
+   {
+      local.put(key, value);
+      if (getLastInvalidation(key) > stamp)
+      {
+         local.remove(key);
+      }
+   }
+
+   /**
+    * Gives the stamp of the last invalidation of the given key, or a higher stamp if the key is not tracked
+    * anymore
+    */
+   private long getLastInvalidation(Object key)
+   {
+      synchronized (stamps)
+      {
+         Long stamp = stamps.get(key);
+         return stamp == null ? floor : stamp;
+      }
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#remove(java.io.Serializable)
+    */
+   public V remove(Serializable key) throws NullPointerException
+   {
+      if (key == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      V result = delegate.remove(key);
+      local.remove(key);
+      return result;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeAll(java.util.Collection)
+    */
+   public void removeAll(Collection<? extends K> keys) throws NullPointerException, IllegalArgumentException
+   {
+      delegate.removeAll(keys);
+      local.removeAll(keys);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeByPrefix(java.lang.String)
+    */
+   public void removeByPrefix(String prefix) throws NullPointerException
+   {
+      delegate.removeByPrefix(prefix);
+      local.removeByPrefix(prefix);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#put(java.io.Serializable, java.lang.Object)
+    */
+   public void put(K key, V value) throws NullPointerException
+   {
+      put(key, value, -1);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#put(java.io.Serializable, java.lang.Object, long)
+    */
+   public void put(K key, V value, long liveTimeMillis) throws NullPointerException
+   {
+      if (key == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      if (liveTimeMillis < 0)
+      {
+         delegate.put(key, value);
+      }
+      else
+      {
+         delegate.put(key, value, liveTimeMillis);
+      }
+      putLocally(key, value, liveTimeMillis);
+   }
+
+   private void putLocally(K key, V value, long liveTimeMillis)
+   {
+      long localLiveTime = local.getLiveTimeMillis();
+      if (liveTimeMillis == 0 || value == null)
+      {
+         local.remove(key);
+      }
+      else if (liveTimeMillis > 0 && (localLiveTime < 0 || liveTimeMillis < localLiveTime))
+      {
+         local.put(key, value, liveTimeMillis);
+      }
+      else
+      {
+         local.put(key, value);
+      }
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#putMap(java.util.Map)
+    */
+   public void putMap(Map<? extends K, ? extends V> objs) throws NullPointerException, IllegalArgumentException
+   {
+      if (objs == null)
+      {
+         throw new IllegalArgumentException("No null map accepted");
+      }
+      Map<K, V> map = new LinkedHashMap<K, V>(objs);
+      if (map.containsKey(null))
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      delegate.putMap(map);
+      for (Entry<K, V> entry : map.entrySet())
+      {
+         putLocally(entry.getKey(), entry.getValue(), -1);
+      }
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#clearCache()
+    */
+   public void clearCache()
+   {
+      delegate.clearCache();
+      local.clearCache();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#select(org.exoplatform.services.cache.CachedObjectSelector)
+    */
+   public void select(final CachedObjectSelector<? super K, ? super V> selector) throws Exception
+   {
+      if (selector == null)
+      {
+         throw new IllegalArgumentException("No null selector");
+      }
+      delegate.select(new CachedObjectSelector<K, V>()
+      {
+         public boolean select(K key, ObjectCacheInfo<? extends V> ocinfo)
+         {
+            return selector.select(key, ocinfo);
+         }
+
+         public void onSelect(ExoCache<? extends K, ? extends V> cache, K key, ObjectCacheInfo<? extends V> ocinfo)
+            throws Exception
+         {
+            selector.onSelect(NearExoCache.this, key, ocinfo);
+         }
+      });
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheSize()
+    */
+   public int getCacheSize()
+   {
+      return delegate.getCacheSize();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getMaxSize()
+    */
+   public int getMaxSize()
+   {
+      return delegate.getMaxSize();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheWeight()
+    */
+   public long getCacheWeight()
+   {
+      return delegate.getCacheWeight();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setMaxSize(int)
+    */
+   public void setMaxSize(int max)
+   {
+      delegate.setMaxSize(max);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getLiveTime()
+    */
+   public long getLiveTime()
+   {
+      return delegate.getLiveTime();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setLiveTime(long)
+    */
+   public void setLiveTime(long period)
+   {
+      delegate.setLiveTime(period);
+   }
+
+   /**
+    * The hits of the local copies and of the decorated cache
+    *
+    * @see org.exoplatform.services.cache.ExoCache#getCacheHit()
+    */
+   public int getCacheHit()
+   {
+      return CacheStatistics.toInt(statistics.getHitCount());
+   }
+
+   /**
+    * The misses of the decorated cache, a miss of a local copy is followed by a lookup in the decorated cache
+    *
+    * @see org.exoplatform.services.cache.ExoCache#getCacheMiss()
+    */
+   public int getCacheMiss()
+   {
+      return CacheStatistics.toInt(statistics.getMissCount());
+   }
+
+   /**
+    * The statistics of the decorated cache to which the hits of the local copies are added
+    *
+    * @see org.exoplatform.services.cache.ExoCache#getStatistics()
+    */
+   public CacheStatistics getStatistics()
+   {
+      return statistics;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCachedObjects()
+    */
+   public List<? extends V> getCachedObjects() throws Exception
+   {
+      return delegate.getCachedObjects();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeCachedObjects()
+    */
+   public List<? extends V> removeCachedObjects()
+   {
+      List<? extends V> list = delegate.removeCachedObjects();
+      local.clearCache();
+      return list;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#openCursor(int)
+    */
+   public CacheCursor<K, V> openCursor(int chunkSize)
+   {
+      return delegate.openCursor(chunkSize);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#addCacheListener(org.exoplatform.services.cache.CacheListener)
+    */
+   public void addCacheListener(CacheListener<? super K, ? super V> listener) throws NullPointerException
+   {
+      if (listener == null)
+      {
+         throw new IllegalArgumentException("The listener cannot be null");
+      }
+      listeners.add(listener);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#isLogEnabled()
+    */
+   public boolean isLogEnabled()
+   {
+      return delegate.isLogEnabled();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setLogEnabled(boolean)
+    */
+   public void setLogEnabled(boolean b)
+   {
+      delegate.setLogEnabled(b);
+   }
+
+   /**
+    * Records the invalidation of the given key then removes its local copy
+    */
+   private void invalidate(K key)
+   {
+      synchronized (stamps)
+      {
+         // The key is moved to the end so that the stamps remain ordered
+         stamps.remove(key);
+         stamps.put(key, clock.incrementAndGet());
+      }
+      local.remove(key);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void onExpire(CacheListenerContext context, K key, V obj) throws Exception
+   {
+      invalidate(key);
+      if (listeners.isEmpty())
+      {
+         return;
+      }
+      for (CacheListener<? super K, ? super V> listener : listeners)
+      {
+         try
+         {
+            listener.onExpire(context, key, obj);
+         }
+         catch (Exception e)
+         {
+            if (LOG.isWarnEnabled())
+               LOG.warn("Cannot execute the CacheListener properly", e);
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void onRemove(CacheListenerContext context, K key, V obj) throws Exception
+   {
+      invalidate(key);
+      if (listeners.isEmpty())
+      {
+         return;
+      }
+      for (CacheListener<? super K, ? super V> listener : listeners)
+      {
+         try
+         {
+            listener.onRemove(context, key, obj);
+         }
+         catch (Exception e)
+         {
+            if (LOG.isWarnEnabled())
+               LOG.warn("Cannot execute the CacheListener properly", e);
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void onPut(CacheListenerContext context, K key, V obj) throws Exception
+   {
+      if (local.peek(key) != obj)
+      {
+         // Another instance has been put, most likely by another node, or the key is being read
+         invalidate(key);
+      }
+      if (listeners.isEmpty())
+      {
+         return;
+      }
+      for (CacheListener<? super K, ? super V> listener : listeners)
+      {
+         try
+         {
+            listener.onPut(context, key, obj);
+         }
+         catch (Exception e)
+         {
+            if (LOG.isWarnEnabled())
+               LOG.warn("Cannot execute the CacheListener properly", e);
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void onGet(CacheListenerContext context, K key, V obj) throws Exception
+   {
+      if (listeners.isEmpty())
+      {
+         return;
+      }
+      for (CacheListener<? super K, ? super V> listener : listeners)
+      {
+         try
+         {
+            listener.onGet(context, key, obj);
+         }
+         catch (Exception e)
+         {
+            if (LOG.isWarnEnabled())
+               LOG.warn("Cannot execute the CacheListener properly", e);
+         }
+      }
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.CacheListener#onClearCache(org.exoplatform.services.cache.CacheListenerContext)
+    */
+   public void onClearCache(CacheListenerContext context) throws Exception
+   {
+      synchronized (stamps)
+      {
+         stamps.clear();
+         floor = clock.incrementAndGet();
+      }
+      local.clearCache();
+      if (listeners.isEmpty())
+      {
+         return;
+      }
+      for (CacheListener<? super K, ? super V> listener : listeners)
+      {
+         try
+         {
+            listener.onClearCache(context);
+         }
+         catch (Exception e)
+         {
+            if (LOG.isWarnEnabled())
+               LOG.warn("Cannot execute the CacheListener properly", e);
+         }
+      }
+   }
+
+   /**
+    * The statistics of a {@link NearExoCache}, they are the ones of the decorated cache to which the hits of
+    * the local copies are added.
+    */
+   public static class NearCacheStatistics extends ForwardingCacheStatistics
+   {
+      private final NearExoCache<?, ?> cache;
+
+      NearCacheStatistics(NearExoCache<?, ?> cache)
+      {
+         super(cache);
+         this.cache = cache;
+      }
+
+      /**
+       * @see org.exoplatform.services.cache.ForwardingCacheStatistics#delegate()
+       */
+      @Override
+      protected CacheStatistics delegate()
+      {
+         return cache.delegate.getStatistics();
+      }
+
+      /**
+       * @see org.exoplatform.services.cache.ForwardingCacheStatistics#getHitCount()
+       */
+      @Override
+      public long getHitCount()
+      {
+         return cache.local.getStatistics().getHitCount() + super.getHitCount();
+      }
+
+      /**
+       * @see org.exoplatform.services.cache.ForwardingCacheStatistics#reset()
+       */
+      @Override
+      public void reset()
+      {
+         cache.local.getStatistics().reset();
+         super.reset();
+      }
+   }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.trace;
+
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.concurrent.TinyLFUExoCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Replays a trace recorded by a {@link TraceRecorder} against the available eviction policies and several
+ * cache sizes in order to get the hit rate curve of each policy. The sizes are the sizes of the real cache,
+ * the simulated caches are scaled down according to the sampling rate of the trace. The live time of the
+ * entries is not simulated.
+ * <p>
+ * The simulator can be launched from the command line as next:
+ * <pre>
+ * java org.exoplatform.services.cache.trace.CacheSimulator &lt;trace file&gt; [-sizes 1000,5000,10000]
+ *    [-policies FIFO,TINY_LFU]
+ * </pre>
+ * By default, all the policies are simulated with sizes doubling up to the amount of distinct keys of the trace.
+ *
+ * @version $Id$
+ */
+public class CacheSimulator
+{
+
+   /**
+    * The eviction policies that can be simulated
+    */
+   public enum Policy {
+      FIFO {
+         ExoCache<Integer, Boolean> createCache(int size)
+         {
+            return new ConcurrentFIFOExoCache<Integer, Boolean>(size);
+         }
+      },
+      TINY_LFU {
+         ExoCache<Integer, Boolean> createCache(int size)
+         {
+            return new TinyLFUExoCache<Integer, Boolean>(size);
+         }
+      };
+
+      abstract ExoCache<Integer, Boolean> createCache(int size);
+   }
+
+   /**
+    * The smallest size of the default sizes
+    */
+   private static final int MIN_DEFAULT_SIZE = 64;
+
+   private final double samplingRate;
+
+   private byte[] operations = new byte[1024];
+
+   private int[] keys = new int[1024];
+
+   private int length;
+
+   private int distinctKeys;
+
+   private long hits;
+
+   private long misses;
+
+   /**
+    * Loads the given trace into memory
+    *
+    * @param trace the trace file
+    * @throws IOException if the trace cannot be read
+    */
+   public CacheSimulator(File trace) throws IOException
+   {
+      TraceReader reader = new TraceReader(trace);
+      try
+      {
+         this.samplingRate = reader.getSamplingRate();
+         Set<Integer> distinct = new HashSet<Integer>();
+         while (reader.next())
+         {
+            if (length == operations.length)
+            {
+               operations = Arrays.copyOf(operations, length * 2);
+               keys = Arrays.copyOf(keys, length * 2);
+            }
+            byte operation = reader.getOperation();
+            operations[length] = operation;
+            keys[length] = reader.getKeyHash();
+            length++;
+            if (operation == TraceRecorder.GET_HIT)
+            {
+               hits++;
+            }
+            else if (operation == TraceRecorder.GET_MISS)
+            {
+               misses++;
+            }
+            if (operation != TraceRecorder.CLEAR)
+            {
+               distinct.add(reader.getKeyHash());
+            }
+         }
+         this.distinctKeys = distinct.size();
+      }
+      finally
+      {
+         reader.close();
+      }
+   }
+
+   /**
+    * @return the ratio of the keys that have been recorded
+    */
+   public double getSamplingRate()
+   {
+      return samplingRate;
+   }
+
+   /**
+    * @return the amount of records of the trace
+    */
+   public int getRecordCount()
+   {
+      return length;
+   }
+
+   /**
+    * @return the amount of distinct keys of the trace
+    */
+   public int getDistinctKeys()
+   {
+      return distinctKeys;
+   }
+
+   /**
+    * @return the hit rate of the recorded cache
+    */
+   public double getObservedHitRate()
+   {
+      return hits + misses == 0 ? 0 : (double)hits / (hits + misses);
+   }
+
+   /**
+    * Replays the trace against a cache of the given policy and size.
+    *
+    * @param policy the eviction policy
+    * @param size the size of the real cache, the simulated cache is scaled down according to the sampling rate
+    * @return the hit rate of the gets
+    */
+   public double simulate(Policy policy, int size)
+   {
+      ExoCache<Integer, Boolean> cache = policy.createCache(Math.max(1, (int)Math.round(size * samplingRate)));
+      long gets = 0;
+      long found = 0;
+      for (int i = 0; i < length; i++)
+      {
+         Integer key = keys[i];
+         switch (operations[i])
+         {
+            case TraceRecorder.GET_HIT :
+            case TraceRecorder.GET_MISS :
+               gets++;
+               if (cache.get(key) != null)
+               {
+                  found++;
+               }
+               break;
+            case TraceRecorder.PUT :
+               cache.put(key, Boolean.TRUE);
+               break;
+            case TraceRecorder.REMOVE :
+               cache.remove(key);
+               break;
+            case TraceRecorder.CLEAR :
+               cache.clearCache();
+               break;
+            default :
+               break;
+         }
+      }
+      return gets == 0 ? 0 : (double)found / gets;
+   }
+
+   /**
+    * Gives the sizes to simulate when none are provided, they double up to the amount of distinct keys
+    */
+   public int[] getDefaultSizes()
+   {
+      long maxSize = Math.max(MIN_DEFAULT_SIZE, Math.round(distinctKeys / samplingRate));
+      List<Integer> sizes = new ArrayList<Integer>();
+      for (long size = MIN_DEFAULT_SIZE; size < maxSize && size < Integer.MAX_VALUE; size *= 2)
+      {
+         sizes.add((int)size);
+      }
+      sizes.add((int)Math.min(maxSize, Integer.MAX_VALUE));
+      int[] result = new int[sizes.size()];
+      for (int i = 0; i < result.length; i++)
+      {
+         result[i] = sizes.get(i);
+      }
+      return result;
+   }
+
+   /**
+    * Prints the hit rate curves of the given policies.
+    *
+    * @param out the stream into which the report is printed
+    * @param policies the policies to simulate
+    * @param sizes the sizes to simulate
+    */
+   public void report(PrintStream out, Policy[] policies, int[] sizes)
+   {
+      out.println(String.format(Locale.ENGLISH, "Records: %d, distinct keys: %d, sampling rate: %.4f, "
+         + "observed hit rate: %.2f%%", length, distinctKeys, samplingRate, getObservedHitRate() * 100));
+      StringBuilder header = new StringBuilder(String.format("%12s", "size"));
+      for (Policy policy : policies)
+      {
+         header.append(String.format("%12s", policy));
+      }
+      out.println(header);
+      for (int size : sizes)
+      {
+         StringBuilder line = new StringBuilder(String.format("%12d", size));
+         for (Policy policy : policies)
+         {
+            line.append(String.format(Locale.ENGLISH, "%11.2f%%", simulate(policy, size) * 100));
+         }
+         out.println(line);
+      }
+   }
+
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length == 0 || args.length % 2 == 0)
+      {
+         usage();
+         return;
+      }
+      Policy[] policies = Policy.values();
+      int[] sizes = null;
+      for (int i = 1; i < args.length; i += 2)
+      {
+         String[] values = args[i + 1].split(",");
+         if ("-sizes".equals(args[i]))
+         {
+            sizes = new int[values.length];
+            for (int j = 0; j < values.length; j++)
+            {
+               sizes[j] = Integer.parseInt(values[j].trim());
+            }
+         }
+         else if ("-policies".equals(args[i]))
+         {
+            policies = new Policy[values.length];
+            for (int j = 0; j < values.length; j++)
+            {
+               policies[j] = Policy.valueOf(values[j].trim().toUpperCase(Locale.ENGLISH));
+            }
+         }
+         else
+         {
+            usage();
+            return;
+         }
+      }
+      CacheSimulator simulator = new CacheSimulator(new File(args[0]));
+      simulator.report(System.out, policies, sizes == null ? simulator.getDefaultSizes() : sizes);
+   }
+
+   private static void usage()
+   {
+      StringBuilder policies = new StringBuilder();
+      for (Policy policy : Policy.values())
+      {
+         policies.append(policies.length() == 0 ? "" : ",").append(policy);
+      }
+      System.err.println("Usage: java " + CacheSimulator.class.getName()
+         + " <trace file> [-sizes <size1,size2,...>] [-policies <" + policies + ">]");
+   }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the records of a trace file written by a {@link TraceRecorder}. A truncated last record is ignored
+ * since the file may still be written.
+ *
+ * @version $Id$
+ */
+public class TraceReader
+{
+
+   private final DataInputStream in;
+
+   private final double samplingRate;
+
+   private byte operation;
+
+   private int keyHash;
+
+   /**
+    * Opens the given trace file and reads its header.
+    *
+    * @param file the trace file
+    * @throws IOException if the file cannot be read or is not a trace file
+    */
+   public TraceReader(File file) throws IOException
+   {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try
+      {
+         if (in.readInt() != TraceRecorder.MAGIC)
+         {
+            throw new IOException("The file " + file + " is not a cache trace file");
+         }
+         byte version = in.readByte();
+         if (version != TraceRecorder.VERSION)
+         {
+            throw new IOException("The version " + version + " of the trace file " + file + " is not supported");
+         }
+         this.samplingRate = in.readDouble();
+      }
+      catch (IOException e)
+      {
+         in.close();
+         throw e;
+      }
+   }
+
+   /**
+    * @return the ratio of the keys that have been recorded
+    */
+   public double getSamplingRate()
+   {
+      return samplingRate;
+   }
+
+   /**
+    * Moves to the next record.
+    *
+    * @return <code>false</code> if there is no more record
+    * @throws IOException if the file cannot be read
+    */
+   public boolean next() throws IOException
+   {
+      try
+      {
+         operation = in.readByte();
+         keyHash = in.readInt();
+         return true;
+      }
+      catch (EOFException e)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * @return the operation of the current record, one of the constants of {@link TraceRecorder}
+    */
+   public byte getOperation()
+   {
+      return operation;
+   }
+
+   /**
+    * @return the hash of the key of the current record
+    */
+   public int getKeyHash()
+   {
+      return keyHash;
+   }
+
+   public void close() throws IOException
+   {
+      in.close();
+   }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.trace;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the accesses to a cache into a compact binary trace file that can be replayed by the
+ * {@link CacheSimulator}. Only the hash of the keys is recorded and only the keys whose hash falls into the
+ * sampled range are recorded, so that either all the accesses to a key are recorded or none of them, which keeps
+ * the reuse distances of the sampled keys intact. A simulated cache of <code>size * samplingRate</code> entries
+ * then behaves like a cache of <code>size</code> entries.
+ * <p>
+ * The records are appended to an in-memory buffer and written to the file by a single daemon thread shared by
+ * all the recorders, every second or as soon as a buffer is full. If the writes cannot keep up, the new records
+ * are dropped instead of slowing down the cache.
+ * <p>
+ * The file starts with the magic number {@link #MAGIC}, the format version and the sampling rate as a double,
+ * then each record is made of the operation as a byte followed by the hash of the key as an int.
+ *
+ * @version $Id$
+ */
+public class TraceRecorder
+{
+
+   private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.cache.TraceRecorder");
+
+   /**
+    * The first bytes of a trace file
+    */
+   public static final int MAGIC = 0x45584f54;
+
+   /**
+    * The version of the format of the trace file
+    */
+   public static final byte VERSION = 1;
+
+   /**
+    * A get that found a value
+    */
+   public static final byte GET_HIT = 1;
+
+   /**
+    * A get that did not find any value
+    */
+   public static final byte GET_MISS = 2;
+
+   public static final byte PUT = 3;
+
+   public static final byte REMOVE = 4;
+
+   /**
+    * A clear of the whole cache, the key hash is always 0
+    */
+   public static final byte CLEAR = 5;
+
+   /**
+    * The size in bytes of a record
+    */
+   static final int RECORD_SIZE = 5;
+
+   /**
+    * The size in bytes of the header
+    */
+   static final int HEADER_SIZE = 13;
+
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   /**
+    * The maximum amount of full buffers waiting to be written per recorder
+    */
+   private static final int MAX_PENDING_BUFFERS = 16;
+
+   /**
+    * The period in milliseconds between two writes
+    */
+   private static final long PERIOD = 1000;
+
+   /**
+    * The amount of hash values from which the sampled range is taken
+    */
+   private static final int SAMPLING_RANGE = 1 << 24;
+
+   private static final Set<TraceRecorder> RECORDERS = new CopyOnWriteArraySet<TraceRecorder>();
+
+   private static ScheduledExecutorService executor;
+
+   private final File file;
+
+   private final double samplingRate;
+
+   /**
+    * The key hashes whose low bits are lower than this threshold are sampled
+    */
+   private final int threshold;
+
+   private final FileChannel channel;
+
+   private final ConcurrentLinkedQueue<ByteBuffer> pending = new ConcurrentLinkedQueue<ByteBuffer>();
+
+   private final AtomicInteger pendingCount = new AtomicInteger();
+
+   private final AtomicLong dropped = new AtomicLong();
+
+   /**
+    * The buffer in which the records are appended, guarded by the recorder
+    */
+   private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+   private volatile boolean closed;
+
+   /**
+    * Creates a recorder that writes into the given file, the file is overwritten.
+    *
+    * @param file the trace file
+    * @param samplingRate the ratio of the keys to record, between 0 and 1
+    * @throws IOException if the file cannot be created
+    */
+   public TraceRecorder(File file, double samplingRate) throws IOException
+   {
+      if (samplingRate <= 0 || samplingRate > 1)
+      {
+         throw new IllegalArgumentException("The sampling rate must be greater than 0 and lower or equal to 1");
+      }
+      this.file = file;
+      this.samplingRate = samplingRate;
+      this.threshold = (int)Math.ceil(samplingRate * SAMPLING_RANGE);
+      File parent = file.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists())
+      {
+         throw new IOException("Could not create the directory " + parent);
+      }
+      this.channel = new FileOutputStream(file).getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).put(VERSION).putDouble(samplingRate).flip();
+      while (header.hasRemaining())
+      {
+         channel.write(header);
+      }
+      register(this);
+   }
+
+   /**
+    * @return the trace file
+    */
+   public File getFile()
+   {
+      return file;
+   }
+
+   /**
+    * @return the ratio of the keys that are recorded
+    */
+   public double getSamplingRate()
+   {
+      return samplingRate;
+   }
+
+   /**
+    * @return the amount of records that have been dropped because the writes could not keep up
+    */
+   public long getDroppedCount()
+   {
+      return dropped.get();
+   }
+
+   /**
+    * Records an access to the given key if it is sampled.
+    *
+    * @param operation the type of access
+    * @param key the accessed key
+    */
+   public void record(byte operation, Object key)
+   {
+      if (key == null)
+      {
+         return;
+      }
+      int hash = hash(key);
+      if ((hash & (SAMPLING_RANGE - 1)) < threshold)
+      {
+         append(operation, hash);
+      }
+   }
+
+   /**
+    * Records a clear of the cache
+    */
+   public void recordClear()
+   {
+      append(CLEAR, 0);
+   }
+
+   private void append(byte operation, int hash)
+   {
+      if (closed)
+      {
+         return;
+      }
+      boolean full;
+      synchronized (this)
+      {
+         if (buffer == null)
+         {
+            dropped.incrementAndGet();
+            return;
+         }
+         buffer.put(operation).putInt(hash);
+         full = buffer.remaining() < RECORD_SIZE;
+         if (full)
+         {
+            buffer.flip();
+            pending.add(buffer);
+            // If the writes cannot keep up, the records are dropped until the pending buffers are written
+            buffer = pendingCount.incrementAndGet() < MAX_PENDING_BUFFERS ? ByteBuffer.allocate(BUFFER_SIZE) : null;
+         }
+      }
+      if (full)
+      {
+         requestWrite();
+      }
+   }
+
+   /**
+    * Writes all the records to the file
+    *
+    * @throws IOException if the records cannot be written
+    */
+   public void flush() throws IOException
+   {
+      ByteBuffer current;
+      synchronized (this)
+      {
+         current = buffer;
+         buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      }
+      synchronized (channel)
+      {
+         ByteBuffer pendingBuffer;
+         while ((pendingBuffer = pending.poll()) != null)
+         {
+            write(pendingBuffer);
+            pendingCount.decrementAndGet();
+         }
+         if (current != null)
+         {
+            current.flip();
+            write(current);
+         }
+      }
+   }
+
+   /**
+    * Writes the remaining records and closes the file, the next records are ignored.
+    *
+    * @throws IOException if the records cannot be written
+    */
+   public void close() throws IOException
+   {
+      if (closed)
+      {
+         return;
+      }
+      RECORDERS.remove(this);
+      try
+      {
+         flush();
+      }
+      finally
+      {
+         closed = true;
+         synchronized (channel)
+         {
+            channel.close();
+         }
+      }
+   }
+
+   private void write(ByteBuffer data) throws IOException
+   {
+      while (data.hasRemaining())
+      {
+         channel.write(data);
+      }
+   }
+
+   /**
+    * Gives the hash of the given key as recorded into the trace
+    */
+   static int hash(Object key)
+   {
+      int x = key.hashCode();
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      return (x >>> 16) ^ x;
+   }
+
+   private static void register(TraceRecorder recorder)
+   {
+      RECORDERS.add(recorder);
+      synchronized (TraceRecorder.class)
+      {
+         if (executor == null)
+         {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+               public Thread newThread(Runnable r)
+               {
+                  Thread t = new Thread(r, "exo-cache-trace-writer");
+                  t.setDaemon(true);
+                  return t;
+               }
+            });
+            executor.scheduleWithFixedDelay(new Runnable()
+            {
+               public void run()
+               {
+                  writeAll();
+               }
+            }, PERIOD, PERIOD, TimeUnit.MILLISECONDS);
+         }
+      }
+   }
+
+   private void requestWrite()
+   {
+      synchronized (TraceRecorder.class)
+      {
+         executor.execute(new Runnable()
+         {
+            public void run()
+            {
+               writePending();
+            }
+         });
+      }
+   }
+
+   private static void writeAll()
+   {
+      for (TraceRecorder recorder : RECORDERS)
+      {
+         try
+         {
+            recorder.flush();
+         }
+         catch (IOException e)
+         {
+            LOG.warn("Could not write the trace file " + recorder.file, e);
+         }
+      }
+   }
+
+   /**
+    * Writes the full buffers only
+    */
+   private void writePending()
+   {
+      if (closed)
+      {
+         return;
+      }
+      try
+      {
+         synchronized (channel)
+         {
+            ByteBuffer pendingBuffer;
+            while ((pendingBuffer = pending.poll()) != null)
+            {
+               write(pendingBuffer);
+               pendingCount.decrementAndGet();
+            }
+         }
+         synchronized (this)
+         {
+            if (buffer == null)
+            {
+               buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+         }
+      }
+      catch (IOException e)
+      {
+         LOG.warn("Could not write the trace file " + file, e);
+      }
+   }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.trace;
+
+import org.exoplatform.services.cache.CacheCursor;
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheStatistics;
+import org.exoplatform.services.cache.CachedObjectSelector;
+import org.exoplatform.services.cache.ExoCache;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This eXo cache type is a decorator recording the accesses to the decorated cache thanks to a
+ * {@link TraceRecorder}, in order to replay them later with the {@link CacheSimulator}. The removals by prefix
+ * are not recorded since the removed keys are unknown.
+ *
+ * @version $Id$
+ */
+public class TracingExoCache<K extends Serializable, V> implements ExoCache<K, V>
+{
+
+   /**
+    * The decorated cache
+    */
+   private final ExoCache<K, V> delegate;
+
+   private final TraceRecorder recorder;
+
+   /**
+    * @param delegate the cache whose accesses are recorded
+    * @param recorder the recorder to which the accesses are given
+    */
+   public TracingExoCache(ExoCache<K, V> delegate, TraceRecorder recorder)
+   {
+      this.delegate = delegate;
+      this.recorder = recorder;
+   }
+
+   /**
+    * @return the recorder to which the accesses are given
+    */
+   public TraceRecorder getRecorder()
+   {
+      return recorder;
+   }
+
+   /**
+    * @return the decorated cache
+    */
+   public ExoCache<K, V> getDelegate()
+   {
+      return delegate;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getName()
+    */
+   public String getName()
+   {
+      return delegate.getName();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setName(java.lang.String)
+    */
+   public void setName(String name)
+   {
+      delegate.setName(name);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getLabel()
+    */
+   public String getLabel()
+   {
+      return delegate.getLabel();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setLabel(java.lang.String)
+    */
+   public void setLabel(String s)
+   {
+      delegate.setLabel(s);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#get(java.io.Serializable)
+    */
+   public V get(Serializable name)
+   {
+      V value = delegate.get(name);
+      recorder.record(value == null ? TraceRecorder.GET_MISS : TraceRecorder.GET_HIT, name);
+      return value;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getAll(java.util.Collection)
+    */
+   public Map<K, V> getAll(Collection<? extends K> keys) throws NullPointerException
+   {
+      Map<K, V> result = delegate.getAll(keys);
+      for (K key : keys)
+      {
+         recorder.record(result.containsKey(key) ? TraceRecorder.GET_HIT : TraceRecorder.GET_MISS, key);
+      }
+      return result;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#remove(java.io.Serializable)
+    */
+   public V remove(Serializable key) throws NullPointerException
+   {
+      V value = delegate.remove(key);
+      recorder.record(TraceRecorder.REMOVE, key);
+      return value;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeAll(java.util.Collection)
+    */
+   public void removeAll(Collection<? extends K> keys) throws NullPointerException, IllegalArgumentException
+   {
+      delegate.removeAll(keys);
+      for (K key : keys)
+      {
+         recorder.record(TraceRecorder.REMOVE, key);
+      }
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeByPrefix(java.lang.String)
+    */
+   public void removeByPrefix(String prefix) throws NullPointerException
+   {
+      delegate.removeByPrefix(prefix);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#put(java.io.Serializable, java.lang.Object)
+    */
+   public void put(K key, V value) throws NullPointerException
+   {
+      delegate.put(key, value);
+      recorder.record(TraceRecorder.PUT, key);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#put(java.io.Serializable, java.lang.Object, long)
+    */
+   public void put(K key, V value, long liveTimeMillis) throws NullPointerException
+   {
+      delegate.put(key, value, liveTimeMillis);
+      recorder.record(TraceRecorder.PUT, key);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#putMap(java.util.Map)
+    */
+   public void putMap(Map<? extends K, ? extends V> objs) throws NullPointerException, IllegalArgumentException
+   {
+      delegate.putMap(objs);
+      for (K key : objs.keySet())
+      {
+         recorder.record(TraceRecorder.PUT, key);
+      }
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#clearCache()
+    */
+   public void clearCache()
+   {
+      delegate.clearCache();
+      recorder.recordClear();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#select(org.exoplatform.services.cache.CachedObjectSelector)
+    */
+   public void select(CachedObjectSelector<? super K, ? super V> selector) throws Exception
+   {
+      delegate.select(selector);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheSize()
+    */
+   public int getCacheSize()
+   {
+      return delegate.getCacheSize();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getMaxSize()
+    */
+   public int getMaxSize()
+   {
+      return delegate.getMaxSize();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheWeight()
+    */
+   public long getCacheWeight()
+   {
+      return delegate.getCacheWeight();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setMaxSize(int)
+    */
+   public void setMaxSize(int max)
+   {
+      delegate.setMaxSize(max);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getLiveTime()
+    */
+   public long getLiveTime()
+   {
+      return delegate.getLiveTime();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setLiveTime(long)
+    */
+   public void setLiveTime(long period)
+   {
+      delegate.setLiveTime(period);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheHit()
+    */
+   public int getCacheHit()
+   {
+      return delegate.getCacheHit();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheMiss()
+    */
+   public int getCacheMiss()
+   {
+      return delegate.getCacheMiss();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getStatistics()
+    */
+   public CacheStatistics getStatistics()
+   {
+      return delegate.getStatistics();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCachedObjects()
+    */
+   public List<? extends V> getCachedObjects() throws Exception
+   {
+      return delegate.getCachedObjects();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeCachedObjects()
+    */
+   public List<? extends V> removeCachedObjects()
+   {
+      List<? extends V> values = delegate.removeCachedObjects();
+      recorder.recordClear();
+      return values;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#openCursor(int)
+    */
+   public CacheCursor<K, V> openCursor(int chunkSize)
+   {
+      return delegate.openCursor(chunkSize);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#addCacheListener(org.exoplatform.services.cache.CacheListener)
+    */
+   public void addCacheListener(CacheListener<? super K, ? super V> listener) throws NullPointerException
+   {
+      delegate.addCacheListener(listener);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#isLogEnabled()
+    */
+   public boolean isLogEnabled()
+   {
+      return delegate.isLogEnabled();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setLogEnabled(boolean)
+    */
+   public void setLogEnabled(boolean b)
+   {
+      delegate.setLogEnabled(b);
+   }
+}
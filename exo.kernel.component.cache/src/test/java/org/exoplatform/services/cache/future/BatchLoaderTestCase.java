@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.future;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @version $Id$
+ */
+public class BatchLoaderTestCase extends TestCase
+{
+
+   public void testBatch() throws Exception
+   {
+      final RecordingLoader loader = new RecordingLoader();
+      final FutureMap<String> futureCache = new FutureMap<String>(loader);
+      // The batch is closed once full
+      futureCache.setBatchWindow(10000);
+      futureCache.setMaxBatchSize(5);
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(5);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < 5; i++)
+      {
+         final String key = "key" + i;
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  assertEquals(key + "_value", futureCache.get("ctx", key));
+               }
+               catch (Throwable e)
+               {
+                  error.set(e);
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      assertTrue(doneSignal.await(5, TimeUnit.SECONDS));
+      assertNull(error.get());
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      assertEquals(1, loader.batches.size());
+      assertEquals(5, loader.batches.get(0).size());
+      assertEquals(5, futureCache.data.size());
+
+      // The values are now cached
+      assertEquals("key0_value", futureCache.get("ctx", "key0"));
+      assertEquals(1, loader.batches.size());
+   }
+
+   public void testBatchWindow() throws Exception
+   {
+      RecordingLoader loader = new RecordingLoader();
+      FutureMap<String> futureCache = new FutureMap<String>(loader);
+      futureCache.setBatchWindow(200);
+      futureCache.setMaxBatchSize(100);
+      List<Future<String>> futures = new ArrayList<Future<String>>();
+      for (int i = 0; i < 3; i++)
+      {
+         futures.add(futureCache.getAsync("ctx", "key" + i));
+      }
+      // Another context goes into another batch
+      Future<String> other = futureCache.getAsync("other", "key3");
+      // A missing key
+      Future<String> missing = futureCache.getAsync("ctx", "missing");
+      for (int i = 0; i < 3; i++)
+      {
+         assertEquals("key" + i + "_value", futures.get(i).get(5, TimeUnit.SECONDS));
+      }
+      assertEquals("key3_value", other.get(5, TimeUnit.SECONDS));
+      assertNull(missing.get(5, TimeUnit.SECONDS));
+      assertEquals(2, loader.batches.size());
+      assertFalse(futureCache.data.containsKey("missing"));
+   }
+
+   public void testBatchDisabled() throws Exception
+   {
+      RecordingLoader loader = new RecordingLoader();
+      FutureMap<String> futureCache = new FutureMap<String>(loader);
+      // The batches are disabled by default
+      assertEquals("key0_value", futureCache.get("ctx", "key0"));
+      futureCache.setMaxBatchSize(1);
+      assertEquals("key1_value", futureCache.get("ctx", "key1"));
+      assertEquals(0, loader.batches.size());
+      assertEquals(2, loader.singles);
+   }
+
+   public void testBatchThrowException() throws Exception
+   {
+      FutureMap<String> futureCache = new FutureMap<String>(new RecordingLoader()
+      {
+         @Override
+         public Map<String, String> retrieveAll(String context, Collection<String> keys) throws Exception
+         {
+            throw new Exception("DON'T FREAK OUT");
+         }
+      });
+      futureCache.setMaxBatchSize(100);
+      assertNull(futureCache.get("ctx", "key0"));
+      assertFalse(futureCache.data.containsKey("key0"));
+   }
+
+   private static class RecordingLoader implements BatchLoader<String, String, String>
+   {
+
+      final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+
+      volatile int singles;
+
+      public String retrieve(String context, String key) throws Exception
+      {
+         singles++;
+         return key + "_value";
+      }
+
+      public Map<String, String> retrieveAll(String context, Collection<String> keys) throws Exception
+      {
+         batches.add(new ArrayList<String>(keys));
+         Map<String, String> values = new HashMap<String, String>();
+         for (String key : keys)
+         {
+            if (key.startsWith("key"))
+            {
+               values.put(key, key + "_value");
+            }
+         }
+         return values;
+      }
+   }
+}
@@ -22,6 +22,10 @@ import junit.framework.Assert;
 import junit.framework.TestCase;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="mailto:julien.viet@exoplatform.com">Julien Viet</a>
@@ -67,4 +71,90 @@ public class GetTestCase extends TestCase
       }, "foo"));
       Assert.assertFalse(futureCache.data.containsKey("foo"));
    }
+
+   public void testGetAsync() throws Exception
+   {
+      FutureMap<Callable<String>> futureCache = new FutureMap<Callable<String>>(new StringLoader());
+      final CountDownLatch latch = new CountDownLatch(1);
+      Future<String> future = futureCache.getAsync(new Callable<String>()
+      {
+         public String call() throws Exception
+         {
+            latch.await();
+            return "foo_value";
+         }
+      }, "foo");
+      Assert.assertFalse(future.isDone());
+      Assert.assertFalse(future.cancel(true));
+      latch.countDown();
+      Assert.assertEquals("foo_value", future.get(10, TimeUnit.SECONDS));
+      Assert.assertEquals("foo_value", futureCache.data.get("foo"));
+
+      //
+      future = futureCache.getAsync(new Callable<String>()
+      {
+         public String call() throws Exception
+         {
+            throw new Exception("Should not be called");
+         }
+      }, "foo");
+      Assert.assertTrue(future.isDone());
+      Assert.assertEquals("foo_value", future.get());
+   }
+
+   public void testGetAsyncThrowException() throws Exception
+   {
+      FutureMap<Callable<String>> futureCache = new FutureMap<Callable<String>>(new StringLoader());
+      Future<String> future = futureCache.getAsync(new Callable<String>()
+      {
+         public String call() throws Exception
+         {
+            throw new Exception("DON'T FREAK OUT");
+         }
+      }, "foo");
+      Assert.assertNull(future.get(10, TimeUnit.SECONDS));
+      Assert.assertFalse(futureCache.data.containsKey("foo"));
+   }
+
+   public void testNegativeCaching() throws Exception
+   {
+      FutureMap<Callable<String>> futureCache = new FutureMap<Callable<String>>(new StringLoader());
+      futureCache.setNegativeTimeToLive(200);
+      final AtomicInteger calls = new AtomicInteger();
+      Callable<String> loader = new Callable<String>()
+      {
+         public String call() throws Exception
+         {
+            calls.incrementAndGet();
+            return null;
+         }
+      };
+      Assert.assertNull(futureCache.get(loader, "foo"));
+      Assert.assertNull(futureCache.get(loader, "foo"));
+      Assert.assertNull(futureCache.getAsync(loader, "foo").get());
+      Assert.assertEquals(1, calls.get());
+      Assert.assertFalse(futureCache.data.containsKey("foo"));
+
+      //
+      futureCache.removeNegativeEntry("foo");
+      Assert.assertNull(futureCache.get(loader, "foo"));
+      Assert.assertEquals(2, calls.get());
+
+      //
+      Thread.sleep(300);
+      Assert.assertNull(futureCache.get(loader, "foo"));
+      Assert.assertEquals(3, calls.get());
+
+      //
+      futureCache.setNegativeMaxSize(1);
+      Assert.assertNull(futureCache.get(loader, "bar"));
+      Assert.assertEquals(4, calls.get());
+      Assert.assertNull(futureCache.get(loader, "foo"));
+      Assert.assertEquals(5, calls.get());
+
+      //
+      futureCache.setNegativeTimeToLive(0);
+      Assert.assertNull(futureCache.get(loader, "foo"));
+      Assert.assertEquals(6, calls.get());
+   }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.future;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.concurrent.TinyLFUExoCache;
+
+import java.io.Serializable;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @version $Id$
+ */
+public class RefreshAheadTestCase extends TestCase
+{
+
+   public void testRefreshAhead() throws Exception
+   {
+      ConcurrentFIFOExoCache<String, String> cache = new ConcurrentFIFOExoCache<String, String>(10);
+      cache.setLiveTimeMillis(1000);
+      FutureExoCache<String, String, Callable<String>> futureCache =
+         new FutureExoCache<String, String, Callable<String>>(new StringLoader(), cache);
+      futureCache.setRefreshAheadRatio(0.3f);
+      final AtomicInteger calls = new AtomicInteger();
+      final CountDownLatch reloaded = new CountDownLatch(1);
+      Callable<String> loader = new Callable<String>()
+      {
+         public String call() throws Exception
+         {
+            int call = calls.incrementAndGet();
+            if (call == 2)
+            {
+               reloaded.countDown();
+            }
+            return "foo_value_" + call;
+         }
+      };
+      assertEquals("foo_value_1", futureCache.get(loader, "foo"));
+      assertEquals("foo_value_1", futureCache.get(loader, "foo"));
+      assertEquals(1, calls.get());
+
+      // Once 30% of the live time has elapsed, the stale value is returned while it is reloaded
+      Thread.sleep(400);
+      assertEquals("foo_value_1", futureCache.get(loader, "foo"));
+      assertTrue(reloaded.await(10, TimeUnit.SECONDS));
+      long deadline = System.currentTimeMillis() + 10000;
+      while (!"foo_value_2".equals(cache.get("foo")) && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(10);
+      }
+      assertEquals("foo_value_2", futureCache.get(loader, "foo"));
+      assertEquals(2, calls.get());
+
+      // The value has been refreshed before its expiration
+      Thread.sleep(700);
+      assertNotNull(cache.get("foo"));
+   }
+
+   public void testLiveTimeMillis() throws Exception
+   {
+      // The live time of any local cache is read in milliseconds
+      TinyLFUExoCache<String, String> cache = new TinyLFUExoCache<String, String>(10);
+      cache.setLiveTimeMillis(1000);
+      FutureExoCache<String, String, Callable<String>> futureCache =
+         new FutureExoCache<String, String, Callable<String>>(new StringLoader(), cache);
+      futureCache.setRefreshAheadRatio(0.3f);
+      final AtomicInteger calls = new AtomicInteger();
+      final CountDownLatch reloaded = new CountDownLatch(1);
+      Callable<String> loader = new Callable<String>()
+      {
+         public String call() throws Exception
+         {
+            if (calls.incrementAndGet() == 2)
+            {
+               reloaded.countDown();
+            }
+            return "foo_value";
+         }
+      };
+      assertEquals("foo_value", futureCache.get(loader, "foo"));
+      Thread.sleep(400);
+      assertEquals("foo_value", futureCache.get(loader, "foo"));
+      assertTrue(reloaded.await(10, TimeUnit.SECONDS));
+   }
+
+   public void testLoadTimes() throws Exception
+   {
+      final AtomicBoolean forget = new AtomicBoolean();
+      ConcurrentFIFOExoCache<String, String> cache = new ConcurrentFIFOExoCache<String, String>(10)
+      {
+         @Override
+         public String get(Serializable name)
+         {
+            return forget.get() ? null : super.get(name);
+         }
+
+         @Override
+         public void addCacheListener(CacheListener<? super String, ? super String> listener)
+         {
+            // Simulates a cache that does not notify the evictions
+         }
+      };
+      cache.setLiveTimeMillis(60000);
+      FutureExoCache<String, String, Callable<String>> futureCache =
+         new FutureExoCache<String, String, Callable<String>>(new StringLoader(), cache);
+      futureCache.setRefreshAheadRatio(0.5f);
+      final AtomicReference<String> value = new AtomicReference<String>("value");
+      Callable<String> loader = new Callable<String>()
+      {
+         public String call() throws Exception
+         {
+            return value.get();
+         }
+      };
+
+      // The load time of a missing entry is forgotten
+      assertEquals("value", futureCache.get(loader, "foo"));
+      assertEquals(1, futureCache.getLoadTimeCount());
+      forget.set(true);
+      value.set(null);
+      assertNull(futureCache.get(loader, "foo"));
+      assertEquals(0, futureCache.getLoadTimeCount());
+
+      // The load times are bounded by the maximum size of the cache
+      forget.set(false);
+      value.set("value");
+      for (int i = 0; i < 100; i++)
+      {
+         assertEquals("value", futureCache.get(loader, "key" + i));
+         assertTrue(futureCache.getLoadTimeCount() <= 10);
+      }
+   }
+
+   public void testRefreshAheadRatio()
+   {
+      FutureExoCache<String, String, Callable<String>> futureCache =
+         new FutureExoCache<String, String, Callable<String>>(new StringLoader(),
+            new ConcurrentFIFOExoCache<String, String>(10));
+      assertEquals(0f, futureCache.getRefreshAheadRatio());
+      try
+      {
+         futureCache.setRefreshAheadRatio(1);
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+         // OK
+      }
+      futureCache.setRefreshAheadRatio(0.5f);
+      assertEquals(0.5f, futureCache.getRefreshAheadRatio());
+   }
+}
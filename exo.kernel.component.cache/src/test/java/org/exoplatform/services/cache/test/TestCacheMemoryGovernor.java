@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.test;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExoCacheConfigPlugin;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.concurrent.OffHeapExoCache;
+import org.exoplatform.services.cache.impl.CacheMemoryGovernor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @version $Id$
+ */
+public class TestCacheMemoryGovernor extends TestCase
+{
+
+   public void testRebalance()
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> missing = new ConcurrentFIFOExoCache<Integer, Integer>("missing", 100);
+      ConcurrentFIFOExoCache<Integer, Integer> idle = new ConcurrentFIFOExoCache<Integer, Integer>("idle", 100);
+      CacheMemoryGovernor governor = createGovernor(200 * 1024, null, missing, idle);
+      for (int round = 0; round < 10; round++)
+      {
+         for (int i = 0; i < 1000; i++)
+         {
+            load(missing, i % 300);
+            load(idle, i % 20);
+         }
+         governor.rebalance();
+      }
+      assertTrue(missing.getMaxSize() > 100);
+      assertTrue(idle.getMaxSize() < 100);
+      assertTrue(idle.getMaxSize() >= 20);
+      assertTrue(governor.getEstimatedMemory() <= governor.getMemoryBudget());
+      assertEquals(1024L * (missing.getMaxSize() + idle.getMaxSize()), governor.getEstimatedMemory());
+      assertEquals(10, governor.getRounds());
+      assertTrue(governor.getDecisions().length > 0);
+   }
+
+   public void testTrade()
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> missing = new ConcurrentFIFOExoCache<Integer, Integer>("missing", 100);
+      ConcurrentFIFOExoCache<Integer, Integer> hit = new ConcurrentFIFOExoCache<Integer, Integer>("hit", 100);
+      CacheMemoryGovernor governor = createGovernor(200 * 1024, null, missing, hit);
+      for (int i = 0; i < 100; i++)
+      {
+         hit.put(i, i);
+      }
+      for (int round = 0; round < 5; round++)
+      {
+         for (int i = 0; i < 1000; i++)
+         {
+            load(missing, i % 300);
+         }
+         // Rarely hit, the capacity is better used by the other region
+         hit.get(round);
+         governor.rebalance();
+      }
+      assertTrue(missing.getMaxSize() > 100);
+      assertTrue(hit.getMaxSize() < 100);
+      assertEquals(200, missing.getMaxSize() + hit.getMaxSize());
+   }
+
+   public void testOverBudget()
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> cache1 = new ConcurrentFIFOExoCache<Integer, Integer>("cache1", 100);
+      ConcurrentFIFOExoCache<Integer, Integer> cache2 = new ConcurrentFIFOExoCache<Integer, Integer>("cache2", 100);
+      CacheMemoryGovernor governor = createGovernor(200 * 1024, null, cache1, cache2);
+      for (int i = 0; i < 100; i++)
+      {
+         cache1.put(i, i);
+         cache2.put(i, i);
+      }
+      for (int i = 0; i < 100; i++)
+      {
+         cache1.get(i);
+      }
+      governor.setMemoryBudget(100 * 1024);
+      for (int round = 0; round < 20; round++)
+      {
+         governor.rebalance();
+      }
+      assertTrue(governor.getEstimatedMemory() <= 100 * 1024);
+      assertTrue(cache1.getMaxSize() > cache2.getMaxSize());
+      assertTrue(cache2.getMaxSize() >= 16);
+   }
+
+   public void testNotGoverned()
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> excluded = new ConcurrentFIFOExoCache<Integer, Integer>("excluded", 100);
+      OffHeapExoCache<Integer, Integer> offHeap = new OffHeapExoCache<Integer, Integer>("offheap", 100);
+      CacheMemoryGovernor governor = createGovernor(1024, "other, excluded", excluded, offHeap);
+      governor.rebalance();
+      assertEquals(100, excluded.getMaxSize());
+      assertEquals(100, offHeap.getMaxSize());
+      assertEquals(0, governor.getDecisions().length);
+   }
+
+   private static void load(ExoCache<Integer, Integer> cache, Integer key)
+   {
+      if (cache.get(key) == null)
+      {
+         cache.put(key, key);
+      }
+   }
+
+   private static CacheMemoryGovernor createGovernor(long budget, String excluded, ExoCache<?, ?>... caches)
+   {
+      final List<ExoCache<? extends Serializable, ?>> list = new ArrayList<ExoCache<? extends Serializable, ?>>();
+      for (ExoCache<?, ?> cache : caches)
+      {
+         list.add((ExoCache<? extends Serializable, ?>)cache);
+      }
+      CacheService service = new CacheService()
+      {
+         public void addExoCacheConfig(ExoCacheConfigPlugin plugin)
+         {
+         }
+
+         public <K extends Serializable, V> ExoCache<K, V> getCacheInstance(String region)
+         {
+            return null;
+         }
+
+         public Collection<ExoCache<? extends Serializable, ?>> getAllCacheInstances()
+         {
+            return list;
+         }
+      };
+      InitParams params = new InitParams();
+      params.addParameter(createParam(CacheMemoryGovernor.PERIOD, "0"));
+      params.addParameter(createParam(CacheMemoryGovernor.MEMORY_BUDGET, Long.toString(budget)));
+      if (excluded != null)
+      {
+         params.addParameter(createParam(CacheMemoryGovernor.EXCLUDED_REGIONS, excluded));
+      }
+      return new CacheMemoryGovernor(service, params);
+   }
+
+   private static ValueParam createParam(String name, String value)
+   {
+      ValueParam param = new ValueParam();
+      param.setName(name);
+      param.setValue(value);
+      return param;
+   }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.test;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExoCacheConfigPlugin;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.impl.CacheMemoryGovernor;
+import org.exoplatform.services.cache.impl.CacheMemoryPressureMonitor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @version $Id$
+ */
+public class TestCacheMemoryPressureMonitor extends TestCase
+{
+
+   public void testShrinkAndGrow()
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>("cache", 100);
+      CacheMemoryPressureMonitor monitor = createMonitor(null, cache);
+      for (int i = 0; i < 100; i++)
+      {
+         cache.put(i, i);
+      }
+      assertEquals(100, cache.getCacheSize());
+
+      monitor.shrink();
+      assertTrue(monitor.isUnderPressure());
+      assertEquals(75, cache.getMaxSize());
+      // The oldest entries are evicted right away
+      assertEquals(75, cache.getCacheSize());
+      assertNull(cache.get(0));
+      assertNull(cache.get(24));
+      assertEquals(Integer.valueOf(25), cache.get(25));
+      assertEquals(Integer.valueOf(99), cache.get(99));
+      cache.assertConsistent();
+
+      // The region never goes below its floor
+      for (int i = 0; i < 10; i++)
+      {
+         monitor.shrink();
+      }
+      assertEquals(25, cache.getMaxSize());
+      assertEquals(25, cache.getCacheSize());
+      assertEquals(3, monitor.getShrinks());
+      assertEquals(1, monitor.getShrunkRegions().length);
+      assertEquals(3, monitor.getEvents().length);
+
+      monitor.grow();
+      assertFalse(monitor.isUnderPressure());
+      assertEquals(50, cache.getMaxSize());
+      assertEquals(25, cache.getCacheSize());
+      for (int i = 0; i < 10; i++)
+      {
+         monitor.grow();
+      }
+      assertEquals(100, cache.getMaxSize());
+      assertEquals(0, monitor.getShrunkRegions().length);
+      assertEquals(6, monitor.getEvents().length);
+
+      // Once recovered, the original size is the current size again
+      cache.setMaxSize(40);
+      monitor.shrink();
+      assertEquals(30, cache.getMaxSize());
+      monitor.grow();
+      assertEquals(40, cache.getMaxSize());
+   }
+
+   public void testExcluded()
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>("cache", 100);
+      ConcurrentFIFOExoCache<Integer, Integer> excluded =
+         new ConcurrentFIFOExoCache<Integer, Integer>("excluded", 100);
+      CacheMemoryPressureMonitor monitor = createMonitor("excluded", cache, excluded);
+      monitor.shrink();
+      assertEquals(75, cache.getMaxSize());
+      assertEquals(100, excluded.getMaxSize());
+   }
+
+   public void testWithGovernor()
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>("cache", 100);
+      CacheService service = createCacheService(cache);
+      CacheMemoryPressureMonitor monitor = createMonitor(service, null);
+      load(cache);
+      monitor.shrink();
+      monitor.shrink();
+      assertEquals(50, cache.getMaxSize());
+
+      // The governor knows the size of the region before the shrink and grows nothing under pressure
+      InitParams params = new InitParams();
+      params.addParameter(createParam(CacheMemoryGovernor.PERIOD, "0"));
+      params.addParameter(createParam(CacheMemoryGovernor.MEMORY_BUDGET, Long.toString(1024 * 1024)));
+      CacheMemoryGovernor governor = new CacheMemoryGovernor(service, monitor, params);
+      load(cache);
+      governor.rebalance();
+      assertEquals(50, cache.getMaxSize());
+
+      // Once recovered, the monitor only raises the ceiling and the governor grows the region up to it
+      monitor.grow();
+      assertEquals(50, cache.getMaxSize());
+      for (int round = 0; round < 10; round++)
+      {
+         load(cache);
+         governor.rebalance();
+      }
+      assertEquals(75, cache.getMaxSize());
+      monitor.grow();
+      assertEquals(0, monitor.getShrunkRegions().length);
+
+      // Without ceiling, the governor grows the region above its original size
+      for (int round = 0; round < 10; round++)
+      {
+         load(cache);
+         governor.rebalance();
+      }
+      assertTrue(cache.getMaxSize() > 100);
+      assertTrue(cache.getMaxSize() <= 400);
+   }
+
+      public void testStartStop()
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>("cache", 100);
+      CacheMemoryPressureMonitor monitor = createMonitor(null, cache);
+      monitor.start();
+      try
+      {
+         // Far from the usage threshold, nothing is shrunk
+         monitor.check();
+         assertEquals(100, cache.getMaxSize());
+         assertFalse(monitor.isUnderPressure());
+      }
+      finally
+      {
+         monitor.stop();
+      }
+   }
+
+   private static void load(ExoCache<Integer, Integer> cache)
+   {
+      for (int i = 0; i < 1000; i++)
+      {
+         Integer key = i % 500;
+         if (cache.get(key) == null)
+         {
+            cache.put(key, key);
+         }
+      }
+   }
+
+   private static CacheMemoryPressureMonitor createMonitor(String excluded, ExoCache<?, ?>... caches)
+   {
+      return createMonitor(createCacheService(caches), excluded);
+   }
+
+   private static CacheService createCacheService(ExoCache<?, ?>... caches)
+   {
+      final List<ExoCache<? extends Serializable, ?>> list = new ArrayList<ExoCache<? extends Serializable, ?>>();
+      for (ExoCache<?, ?> cache : caches)
+      {
+         list.add((ExoCache<? extends Serializable, ?>)cache);
+      }
+      return new CacheService()
+      {
+         public void addExoCacheConfig(ExoCacheConfigPlugin plugin)
+         {
+         }
+
+         public <K extends Serializable, V> ExoCache<K, V> getCacheInstance(String region)
+         {
+            return null;
+         }
+
+         public Collection<ExoCache<? extends Serializable, ?>> getAllCacheInstances()
+         {
+            return list;
+         }
+      };
+   }
+
+   private static CacheMemoryPressureMonitor createMonitor(CacheService service, String excluded)
+   {
+      InitParams params = new InitParams();
+      params.addParameter(createParam(CacheMemoryPressureMonitor.PERIOD, "0"));
+      params.addParameter(createParam(CacheMemoryPressureMonitor.USAGE_THRESHOLD, "0.99"));
+      params.addParameter(createParam(CacheMemoryPressureMonitor.FLOOR, "0.25"));
+      params.addParameter(createParam(CacheMemoryPressureMonitor.STEP, "0.25"));
+      if (excluded != null)
+      {
+         params.addParameter(createParam(CacheMemoryPressureMonitor.EXCLUDED_REGIONS, excluded));
+      }
+      return new CacheMemoryPressureMonitor(service, params);
+   }
+
+   private static ValueParam createParam(String name, String value)
+   {
+      ValueParam param = new ValueParam();
+      param.setName(name);
+      param.setValue(value);
+      return param;
+   }
+}
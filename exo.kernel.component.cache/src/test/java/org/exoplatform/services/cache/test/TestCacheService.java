@@ -23,8 +23,10 @@ import junit.framework.TestCase;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.container.xml.ObjectParameter;
+import org.exoplatform.services.cache.CacheCursor;
 import org.exoplatform.services.cache.CacheListener;
 import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.CacheStatistics;
 import org.exoplatform.services.cache.CachedObjectSelector;
 import org.exoplatform.services.cache.ExoCache;
 import org.exoplatform.services.cache.ExoCacheConfig;
@@ -274,8 +276,22 @@ public class TestCacheService extends TestCase
       assertTrue(infoMap.containsKey("TimeToLive"));
       assertTrue(infoMap.containsKey("HitCount"));
       assertTrue(infoMap.containsKey("MissCount"));
-      assertEquals(6, infoMap.size());
+      assertTrue(infoMap.containsKey("Weight"));
+      assertEquals(7, infoMap.size());
       assertEquals(5, server.getAttribute(name, "Capacity"));
+      ObjectName statisticsName =
+         new ObjectName("exo:service=cache,name=cacheLiveTime2s,type=statistics,portal=portal");
+      info = server.getMBeanInfo(statisticsName);
+      assertNotNull(info);
+      infoMap.clear();
+      for (MBeanAttributeInfo attributeInfo : info.getAttributes())
+      {
+         infoMap.put(attributeInfo.getName(), attributeInfo);
+      }
+      assertTrue(infoMap.containsKey("HitRatio"));
+      assertTrue(infoMap.containsKey("EvictionCount"));
+      assertTrue(infoMap.containsKey("LoadTimeP50"));
+      assertTrue(infoMap.containsKey("LoadTimeP99"));
       assertEquals(size + 7, service_.getAllCacheInstances().size());
    }
 
@@ -348,6 +364,14 @@ public class TestCacheService extends TestCase
          return null;
       }
 
+      /**
+       * @see org.exoplatform.services.cache.ExoCache#getAll(java.util.Collection)
+       */
+      public Map<Serializable, V> getAll(Collection<? extends Serializable> keys) throws NullPointerException
+      {
+         return new HashMap<Serializable, V>();
+      }
+
       /**
        * @see org.exoplatform.services.cache.ExoCache#remove(java.io.Serializable)
        */
@@ -356,6 +380,23 @@ public class TestCacheService extends TestCase
          return null;
       }
 
+      /**
+       * @see org.exoplatform.services.cache.ExoCache#removeAll(java.util.Collection)
+       */
+      public void removeAll(Collection<? extends Serializable> keys) throws NullPointerException,
+         IllegalArgumentException
+      {
+
+      }
+
+      /**
+       * @see org.exoplatform.services.cache.ExoCache#removeByPrefix(java.lang.String)
+       */
+      public void removeByPrefix(String prefix) throws NullPointerException
+      {
+
+      }
+
       /**
        * @see org.exoplatform.services.cache.ExoCache#put(java.io.Serializable, java.lang.Object)
        */
@@ -364,6 +405,14 @@ public class TestCacheService extends TestCase
 
       }
 
+      /**
+       * @see org.exoplatform.services.cache.ExoCache#put(java.io.Serializable, java.lang.Object, long)
+       */
+      public void put(Serializable key, V value, long liveTimeMillis) throws NullPointerException
+      {
+
+      }
+
       /**
        * @see org.exoplatform.services.cache.ExoCache#putMap(java.util.Map)
        */
@@ -405,6 +454,14 @@ public class TestCacheService extends TestCase
          return 0;
       }
 
+      /**
+       * @see org.exoplatform.services.cache.ExoCache#getCacheWeight()
+       */
+      public long getCacheWeight()
+      {
+         return -1;
+      }
+
       /**
        * @see org.exoplatform.services.cache.ExoCache#setMaxSize(int)
        */
@@ -443,6 +500,14 @@ public class TestCacheService extends TestCase
          return 0;
       }
 
+      /**
+       * @see org.exoplatform.services.cache.ExoCache#getStatistics()
+       */
+      public CacheStatistics getStatistics()
+      {
+         return null;
+      }
+
       /**
        * @see org.exoplatform.services.cache.ExoCache#getCachedObjects()
        */
@@ -459,6 +524,14 @@ public class TestCacheService extends TestCase
          return null;
       }
 
+      /**
+       * @see org.exoplatform.services.cache.ExoCache#openCursor(int)
+       */
+      public CacheCursor<Serializable, V> openCursor(int chunkSize)
+      {
+         return null;
+      }
+
       /**
        * @see org.exoplatform.services.cache.ExoCache#addCacheListener(org.exoplatform.services.cache.CacheListener)
        */
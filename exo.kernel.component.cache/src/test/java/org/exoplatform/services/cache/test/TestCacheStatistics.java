@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.test;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.cache.CacheStatistics;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.future.FutureExoCache;
+import org.exoplatform.services.cache.future.Loader;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @version $Id$
+ */
+public class TestCacheStatistics extends TestCase
+{
+
+   public void testCounters()
+   {
+      ConcurrentFIFOExoCache<String, String> cache = new ConcurrentFIFOExoCache<String, String>(2);
+      CacheStatistics statistics = cache.getStatistics();
+      assertEquals(0d, statistics.getHitRatio());
+      cache.put("a", "a");
+      cache.put("b", "b");
+      cache.put("c", "c");
+      assertEquals(3, statistics.getPutCount());
+      assertEquals(1, statistics.getEvictionCount());
+      assertNull(cache.get("a"));
+      assertEquals("c", cache.get("c"));
+      assertEquals(1, cache.getAll(Arrays.asList("b", "d")).size());
+      assertEquals(2, statistics.getHitCount());
+      assertEquals(2, statistics.getMissCount());
+      assertEquals(2, cache.getCacheHit());
+      assertEquals(2, cache.getCacheMiss());
+      assertEquals(0.5d, statistics.getHitRatio());
+   }
+
+   public void testExpiration() throws Exception
+   {
+      ConcurrentFIFOExoCache<String, String> cache = new ConcurrentFIFOExoCache<String, String>(10);
+      cache.setLiveTimeMillis(100);
+      cache.put("a", "a");
+      Thread.sleep(200);
+      assertNull(cache.get("a"));
+      assertEquals(1, cache.getStatistics().getEvictionCount());
+      assertEquals(1, cache.getStatistics().getMissCount());
+   }
+
+   public void testLatencies()
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>(100);
+      for (int i = 0; i < 1000; i++)
+      {
+         cache.put(i % 100, i);
+         cache.get(i % 100);
+      }
+      CacheStatistics statistics = cache.getStatistics();
+      assertTrue(statistics.getGetTimeP50() > 0);
+      assertTrue(statistics.getGetTimeP99() >= statistics.getGetTimeP50());
+      assertTrue(statistics.getPutTimeP50() > 0);
+      assertTrue(statistics.getPutTimeP99() >= statistics.getPutTimeP50());
+   }
+
+   public void testLoadTimes()
+   {
+      ConcurrentFIFOExoCache<String, String> cache = new ConcurrentFIFOExoCache<String, String>(10);
+      FutureExoCache<String, String, Object> futureCache =
+         new FutureExoCache<String, String, Object>(new Loader<String, String, Object>()
+         {
+            public String retrieve(Object context, String key) throws Exception
+            {
+               Thread.sleep(50);
+               return key;
+            }
+         }, cache);
+      CacheStatistics statistics = cache.getStatistics();
+      assertEquals(0d, statistics.getLoadTimeP50());
+      assertEquals("a", futureCache.get(null, "a"));
+      assertEquals("a", futureCache.get(null, "a"));
+      assertEquals("b", futureCache.get(null, "b"));
+      assertEquals(2, statistics.getLoadCount());
+      // The estimation is at most 12.5% away from the real duration
+      assertTrue("Unexpected load time " + statistics.getLoadTimeP50(), statistics.getLoadTimeP50() >= 43);
+      assertTrue(statistics.getLoadTimeP99() >= statistics.getLoadTimeP50());
+      assertEquals(1, statistics.getHitCount());
+      assertEquals(2, statistics.getMissCount());
+   }
+
+   public void testReset()
+   {
+      ConcurrentFIFOExoCache<String, String> cache = new ConcurrentFIFOExoCache<String, String>(10);
+      cache.put("a", "a");
+      cache.get("a");
+      cache.get("b");
+      CacheStatistics statistics = cache.getStatistics();
+      statistics.reset();
+      assertEquals(0, statistics.getHitCount());
+      assertEquals(0, statistics.getMissCount());
+      assertEquals(0, statistics.getPutCount());
+      assertEquals(0d, statistics.getHitRatio());
+      assertEquals(0, cache.getCacheHit());
+   }
+
+   public void testConcurrency() throws Exception
+   {
+      final ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>(100);
+      for (int i = 0; i < 50; i++)
+      {
+         cache.put(i, i);
+      }
+      final int threads = 8;
+      final int gets = 10000;
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(threads);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      for (int i = 0; i < threads; i++)
+      {
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  for (int j = 0; j < gets; j++)
+                  {
+                     cache.get(j % 100);
+                  }
+               }
+               catch (Throwable e)
+               {
+                  error.set(e);
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      doneSignal.await();
+      assertNull(error.get());
+      CacheStatistics statistics = cache.getStatistics();
+      assertEquals(threads * gets / 2, statistics.getHitCount());
+      assertEquals(threads * gets / 2, statistics.getMissCount());
+      assertEquals(0.5d, statistics.getHitRatio());
+   }
+}
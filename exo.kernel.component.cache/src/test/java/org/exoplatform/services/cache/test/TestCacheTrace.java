@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.test;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.trace.CacheSimulator;
+import org.exoplatform.services.cache.trace.TraceReader;
+import org.exoplatform.services.cache.trace.TraceRecorder;
+import org.exoplatform.services.cache.trace.TracingExoCache;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @version $Id$
+ */
+public class TestCacheTrace extends TestCase
+{
+
+   private File file;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      file = File.createTempFile("exo-cache", ".trace");
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      file.delete();
+   }
+
+   public void testRecordAndReplay() throws Exception
+   {
+      TraceRecorder recorder = new TraceRecorder(file, 1);
+      ExoCache<Integer, Integer> cache =
+         new TracingExoCache<Integer, Integer>(new ConcurrentFIFOExoCache<Integer, Integer>(50), recorder);
+      for (int i = 0; i < 1000; i++)
+      {
+         Integer key = (i * 7) % 100;
+         if (cache.get(key) == null)
+         {
+            cache.put(key, key);
+         }
+      }
+      cache.remove(1);
+      cache.clearCache();
+      recorder.close();
+
+      TraceReader reader = new TraceReader(file);
+      int gets = 0;
+      int puts = 0;
+      int others = 0;
+      try
+      {
+         assertEquals(1.0, reader.getSamplingRate());
+         while (reader.next())
+         {
+            switch (reader.getOperation())
+            {
+               case TraceRecorder.GET_HIT :
+               case TraceRecorder.GET_MISS :
+                  gets++;
+                  break;
+               case TraceRecorder.PUT :
+                  puts++;
+                  break;
+               default :
+                  others++;
+                  break;
+            }
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      assertEquals(1000, gets);
+      assertEquals(cache.getCacheMiss(), puts);
+      assertEquals(2, others);
+
+      CacheSimulator simulator = new CacheSimulator(file);
+      assertEquals(1002 + puts, simulator.getRecordCount());
+      assertEquals(100, simulator.getDistinctKeys());
+      double observed = (double)cache.getCacheHit() / 1000;
+      assertEquals(observed, simulator.getObservedHitRate(), 0.0001);
+      // The recorded cache is a FIFO cache of the same size
+      assertEquals(observed, simulator.simulate(CacheSimulator.Policy.FIFO, 50), 0.0001);
+      assertTrue(simulator.simulate(CacheSimulator.Policy.FIFO, 100) > observed);
+      assertTrue(simulator.simulate(CacheSimulator.Policy.TINY_LFU, 100) > observed);
+      int[] sizes = simulator.getDefaultSizes();
+      assertEquals(100, sizes[sizes.length - 1]);
+   }
+
+   public void testSampling() throws Exception
+   {
+      TraceRecorder recorder = new TraceRecorder(file, 0.25);
+      ExoCache<String, String> cache =
+         new TracingExoCache<String, String>(new ConcurrentFIFOExoCache<String, String>(100000), recorder);
+      for (int i = 0; i < 10000; i++)
+      {
+         String key = "key" + i;
+         cache.get(key);
+         cache.put(key, key);
+         cache.get(key);
+      }
+      recorder.close();
+
+      // Either all the accesses to a key are recorded or none of them
+      Map<Integer, Integer> accesses = new HashMap<Integer, Integer>();
+      TraceReader reader = new TraceReader(file);
+      try
+      {
+         while (reader.next())
+         {
+            Integer count = accesses.get(reader.getKeyHash());
+            accesses.put(reader.getKeyHash(), count == null ? 1 : count + 1);
+         }
+      }
+      finally
+      {
+         reader.close();
+      }
+      assertTrue("Unexpected amount of sampled keys " + accesses.size(), accesses.size() > 2000
+         && accesses.size() < 3000);
+      for (Integer count : accesses.values())
+      {
+         assertEquals(3, count.intValue());
+      }
+      CacheSimulator simulator = new CacheSimulator(file);
+      assertEquals(0.5, simulator.getObservedHitRate(), 0.0001);
+      assertEquals(0.5, simulator.simulate(CacheSimulator.Policy.FIFO, 10000), 0.0001);
+   }
+}
@@ -20,19 +20,32 @@ package org.exoplatform.services.cache.test;
 
 import junit.framework.TestCase;
 
+import org.exoplatform.services.cache.CacheCursor;
 import org.exoplatform.services.cache.CacheListener;
 import org.exoplatform.services.cache.CacheListenerContext;
 import org.exoplatform.services.cache.CachedObjectSelector;
 import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExpireKeyStartWithSelector;
 import org.exoplatform.services.cache.ObjectCacheInfo;
+import org.exoplatform.services.cache.SerializationWeigher;
+import org.exoplatform.services.cache.Weigher;
 import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.concurrent.ListenerOverflowPolicy;
 
+import java.io.File;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author <a href="mailto:julien.viet@exoplatform.com">Julien Viet</a>
@@ -190,6 +203,74 @@ public class TestConcurrentCache extends TestCase
       cache.assertExpire("Foo", v1).assertEmpty();
    }
 
+   public void testPutWithLiveTime()
+   {
+      CacheHelper<String, Object> cache = new CacheHelper<String, Object>(10);
+      cache.setLiveTimeMillis(60000);
+      cache.put("Foo", v1, 15);
+      cache.put("Bar", v2);
+      cache.put("Juu", v3, -1);
+      cache.put("Daa", v4, 0);
+      cache.assertPut("Foo", v1).assertPut("Bar", v2).assertPut("Juu", v3).assertEmpty();
+      assertEquals(3, cache.getCacheSize());
+      waitFor(25);
+      assertEquals(null, cache.get("Foo"));
+      cache.assertExpire("Foo", v1).assertEmpty();
+      assertEquals(v2, cache.get("Bar"));
+      assertEquals(v3, cache.get("Juu"));
+      assertEquals(null, cache.get("Daa"));
+      cache.setLiveTimeMillis(0);
+      cache.put("Daa", v4, 60000);
+      assertEquals(v4, cache.get("Daa"));
+      cache.assertConsistent();
+   }
+
+   public void testActiveExpiration()
+   {
+      CacheHelper<String, Object> cache = new CacheHelper<String, Object>();
+      cache.setActiveExpiration(true);
+      cache.setLiveTimeMillis(15);
+      cache.put("Foo", v1);
+      cache.assertPut("Foo", v1).assertEmpty();
+      waitFor(300);
+      cache.setLiveTimeMillis(60000);
+      cache.put("Bar", v2);
+      cache.assertExpire("Foo", v1).assertPut("Bar", v2).assertEmpty();
+      assertEquals(1, cache.getCacheSize());
+      cache.expireEntries();
+      cache.assertEmpty();
+      assertEquals(v2, cache.get("Bar"));
+      cache.setLiveTimeMillis(15);
+      cache.put("Juu", v3);
+      cache.assertGet("Bar", v2).assertPut("Juu", v3).assertEmpty();
+      waitFor(300);
+      cache.expireEntries();
+      cache.assertExpire("Juu", v3).assertEmpty();
+      assertEquals(1, cache.getCacheSize());
+      cache.assertConsistent();
+      cache.setActiveExpiration(false);
+   }
+
+   public void testActiveExpirationUnlink()
+   {
+      ConcurrentFIFOExoCache<String, Object> cache = new ConcurrentFIFOExoCache<String, Object>(2);
+      cache.setActiveExpiration(true);
+      cache.setLiveTimeMillis(60000);
+      cache.put("Foo", v1);
+      cache.put("Bar", v2);
+      cache.assertConsistent();
+      // The removed, replaced and evicted entries are unlinked from the timer wheel
+      cache.remove("Foo");
+      cache.assertConsistent();
+      cache.put("Bar", v3);
+      cache.assertConsistent();
+      cache.put("Juu", v1);
+      cache.put("Foo", v2);
+      cache.assertConsistent();
+      assertEquals(2, cache.getCacheSize());
+      cache.setActiveExpiration(false);
+   }
+
    public void testExpireOnRemove()
    {
       CacheHelper<String, Object> cache = new CacheHelper<String, Object>();
@@ -215,6 +296,146 @@ public class TestConcurrentCache extends TestCase
       assertEquals(expectedSet, cachedSet);
    }
 
+   public void testCursor()
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>(1000);
+      for (int i = 0; i < 250; i++)
+      {
+         cache.put(i, i);
+      }
+      try
+      {
+         cache.openCursor(0);
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+      }
+      CacheCursor<Integer, Integer> cursor = cache.openCursor(100);
+      CacheCursor<Integer, Integer> split = cursor.trySplit();
+      assertNotNull(split);
+      Map<Integer, Integer> entries = new HashMap<Integer, Integer>();
+      for (CacheCursor<Integer, Integer> c : Arrays.asList(cursor, split))
+      {
+         while (c.hasNext())
+         {
+            Map<Integer, Integer> chunk = c.next();
+            assertTrue(chunk.size() <= 100);
+            for (Map.Entry<Integer, Integer> entry : chunk.entrySet())
+            {
+               assertNull("The entry " + entry.getKey() + " was returned twice",
+                  entries.put(entry.getKey(), entry.getValue()));
+               assertEquals(entry.getKey(), entry.getValue());
+            }
+         }
+      }
+      assertEquals(250, entries.size());
+
+      // A cursor cannot be split by hash once started
+      cursor = cache.openCursor(10);
+      cursor.next();
+      assertNull(cursor.trySplit());
+      cursor.close();
+      assertFalse(cursor.hasNext());
+   }
+
+   public void testSnapshot() throws Exception
+   {
+      File file = File.createTempFile("cache", ".snapshot");
+      try
+      {
+         ConcurrentFIFOExoCache<String, String> cache = new ConcurrentFIFOExoCache<String, String>(10);
+         cache.put("a", "a");
+         cache.put("b", "b", 200);
+         cache.put("c", "c", -1);
+         cache.put("d", "d");
+         cache.put("e", "e", 1);
+         waitFor(10);
+         // The most recent valid entries are saved
+         assertEquals(3, cache.saveSnapshot(file, 3));
+
+         ConcurrentFIFOExoCache<String, String> loaded = new ConcurrentFIFOExoCache<String, String>(10);
+         loaded.put("d", "d2");
+         assertEquals(2, loaded.loadSnapshot(file));
+         assertNull(loaded.get("a"));
+         assertEquals("b", loaded.get("b"));
+         assertEquals("c", loaded.get("c"));
+         assertEquals("d2", loaded.get("d"));
+         assertNull(loaded.get("e"));
+         // The entries keep the time to live that they had left
+         waitFor(300);
+         assertNull(loaded.get("b"));
+         assertEquals("c", loaded.get("c"));
+         loaded.assertConsistent();
+      }
+      finally
+      {
+         file.delete();
+      }
+   }
+
+   public void testSnapshotConcurrentPut() throws Exception
+   {
+      File file = File.createTempFile("cache", ".snapshot");
+      try
+      {
+         final int size = 2000;
+         ConcurrentFIFOExoCache<Integer, String> cache = new ConcurrentFIFOExoCache<Integer, String>(size);
+         for (int i = 0; i < size; i++)
+         {
+            cache.put(i, "old");
+         }
+         assertEquals(size, cache.saveSnapshot(file, size));
+
+         for (int round = 0; round < 10; round++)
+         {
+            final ConcurrentFIFOExoCache<Integer, String> loaded =
+               new ConcurrentFIFOExoCache<Integer, String>(size);
+            final CountDownLatch loading = new CountDownLatch(1);
+            loaded.addCacheListener(new CacheListenerAdapter<Integer, String>()
+            {
+               public void onPut(CacheListenerContext context, Integer key, String obj) throws Exception
+               {
+                  loading.countDown();
+               }
+            });
+            Thread application = new Thread()
+            {
+               public void run()
+               {
+                  try
+                  {
+                     loading.await(5, TimeUnit.SECONDS);
+                  }
+                  catch (InterruptedException e)
+                  {
+                     return;
+                  }
+                  // The application puts the keys of the snapshot while it is loading
+                  for (int i = size - 1; i >= 0; i--)
+                  {
+                     loaded.put(i, "new");
+                  }
+               }
+            };
+            application.start();
+            int count = loaded.loadSnapshot(file);
+            application.join();
+            // The stale values of the snapshot never replace the ones put by the application
+            for (int i = 0; i < size; i++)
+            {
+               assertEquals("new", loaded.get(i));
+            }
+            assertTrue(count > 0);
+            loaded.assertConsistent();
+         }
+      }
+      finally
+      {
+         file.delete();
+      }
+   }
+
    public void testHitRatio()
    {
       CacheHelper<String, Object> cache = new CacheHelper<String, Object>();
@@ -236,6 +457,48 @@ public class TestConcurrentCache extends TestCase
       assertEquals(2, cache.getCacheMiss());
    }
 
+   public void testGetAll()
+   {
+      CacheHelper<String, Object> cache = new CacheHelper<String, Object>(10);
+      cache.setLiveTimeMillis(50);
+      cache.put("Foo", v1);
+      cache.put("Bar", v2);
+      Map<String, Object> values = cache.getAll(Arrays.asList("Foo", "Bar", "Juu", null));
+      assertEquals(2, values.size());
+      assertEquals(v1, values.get("Foo"));
+      assertEquals(v2, values.get("Bar"));
+      assertEquals(2, cache.getCacheHit());
+      assertEquals(1, cache.getCacheMiss());
+      waitFor(100);
+      assertTrue(cache.getAll(Arrays.asList("Foo", "Bar")).isEmpty());
+      assertEquals(2, cache.getCacheHit());
+      assertEquals(3, cache.getCacheMiss());
+      assertEquals(0, cache.getCacheSize());
+      cache.assertConsistent();
+   }
+
+   public void testRemoveAll()
+   {
+      CacheHelper<String, Object> cache = new CacheHelper<String, Object>(10);
+      cache.put("Foo", v1);
+      cache.put("Bar", v2);
+      cache.put("Juu", v3);
+      try
+      {
+         cache.removeAll(Arrays.asList("Foo", null));
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+         assertEquals(3, cache.getCacheSize());
+      }
+      cache.removeAll(Arrays.asList("Foo", "Bar", "Daa"));
+      assertEquals(1, cache.getCacheSize());
+      assertNull(cache.get("Foo"));
+      assertEquals(v3, cache.get("Juu"));
+      cache.assertConsistent();
+   }
+
    public void testSelect() throws Exception
    {
       CacheHelper<String, Object> cache = new CacheHelper<String, Object>(4);
@@ -258,6 +521,220 @@ public class TestConcurrentCache extends TestCase
       assertEquals(0, cache.getCacheSize());
    }
 
+   public void testRemoveByPrefix() throws Exception
+   {
+      CacheHelper<String, Object> cache = new CacheHelper<String, Object>(10);
+      cache.put("user1", v1);
+      cache.put("user1:a", v2);
+      cache.put("user10", v3);
+      cache.put("user2:a", v4);
+      cache.put("a\uffffb", v5);
+      try
+      {
+         cache.removeByPrefix(null);
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+         assertEquals(5, cache.getCacheSize());
+      }
+      cache.removeByPrefix("user1:");
+      assertEquals(4, cache.getCacheSize());
+      assertNull(cache.get("user1:a"));
+      assertEquals(v1, cache.get("user1"));
+      cache.removeByPrefix("user1");
+      assertEquals(2, cache.getCacheSize());
+      assertNull(cache.get("user10"));
+      assertEquals(v4, cache.get("user2:a"));
+      cache.removeByPrefix("a\uffff");
+      assertEquals(1, cache.getCacheSize());
+      cache.assertConsistent();
+
+      // The index is maintained by the writes
+      cache.put("user1:b", v1);
+      cache.remove("user2:a");
+      cache.select(new ExpireKeyStartWithSelector<String, Object>("user"));
+      assertEquals(0, cache.getCacheSize());
+
+      // The index is kept after a clear
+      cache.put("user3:a", v1);
+      cache.clearCache();
+      cache.put("user3:b", v2);
+      cache.removeByPrefix("user3");
+      assertEquals(0, cache.getCacheSize());
+      cache.assertConsistent();
+   }
+
+   public void testRemoveByPrefixConcurrency() throws Exception
+   {
+      final ConcurrentFIFOExoCache<String, Object> cache = new ConcurrentFIFOExoCache<String, Object>(100);
+      cache.removeByPrefix("");
+      final int totalThreads = 10;
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(totalThreads);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      for (int i = 0; i < totalThreads; i++)
+      {
+         final int seed = i;
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  for (int j = 0; j < 5000; j++)
+                  {
+                     int key = (j * 31 + seed) % 500;
+                     if (j % 50 == 0)
+                     {
+                        cache.removeByPrefix("user" + (key % 10) + ":");
+                     }
+                     else if (j % 3 == 0)
+                     {
+                        cache.remove("user" + (key % 10) + ":" + key);
+                     }
+                     else
+                     {
+                        cache.put("user" + (key % 10) + ":" + key, v1);
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  error.set(e);
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      doneSignal.await();
+      assertNull(error.get());
+      cache.assertConsistent();
+
+      // No entry can have been missed by the index
+      cache.removeByPrefix("user");
+      assertEquals(0, cache.getCacheSize());
+      cache.assertConsistent();
+   }
+
+   public void testBufferedQueue()
+   {
+      CacheHelper<String, Object> cache = new CacheHelper<String, Object>();
+      cache.setBufferedQueue(true);
+      cache.put("Foo", v1);
+      cache.assertPut("Foo", v1).assertEmpty();
+      cache.put("Bar", v2);
+      cache.assertPut("Bar", v2).assertEmpty();
+      cache.put("Foo", v3);
+      cache.assertPut("Foo", v3).assertEmpty();
+      cache.put("Juu", v4);
+      cache.assertExpire("Bar", v2).assertPut("Juu", v4).assertEmpty();
+      assertEquals(v3, cache.get("Foo"));
+      assertEquals(null, cache.get("Bar"));
+      assertEquals(v4, cache.get("Juu"));
+      assertEquals(v3, cache.remove("Foo"));
+      cache.assertGet("Foo", v3).assertGet("Juu", v4).assertRemove("Foo", v3).assertEmpty();
+      assertEquals(null, cache.remove("Foo"));
+      assertEquals(1, cache.getCacheSize());
+      cache.assertConsistent();
+   }
+
+   public void testBufferedQueueConcurrency() throws Exception
+   {
+      final ConcurrentFIFOExoCache<Integer, Object> cache = new ConcurrentFIFOExoCache<Integer, Object>(100);
+      cache.setBufferedQueue(true);
+      final int totalThreads = 10;
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(totalThreads);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      for (int i = 0; i < totalThreads; i++)
+      {
+         final int seed = i;
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  for (int j = 0; j < 5000; j++)
+                  {
+                     Integer key = (j * 31 + seed) % 500;
+                     if (j % 3 == 0)
+                     {
+                        cache.remove(key);
+                     }
+                     else
+                     {
+                        cache.put(key, v1);
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  error.set(e);
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      doneSignal.await();
+      assertNull(error.get());
+      cache.put(-1, v2);
+      assertTrue(cache.getCacheSize() <= 100);
+      cache.assertConsistent();
+   }
+
+   public void testMaxWeight()
+   {
+      CacheHelper<String, Object> cache = new CacheHelper<String, Object>();
+      cache.setMaxSize(10);
+      assertEquals(-1, cache.getCacheWeight());
+      cache.setWeigher(new Weigher<String, Object>()
+      {
+         public int weigh(String key, Object value)
+         {
+            return ((String)value).length();
+         }
+      });
+      cache.setMaxWeight(10);
+      cache.put("a", "aaaa");
+      cache.put("b", "bbbb");
+      assertEquals(8, cache.getCacheWeight());
+      cache.assertPut("a", "aaaa").assertPut("b", "bbbb").assertEmpty();
+      cache.put("c", "cccc");
+      cache.assertExpire("a", "aaaa").assertPut("c", "cccc").assertEmpty();
+      assertEquals(8, cache.getCacheWeight());
+      assertEquals(2, cache.getCacheSize());
+      cache.put("b", "bb");
+      assertEquals(6, cache.getCacheWeight());
+      assertEquals("bb", cache.remove("b"));
+      assertEquals(4, cache.getCacheWeight());
+      cache.put("d", "dddddddddddd");
+      assertEquals(0, cache.getCacheWeight());
+      assertEquals(0, cache.getCacheSize());
+      cache.assertConsistent();
+   }
+
+   public void testSerializationWeigher()
+   {
+      SerializationWeigher weigher = new SerializationWeigher();
+      int small = weigher.weigh("a", "a");
+      int big = weigher.weigh("a", new String(new char[1000]));
+      assertTrue(small > 0);
+      assertTrue(big > small + 1000);
+      assertEquals(1, weigher.weigh("a", new Object()));
+   }
+
    private void waitFor(long millis)
    {
       try
@@ -270,6 +747,161 @@ public class TestConcurrentCache extends TestCase
       }
    }
 
+   public void testAsyncListeners() throws Exception
+   {
+      // Nothing is evicted and the queue can hold all the events so that none of them is dropped
+      ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>(100);
+      cache.setListenerQueue(128, null);
+      assertEquals(128, cache.getListenerQueueSize());
+      RecordingListener listener = new RecordingListener(100, null);
+      cache.addCacheListener(listener);
+      for (int i = 0; i < 100; i++)
+      {
+         cache.put(i, i);
+      }
+      assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+      assertEquals(0, cache.getStatistics().getDroppedEventCount());
+      // The events are delivered in order by the dispatcher
+      for (int i = 0; i < 100; i++)
+      {
+         assertEquals(Integer.valueOf(i), listener.keys.get(i));
+      }
+      assertTrue(listener.threads.size() > 0);
+      for (String thread : listener.threads)
+      {
+         assertTrue(thread, thread.startsWith("exo-cache-listener-dispatcher"));
+      }
+      cache.setListenerQueue(0, null);
+      assertEquals(0, cache.getListenerQueueSize());
+   }
+
+   public void testAsyncListenersDiscard() throws Exception
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>(100);
+      cache.setListenerQueue(4, ListenerOverflowPolicy.DISCARD);
+      CountDownLatch release = new CountDownLatch(1);
+      RecordingListener listener = new RecordingListener(-1, release);
+      cache.addCacheListener(listener);
+      for (int i = 0; i < 20; i++)
+      {
+         cache.put(i, i);
+      }
+      long dropped = cache.getStatistics().getDroppedEventCount();
+      assertTrue(dropped > 0);
+      release.countDown();
+      waitForEvents(listener, 20 - (int)dropped);
+      assertEquals(Integer.valueOf(0), listener.keys.get(0));
+   }
+
+   public void testAsyncListenersDiscardOldest() throws Exception
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>(100);
+      cache.setListenerQueue(4, ListenerOverflowPolicy.DISCARD_OLDEST);
+      CountDownLatch release = new CountDownLatch(1);
+      RecordingListener listener = new RecordingListener(-1, release);
+      cache.addCacheListener(listener);
+      for (int i = 0; i < 20; i++)
+      {
+         cache.put(i, i);
+      }
+      long dropped = cache.getStatistics().getDroppedEventCount();
+      assertTrue(dropped > 0);
+      release.countDown();
+      waitForEvents(listener, 20 - (int)dropped);
+      // The most recent event is never dropped
+      assertEquals(Integer.valueOf(19), listener.keys.get(listener.keys.size() - 1));
+   }
+
+   public void testAsyncListenersCallerRuns() throws Exception
+   {
+      ConcurrentFIFOExoCache<Integer, Integer> cache = new ConcurrentFIFOExoCache<Integer, Integer>(100);
+      cache.setListenerQueue(4, ListenerOverflowPolicy.CALLER_RUNS);
+      final CountDownLatch release = new CountDownLatch(1);
+      RecordingListener listener = new RecordingListener(-1, release);
+      cache.addCacheListener(listener);
+      // Release the dispatcher once the caller has delivered some events itself
+      cache.addCacheListener(new CacheListenerAdapter<Integer, Integer>()
+      {
+         public void onPut(CacheListenerContext context, Integer key, Integer obj) throws Exception
+         {
+            if (!Thread.currentThread().getName().startsWith("exo-cache-listener-dispatcher"))
+            {
+               release.countDown();
+            }
+         }
+      });
+      for (int i = 0; i < 20; i++)
+      {
+         cache.put(i, i);
+      }
+      waitForEvents(listener, 20);
+      assertEquals(0, cache.getStatistics().getDroppedEventCount());
+      assertTrue(listener.threads.contains(Thread.currentThread().getName()));
+   }
+
+   private static void waitForEvents(RecordingListener listener, int count) throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + 5000;
+      while (listener.keys.size() < count && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(10);
+      }
+      assertEquals(count, listener.keys.size());
+   }
+
+   private static class RecordingListener extends CacheListenerAdapter<Integer, Integer>
+   {
+
+      private final List<Integer> keys = new CopyOnWriteArrayList<Integer>();
+
+      private final Set<String> threads = new CopyOnWriteArraySet<String>();
+
+      private final CountDownLatch done;
+
+      private final CountDownLatch release;
+
+      RecordingListener(int expected, CountDownLatch release)
+      {
+         this.done = new CountDownLatch(Math.max(expected, 0));
+         this.release = release;
+      }
+
+      public void onPut(CacheListenerContext context, Integer key, Integer obj) throws Exception
+      {
+         if (release != null && Thread.currentThread().getName().startsWith("exo-cache-listener-dispatcher"))
+         {
+            // Simulates a slow listener
+            release.await(5, TimeUnit.SECONDS);
+         }
+         keys.add(key);
+         threads.add(Thread.currentThread().getName());
+         done.countDown();
+      }
+   }
+
+   private static class CacheListenerAdapter<K extends Serializable, V> implements CacheListener<K, V>
+   {
+      public void onExpire(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onRemove(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onPut(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onGet(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onClearCache(CacheListenerContext context) throws Exception
+      {
+      }
+   }
+
    private static class CacheHelper<K extends Serializable, V> extends ConcurrentFIFOExoCache<K, V> implements
       CacheListener<K, V>
    {
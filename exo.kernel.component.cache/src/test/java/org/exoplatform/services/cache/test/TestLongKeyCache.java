@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.test;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.cache.CacheCursor;
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.concurrent.LongKeyExoCache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @version $Id$
+ */
+public class TestLongKeyCache extends TestCase
+{
+
+   public void testKeyTypes()
+   {
+      LongKeyExoCache<Serializable, Object> cache = new LongKeyExoCache<Serializable, Object>(10);
+      cache.put(1L, "a");
+      assertNull(cache.get(null));
+      assertNull(cache.get("1"));
+      try
+      {
+         cache.put(null, new Object());
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+         assertEquals(1, cache.getCacheSize());
+      }
+      try
+      {
+         cache.put("1", new Object());
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+         assertEquals(1, cache.getCacheSize());
+      }
+      try
+      {
+         cache.remove(null);
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+         assertEquals(1, cache.getCacheSize());
+      }
+      assertNull(cache.remove("1"));
+
+      // A Long and an Integer of the same value are distinct keys
+      cache.put(1, "b");
+      assertEquals("a", cache.get(1L));
+      assertEquals("b", cache.get(1));
+      assertEquals(2, cache.getCacheSize());
+      assertEquals("b", cache.remove(1));
+      assertEquals("a", cache.get(1L));
+      cache.assertConsistent();
+   }
+
+   public void testPutGetRemove()
+   {
+      LongKeyExoCache<Long, String> cache = new LongKeyExoCache<Long, String>(10);
+      cache.put(Long.MIN_VALUE, "min");
+      cache.put(0L, "a1");
+      assertEquals("a1", cache.get(0L));
+      cache.put(0L, "a2");
+      assertEquals("a2", cache.get(0L));
+      assertEquals("min", cache.get(Long.MIN_VALUE));
+      assertEquals(2, cache.getCacheSize());
+      assertEquals("a2", cache.remove(0L));
+      assertNull(cache.get(0L));
+      assertEquals(1, cache.getCacheSize());
+      assertEquals(3, cache.getCacheHit());
+      assertEquals(1, cache.getCacheMiss());
+      cache.assertConsistent();
+   }
+
+   public void testMaxSize()
+   {
+      final AtomicInteger expired = new AtomicInteger();
+      final AtomicReference<Long> lastExpired = new AtomicReference<Long>();
+      LongKeyExoCache<Long, Long> cache = new LongKeyExoCache<Long, Long>(200);
+      cache.addCacheListener(new CacheListenerAdapter<Long, Long>()
+      {
+         public void onExpire(CacheListenerContext context, Long key, Long obj) throws Exception
+         {
+            expired.incrementAndGet();
+            lastExpired.set(key);
+            assertEquals(key, obj);
+         }
+      });
+      for (long i = 0; i < 1000; i++)
+      {
+         cache.put(i, i);
+      }
+      assertEquals(200, cache.getCacheSize());
+      assertEquals(800, expired.get());
+      cache.assertConsistent();
+
+      //
+      cache.setMaxSize(150);
+      assertEquals(150, cache.getCacheSize());
+      assertEquals(850, expired.get());
+      cache.assertConsistent();
+
+      // The storage is rebuilt when the amount of segments changes
+      cache.setMaxSize(5);
+      assertEquals(5, cache.getCacheSize());
+      assertEquals(995, expired.get());
+      cache.assertConsistent();
+
+      // The oldest entries are evicted first
+      for (long i = 0; i < 10; i++)
+      {
+         cache.put(i, i);
+      }
+      for (long i = 5; i < 10; i++)
+      {
+         assertEquals(Long.valueOf(i), cache.get(i));
+      }
+      cache.put(5L, 5L);
+      cache.put(10L, 10L);
+      assertEquals(Long.valueOf(6), lastExpired.get());
+      assertEquals(Long.valueOf(5), cache.get(5L));
+      cache.assertConsistent();
+   }
+
+   public void testRebuild()
+   {
+      final AtomicInteger expired = new AtomicInteger();
+      LongKeyExoCache<Long, Long> cache = new LongKeyExoCache<Long, Long>(100);
+      cache.addCacheListener(new CacheListenerAdapter<Long, Long>()
+      {
+         public void onExpire(CacheListenerContext context, Long key, Long obj) throws Exception
+         {
+            expired.incrementAndGet();
+            assertEquals(key, obj);
+         }
+      });
+      for (long i = 0; i < 100; i++)
+      {
+         cache.put(i, i);
+      }
+      cache.put(100L, 100L, 100000);
+
+      // More segments are needed, the entries are moved into the new storage
+      cache.setMaxSize(1000);
+      assertEquals(100, cache.getCacheSize());
+      assertEquals(1, expired.get());
+      for (long i = 1; i <= 100; i++)
+      {
+         assertEquals(Long.valueOf(i), cache.get(i));
+      }
+      cache.assertConsistent();
+      for (long i = 101; i < 200; i++)
+      {
+         cache.put(i, i);
+      }
+      assertEquals(199, cache.getCacheSize());
+
+      // Less segments are needed, the entries that don't fit anymore are evicted and notified
+      cache.setMaxSize(64);
+      assertEquals(64, cache.getCacheSize());
+      assertEquals(136, expired.get());
+      cache.assertConsistent();
+      int found = 0;
+      for (long i = 1; i < 200; i++)
+      {
+         if (cache.get(i) != null)
+         {
+            found++;
+         }
+      }
+      assertEquals(64, found);
+   }
+
+   public void testRemovedSlots()
+   {
+      LongKeyExoCache<Integer, Integer> cache = new LongKeyExoCache<Integer, Integer>(100000);
+      for (int round = 0; round < 20; round++)
+      {
+         for (int i = 0; i < 500; i++)
+         {
+            cache.put(round * 1000 + i, i);
+         }
+         for (int i = 0; i < 500; i += 2)
+         {
+            assertEquals(Integer.valueOf(i), cache.remove(round * 1000 + i));
+         }
+         cache.assertConsistent();
+      }
+      for (int round = 18; round < 20; round++)
+      {
+         for (int i = 1; i < 500; i += 2)
+         {
+            assertEquals(Integer.valueOf(i), cache.get(round * 1000 + i));
+         }
+      }
+      assertEquals(5000, cache.getCacheSize());
+   }
+
+   public void testLiveTime() throws Exception
+   {
+      LongKeyExoCache<Long, String> cache = new LongKeyExoCache<Long, String>(10);
+      cache.setLiveTimeMillis(200);
+      cache.put(1L, "a");
+      assertEquals("a", cache.get(1L));
+      Thread.sleep(300);
+      assertNull(cache.get(1L));
+      assertEquals(0, cache.getCacheSize());
+      cache.assertConsistent();
+   }
+
+   public void testPutWithLiveTime() throws Exception
+   {
+      LongKeyExoCache<Long, String> cache = new LongKeyExoCache<Long, String>(10);
+      cache.put(1L, "a", 200);
+      cache.put(2L, "b");
+      cache.put(3L, "c", -1);
+      cache.put(4L, "d", 0);
+      assertEquals(3, cache.getCacheSize());
+      Thread.sleep(300);
+      assertNull(cache.get(1L));
+      assertEquals("b", cache.get(2L));
+      assertEquals("c", cache.get(3L));
+      assertNull(cache.get(4L));
+      assertEquals(2, cache.getCacheSize());
+      assertEquals(2, cache.getCachedObjects().size());
+      cache.assertConsistent();
+   }
+
+   public void testClearCache()
+   {
+      LongKeyExoCache<Long, String> cache = new LongKeyExoCache<Long, String>(10);
+      Map<Long, String> values = new HashMap<Long, String>();
+      values.put(1L, "a");
+      values.put(2L, "b");
+      cache.putMap(values);
+      assertEquals(2, cache.getCacheSize());
+      cache.clearCache();
+      assertEquals(0, cache.getCacheSize());
+      assertNull(cache.get(1L));
+      cache.put(1L, "a");
+      assertEquals("a", cache.get(1L));
+      cache.assertConsistent();
+   }
+
+   public void testCursor()
+   {
+      LongKeyExoCache<Long, Long> cache = new LongKeyExoCache<Long, Long>(100000);
+      for (long i = 0; i < 1000; i++)
+      {
+         cache.put(i, i * 2);
+      }
+      CacheCursor<Long, Long> cursor = cache.openCursor(64);
+      List<CacheCursor<Long, Long>> cursors = new ArrayList<CacheCursor<Long, Long>>();
+      cursors.add(cursor);
+      for (CacheCursor<Long, Long> split = cursor.trySplit(); split != null; split = cursor.trySplit())
+      {
+         cursors.add(split);
+      }
+      assertTrue(cursors.size() > 1);
+      Map<Long, Long> entries = new HashMap<Long, Long>();
+      for (CacheCursor<Long, Long> c : cursors)
+      {
+         while (c.hasNext())
+         {
+            Map<Long, Long> chunk = c.next();
+            assertTrue(chunk.size() <= 64);
+            for (Map.Entry<Long, Long> entry : chunk.entrySet())
+            {
+               assertNull(entries.put(entry.getKey(), entry.getValue()));
+               assertEquals(entry.getKey() * 2, entry.getValue().longValue());
+            }
+         }
+      }
+      assertEquals(1000, entries.size());
+      cache.assertConsistent();
+   }
+
+   public void testConcurrency() throws Exception
+   {
+      final LongKeyExoCache<Long, Long> cache = new LongKeyExoCache<Long, Long>(1000);
+      final int threads = 10;
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(threads);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      for (int i = 0; i < threads; i++)
+      {
+         final int seed = i;
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  for (int j = 0; j < 20000; j++)
+                  {
+                     Long key = Long.valueOf((j * 31 + seed) % 5000);
+                     if (j % 7 == 0)
+                     {
+                        cache.remove(key);
+                     }
+                     else
+                     {
+                        Long value = cache.get(key);
+                        if (value == null)
+                        {
+                           cache.put(key, key);
+                        }
+                        else
+                        {
+                           assertEquals(key, value);
+                        }
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  error.set(e);
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      doneSignal.await();
+      assertNull(error.get());
+      assertTrue(cache.getCacheSize() <= 1000);
+      cache.assertConsistent();
+   }
+
+   private static class CacheListenerAdapter<K extends Serializable, V> implements CacheListener<K, V>
+   {
+      public void onExpire(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onRemove(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onPut(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onGet(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onClearCache(CacheListenerContext context) throws Exception
+      {
+      }
+   }
+}
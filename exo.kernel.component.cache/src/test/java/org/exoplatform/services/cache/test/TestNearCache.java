@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.test;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.invalidation.NearExoCache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @version $Id$
+ */
+public class TestNearCache extends TestCase
+{
+
+   private ConcurrentFIFOExoCache<String, Object> remote;
+
+   private NearExoCache<String, String> cache;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      remote = new ConcurrentFIFOExoCache<String, Object>("remote", 1000);
+      cache = new NearExoCache<String, String>(cast(remote), 10, 60000);
+   }
+
+   public void testLocalReads()
+   {
+      cache.put("a", "a");
+      for (int i = 0; i < 10; i++)
+      {
+         assertEquals("a", cache.get("a"));
+      }
+      assertEquals(0, remote.getCacheHit());
+      assertEquals(10, cache.getCacheHit());
+      assertEquals(1, cache.getCacheSize());
+      assertEquals(1, cache.getLocalCacheSize());
+
+      // A local copy is made when the entry is read from the decorated cache
+      NearExoCache<String, String> other = new NearExoCache<String, String>(cast(remote), 10, 60000);
+      assertEquals("a", other.get("a"));
+      assertEquals("a", other.get("a"));
+      assertEquals(1, remote.getCacheHit());
+      assertNull(other.get("b"));
+      assertEquals(1, other.getCacheMiss());
+   }
+
+   public void testInvalidation()
+   {
+      NearExoCache<String, String> other = new NearExoCache<String, String>(cast(remote), 10, 60000);
+      cache.put("a", "a1");
+      assertEquals("a1", other.get("a"));
+
+      // A put made by another node invalidates the local copy
+      other.put("a", "a2");
+      assertEquals("a2", cache.get("a"));
+      assertEquals("a2", other.get("a"));
+
+      remote.put("a", "a3");
+      assertEquals("a3", cache.get("a"));
+      assertEquals("a3", other.get("a"));
+
+      // The same version does not invalidate the local copy
+      int hits = remote.getCacheHit();
+      remote.put("a", remote.get("a"));
+      assertEquals("a3", cache.get("a"));
+      assertEquals(hits + 1, remote.getCacheHit());
+
+      other.remove("a");
+      assertNull(cache.get("a"));
+      cache.put("b", "b");
+      remote.clearCache();
+      cache.put("c", "c");
+      remote.removeAll(Arrays.asList("c"));
+      assertNull(cache.get("c"));
+   }
+
+   public void testInvalidationDuringRead()
+   {
+      final AtomicReference<String> concurrentPut = new AtomicReference<String>();
+      ConcurrentFIFOExoCache<String, Object> remote = new ConcurrentFIFOExoCache<String, Object>("remote", 1000)
+      {
+         @Override
+         public Object get(Serializable name)
+         {
+            Object value = super.get(name);
+            String key = concurrentPut.getAndSet(null);
+            if (key != null)
+            {
+               // Simulates a put made by another node while the entry is read
+               put(key, new String(key));
+            }
+            return value;
+         }
+      };
+      NearExoCache<String, String> cache = new NearExoCache<String, String>(cast(remote), 10, 60000);
+      remote.put("a", "a");
+      remote.put("b", "b");
+
+      // The put of another key does not prevent the local copy
+      concurrentPut.set("x");
+      assertEquals("a", cache.get("a"));
+      assertEquals(1, cache.getLocalCacheSize());
+      int hits = remote.getCacheHit();
+      assertEquals("a", cache.get("a"));
+      assertEquals(hits, remote.getCacheHit());
+
+      // The put of the same key does
+      concurrentPut.set("b");
+      assertEquals("b", cache.get("b"));
+      assertEquals(1, cache.getLocalCacheSize());
+      assertEquals("b", cache.get("b"));
+      assertEquals(hits + 2, remote.getCacheHit());
+   }
+
+   public void testStatistics()
+   {
+      NearExoCache<String, String> other = new NearExoCache<String, String>(cast(remote), 10, 60000);
+      cache.put("a", "a");
+      assertEquals("a", cache.get("a"));
+      assertEquals("a", other.get("a"));
+      assertEquals("a", other.get("a"));
+      assertNull(other.get("b"));
+      assertEquals(2, other.getCacheHit());
+      assertEquals(2, other.getStatistics().getHitCount());
+      assertEquals(1, other.getCacheMiss());
+      assertEquals(1, other.getStatistics().getMissCount());
+      assertEquals(2d / 3, other.getStatistics().getHitRatio(), 0.0001);
+      assertEquals(1, other.getLocalStatistics().getHitCount());
+
+      // The notifications of the puts do not count as lookups of the local copies
+      long localHits = cache.getLocalStatistics().getHitCount();
+      long localMisses = cache.getLocalStatistics().getMissCount();
+      other.put("a", "a2");
+      other.put("c", "c");
+      assertEquals(localHits, cache.getLocalStatistics().getHitCount());
+      assertEquals(localMisses, cache.getLocalStatistics().getMissCount());
+
+      other.getStatistics().reset();
+      assertEquals(0, other.getCacheHit());
+      assertEquals(0, other.getLocalStatistics().getHitCount());
+   }
+
+   public void testPlainValues() throws Exception
+   {
+      // The decorated cache can be read without the decorator
+      cache.put("a", "a");
+      cache.putMap(Collections.singletonMap("b", "b"));
+      assertEquals("a", remote.get("a"));
+      assertEquals("b", remote.get("b"));
+      remote.put("c", "c");
+      assertEquals("c", cache.get("c"));
+   }
+
+   public void testBounded() throws Exception
+   {
+      for (int i = 0; i < 100; i++)
+      {
+         cache.put("key" + i, "value" + i);
+      }
+      assertTrue(cache.getLocalCacheSize() <= 10);
+      assertEquals(100, cache.getCacheSize());
+      assertEquals("value0", cache.get("key0"));
+      Map<String, String> values = cache.getAll(Arrays.asList("key0", "key1", "key99", "missing"));
+      assertEquals(3, values.size());
+      assertEquals("value1", values.get("key1"));
+      assertEquals(100, cache.getCachedObjects().size());
+   }
+
+   public void testLocalLiveTime() throws Exception
+   {
+      NearExoCache<String, String> cache = new NearExoCache<String, String>(cast(remote), 10, 200);
+      cache.put("a", "a");
+      cache.put("b", "b", 100000);
+      cache.put("c", "c", 0);
+      assertEquals("a", cache.get("a"));
+      assertEquals(0, remote.getCacheHit());
+      Thread.sleep(300);
+      assertEquals("a", cache.get("a"));
+      assertEquals("b", cache.get("b"));
+      assertNull(cache.get("c"));
+      assertEquals(2, remote.getCacheHit());
+   }
+
+   public void testListeners() throws Exception
+   {
+      final AtomicReference<Object> put = new AtomicReference<Object>();
+      final AtomicReference<Object> removed = new AtomicReference<Object>();
+      cache.addCacheListener(new CacheListener<String, String>()
+      {
+         public void onExpire(CacheListenerContext context, String key, String obj) throws Exception
+         {
+         }
+
+         public void onRemove(CacheListenerContext context, String key, String obj) throws Exception
+         {
+            removed.set(obj);
+         }
+
+         public void onPut(CacheListenerContext context, String key, String obj) throws Exception
+         {
+            put.set(obj);
+         }
+
+         public void onGet(CacheListenerContext context, String key, String obj) throws Exception
+         {
+         }
+
+         public void onClearCache(CacheListenerContext context) throws Exception
+         {
+         }
+      });
+      cache.put("a", "a");
+      assertEquals("a", put.get());
+      assertEquals("a", cache.remove("a"));
+      assertEquals("a", removed.get());
+   }
+
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private static <K extends Serializable, V> ExoCache<K, V> cast(ExoCache cache)
+   {
+      return cache;
+   }
+}
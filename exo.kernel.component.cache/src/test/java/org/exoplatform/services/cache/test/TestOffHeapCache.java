@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.test;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.cache.CacheCursor;
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.CachedObjectSelector;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExpireKeyStartWithSelector;
+import org.exoplatform.services.cache.ObjectCacheInfo;
+import org.exoplatform.services.cache.concurrent.OffHeapExoCache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @version $Id$
+ */
+public class TestOffHeapCache extends TestCase
+{
+
+   public void testNullKey()
+   {
+      OffHeapExoCache<String, Object> cache = new OffHeapExoCache<String, Object>(10);
+      cache.put("a", "a");
+      assertNull(cache.get(null));
+      try
+      {
+         cache.put(null, "b");
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+         assertEquals(1, cache.getCacheSize());
+      }
+      try
+      {
+         cache.remove(null);
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+         assertEquals(1, cache.getCacheSize());
+      }
+   }
+
+   public void testPutGetRemove()
+   {
+      OffHeapExoCache<String, String> cache = new OffHeapExoCache<String, String>(10);
+      cache.put("a", "a1");
+      assertEquals("a1", cache.get("a"));
+      cache.put("a", "a2");
+      assertEquals("a2", cache.get("a"));
+      assertEquals(1, cache.getCacheSize());
+      assertEquals("a2", cache.remove("a"));
+      assertNull(cache.get("a"));
+      assertNull(cache.remove("a"));
+      assertEquals(0, cache.getCacheSize());
+      assertEquals(0, cache.getCacheWeight());
+      assertEquals(2, cache.getCacheHit());
+      assertEquals(1, cache.getCacheMiss());
+   }
+
+   public void testCopy()
+   {
+      OffHeapExoCache<String, ArrayList<String>> cache = new OffHeapExoCache<String, ArrayList<String>>(10);
+      ArrayList<String> value = new ArrayList<String>();
+      value.add("a");
+      cache.put("a", value);
+      value.add("b");
+      ArrayList<String> result = cache.get("a");
+      assertEquals(1, result.size());
+      result.add("c");
+      assertEquals(1, cache.get("a").size());
+   }
+
+   public void testNotSerializable()
+   {
+      OffHeapExoCache<String, Object> cache = new OffHeapExoCache<String, Object>(10);
+      cache.put("a", new Object());
+      assertNull(cache.get("a"));
+      assertEquals(0, cache.getCacheSize());
+   }
+
+   public void testMaxSize()
+   {
+      final AtomicInteger expired = new AtomicInteger();
+      OffHeapExoCache<Integer, Integer> cache = new OffHeapExoCache<Integer, Integer>(20);
+      cache.addCacheListener(new CacheListenerAdapter<Integer, Integer>()
+      {
+         public void onExpire(CacheListenerContext context, Integer key, Integer obj) throws Exception
+         {
+            assertEquals(key, obj);
+            expired.incrementAndGet();
+         }
+      });
+      for (int i = 0; i < 100; i++)
+      {
+         cache.put(i, i);
+      }
+      assertEquals(20, cache.getCacheSize());
+      assertEquals(80, expired.get());
+      // FIFO order
+      assertNull(cache.get(79));
+      assertEquals(Integer.valueOf(80), cache.get(80));
+
+      //
+      cache.setMaxSize(5);
+      assertEquals(5, cache.getCacheSize());
+      assertEquals(95, expired.get());
+   }
+
+   public void testMaxWeight()
+   {
+      OffHeapExoCache<Integer, byte[]> cache = new OffHeapExoCache<Integer, byte[]>(1000);
+      // 4 blocks of 256 bytes
+      cache.setMaxWeight(1024);
+      assertEquals(1024, cache.getMaxWeight());
+      for (int i = 0; i < 10; i++)
+      {
+         cache.put(i, new byte[300]);
+      }
+      // Each value needs 2 blocks
+      assertEquals(2, cache.getCacheSize());
+      assertNotNull(cache.get(9));
+      assertNotNull(cache.get(8));
+      assertEquals(300, cache.get(9).length);
+      assertTrue(cache.getCacheWeight() > 600);
+
+      // Too large to be stored
+      cache.put(10, new byte[2000]);
+      assertNull(cache.get(10));
+      assertEquals(2, cache.getCacheSize());
+
+      // Restores the default value
+      cache.setMaxWeight(0);
+      assertEquals(OffHeapExoCache.DEFAULT_MAX_WEIGHT, cache.getMaxWeight());
+      cache.put(10, new byte[2000]);
+      assertEquals(2000, cache.get(10).length);
+   }
+
+   public void testRebuild()
+   {
+      OffHeapExoCache<Integer, Integer> cache = new OffHeapExoCache<Integer, Integer>(1000);
+      final AtomicInteger expired = new AtomicInteger();
+      cache.addCacheListener(new CacheListenerAdapter<Integer, Integer>()
+      {
+         public void onExpire(CacheListenerContext context, Integer key, Integer obj) throws Exception
+         {
+            expired.incrementAndGet();
+         }
+      });
+      for (int i = 0; i < 500; i++)
+      {
+         cache.put(i, i);
+      }
+      assertEquals(500, cache.getCacheSize());
+
+      // More segments are needed, the entries are moved into the new storage
+      cache.setMaxSize(10000);
+      assertEquals(500, cache.getCacheSize());
+      for (int i = 0; i < 500; i++)
+      {
+         assertEquals(Integer.valueOf(i), cache.get(i));
+      }
+
+      // The entries that don't fit anymore are evicted and notified
+      cache.setMaxWeight(64 * 1024);
+      assertEquals(256, cache.getCacheSize());
+      assertEquals(244, expired.get());
+      cache.setMaxSize(10);
+      assertEquals(10, cache.getCacheSize());
+      assertEquals(490, expired.get());
+   }
+
+   public void testLargeValues()
+   {
+      OffHeapExoCache<Integer, byte[]> cache = new OffHeapExoCache<Integer, byte[]>(1000);
+      for (int i = 0; i < 100; i++)
+      {
+         byte[] value = new byte[i * 100 + 1];
+         value[value.length - 1] = (byte)i;
+         cache.put(i, value);
+      }
+      for (int i = 0; i < 100; i++)
+      {
+         cache.remove(i * 2);
+      }
+      for (int i = 100; i < 150; i++)
+      {
+         byte[] value = new byte[i * 10 + 1];
+         value[value.length - 1] = (byte)i;
+         cache.put(i, value);
+      }
+      for (int i = 0; i < 150; i++)
+      {
+         byte[] value = cache.get(i);
+         if (i < 100 && i % 2 == 0)
+         {
+            assertNull(value);
+         }
+         else
+         {
+            assertEquals(i < 100 ? i * 100 + 1 : i * 10 + 1, value.length);
+            assertEquals((byte)i, value[value.length - 1]);
+         }
+      }
+   }
+
+   public void testLiveTime() throws Exception
+   {
+      final AtomicInteger expired = new AtomicInteger();
+      OffHeapExoCache<String, String> cache = new OffHeapExoCache<String, String>(10);
+      cache.addCacheListener(new CacheListenerAdapter<String, String>()
+      {
+         public void onExpire(CacheListenerContext context, String key, String obj) throws Exception
+         {
+            assertEquals("a", obj);
+            expired.incrementAndGet();
+         }
+      });
+      cache.setLiveTimeMillis(200);
+      cache.put("a", "a");
+      assertEquals("a", cache.get("a"));
+      Thread.sleep(300);
+      assertNull(cache.get("a"));
+      assertEquals(0, cache.getCacheSize());
+      assertEquals(1, expired.get());
+   }
+
+   public void testPutWithLiveTime() throws Exception
+   {
+      OffHeapExoCache<String, String> cache = new OffHeapExoCache<String, String>(10);
+      cache.setLiveTimeMillis(200);
+      cache.put("a", "a");
+      cache.put("b", "b", 60000);
+      cache.put("c", "c", 0);
+      assertEquals(2, cache.getCacheSize());
+      Thread.sleep(300);
+      assertNull(cache.get("a"));
+      assertEquals("b", cache.get("b"));
+      assertNull(cache.get("c"));
+      assertEquals(1, cache.getCacheSize());
+   }
+
+   public void testSelect() throws Exception
+   {
+      OffHeapExoCache<String, String> cache = new OffHeapExoCache<String, String>(10);
+      cache.put("a", "a");
+      cache.put("b", "b");
+      final List<String> selected = new ArrayList<String>();
+      cache.select(new CachedObjectSelector<String, String>()
+      {
+         public boolean select(String key, ObjectCacheInfo<? extends String> ocinfo)
+         {
+            return key.equals("a");
+         }
+
+         public void onSelect(ExoCache<? extends String, ? extends String> cache, String key,
+            ObjectCacheInfo<? extends String> ocinfo) throws Exception
+         {
+            selected.add(ocinfo.get());
+            cache.remove(key);
+         }
+      });
+      assertEquals(1, selected.size());
+      assertEquals("a", selected.get(0));
+      assertEquals(1, cache.getCacheSize());
+      assertEquals(1, cache.getCachedObjects().size());
+      assertEquals(1, cache.removeCachedObjects().size());
+      assertEquals(0, cache.getCacheSize());
+      assertEquals(0, cache.getCacheWeight());
+   }
+
+   public void testCursor() throws Exception
+   {
+      OffHeapExoCache<Integer, String> cache = new OffHeapExoCache<Integer, String>(2000);
+      for (int i = 0; i < 1000; i++)
+      {
+         cache.put(i, "v" + i);
+      }
+      CacheCursor<Integer, String> cursor = cache.openCursor(50);
+      Map<Integer, String> entries = new HashMap<Integer, String>(cursor.next());
+      assertEquals(50, entries.size());
+      // The segments that have not been opened yet are given to the other cursor
+      CacheCursor<Integer, String> split = cursor.trySplit();
+      assertNotNull(split);
+      for (CacheCursor<Integer, String> c : Arrays.asList(cursor, split))
+      {
+         while (c.hasNext())
+         {
+            Map<Integer, String> chunk = c.next();
+            assertTrue(chunk.size() <= 50);
+            for (Map.Entry<Integer, String> entry : chunk.entrySet())
+            {
+               assertNull("The entry " + entry.getKey() + " was returned twice",
+                  entries.put(entry.getKey(), entry.getValue()));
+            }
+         }
+      }
+      assertEquals(1000, entries.size());
+      for (int i = 0; i < 1000; i++)
+      {
+         assertEquals("v" + i, entries.get(i));
+      }
+
+      // The removed entries are skipped
+      cursor = cache.openCursor(1000);
+      for (int i = 0; i < 1000; i += 2)
+      {
+         cache.remove(i);
+      }
+      int count = 0;
+      while (cursor.hasNext())
+      {
+         for (Integer key : cursor.next().keySet())
+         {
+            assertEquals(1, key % 2);
+            count++;
+         }
+      }
+      assertEquals(500, count);
+   }
+
+   public void testRemoveByPrefix() throws Exception
+   {
+      final List<String> removed = new ArrayList<String>();
+      OffHeapExoCache<String, String> cache = new OffHeapExoCache<String, String>(1000);
+      cache.addCacheListener(new CacheListenerAdapter<String, String>()
+      {
+         public void onRemove(CacheListenerContext context, String key, String obj) throws Exception
+         {
+            removed.add(obj);
+         }
+      });
+      for (int i = 0; i < 100; i++)
+      {
+         cache.put("user" + (i % 4) + ":" + i, "v" + i);
+      }
+      cache.removeByPrefix("user1:");
+      assertEquals(25, removed.size());
+      assertEquals(75, cache.getCacheSize());
+      assertNull(cache.get("user1:1"));
+      assertEquals("v2", cache.get("user2:2"));
+
+      // The index is maintained by the writes
+      cache.put("user1:1", "v");
+      cache.remove("user2:2");
+      cache.select(new ExpireKeyStartWithSelector<String, String>("user"));
+      assertEquals(0, cache.getCacheSize());
+      assertEquals(0, cache.getCacheWeight());
+   }
+
+   public void testConcurrency() throws Exception
+   {
+      final OffHeapExoCache<Integer, String> cache = new OffHeapExoCache<Integer, String>(2000);
+      final int threads = 10;
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(threads);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      for (int i = 0; i < threads; i++)
+      {
+         final int seed = i;
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  for (int j = 0; j < 5000; j++)
+                  {
+                     Integer key = (j * 31 + seed) % 3000;
+                     if (j % 7 == 0)
+                     {
+                        cache.remove(key);
+                     }
+                     else
+                     {
+                        String value = cache.get(key);
+                        if (value == null)
+                        {
+                           cache.put(key, "value-" + key);
+                        }
+                        else if (!value.equals("value-" + key))
+                        {
+                           throw new AssertionError("Unexpected value " + value + " for " + key);
+                        }
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  error.set(e);
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      doneSignal.await();
+      assertNull(error.get());
+      assertTrue(cache.getCacheSize() <= 2000);
+   }
+
+   private static class CacheListenerAdapter<K extends Serializable, V> implements CacheListener<K, V>
+   {
+      public void onExpire(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onRemove(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onPut(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onGet(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onClearCache(CacheListenerContext context) throws Exception
+      {
+      }
+   }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.test;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExpireKeyStartWithSelector;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+import org.exoplatform.services.cache.concurrent.TinyLFUExoCache;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @version $Id$
+ */
+public class TestTinyLFUCache extends TestCase
+{
+
+   public void testNullKey()
+   {
+      TinyLFUExoCache<String, Object> cache = new TinyLFUExoCache<String, Object>(10);
+      cache.put("a", "a");
+      assertNull(cache.get(null));
+      try
+      {
+         cache.put(null, new Object());
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+         assertEquals(1, cache.getCacheSize());
+      }
+      try
+      {
+         cache.remove(null);
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException ignore)
+      {
+         assertEquals(1, cache.getCacheSize());
+      }
+   }
+
+   public void testPutGetRemove()
+   {
+      TinyLFUExoCache<String, String> cache = new TinyLFUExoCache<String, String>(10);
+      cache.put("a", "a1");
+      assertEquals("a1", cache.get("a"));
+      cache.put("a", "a2");
+      assertEquals("a2", cache.get("a"));
+      assertEquals(1, cache.getCacheSize());
+      assertEquals("a2", cache.remove("a"));
+      assertNull(cache.get("a"));
+      assertEquals(0, cache.getCacheSize());
+      assertEquals(2, cache.getCacheHit());
+      assertEquals(1, cache.getCacheMiss());
+      cache.assertConsistent();
+   }
+
+   public void testMaxSize()
+   {
+      final AtomicInteger expired = new AtomicInteger();
+      TinyLFUExoCache<Integer, Integer> cache = new TinyLFUExoCache<Integer, Integer>(20);
+      cache.addCacheListener(new CacheListenerAdapter<Integer, Integer>()
+      {
+         public void onExpire(CacheListenerContext context, Integer key, Integer obj) throws Exception
+         {
+            expired.incrementAndGet();
+         }
+      });
+      for (int i = 0; i < 100; i++)
+      {
+         cache.put(i, i);
+      }
+      assertEquals(20, cache.getCacheSize());
+      assertEquals(80, expired.get());
+      cache.assertConsistent();
+
+      //
+      cache.setMaxSize(5);
+      assertEquals(5, cache.getCacheSize());
+      assertEquals(95, expired.get());
+      cache.assertConsistent();
+   }
+
+   public void testLiveTime() throws Exception
+   {
+      TinyLFUExoCache<String, String> cache = new TinyLFUExoCache<String, String>(10);
+      cache.setLiveTimeMillis(200);
+      cache.put("a", "a");
+      assertEquals("a", cache.get("a"));
+      Thread.sleep(300);
+      assertNull(cache.get("a"));
+      assertEquals(0, cache.getCacheSize());
+      cache.assertConsistent();
+   }
+
+   public void testPutWithLiveTime() throws Exception
+   {
+      TinyLFUExoCache<String, String> cache = new TinyLFUExoCache<String, String>(10);
+      cache.setLiveTimeMillis(60000);
+      cache.put("a", "a", 200);
+      cache.put("b", "b");
+      cache.put("c", "c", -1);
+      cache.put("d", "d", 0);
+      assertEquals(3, cache.getCacheSize());
+      Thread.sleep(300);
+      assertNull(cache.get("a"));
+      assertEquals("b", cache.get("b"));
+      assertEquals("c", cache.get("c"));
+      assertNull(cache.get("d"));
+      assertEquals(2, cache.getCacheSize());
+      cache.assertConsistent();
+   }
+
+   public void testScanResistance()
+   {
+      int maxSize = 100;
+      TinyLFUExoCache<Integer, Integer> tinyLFU = new TinyLFUExoCache<Integer, Integer>(maxSize);
+      ConcurrentFIFOExoCache<Integer, Integer> fifo = new ConcurrentFIFOExoCache<Integer, Integer>(maxSize);
+      int tinyLFUHits = 0;
+      int fifoHits = 0;
+      int scanKey = 1000;
+      for (int round = 0; round < 50; round++)
+      {
+         // The hot working set
+         for (int i = 0; i < 50; i++)
+         {
+            if (load(tinyLFU, i))
+            {
+               tinyLFUHits++;
+            }
+            if (load(fifo, i))
+            {
+               fifoHits++;
+            }
+         }
+         // A burst of keys that are accessed only once
+         for (int i = 0; i < 200; i++, scanKey++)
+         {
+            load(tinyLFU, scanKey);
+            load(fifo, scanKey);
+         }
+      }
+      tinyLFU.assertConsistent();
+      assertTrue("The hot entries should stay in the cache, got " + tinyLFUHits + " hits", tinyLFUHits > 2000);
+      assertTrue(tinyLFUHits > fifoHits);
+   }
+
+   public void testConcurrency() throws Exception
+   {
+      final TinyLFUExoCache<Integer, Integer> cache = new TinyLFUExoCache<Integer, Integer>(100);
+      final int threads = 10;
+      final CountDownLatch startSignal = new CountDownLatch(1);
+      final CountDownLatch doneSignal = new CountDownLatch(threads);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      for (int i = 0; i < threads; i++)
+      {
+         final int seed = i;
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  startSignal.await();
+                  for (int j = 0; j < 5000; j++)
+                  {
+                     Integer key = (j * 31 + seed) % 500;
+                     if (j % 7 == 0)
+                     {
+                        cache.remove(key);
+                     }
+                     else if (cache.get(key) == null)
+                     {
+                        cache.put(key, key);
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  error.set(e);
+               }
+               finally
+               {
+                  doneSignal.countDown();
+               }
+            }
+         }.start();
+      }
+      startSignal.countDown();
+      doneSignal.await();
+      assertNull(error.get());
+      assertTrue(cache.getCacheSize() <= 100);
+      cache.assertConsistent();
+   }
+
+   public void testClearCache()
+   {
+      TinyLFUExoCache<String, String> cache = new TinyLFUExoCache<String, String>(10);
+      Map<String, String> values = new HashMap<String, String>();
+      values.put("a", "a");
+      values.put("b", "b");
+      cache.putMap(values);
+      assertEquals(2, cache.getCacheSize());
+      cache.clearCache();
+      assertEquals(0, cache.getCacheSize());
+      assertNull(cache.get("a"));
+      cache.assertConsistent();
+   }
+
+   public void testRemoveByPrefix() throws Exception
+   {
+      final AtomicInteger removed = new AtomicInteger();
+      TinyLFUExoCache<String, String> cache = new TinyLFUExoCache<String, String>(10);
+      cache.addCacheListener(new CacheListenerAdapter<String, String>()
+      {
+         public void onRemove(CacheListenerContext context, String key, String obj) throws Exception
+         {
+            removed.incrementAndGet();
+         }
+      });
+      cache.put("user1:a", "a");
+      cache.put("user1:b", "b");
+      cache.put("user2:a", "c");
+      cache.removeByPrefix("user1:");
+      assertEquals(2, removed.get());
+      assertEquals(1, cache.getCacheSize());
+      assertEquals("c", cache.get("user2:a"));
+      cache.assertConsistent();
+
+      // The index is maintained by the writes and the evictions
+      for (int i = 0; i < 100; i++)
+      {
+         cache.put("user1:" + i, "v");
+      }
+      cache.assertConsistent();
+      cache.select(new ExpireKeyStartWithSelector<String, String>("user1:"));
+      for (int i = 0; i < 100; i++)
+      {
+         assertNull(cache.get("user1:" + i));
+      }
+      cache.clearCache();
+      cache.put("user3:a", "a");
+      cache.removeByPrefix("user3:");
+      assertEquals(0, cache.getCacheSize());
+      cache.assertConsistent();
+   }
+
+   private static boolean load(ExoCache<Integer, Integer> cache, Integer key)
+   {
+      if (cache.get(key) != null)
+      {
+         return true;
+      }
+      cache.put(key, key);
+      return false;
+   }
+
+   private static class CacheListenerAdapter<K extends Serializable, V> implements CacheListener<K, V>
+   {
+      public void onExpire(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onRemove(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onPut(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onGet(CacheListenerContext context, K key, V obj) throws Exception
+      {
+      }
+
+      public void onClearCache(CacheListenerContext context) throws Exception
+      {
+      }
+   }
+}
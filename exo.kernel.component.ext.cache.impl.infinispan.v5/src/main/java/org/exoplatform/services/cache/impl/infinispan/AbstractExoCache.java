@@ -19,13 +19,21 @@
 package org.exoplatform.services.cache.impl.infinispan;
 
 import org.exoplatform.commons.utils.SecurityHelper;
+import org.exoplatform.services.cache.AsyncExoCache;
+import org.exoplatform.services.cache.CacheCursor;
 import org.exoplatform.services.cache.CacheInfo;
 import org.exoplatform.services.cache.CacheListener;
 import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.CacheStatistics;
 import org.exoplatform.services.cache.CachedObjectSelector;
+import org.exoplatform.services.cache.CompletedFuture;
 import org.exoplatform.services.cache.ExoCache;
 import org.exoplatform.services.cache.ExoCacheConfig;
+import org.exoplatform.services.cache.ExpireKeyStartWithSelector;
+import org.exoplatform.services.cache.IteratorCacheCursor;
 import org.exoplatform.services.cache.ObjectCacheInfo;
+import org.exoplatform.services.cache.PrefixIndex;
+import org.exoplatform.services.cache.Weigher;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.infinispan.AdvancedCache;
@@ -33,22 +41,34 @@ import org.infinispan.Cache;
 import org.infinispan.context.Flag;
 import org.infinispan.notifications.Listener;
 import org.infinispan.notifications.cachelistener.annotation.CacheEntriesEvicted;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryLoaded;
 import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
 import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
 import org.infinispan.notifications.cachelistener.event.CacheEntriesEvictedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryInvalidatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryLoadedEvent;
 import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
 import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import org.infinispan.util.concurrent.FutureListener;
+import org.infinispan.util.concurrent.NotifyingFuture;
 
 import java.io.Serializable;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An {@link org.exoplatform.services.cache.ExoCache} implementation based on {@link Cache}.
@@ -57,7 +77,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @version $Id$
  *
  */
-public abstract class AbstractExoCache<K extends Serializable, V> implements ExoCache<K, V>
+public abstract class AbstractExoCache<K extends Serializable, V> implements AsyncExoCache<K, V>
 {
 
    /**
@@ -65,9 +85,12 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
     */
    private static final Log LOG = ExoLogger.getLogger("exo.kernel.component.ext.cache.impl.infinispan.v5.AbstractExoCache"); //NOSONAR
 
-   private final AtomicInteger hits = new AtomicInteger(0);
+   /**
+    * The percentage of the max weight to which the local entries are evicted once the max weight is exceeded
+    */
+   private static final int WEIGHT_LOW_WATERMARK = 90;
 
-   private final AtomicInteger misses = new AtomicInteger(0);
+   private final CacheStatistics statistics = new CacheStatistics(this);
 
    private String label;
 
@@ -83,6 +106,30 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
 
    protected final AdvancedCache<K, V> cache;
 
+   private volatile long maxWeight;
+
+   private volatile Weigher<? super K, ? super V> weigher;
+
+   private WeightListener weightListener;
+
+   /**
+    * The total weight of the entries stored locally
+    */
+   private final AtomicLong weight = new AtomicLong();
+
+   /**
+    * The weight of the entries stored locally by key, the least recently written first. It is guarded by
+    * itself.
+    */
+   private final LinkedHashMap<Object, EntryWeight> weights = new LinkedHashMap<Object, EntryWeight>();
+
+   private final ReentrantLock weightEvictionLock = new ReentrantLock();
+
+   /**
+    * The index by prefix of the keys stored locally, null until the first removal by prefix
+    */
+   private volatile PrefixIndex<Boolean> prefixIndex;
+
    public AbstractExoCache(ExoCacheConfig config, Cache<K, V> cache)
    {
       this.cache = cache.getAdvancedCache();
@@ -112,7 +159,19 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
     */
    public void clearCache()
    {
+      PrefixIndex<Boolean> index = prefixIndex;
+      if (index != null)
+      {
+         // Cleared first so that a concurrent put can only leave a key that is no more cached
+         index.clear();
+      }
       cache.withFlags(Flag.CACHE_MODE_LOCAL).clear();
+      // No event is sent for each entry on clear
+      synchronized (weights)
+      {
+         weights.clear();
+         weight.set(0);
+      }
       onClearCache();
    }
 
@@ -126,25 +185,114 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
       {
          return null;
       }
+      long start = statistics.startTimer();
       final V result = cache.get(name);
       if (result == null)
       {
-         misses.incrementAndGet();
+         statistics.recordMiss(start);
       }
       else
       {
-         hits.incrementAndGet();
+         statistics.recordHit(start);
       }
       onGet((K)name, result);
       return result;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public Map<K, V> getAll(final Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      final Map<K, V> result = new HashMap<K, V>();
+      SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+      {
+
+         @Override
+         public Void run()
+         {
+            if (distributed)
+            {
+               // Infinispan has no bulk lookup, so one request is sent per key. They are all sent before
+               // waiting for any response so that the remote lookups overlap instead of adding up
+               Map<K, NotifyingFuture<V>> futures = new LinkedHashMap<K, NotifyingFuture<V>>();
+               for (K name : names)
+               {
+                  if (name != null && !futures.containsKey(name))
+                  {
+                     futures.put(name, cache.getAsync(name));
+                  }
+               }
+               for (Map.Entry<K, NotifyingFuture<V>> entry : futures.entrySet())
+               {
+                  result.put(entry.getKey(), getResult(entry.getValue()));
+               }
+            }
+            else
+            {
+               for (K name : names)
+               {
+                  if (name != null)
+                  {
+                     result.put(name, cache.get(name));
+                  }
+               }
+            }
+            return null;
+         }
+      });
+      int hitCount = 0;
+      int missCount = 0;
+      for (Iterator<Map.Entry<K, V>> it = result.entrySet().iterator(); it.hasNext();)
+      {
+         Map.Entry<K, V> entry = it.next();
+         K key = entry.getKey();
+         V value = entry.getValue();
+         if (value == null)
+         {
+            missCount++;
+            it.remove();
+         }
+         else
+         {
+            hitCount++;
+         }
+         onGet(key, value);
+      }
+      statistics.recordGets(hitCount, missCount);
+      return result;
+   }
+
+   /**
+    * Waits for the result of an asynchronous lookup, a lookup that failed is considered as a miss
+    */
+   private V getResult(NotifyingFuture<V> future)
+   {
+      try
+      {
+         return future.get();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException e)
+      {
+         LOG.warn("An error occurs while executing the getAll method", e.getCause());
+      }
+      return null;
+   }
+
    /**
     * {@inheritDoc}
     */
    public int getCacheHit()
    {
-      return hits.get();
+      return CacheStatistics.toInt(statistics.getHitCount());
    }
 
    /**
@@ -152,7 +300,15 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
     */
    public int getCacheMiss()
    {
-      return misses.get();
+      return CacheStatistics.toInt(statistics.getMissCount());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public CacheStatistics getStatistics()
+   {
+      return statistics;
    }
 
    /**
@@ -163,6 +319,147 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
       return cache.size();
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public long getCacheWeight()
+   {
+      return weigher == null ? -1 : weight.get();
+   }
+
+   /**
+    * Returns the maximum total weight of the entries stored locally, a value lower or equal to 0 means
+    * that the cache is not bounded by weight.
+    */
+   public long getMaxWeight()
+   {
+      return maxWeight;
+   }
+
+   /**
+    * Sets the maximum total weight of the entries stored locally. It is only taken into account if
+    * a {@link Weigher} has been set.
+    *
+    * @param maxWeight the maximum weight, a value lower or equal to 0 means that the cache is not bounded by weight
+    */
+   public void setMaxWeight(long maxWeight)
+   {
+      this.maxWeight = maxWeight;
+   }
+
+   /**
+    * Sets the weigher used to compute the weight of the entries stored locally.
+    *
+    * @param weigher the weigher or <code>null</code> to stop tracking the weight
+    */
+   public synchronized void setWeigher(Weigher<? super K, ? super V> weigher)
+   {
+      if (weigher != null && weightListener == null)
+      {
+         weightListener = new WeightListener();
+         cache.addListener(weightListener);
+      }
+      this.weigher = weigher;
+      if (weigher == null)
+      {
+         synchronized (weights)
+         {
+            weights.clear();
+            weight.set(0);
+         }
+      }
+   }
+
+   /**
+    * Evicts local entries until the total weight is back under the low watermark if the max weight
+    * has been exceeded. The least recently written entries are evicted first thanks to the weights tracked
+    * by the {@link WeightListener}, so that no entry needs to be weighed again. Nothing is done if another
+    * thread is already evicting.
+    */
+   @SuppressWarnings("unchecked")
+   protected void evictIfNeeded()
+   {
+      final long maxWeight = this.maxWeight;
+      if (maxWeight <= 0 || weigher == null || weight.get() <= maxWeight || !weightEvictionLock.tryLock())
+      {
+         return;
+      }
+      try
+      {
+         long lowWatermark = maxWeight * WEIGHT_LOW_WATERMARK / 100;
+         while (weight.get() > lowWatermark)
+         {
+            K key;
+            EntryWeight tracked;
+            synchronized (weights)
+            {
+               if (weights.isEmpty())
+               {
+                  break;
+               }
+               Map.Entry<Object, EntryWeight> eldest = weights.entrySet().iterator().next();
+               key = (K)eldest.getKey();
+               tracked = eldest.getValue();
+            }
+            // The weight is normally released by the WeightListener
+            cache.evict(key);
+            // The expired entries are purged without notification so they are forgotten here
+            forget(key, tracked);
+         }
+      }
+      finally
+      {
+         weightEvictionLock.unlock();
+      }
+   }
+
+   /**
+    * Records the weight of the new value of an entry stored locally, the entry becomes the most recently
+    * written one.
+    */
+   private void track(K key, V value)
+   {
+      Weigher<? super K, ? super V> weigher = this.weigher;
+      if (weigher == null || key == null)
+      {
+         return;
+      }
+      if (value == null)
+      {
+         forget(key, null);
+         return;
+      }
+      EntryWeight next = new EntryWeight(weigher.weigh(key, value));
+      synchronized (weights)
+      {
+         EntryWeight previous = weights.remove(key);
+         weights.put(key, next);
+         weight.addAndGet(previous == null ? next.value : next.value - previous.value);
+      }
+   }
+
+   /**
+    * Releases the weight of an entry that is no more stored locally.
+    *
+    * @param expected the tracked weight to release, <code>null</code> to release whatever is tracked
+    */
+   private void forget(Object key, EntryWeight expected)
+   {
+      if (key == null)
+      {
+         return;
+      }
+      synchronized (weights)
+      {
+         EntryWeight tracked = weights.get(key);
+         if (tracked != null && (expected == null || tracked == expected))
+         {
+            weights.remove(key);
+            weight.addAndGet(-tracked.value);
+         }
+      }
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -233,6 +530,7 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
          // ignore null values
          return;
       }
+      long start = statistics.startTimer();
       SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
       {
 
@@ -240,9 +538,11 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
          public Void run()
          {
             putOnly(key, value);
+            evictIfNeeded();
             return null;
          }
       });
+      statistics.recordPut(start);
       onPut(key, value);
    }
 
@@ -254,6 +554,49 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
       cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).put(key, value);
    }
 
+   /**
+    * {@inheritDoc}
+    * <p>
+    * The time to live is used as lifespan of the Infinispan entry.
+    */
+   public void put(final K key, final V value, final long liveTimeMillis) throws IllegalArgumentException
+   {
+      if (key == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      else if (value == null || liveTimeMillis == 0)
+      {
+         // ignore null values
+         return;
+      }
+      long start = statistics.startTimer();
+      SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+      {
+
+         @Override
+         public Void run()
+         {
+            putOnly(key, value, liveTimeMillis < 0 ? -1 : liveTimeMillis);
+            evictIfNeeded();
+            return null;
+         }
+      });
+      statistics.recordPut(start);
+      onPut(key, value);
+   }
+
+   /**
+    * Only puts the data into the cache with the given lifespan nothing more
+    *
+    * @param lifespan the lifespan in milliseconds, -1 for an immortal entry
+    */
+   protected void putOnly(K key, V value, long lifespan)
+   {
+      cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).put(key, value, lifespan,
+         TimeUnit.MILLISECONDS);
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -276,28 +619,36 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
          @Override
          public Void run()
          {
-            // Start transaction
-            cache.startBatch();
+            Map<K, V> map = new LinkedHashMap<K, V>();
             try
             {
-               // Make sure that the key and the value are valid
-               Map<K, V> map = new LinkedHashMap<K, V>();
+               // Make sure that the key and the value are valid, the null values are ignored like in put
                for (Map.Entry<? extends K, ? extends V> entry : objs.entrySet())
                {
-                  map.put(entry.getKey(), entry.getValue());
+                  V value = entry.getValue();
+                  if (value != null)
+                  {
+                     map.put(entry.getKey(), value);
+                  }
                }
-               cache.putAll(map);
-               cache.endBatch(true);
-               // End transaction
-               for (Map.Entry<? extends K, ? extends V> entry : objs.entrySet())
+               if (map.isEmpty())
                {
-                  onPut(entry.getKey(), entry.getValue());
+                  return null;
                }
+               // A single command for all the entries so that they are replicated at once, within one
+               // single implicit transaction if the cache is transactional
+               cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).putAll(map);
             }
             catch (Exception e) //NOSONAR
             {
-               cache.endBatch(false);
                LOG.warn("An error occurs while executing the putMap method", e);
+               return null;
+            }
+            statistics.recordPuts(map.size());
+            evictIfNeeded();
+            for (Map.Entry<K, V> entry : map.entrySet())
+            {
+               onPut(entry.getKey(), entry.getValue());
             }
             return null;
          }
@@ -327,6 +678,255 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
       return result;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   @SuppressWarnings("unchecked")
+   public Future<V> getAsync(final Serializable name)
+   {
+      if (name == null)
+      {
+         return new CompletedFuture<V>(null);
+      }
+      final long start = statistics.startTimer();
+      NotifyingFuture<V> future = SecurityHelper.doPrivilegedAction(new PrivilegedAction<NotifyingFuture<V>>()
+      {
+
+         @Override
+         public NotifyingFuture<V> run()
+         {
+            return cache.getAsync((K)name);
+         }
+      });
+      future.attachListener(new AsyncCallback<V>("getAsync")
+      {
+         @Override
+         void onDone(V result)
+         {
+            if (result == null)
+            {
+               statistics.recordMiss(start);
+            }
+            else
+            {
+               statistics.recordHit(start);
+            }
+            onGet((K)name, result);
+         }
+      });
+      return future;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public Future<?> putAsync(final K key, final V value) throws IllegalArgumentException
+   {
+      if (key == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      else if (value == null)
+      {
+         // ignore null values
+         return new CompletedFuture<V>(null);
+      }
+      return putAsync(key, value, new PrivilegedAction<NotifyingFuture<V>>()
+      {
+
+         @Override
+         public NotifyingFuture<V> run()
+         {
+            return cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).putAsync(key, value);
+         }
+      });
+   }
+
+   /**
+    * {@inheritDoc}
+    * <p>
+    * The time to live is used as lifespan of the Infinispan entry.
+    */
+   public Future<?> putAsync(final K key, final V value, final long liveTimeMillis) throws IllegalArgumentException
+   {
+      if (key == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      else if (value == null || liveTimeMillis == 0)
+      {
+         // ignore null values
+         return new CompletedFuture<V>(null);
+      }
+      return putAsync(key, value, new PrivilegedAction<NotifyingFuture<V>>()
+      {
+
+         @Override
+         public NotifyingFuture<V> run()
+         {
+            return cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).putAsync(key, value,
+               liveTimeMillis < 0 ? -1 : liveTimeMillis, TimeUnit.MILLISECONDS);
+         }
+      });
+   }
+
+   /**
+    * Launches the given asynchronous put then updates the statistics and notifies the listeners once the
+    * put has completed
+    */
+   private Future<?> putAsync(final K key, final V value, PrivilegedAction<NotifyingFuture<V>> action)
+   {
+      final long start = statistics.startTimer();
+      NotifyingFuture<V> future = SecurityHelper.doPrivilegedAction(action);
+      future.attachListener(new AsyncCallback<V>("putAsync")
+      {
+         @Override
+         void onDone(V result)
+         {
+            statistics.recordPut(start);
+            evictIfNeeded();
+            onPut(key, value);
+         }
+      });
+      return future;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @SuppressWarnings("unchecked")
+   public Future<V> removeAsync(final Serializable name) throws IllegalArgumentException
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      NotifyingFuture<V> future = SecurityHelper.doPrivilegedAction(new PrivilegedAction<NotifyingFuture<V>>()
+      {
+
+         @Override
+         public NotifyingFuture<V> run()
+         {
+            return cache.removeAsync(name);
+         }
+      });
+      future.attachListener(new AsyncCallback<V>("removeAsync")
+      {
+         @Override
+         void onDone(V result)
+         {
+            onRemove((K)name, result);
+         }
+      });
+      return future;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void removeAll(final Collection<? extends K> names) throws IllegalArgumentException
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      for (Serializable name : names)
+      {
+         if (name == null)
+         {
+            throw new IllegalArgumentException("No null cache key accepted");
+         }
+      }
+      final Map<K, V> removed = new LinkedHashMap<K, V>();
+      SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+      {
+
+         @Override
+         public Void run()
+         {
+            // Start transaction
+            cache.startBatch();
+            try
+            {
+               for (K name : names)
+               {
+                  removed.put(name, cache.remove(name));
+               }
+               cache.endBatch(true);
+               // End transaction
+            }
+            catch (Exception e) //NOSONAR
+            {
+               cache.endBatch(false);
+               removed.clear();
+               LOG.warn("An error occurs while executing the removeAll method", e);
+            }
+            return null;
+         }
+      });
+      for (Map.Entry<K, V> entry : removed.entrySet())
+      {
+         onRemove(entry.getKey(), entry.getValue());
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * <p>
+    * Like {@link #select(CachedObjectSelector)}, only the entries stored locally are taken into account.
+    */
+   @SuppressWarnings("unchecked")
+   public void removeByPrefix(String prefix) throws IllegalArgumentException
+   {
+      if (prefix == null)
+      {
+         throw new IllegalArgumentException("No null prefix accepted");
+      }
+      PrefixIndex<Boolean> index = getPrefixIndex();
+      List<String> keys = new ArrayList<String>(index.getEntries(prefix).keySet());
+      if (keys.isEmpty())
+      {
+         return;
+      }
+      removeAll((Collection<K>)(Collection<?>)keys);
+      for (int i = 0, length = keys.size(); i < length; i++)
+      {
+         String key = keys.get(i);
+         // The expired entries are purged without notification
+         if (!cache.getDataContainer().containsKey(key))
+         {
+            index.remove(key, Boolean.TRUE);
+         }
+      }
+   }
+
+   /**
+    * Gives the index by prefix of the keys stored locally. The first time, a {@link PrefixListener} is
+    * registered to maintain it then the keys of the data container are indexed.
+    */
+   private PrefixIndex<Boolean> getPrefixIndex()
+   {
+      PrefixIndex<Boolean> index = prefixIndex;
+      if (index == null)
+      {
+         synchronized (this)
+         {
+            index = prefixIndex;
+            if (index == null)
+            {
+               index = new PrefixIndex<Boolean>();
+               cache.addListener(new PrefixListener(index));
+               for (Object key : cache.getDataContainer().keySet())
+               {
+                  index.addIfAbsent(key, Boolean.TRUE);
+               }
+               prefixIndex = index;
+            }
+         }
+      }
+      return index;
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -337,6 +937,16 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
       return list;
    }
 
+   /**
+    * {@inheritDoc}
+    * <p>
+    * Like {@link #select(CachedObjectSelector)}, only the entries stored locally are taken into account.
+    */
+   public CacheCursor<K, V> openCursor(int chunkSize)
+   {
+      return new IteratorCacheCursor<K, V>(chunkSize, cache.entrySet().iterator());
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -346,6 +956,12 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
       {
          throw new IllegalArgumentException("No null selector");
       }
+      String prefix = ExpireKeyStartWithSelector.getKeyStartWith(selector);
+      if (prefix != null)
+      {
+         removeByPrefix(prefix);
+         return;
+      }
       for (Map.Entry<? extends K, ? extends V> entry : cache.entrySet())
       {
          K key = entry.getKey();
@@ -521,6 +1137,7 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
       {
          if (evt.isPre())
          {
+            statistics.recordEvictions(evt.getEntries().size());
             for (Map.Entry<K, V> entry : evt.getEntries().entrySet())
             {
                onExpire(entry.getKey(), entry.getValue());
@@ -551,6 +1168,164 @@ public abstract class AbstractExoCache<K extends Serializable, V> implements Exo
       }
    }
 
+   /**
+    * Keeps track of the weight of the entries stored locally
+    */
+   @Listener
+   public class WeightListener
+   {
+      @CacheEntryModified
+      public void cacheEntryModified(CacheEntryModifiedEvent<K, V> evt)
+      {
+         // The post event provides the new value
+         if (!evt.isPre())
+         {
+            track(evt.getKey(), evt.getValue());
+         }
+      }
+
+      @CacheEntryRemoved
+      public void cacheEntryRemoved(CacheEntryRemovedEvent<K, V> evt)
+      {
+         if (evt.isPre())
+         {
+            forget(evt.getKey(), null);
+         }
+      }
+
+      @CacheEntryInvalidated
+      public void cacheEntryInvalidated(CacheEntryInvalidatedEvent<K, V> evt)
+      {
+         if (evt.isPre())
+         {
+            forget(evt.getKey(), null);
+         }
+      }
+
+      @CacheEntriesEvicted
+      public void cacheEntriesEvicted(CacheEntriesEvictedEvent<K, V> evt)
+      {
+         if (evt.isPre())
+         {
+            for (K key : evt.getEntries().keySet())
+            {
+               forget(key, null);
+            }
+         }
+      }
+   }
+
+   /**
+    * The weight of an entry stored locally, it is compared by identity to know whether it has been replaced
+    */
+   private static class EntryWeight
+   {
+      final int value;
+
+      EntryWeight(int value)
+      {
+         this.value = value;
+      }
+   }
+
+   /**
+    * Maintains the index by prefix of the keys stored locally
+    */
+   @Listener
+   public class PrefixListener
+   {
+      private final PrefixIndex<Boolean> index;
+
+      PrefixListener(PrefixIndex<Boolean> index)
+      {
+         this.index = index;
+      }
+
+      @CacheEntryModified
+      public void cacheEntryModified(CacheEntryModifiedEvent<K, V> evt)
+      {
+         if (!evt.isPre())
+         {
+            index.add(evt.getKey(), Boolean.TRUE);
+         }
+      }
+
+      @CacheEntryLoaded
+      public void cacheEntryLoaded(CacheEntryLoadedEvent<K, V> evt)
+      {
+         if (!evt.isPre())
+         {
+            index.add(evt.getKey(), Boolean.TRUE);
+         }
+      }
+
+      @CacheEntryRemoved
+      public void cacheEntryRemoved(CacheEntryRemovedEvent<K, V> evt)
+      {
+         if (!evt.isPre())
+         {
+            index.remove(evt.getKey(), Boolean.TRUE);
+         }
+      }
+
+      @CacheEntryInvalidated
+      public void cacheEntryInvalidated(CacheEntryInvalidatedEvent<K, V> evt)
+      {
+         if (!evt.isPre())
+         {
+            index.remove(evt.getKey(), Boolean.TRUE);
+         }
+      }
+
+      @CacheEntriesEvicted
+      public void cacheEntriesEvicted(CacheEntriesEvictedEvent<K, V> evt)
+      {
+         for (K key : evt.getEntries().keySet())
+         {
+            index.remove(key, Boolean.TRUE);
+         }
+      }
+   }
+
+   /**
+    * Updates the statistics and notifies the listeners once an asynchronous operation has completed
+    * successfully, it is executed by the thread that completes the operation.
+    */
+   private abstract static class AsyncCallback<T> implements FutureListener<T>
+   {
+      private final String method;
+
+      AsyncCallback(String method)
+      {
+         this.method = method;
+      }
+
+      /**
+       * @see org.infinispan.util.concurrent.FutureListener#futureDone(java.util.concurrent.Future)
+       */
+      public void futureDone(Future<T> future)
+      {
+         T result;
+         try
+         {
+            result = future.get();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            return;
+         }
+         catch (ExecutionException e)
+         {
+            LOG.warn("An error occurs while executing the " + method + " method", e.getCause());
+            return;
+         }
+         onDone(result);
+      }
+
+      abstract void onDone(T result);
+   }
+
    private static class ListenerContext<K extends Serializable, V> implements CacheListenerContext, CacheInfo
    {
 
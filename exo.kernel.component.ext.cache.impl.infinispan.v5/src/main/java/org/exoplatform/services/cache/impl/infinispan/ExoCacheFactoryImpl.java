@@ -56,6 +56,11 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.MBeanServer;
 
@@ -80,6 +85,33 @@ public class ExoCacheFactoryImpl implements ExoCacheFactory
     */
    private static final String CACHE_CONFIG_TEMPLATE_KEY = "cache.config.template";
 
+   /**
+    * The initial parameter key that defines when the caches are created, the expected values are
+    * {@link #CREATION_MODE_SYNC}, {@link #CREATION_MODE_LAZY} and {@link #CREATION_MODE_PARALLEL}
+    */
+   private static final String CACHE_CREATION_MODE_KEY = "cache.creation.mode";
+
+   /**
+    * The initial parameter key that defines the maximum amount of caches created at the same time in
+    * {@link #CREATION_MODE_PARALLEL} mode, by default it is the amount of available processors
+    */
+   private static final String CACHE_CREATION_THREADS_KEY = "cache.creation.threads";
+
+   /**
+    * The default creation mode, the caches are created when the regions are requested
+    */
+   static final String CREATION_MODE_SYNC = "sync";
+
+   /**
+    * The creation mode in which the caches are created on the first access to the regions
+    */
+   static final String CREATION_MODE_LAZY = "lazy";
+
+   /**
+    * The creation mode in which the caches are created in the background as soon as the regions are requested
+    */
+   static final String CREATION_MODE_PARALLEL = "parallel";
+
    /**
     * The cache manager for the distributed cache
     */
@@ -123,6 +155,24 @@ public class ExoCacheFactoryImpl implements ExoCacheFactory
    private final Map<String, DefaultCacheManager> mappingGlobalConfigCacheManager =
       new HashMap<String, DefaultCacheManager>();
 
+   /**
+    * The mapping between the custom configuration paths and the cache managers, so that a custom configuration
+    * is parsed only once whatever the amount of regions using it
+    */
+   private final Map<String, DefaultCacheManager> mappingConfigCacheManager =
+      new HashMap<String, DefaultCacheManager>();
+
+   /**
+    * Indicates whether the regions are given as {@link LazyExoCache} instances
+    */
+   private final boolean lazy;
+
+   /**
+    * The executor in which the caches are created in {@link #CREATION_MODE_PARALLEL} mode, <code>null</code>
+    * in the other modes
+    */
+   private final ThreadPoolExecutor creationExecutor;
+
    /**
     * The default creator
     */
@@ -151,11 +201,19 @@ public class ExoCacheFactoryImpl implements ExoCacheFactory
    public ExoCacheFactoryImpl(ExoContainerContext ctx, InitParams params, ConfigurationManager configManager,
       DistributedCacheManager dcm) throws ExoCacheInitException
    {
-      this(ctx, getValueParam(params, CACHE_CONFIG_TEMPLATE_KEY), configManager, dcm);
+      this(ctx, getValueParam(params, CACHE_CONFIG_TEMPLATE_KEY), getValueParam(params, CACHE_CREATION_MODE_KEY),
+         getValueParam(params, CACHE_CREATION_THREADS_KEY), configManager, dcm);
    }
 
    public ExoCacheFactoryImpl(ExoContainerContext ctx, String cacheConfigTemplate, ConfigurationManager configManager,
       DistributedCacheManager dcm) throws ExoCacheInitException
+   {
+      this(ctx, cacheConfigTemplate, null, null, configManager, dcm);
+   }
+
+   ExoCacheFactoryImpl(ExoContainerContext ctx, String cacheConfigTemplate, String creationMode,
+      String creationThreads, ConfigurationManager configManager, DistributedCacheManager dcm)
+      throws ExoCacheInitException
    {
       this.distributedCacheManager = dcm;
       this.ctx = ctx;
@@ -164,10 +222,82 @@ public class ExoCacheFactoryImpl implements ExoCacheFactory
       {
          throw new IllegalArgumentException("The parameter '" + CACHE_CONFIG_TEMPLATE_KEY + "' must be set");
       }
+      if (creationMode == null || creationMode.equalsIgnoreCase(CREATION_MODE_SYNC))
+      {
+         this.lazy = false;
+         this.creationExecutor = null;
+      }
+      else if (creationMode.equalsIgnoreCase(CREATION_MODE_LAZY))
+      {
+         this.lazy = true;
+         this.creationExecutor = null;
+      }
+      else if (creationMode.equalsIgnoreCase(CREATION_MODE_PARALLEL))
+      {
+         this.lazy = true;
+         this.creationExecutor = createCreationExecutor(creationThreads);
+      }
+      else
+      {
+         throw new IllegalArgumentException("The parameter '" + CACHE_CREATION_MODE_KEY + "' must be one of '"
+            + CREATION_MODE_SYNC + "', '" + CREATION_MODE_LAZY + "' or '" + CREATION_MODE_PARALLEL + "', found '"
+            + creationMode + "'");
+      }
       // Initialize the main cache manager
       this.cacheManager = initCacheManager(cacheConfigTemplate);
    }
 
+   /**
+    * Creates the executor in which the caches are created in {@link #CREATION_MODE_PARALLEL} mode, its threads
+    * are released when there is no cache to create anymore
+    * @param creationThreads the maximum amount of caches created at the same time, the amount of available
+    * processors if <code>null</code>
+    */
+   private static ThreadPoolExecutor createCreationExecutor(String creationThreads)
+   {
+      int threads = Runtime.getRuntime().availableProcessors();
+      if (creationThreads != null)
+      {
+         try
+         {
+            threads = Integer.parseInt(creationThreads);
+         }
+         catch (NumberFormatException e)
+         {
+            throw new IllegalArgumentException("The parameter '" + CACHE_CREATION_THREADS_KEY
+               + "' must be an integer, found '" + creationThreads + "'", e);
+         }
+         if (threads <= 0)
+         {
+            throw new IllegalArgumentException("The parameter '" + CACHE_CREATION_THREADS_KEY
+               + "' must be positive, found '" + creationThreads + "'");
+         }
+      }
+      ThreadPoolExecutor executor =
+         new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+               private final AtomicInteger count = new AtomicInteger();
+
+               public Thread newThread(Runnable r)
+               {
+                  Thread t = new Thread(r, "exo-cache-creator-" + count.incrementAndGet());
+                  t.setDaemon(true);
+                  return t;
+               }
+            });
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+   }
+
+   /**
+    * @return the {@link DefaultCacheManager} used for the regions without custom configuration
+    */
+   DefaultCacheManager getCacheManager()
+   {
+      return cacheManager;
+   }
+
    /**
     * Initializes the {@link DefaultCacheManager}
     * @throws ExoCacheInitException if the cache manager cannot be initialized
@@ -301,9 +431,37 @@ public class ExoCacheFactoryImpl implements ExoCacheFactory
     * to an external component plugin of type ExoCacheFactoryConfigPlugin. If so we use the default cache
     * configuration defined in this file otherwise we use the default cache configuration defined in
     * "${CACHE_CONFIG_TEMPLATE_KEY}"
+    * 
+    * Out of the default creation mode, the cache is not created yet but given as a {@link LazyExoCache} whose
+    * creation starts on first access or right away in the executor of the {@link #CREATION_MODE_PARALLEL} mode.
     */
-   @SuppressWarnings({"rawtypes", "unchecked"})
    public ExoCache<Serializable, Object> createCache(final ExoCacheConfig config) throws ExoCacheInitException
+   {
+      if (!lazy)
+      {
+         return createCacheInstance(config);
+      }
+      LazyExoCache<Serializable, Object> cache =
+         new LazyExoCache<Serializable, Object>(config, new Callable<ExoCache<Serializable, Object>>()
+         {
+            public ExoCache<Serializable, Object> call() throws Exception
+            {
+               return createCacheInstance(config);
+            }
+         });
+      if (creationExecutor != null)
+      {
+         cache.start(creationExecutor);
+      }
+      return cache;
+   }
+
+   /**
+    * Creates the cache instance according to the given configuration
+    */
+   @SuppressWarnings({"rawtypes", "unchecked"})
+   private ExoCache<Serializable, Object> createCacheInstance(final ExoCacheConfig config)
+      throws ExoCacheInitException
    {
       final String region = config.getName();
       final String customConfig = mappingCacheNameConfig.get(region);
@@ -314,60 +472,7 @@ public class ExoCacheFactoryImpl implements ExoCacheFactory
          final ConfigurationBuilder confBuilder = new ConfigurationBuilder();
          if (customConfig != null)
          {
-            try
-            {
-               cacheManager =
-                  SecurityHelper.doPrivilegedExceptionAction(new PrivilegedExceptionAction<DefaultCacheManager>()
-                  {
-                     public DefaultCacheManager run() throws Exception
-                     {
-                        // A custom configuration has been set
-                        if (LOG.isInfoEnabled())
-                           LOG.info("A custom configuration has been set for the cache '" + region + "'.");
-                        ParserRegistry parser = new ParserRegistry(Thread.currentThread().getContextClassLoader());
-                        // Load the configuration
-                        ConfigurationBuilderHolder holder = parser.parse(configManager.getInputStream(customConfig));
-                        GlobalConfigurationBuilder configBuilder = holder.getGlobalConfigurationBuilder();
-                        // Configure JGroups and JMX since it could affect the state of the Global Config
-                        configureCacheManager(configBuilder);
-                        GlobalConfiguration gc = configBuilder.build();
-
-                        // Check if a CacheManager with the same GlobalConfiguration exists
-                        DefaultCacheManager currentCacheManager =
-                           mappingGlobalConfigCacheManager.get(gc.transport().clusterName());
-                        if (currentCacheManager == null)
-                        {
-                           // Use a different cache manager name to prevent naming conflict
-                           configBuilder.globalJmxStatistics().cacheManagerName(
-                              gc.globalJmxStatistics().cacheManagerName() + "_" + region + "_" + ctx.getName());
-                           // No cache manager has been defined so far for this Cache Configuration
-                           currentCacheManager =
-                              new DefaultCacheManager(configBuilder.build(), holder.getDefaultConfigurationBuilder()
-                                 .build(), false);
-                           for (Entry<String, ConfigurationBuilder> entry : holder.getNamedConfigurationBuilders().entrySet())
-                           {
-                              currentCacheManager.defineConfiguration(entry.getKey(), entry.getValue().build());
-                           }
-                           currentCacheManager.start();
-                           // We register this new cache manager
-                           mappingGlobalConfigCacheManager.put(gc.transport().clusterName(), currentCacheManager);
-                        }
-                        return currentCacheManager;
-                     }
-                  });
-            }
-            catch (PrivilegedActionException e)
-            {
-               Throwable cause = e.getCause();
-               if (cause instanceof Exception)
-               {
-                  throw (Exception)cause;//NOSONAR
-               }
-               else
-               {
-                  throw new Exception(e);
-               }
-            }
+            cacheManager = getCustomCacheManager(region, customConfig);
             confBuilder.read(cacheManager.getDefaultCacheConfiguration());
          }
          else if (config.isDistributed())
@@ -431,6 +536,13 @@ public class ExoCacheFactoryImpl implements ExoCacheFactory
                }
             }
          });
+         if (eXoCache instanceof AbstractExoCache)
+         {
+            // Bound the local entries by weight if needed
+            AbstractExoCache aCache = (AbstractExoCache)eXoCache;
+            aCache.setMaxWeight(config.getMaxWeight());
+            aCache.setWeigher(config.createWeigher());
+         }
       }
       catch (Exception e) //NOSONAR
       {
@@ -439,6 +551,80 @@ public class ExoCacheFactoryImpl implements ExoCacheFactory
       return eXoCache;
    }
 
+   /**
+    * Gives the {@link DefaultCacheManager} corresponding to the given custom configuration, the configuration
+    * is parsed and the cache manager created only for the first region using it
+    * @param region the name of the region using the custom configuration
+    * @param customConfig the path of the custom configuration
+    * @throws Exception if the custom configuration cannot be loaded or the cache manager cannot be created
+    */
+   private synchronized DefaultCacheManager getCustomCacheManager(final String region, final String customConfig)
+      throws Exception
+   {
+      DefaultCacheManager cacheManager = mappingConfigCacheManager.get(customConfig);
+      if (cacheManager != null)
+      {
+         if (LOG.isInfoEnabled())
+            LOG.info("A custom configuration has been set for the cache '" + region + "'.");
+         return cacheManager;
+      }
+      try
+      {
+         cacheManager = SecurityHelper.doPrivilegedExceptionAction(new PrivilegedExceptionAction<DefaultCacheManager>()
+         {
+            public DefaultCacheManager run() throws Exception
+            {
+               // A custom configuration has been set
+               if (LOG.isInfoEnabled())
+                  LOG.info("A custom configuration has been set for the cache '" + region + "'.");
+               ParserRegistry parser = new ParserRegistry(Thread.currentThread().getContextClassLoader());
+               // Load the configuration
+               ConfigurationBuilderHolder holder = parser.parse(configManager.getInputStream(customConfig));
+               GlobalConfigurationBuilder configBuilder = holder.getGlobalConfigurationBuilder();
+               // Configure JGroups and JMX since it could affect the state of the Global Config
+               configureCacheManager(configBuilder);
+               GlobalConfiguration gc = configBuilder.build();
+
+               // Check if a CacheManager with the same GlobalConfiguration exists
+               DefaultCacheManager currentCacheManager =
+                  mappingGlobalConfigCacheManager.get(gc.transport().clusterName());
+               if (currentCacheManager == null)
+               {
+                  // Use a different cache manager name to prevent naming conflict
+                  configBuilder.globalJmxStatistics().cacheManagerName(
+                     gc.globalJmxStatistics().cacheManagerName() + "_" + region + "_" + ctx.getName());
+                  // No cache manager has been defined so far for this Cache Configuration
+                  currentCacheManager =
+                     new DefaultCacheManager(configBuilder.build(), holder.getDefaultConfigurationBuilder()
+                        .build(), false);
+                  for (Entry<String, ConfigurationBuilder> entry : holder.getNamedConfigurationBuilders().entrySet())
+                  {
+                     currentCacheManager.defineConfiguration(entry.getKey(), entry.getValue().build());
+                  }
+                  currentCacheManager.start();
+                  // We register this new cache manager
+                  mappingGlobalConfigCacheManager.put(gc.transport().clusterName(), currentCacheManager);
+               }
+               return currentCacheManager;
+            }
+         });
+      }
+      catch (PrivilegedActionException e)
+      {
+         Throwable cause = e.getCause();
+         if (cause instanceof Exception)
+         {
+            throw (Exception)cause;//NOSONAR
+         }
+         else
+         {
+            throw new Exception(e);
+         }
+      }
+      mappingConfigCacheManager.put(customConfig, cacheManager);
+      return cacheManager;
+   }
+
    /**
     * Add a list of creators to register
     * @param plugin the plugin that contains the creators
@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.impl.infinispan;
+
+import org.exoplatform.services.cache.AsyncExoCache;
+import org.exoplatform.services.cache.CacheCursor;
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheStatistics;
+import org.exoplatform.services.cache.CachedObjectSelector;
+import org.exoplatform.services.cache.CompletedFuture;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExoCacheConfig;
+import org.exoplatform.services.cache.ForwardingCacheStatistics;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This eXo cache type stands for a region whose cache is created in the background or on first access, in order
+ * not to pay the start of all the regions during the start of the container. The accesses wait for the creation
+ * of the cache, if the creation has not been started yet, it is done by the calling thread. Until the cache is
+ * created, the name, the label, the capacity and the live time come from the configuration, the size and the
+ * counts are 0 and the listeners are kept to be added to the cache once created. The statistics are given
+ * right away so that they can be registered as a managed object, they forward to the statistics of the cache
+ * once created.
+ *
+ * @version $Id$
+ */
+class LazyExoCache<K extends Serializable, V> implements AsyncExoCache<K, V>
+{
+
+   /**
+    * The configuration of the region
+    */
+   private final ExoCacheConfig config;
+
+   /**
+    * The task creating the cache
+    */
+   private final FutureTask<ExoCache<K, V>> task;
+
+   /**
+    * The listeners added before the creation of the cache, <code>null</code> once the cache is created
+    */
+   private List<CacheListener<? super K, ? super V>> listeners = new ArrayList<CacheListener<? super K, ? super V>>();
+
+   /**
+    * The statistics of the region
+    */
+   private final CacheStatistics statistics = new LazyCacheStatistics(this);
+
+   /**
+    * @param config the configuration of the region
+    * @param creator the callable creating the cache of the region
+    */
+   LazyExoCache(ExoCacheConfig config, final Callable<ExoCache<K, V>> creator)
+   {
+      this.config = config;
+      this.task = new FutureTask<ExoCache<K, V>>(new Callable<ExoCache<K, V>>()
+      {
+         public ExoCache<K, V> call() throws Exception
+         {
+            ExoCache<K, V> cache = creator.call();
+            synchronized (LazyExoCache.this)
+            {
+               for (CacheListener<? super K, ? super V> listener : listeners)
+               {
+                  cache.addCacheListener(listener);
+               }
+               listeners = null;
+            }
+            return cache;
+         }
+      });
+   }
+
+   /**
+    * Starts the creation of the cache thanks to the given executor
+    * @param executor the executor in which the cache is created
+    */
+   void start(Executor executor)
+   {
+      executor.execute(task);
+   }
+
+   /**
+    * @return <code>true</code> if the cache has been created successfully, <code>false</code> otherwise
+    */
+   boolean isCreated()
+   {
+      return getCreatedDelegate() != null;
+   }
+
+   /**
+    * Gives the cache of the region, it is created by the calling thread if its creation has not been started yet,
+    * otherwise the calling thread waits for the end of the creation
+    * @return the cache of the region
+    * @throws IllegalStateException if the cache could not be created
+    */
+   ExoCache<K, V> getDelegate() throws IllegalStateException
+   {
+      // Does nothing if the task has already been started
+      task.run();
+      try
+      {
+         return task.get();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while waiting for the creation of the cache '"
+            + config.getName() + "'", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("The cache '" + config.getName() + "' could not be created", e.getCause());
+      }
+   }
+
+   /**
+    * @return the cache of the region if it has been created successfully, <code>null</code> otherwise
+    */
+   private ExoCache<K, V> getCreatedDelegate()
+   {
+      if (!task.isDone())
+      {
+         return null;
+      }
+      try
+      {
+         return task.get();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException e) //NOSONAR
+      {
+         // The creation failed, the error will be thrown to the next access
+      }
+      catch (CancellationException e) //NOSONAR
+      {
+         // The creation has been cancelled, the error will be thrown to the next access
+      }
+      return null;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getName()
+    */
+   public String getName()
+   {
+      ExoCache<K, V> delegate = getCreatedDelegate();
+      return delegate == null ? config.getName() : delegate.getName();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setName(java.lang.String)
+    */
+   public void setName(String name)
+   {
+      getDelegate().setName(name);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getLabel()
+    */
+   public String getLabel()
+   {
+      ExoCache<K, V> delegate = getCreatedDelegate();
+      return delegate == null ? config.getLabel() : delegate.getLabel();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setLabel(java.lang.String)
+    */
+   public void setLabel(String s)
+   {
+      getDelegate().setLabel(s);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#get(java.io.Serializable)
+    */
+   public V get(Serializable key)
+   {
+      return getDelegate().get(key);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getAll(java.util.Collection)
+    */
+   public Map<K, V> getAll(Collection<? extends K> keys) throws NullPointerException
+   {
+      return getDelegate().getAll(keys);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#remove(java.io.Serializable)
+    */
+   public V remove(Serializable key) throws NullPointerException
+   {
+      return getDelegate().remove(key);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeAll(java.util.Collection)
+    */
+   public void removeAll(Collection<? extends K> keys) throws NullPointerException, IllegalArgumentException
+   {
+      getDelegate().removeAll(keys);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeByPrefix(java.lang.String)
+    */
+   public void removeByPrefix(String prefix) throws NullPointerException
+   {
+      getDelegate().removeByPrefix(prefix);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#put(java.io.Serializable, java.lang.Object)
+    */
+   public void put(K key, V value) throws NullPointerException
+   {
+      getDelegate().put(key, value);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#put(java.io.Serializable, java.lang.Object, long)
+    */
+   public void put(K key, V value, long liveTimeMillis) throws NullPointerException
+   {
+      getDelegate().put(key, value, liveTimeMillis);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#putMap(java.util.Map)
+    */
+   public void putMap(Map<? extends K, ? extends V> objs) throws NullPointerException, IllegalArgumentException
+   {
+      getDelegate().putMap(objs);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.AsyncExoCache#getAsync(java.io.Serializable)
+    */
+   public Future<V> getAsync(Serializable key)
+   {
+      ExoCache<K, V> delegate = getDelegate();
+      if (delegate instanceof AsyncExoCache)
+      {
+         return ((AsyncExoCache<K, V>)delegate).getAsync(key);
+      }
+      return new CompletedFuture<V>(delegate.get(key));
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.AsyncExoCache#putAsync(java.io.Serializable, java.lang.Object)
+    */
+   public Future<?> putAsync(K key, V value) throws NullPointerException
+   {
+      ExoCache<K, V> delegate = getDelegate();
+      if (delegate instanceof AsyncExoCache)
+      {
+         return ((AsyncExoCache<K, V>)delegate).putAsync(key, value);
+      }
+      delegate.put(key, value);
+      return new CompletedFuture<Object>(null);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.AsyncExoCache#putAsync(java.io.Serializable, java.lang.Object, long)
+    */
+   public Future<?> putAsync(K key, V value, long liveTimeMillis) throws NullPointerException
+   {
+      ExoCache<K, V> delegate = getDelegate();
+      if (delegate instanceof AsyncExoCache)
+      {
+         return ((AsyncExoCache<K, V>)delegate).putAsync(key, value, liveTimeMillis);
+      }
+      delegate.put(key, value, liveTimeMillis);
+      return new CompletedFuture<Object>(null);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.AsyncExoCache#removeAsync(java.io.Serializable)
+    */
+   public Future<V> removeAsync(Serializable key) throws NullPointerException
+   {
+      ExoCache<K, V> delegate = getDelegate();
+      if (delegate instanceof AsyncExoCache)
+      {
+         return ((AsyncExoCache<K, V>)delegate).removeAsync(key);
+      }
+      return new CompletedFuture<V>(delegate.remove(key));
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#clearCache()
+    */
+   public void clearCache()
+   {
+      getDelegate().clearCache();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#select(org.exoplatform.services.cache.CachedObjectSelector)
+    */
+   public void select(CachedObjectSelector<? super K, ? super V> selector) throws Exception
+   {
+      getDelegate().select(selector);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheSize()
+    */
+   public int getCacheSize()
+   {
+      ExoCache<K, V> delegate = getCreatedDelegate();
+      return delegate == null ? 0 : delegate.getCacheSize();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getMaxSize()
+    */
+   public int getMaxSize()
+   {
+      ExoCache<K, V> delegate = getCreatedDelegate();
+      return delegate == null ? config.getMaxSize() : delegate.getMaxSize();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheWeight()
+    */
+   public long getCacheWeight()
+   {
+      ExoCache<K, V> delegate = getCreatedDelegate();
+      return delegate == null ? 0 : delegate.getCacheWeight();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setMaxSize(int)
+    */
+   public void setMaxSize(int max)
+   {
+      getDelegate().setMaxSize(max);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getLiveTime()
+    */
+   public long getLiveTime()
+   {
+      ExoCache<K, V> delegate = getCreatedDelegate();
+      return delegate == null ? config.getLiveTime() : delegate.getLiveTime();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setLiveTime(long)
+    */
+   public void setLiveTime(long period)
+   {
+      getDelegate().setLiveTime(period);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheHit()
+    */
+   public int getCacheHit()
+   {
+      ExoCache<K, V> delegate = getCreatedDelegate();
+      return delegate == null ? 0 : delegate.getCacheHit();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCacheMiss()
+    */
+   public int getCacheMiss()
+   {
+      ExoCache<K, V> delegate = getCreatedDelegate();
+      return delegate == null ? 0 : delegate.getCacheMiss();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getStatistics()
+    */
+   public CacheStatistics getStatistics()
+   {
+      return statistics;
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#getCachedObjects()
+    */
+   public List<? extends V> getCachedObjects() throws Exception
+   {
+      return getDelegate().getCachedObjects();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#removeCachedObjects()
+    */
+   public List<? extends V> removeCachedObjects()
+   {
+      return getDelegate().removeCachedObjects();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#openCursor(int)
+    */
+   public CacheCursor<K, V> openCursor(int chunkSize) throws IllegalArgumentException
+   {
+      return getDelegate().openCursor(chunkSize);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#addCacheListener(org.exoplatform.services.cache.CacheListener)
+    */
+   public void addCacheListener(CacheListener<? super K, ? super V> listener)
+   {
+      if (listener == null)
+      {
+         throw new IllegalArgumentException("The listener cannot be null");
+      }
+      synchronized (this)
+      {
+         if (listeners != null)
+         {
+            // The cache has not been created yet
+            listeners.add(listener);
+            return;
+         }
+      }
+      getDelegate().addCacheListener(listener);
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#isLogEnabled()
+    */
+   public boolean isLogEnabled()
+   {
+      ExoCache<K, V> delegate = getCreatedDelegate();
+      return delegate == null ? config.isLogEnabled() : delegate.isLogEnabled();
+   }
+
+   /**
+    * @see org.exoplatform.services.cache.ExoCache#setLogEnabled(boolean)
+    */
+   public void setLogEnabled(boolean b)
+   {
+      getDelegate().setLogEnabled(b);
+   }
+
+   /**
+    * The statistics of a {@link LazyExoCache}, they forward to the statistics of the cache once created. Since
+    * all the accesses create the cache first, nothing is recorded before, the counts are then all 0.
+    */
+   public static class LazyCacheStatistics extends ForwardingCacheStatistics
+   {
+      private final LazyExoCache<?, ?> cache;
+
+      /**
+       * The statistics given until the cache is created
+       */
+      private final CacheStatistics empty;
+
+      LazyCacheStatistics(LazyExoCache<?, ?> cache)
+      {
+         super(cache);
+         this.cache = cache;
+         this.empty = new CacheStatistics(cache);
+      }
+
+      /**
+       * @see org.exoplatform.services.cache.ForwardingCacheStatistics#delegate()
+       */
+      @Override
+      protected CacheStatistics delegate()
+      {
+         ExoCache<?, ?> delegate = cache.getCreatedDelegate();
+         return delegate == null ? empty : delegate.getStatistics();
+      }
+   }
+}
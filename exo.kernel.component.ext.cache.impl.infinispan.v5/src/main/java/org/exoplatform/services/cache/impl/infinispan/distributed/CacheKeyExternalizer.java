@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.impl.infinispan.distributed;
+
+import org.exoplatform.services.cache.impl.infinispan.distributed.DistributedExoCache.CacheKey;
+import org.infinispan.marshall.AbstractExternalizer;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Marshals the keys of the {@link DistributedExoCache} with the id of their region instead of its name and
+ * without the class descriptor that the default marshalling of an {@link java.io.Externalizable} writes. It
+ * has to be registered into the global configuration of the cache manager of all the nodes.
+ * <p>
+ * This wire format is not compatible with the one of the previous versions, in which the keys were written
+ * with the full name of their region, so a cluster cannot be upgraded one node at a time: all the nodes of a
+ * cluster must be stopped then restarted with the new version.
+ *
+ * @version $Id$
+ */
+@SuppressWarnings("rawtypes")
+public class CacheKeyExternalizer extends AbstractExternalizer<CacheKey>
+{
+   /**
+    * The id of the externalizer, out of the ranges reserved by Infinispan
+    */
+   public static final int ID = 17750;
+
+   /**
+    * The serial version UID
+    */
+   private static final long serialVersionUID = -4520537180634416734L;
+
+   /**
+    * @see org.infinispan.marshall.AdvancedExternalizer#getTypeClasses()
+    */
+   @SuppressWarnings("unchecked")
+   public Set<Class<? extends CacheKey>> getTypeClasses()
+   {
+      return Collections.<Class<? extends CacheKey>> singleton(CacheKey.class);
+   }
+
+   /**
+    * @see org.infinispan.marshall.AbstractExternalizer#getId()
+    */
+   @Override
+   public Integer getId()
+   {
+      return ID;
+   }
+
+   /**
+    * @see org.infinispan.marshall.Externalizer#writeObject(java.io.ObjectOutput, java.lang.Object)
+    */
+   public void writeObject(ObjectOutput output, CacheKey key) throws IOException
+   {
+      output.writeInt(key.getRegionId());
+      output.writeLong(key.getGeneration());
+      output.writeObject(key.getKey());
+   }
+
+   /**
+    * @see org.infinispan.marshall.Externalizer#readObject(java.io.ObjectInput)
+    */
+   @SuppressWarnings("unchecked")
+   public CacheKey readObject(ObjectInput input) throws IOException, ClassNotFoundException
+   {
+      int regionId = input.readInt();
+      long generation = input.readLong();
+      return new CacheKey(regionId, generation, input.readObject());
+   }
+}
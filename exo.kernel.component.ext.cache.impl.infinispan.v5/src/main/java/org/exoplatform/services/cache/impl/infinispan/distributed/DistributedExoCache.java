@@ -19,35 +19,53 @@
 package org.exoplatform.services.cache.impl.infinispan.distributed;
 
 import org.exoplatform.commons.utils.SecurityHelper;
-import org.exoplatform.container.ExoContainer;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.management.annotations.Managed;
 import org.exoplatform.management.annotations.ManagedDescription;
 import org.exoplatform.management.annotations.ManagedName;
+import org.exoplatform.services.cache.AbstractCacheCursor;
+import org.exoplatform.services.cache.AsyncExoCache;
+import org.exoplatform.services.cache.CacheCursor;
 import org.exoplatform.services.cache.CacheInfo;
 import org.exoplatform.services.cache.CacheListener;
 import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.CacheStatistics;
 import org.exoplatform.services.cache.CachedObjectSelector;
+import org.exoplatform.services.cache.CompletedFuture;
 import org.exoplatform.services.cache.ExoCache;
 import org.exoplatform.services.cache.ExoCacheConfig;
+import org.exoplatform.services.cache.ExpireKeyStartWithSelector;
 import org.exoplatform.services.cache.ObjectCacheInfo;
-import org.exoplatform.services.ispn.AbstractMapper;
-import org.exoplatform.services.ispn.DistributedCacheManager;
+import org.exoplatform.services.cache.PrefixIndex;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.infinispan.AdvancedCache;
 import org.infinispan.Cache;
+import org.infinispan.container.DataContainer;
+import org.infinispan.container.entries.InternalCacheEntry;
 import org.infinispan.context.Flag;
-import org.infinispan.distexec.mapreduce.Collector;
-import org.infinispan.distexec.mapreduce.MapReduceTask;
-import org.infinispan.distexec.mapreduce.Reducer;
+import org.infinispan.distexec.DefaultExecutorService;
+import org.infinispan.distexec.DistributedCallable;
+import org.infinispan.distexec.DistributedExecutorService;
+import org.infinispan.distribution.DistributionManager;
 import org.infinispan.notifications.Listener;
 import org.infinispan.notifications.cachelistener.annotation.CacheEntriesEvicted;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryCreated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryLoaded;
 import org.infinispan.notifications.cachelistener.annotation.CacheEntryModified;
 import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.annotation.TopologyChanged;
 import org.infinispan.notifications.cachelistener.event.CacheEntriesEvictedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryCreatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryInvalidatedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryLoadedEvent;
 import org.infinispan.notifications.cachelistener.event.CacheEntryModifiedEvent;
 import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import org.infinispan.notifications.cachelistener.event.TopologyChangedEvent;
+import org.infinispan.remoting.transport.Address;
+import org.infinispan.util.concurrent.FutureListener;
+import org.infinispan.util.concurrent.NotifyingFuture;
 
 import java.io.Externalizable;
 import java.io.IOException;
@@ -56,14 +74,25 @@ import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -71,7 +100,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @version $Id$
  *
  */
-public class DistributedExoCache<K extends Serializable, V> implements ExoCache<K, V>
+public class DistributedExoCache<K extends Serializable, V> implements AsyncExoCache<K, V>
 {
 
    /**
@@ -82,9 +111,48 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
 
    public static final String CACHE_NAME = "eXoCache";
 
-   private final AtomicInteger hits = new AtomicInteger(0);
+   /**
+    * The amount of entries fetched at once by {@link #select(CachedObjectSelector)} and
+    * {@link #getCachedObjects()}
+    */
+   private static final int SELECT_CHUNK_SIZE = 1000;
+
+   /**
+    * The idle time in milliseconds after which the iterator of a cursor is dropped by a node, in case the
+    * cursor was not closed
+    */
+   private static final long NODE_CURSOR_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+   /**
+    * The iterators kept by this node for the cursors in progress, by cursor id
+    */
+   private static final ConcurrentMap<String, NodeCursor> NODE_CURSORS = new ConcurrentHashMap<String, NodeCursor>();
+
+   /**
+    * The period in milliseconds after which the entry counter of a region is recomputed from the data container
+    * of this node, to take into account the expired entries that are purged without notification
+    */
+   private static final long RECOUNT_PERIOD = TimeUnit.MINUTES.toMillis(10);
+
+   /**
+    * Removes from the data container of this node the entries of the previous generations of the regions and
+    * recomputes the entry counters of the regions, in the background
+    */
+   private static final ExecutorService MAINTENANCE = Executors.newSingleThreadExecutor(new ThreadFactory()
+   {
+      public Thread newThread(Runnable r)
+      {
+         Thread t = new Thread(r, "exo-cache-region-maintenance");
+         t.setDaemon(true);
+         return t;
+      }
+   });
 
-   private final AtomicInteger misses = new AtomicInteger(0);
+   /**
+    * The statistics of this region, the evictions are not recorded since the underlying cache is shared by
+    * all the regions
+    */
+   private final CacheStatistics statistics = new CacheStatistics(this);
 
    private String label;
 
@@ -92,6 +160,8 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
 
    private final String fullName;
 
+   private final int regionId;
+
    private boolean distributed;
 
    private boolean replicated;
@@ -99,16 +169,36 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
    private boolean logEnabled;
 
    @SuppressWarnings("rawtypes")
-   private static final ConcurrentMap<Cache, ConcurrentMap<String, List<ListenerContext>>> ALL_LISTENERS =
-      new ConcurrentHashMap<Cache, ConcurrentMap<String, List<ListenerContext>>>();
+   private static final ConcurrentMap<Cache, ConcurrentMap<Integer, List<ListenerContext>>> ALL_LISTENERS =
+      new ConcurrentHashMap<Cache, ConcurrentMap<Integer, List<ListenerContext>>>();
+
+   /**
+    * The indexes by prefix of the keys stored locally, by cache then by region. An index is created the first
+    * time that its region is asked to remove entries by prefix, the indexes of a cache are dropped when its
+    * topology changes since the entries may have moved from one node to another.
+    */
+   @SuppressWarnings("rawtypes")
+   private static final ConcurrentMap<Cache, ConcurrentMap<Integer, PrefixIndex<Boolean>>> ALL_PREFIX_INDEXES =
+      new ConcurrentHashMap<Cache, ConcurrentMap<Integer, PrefixIndex<Boolean>>>();
+
+   /**
+    * The generation and the entry counter of the regions, by cache then by region
+    */
+   @SuppressWarnings("rawtypes")
+   private static final ConcurrentMap<Cache, ConcurrentMap<Integer, Region>> ALL_REGIONS =
+      new ConcurrentHashMap<Cache, ConcurrentMap<Integer, Region>>();
 
    protected final AdvancedCache<CacheKey<K>, V> cache;
 
+   private final Region region;
+
    @SuppressWarnings("unchecked")
    public DistributedExoCache(ExoContainerContext ctx, ExoCacheConfig config, Cache<K, V> cache)
    {
       this.fullName = ctx.getName() + "-" + config.getName();
       this.cache = (AdvancedCache<CacheKey<K>, V>)cache.getAdvancedCache();
+      this.regionId = RegionRegistry.getInstance(this.cache).getId(fullName);
+      this.region = getRegion(this.cache, regionId);
       setDistributed(config.isDistributed());
       setLabel(config.getLabel());
       setName(config.getName());
@@ -129,6 +219,23 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
       return fullName;
    }
 
+   /**
+    * @return the id of the region
+    */
+   int getRegionId()
+   {
+      return regionId;
+   }
+
+   /**
+    * Wraps the given key into a {@link CacheKey} of the current generation of the region
+    */
+   @SuppressWarnings("unchecked")
+   private CacheKey<K> newKey(Serializable key)
+   {
+      return new CacheKey<K>(regionId, region.generation, (K)key);
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -139,12 +246,12 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
       {
          throw new IllegalArgumentException("The listener cannot be null");
       }
-      List<ListenerContext> lListeners = getListeners(fullName);
+      List<ListenerContext> lListeners = getListeners(regionId);
       if (lListeners == null)
       {
          lListeners = new CopyOnWriteArrayList<ListenerContext>();
          boolean alreadyAdded = false;
-         ConcurrentMap<String, List<ListenerContext>> listeners = getOrCreateListeners();
+         ConcurrentMap<Integer, List<ListenerContext>> listeners = getOrCreateListeners();
          if (listeners.isEmpty())
          {
             synchronized (listeners)
@@ -153,14 +260,14 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
                {
                   // Ensure that the listener is added only once
                   cache.addListener(new CacheEventListener());
-                  listeners.put(fullName, lListeners);
+                  listeners.put(regionId, lListeners);
                   alreadyAdded = true;
                }
             }
          }
          if (!alreadyAdded)
          {
-            List<ListenerContext> oldValue = listeners.putIfAbsent(fullName, lListeners);
+            List<ListenerContext> oldValue = listeners.putIfAbsent(regionId, lListeners);
             if (oldValue != null)
             {
                lListeners = oldValue;
@@ -171,13 +278,13 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
    }
 
    @SuppressWarnings("rawtypes")
-   private ConcurrentMap<String, List<ListenerContext>> getOrCreateListeners()
+   private ConcurrentMap<Integer, List<ListenerContext>> getOrCreateListeners()
    {
-      ConcurrentMap<String, List<ListenerContext>> listeners = ALL_LISTENERS.get(cache);
+      ConcurrentMap<Integer, List<ListenerContext>> listeners = ALL_LISTENERS.get(cache);
       if (listeners == null)
       {
-         listeners = new ConcurrentHashMap<String, List<ListenerContext>>();
-         ConcurrentMap<String, List<ListenerContext>> oldValue = ALL_LISTENERS.putIfAbsent(cache, listeners);
+         listeners = new ConcurrentHashMap<Integer, List<ListenerContext>>();
+         ConcurrentMap<Integer, List<ListenerContext>> oldValue = ALL_LISTENERS.putIfAbsent(cache, listeners);
          if (oldValue != null)
          {
             listeners = oldValue;
@@ -187,14 +294,20 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
    }
 
    @SuppressWarnings("rawtypes")
-   private List<ListenerContext> getListeners(String fullName)
+   private List<ListenerContext> getListeners(int regionId)
    {
-      ConcurrentMap<String, List<ListenerContext>> listeners = ALL_LISTENERS.get(cache);
-      return listeners == null ? null : listeners.get(fullName);
+      ConcurrentMap<Integer, List<ListenerContext>> listeners = ALL_LISTENERS.get(cache);
+      return listeners == null ? null : listeners.get(regionId);
    }
 
    /**
     * {@inheritDoc}
+    * <p>
+    * The entries are not removed, the generation of the region is increased instead so that the keys of the
+    * existing entries cannot be reached anymore. The generation is a counter incremented within the
+    * {@link RegionRegistry}, where the nodes that will join the cluster read it, and the new generation is sent
+    * to all the nodes of the cluster thanks to a {@link SetGenerationTask}, then each node removes the entries
+    * of the previous generations that it stores in the background.
     */
    public void clearCache()
    {
@@ -204,9 +317,31 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
          @Override
          public Void run()
          {
-            MapReduceTask<CacheKey<K>, V, Void, Void> task = new MapReduceTask<CacheKey<K>, V, Void, Void>(cache);
-            task.mappedWith(new ClearCacheMapper<K, V>(fullName)).reducedWith(new ClearCacheReducer());
-            task.execute();
+            long generation = RegionRegistry.getInstance(cache).nextGeneration(regionId);
+            setGeneration(cache, regionId, generation);
+            DistributedExecutorService executor = new DefaultExecutorService(cache);
+            try
+            {
+               List<Future<Void>> futures =
+                  executor.submitEverywhere(new SetGenerationTask<K, V>(regionId, generation, cache
+                     .getCacheManager().getAddress()));
+               for (Future<Void> future : futures)
+               {
+                  future.get();
+               }
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e)
+            {
+               LOG.warn("An error occurs while executing the clearCache method", e);
+            }
+            finally
+            {
+               executor.shutdown();
+            }
             return null;
          }
 
@@ -217,15 +352,14 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
    /**
     * {@inheritDoc}
     */
-   @SuppressWarnings("unchecked")
    public V get(Serializable name)
    {
       if (name == null)
       {
          return null;
       }
-      @SuppressWarnings("rawtypes")
-      final CacheKey key = new CacheKey<Serializable>(fullName, name);
+      final CacheKey<K> key = newKey(name);
+      long start = statistics.startTimer();
       final V result = SecurityHelper.doPrivilegedAction(new PrivilegedAction<V>()
       {
 
@@ -238,22 +372,97 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
       });
       if (result == null)
       {
-         misses.incrementAndGet();
+         statistics.recordMiss(start);
       }
       else
       {
-         hits.incrementAndGet();
+         statistics.recordHit(start);
       }
       onGet(key, result);
       return result;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public Map<K, V> getAll(Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      final Map<CacheKey<K>, NotifyingFuture<V>> futures = new LinkedHashMap<CacheKey<K>, NotifyingFuture<V>>();
+      for (K name : names)
+      {
+         if (name != null)
+         {
+            futures.put(newKey(name), null);
+         }
+      }
+      SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+      {
+
+         @Override
+         public Void run()
+         {
+            // Infinispan has no bulk lookup, so one request is sent per key. They are all sent before waiting
+            // for any response so that the remote lookups overlap and the call takes about the time of the
+            // slowest one instead of the sum of all of them
+            for (Map.Entry<CacheKey<K>, NotifyingFuture<V>> entry : futures.entrySet())
+            {
+               entry.setValue(cache.getAsync(entry.getKey()));
+            }
+            return null;
+         }
+      });
+      Map<K, V> result = new HashMap<K, V>();
+      int hitCount = 0;
+      int missCount = 0;
+      for (Map.Entry<CacheKey<K>, NotifyingFuture<V>> entry : futures.entrySet())
+      {
+         CacheKey<K> key = entry.getKey();
+         V value = getResult(entry.getValue());
+         if (value == null)
+         {
+            missCount++;
+         }
+         else
+         {
+            hitCount++;
+            result.put(key.getKey(), value);
+         }
+         onGet(key, value);
+      }
+      statistics.recordGets(hitCount, missCount);
+      return result;
+   }
+
+   /**
+    * Waits for the result of an asynchronous lookup, a lookup that failed is considered as a miss
+    */
+   private V getResult(NotifyingFuture<V> future)
+   {
+      try
+      {
+         return future.get();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException e)
+      {
+         LOG.warn("An error occurs while executing the getAll method", e.getCause());
+      }
+      return null;
+   }
+
    /**
     * {@inheritDoc}
     */
    public int getCacheHit()
    {
-      return hits.get();
+      return CacheStatistics.toInt(statistics.getHitCount());
    }
 
    /**
@@ -261,33 +470,63 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
     */
    public int getCacheMiss()
    {
-      return misses.get();
+      return CacheStatistics.toInt(statistics.getMissCount());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public CacheStatistics getStatistics()
+   {
+      return statistics;
    }
 
    /**
     * {@inheritDoc}
+    * <p>
+    * Each node maintains the amount of entries of the region of which it is the primary owner thanks to
+    * a {@link RegionListener}, so only the counters of the nodes are summed up. The entries that expired
+    * are counted until they are purged or until the counter is recomputed.
     */
    public int getCacheSize()
    {
-      Map<String, Integer> map = SecurityHelper.doPrivilegedAction(new PrivilegedAction<Map<String, Integer>>()
+      if (cache.getDistributionManager() == null)
+      {
+         // All the entries are stored locally
+         return region.getLocalSize(cache);
+      }
+      return SecurityHelper.doPrivilegedAction(new PrivilegedAction<Integer>()
       {
 
          @Override
-         public Map<String, Integer> run()
+         public Integer run()
          {
-            MapReduceTask<CacheKey<K>, V, String, Integer> task =
-               new MapReduceTask<CacheKey<K>, V, String, Integer>(cache);
-            task.mappedWith(new GetSizeMapper<K, V>(fullName)).reducedWith(new GetSizeReducer<String>());
-            return task.execute();
+            int sum = 0;
+            DistributedExecutorService executor = new DefaultExecutorService(cache);
+            try
+            {
+               List<Future<Integer>> futures = executor.submitEverywhere(new GetSizeTask<K, V>(regionId));
+               for (Future<Integer> future : futures)
+               {
+                  sum += future.get();
+               }
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e)
+            {
+               LOG.warn("An error occurs while executing the getCacheSize method", e);
+            }
+            finally
+            {
+               executor.shutdown();
+            }
+            return sum;
          }
 
       });
-      int sum = 0;
-      for (Integer i : map.values())
-      {
-         sum += i;
-      }
-      return sum;
    }
 
    /**
@@ -295,24 +534,18 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
     */
    public List<V> getCachedObjects()
    {
-      Map<String, List<V>> map = SecurityHelper.doPrivilegedAction(new PrivilegedAction<Map<String, List<V>>>()
+      List<V> result = new ArrayList<V>();
+      CacheCursor<K, V> cursor = openCursor(SELECT_CHUNK_SIZE);
+      try
       {
-
-         @Override
-         public Map<String, List<V>> run()
+         while (cursor.hasNext())
          {
-            MapReduceTask<CacheKey<K>, V, String, List<V>> task =
-               new MapReduceTask<CacheKey<K>, V, String, List<V>>(cache);
-            task.mappedWith(new GetCachedObjectsMapper<K, V>(fullName)).reducedWith(
-               new GetCachedObjectsReducer<String, V>());
-            return task.execute();
+            result.addAll(cursor.next().values());
          }
-
-      });
-      List<V> result = new ArrayList<V>();
-      for (List<V> vals : map.values())
+      }
+      finally
       {
-         result.addAll(vals);
+         cursor.close();
       }
       return result;
    }
@@ -371,6 +604,7 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
          // ignore null values
          return;
       }
+      long start = statistics.startTimer();
       SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
       {
 
@@ -382,6 +616,7 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
          }
 
       });
+      statistics.recordPut(start);
       onPut(key, value);
    }
 
@@ -390,7 +625,50 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
     */
    protected void putOnly(K key, V value)
    {
-      cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).put(new CacheKey<K>(fullName, key), value);
+      cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).put(newKey(key), value);
+   }
+
+   /**
+    * {@inheritDoc}
+    * <p>
+    * The time to live is used as lifespan of the Infinispan entry.
+    */
+   public void put(final K key, final V value, final long liveTimeMillis) throws IllegalArgumentException
+   {
+      if (key == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      else if (value == null || liveTimeMillis == 0)
+      {
+         // ignore null values
+         return;
+      }
+      long start = statistics.startTimer();
+      SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+      {
+
+         @Override
+         public Void run()
+         {
+            putOnly(key, value, liveTimeMillis < 0 ? -1 : liveTimeMillis);
+            return null;
+         }
+
+      });
+      statistics.recordPut(start);
+      onPut(key, value);
+   }
+
+   /**
+    * Only puts the data into the cache with the given lifespan nothing more
+    *
+    * @param lifespan the lifespan in milliseconds, -1 for an immortal entry
+    */
+   protected void putOnly(K key, V value, long lifespan)
+   {
+      cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).put(newKey(key), value,
+         lifespan, TimeUnit.MILLISECONDS);
    }
 
    /**
@@ -415,29 +693,36 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
          @Override
          public Void run()
          {
-            // Start transaction
-            cache.startBatch();
+            Map<CacheKey<K>, V> map = new LinkedHashMap<CacheKey<K>, V>();
             try
             {
                // Wrap the key into a CacheKey and make sure that the key and the value
-               // are valid
-               Map<CacheKey<K>, V> map = new LinkedHashMap<CacheKey<K>, V>();
+               // are valid, the null values are ignored like in put
                for (Map.Entry<? extends K, ? extends V> entry : objs.entrySet())
                {
-                  map.put(new CacheKey<K>(fullName, entry.getKey()), entry.getValue());
+                  V value = entry.getValue();
+                  if (value != null)
+                  {
+                     map.put(newKey(entry.getKey()), value);
+                  }
                }
-               cache.putAll(map);
-               cache.endBatch(true);
-               // End transaction
-               for (Map.Entry<? extends K, ? extends V> entry : objs.entrySet())
+               if (map.isEmpty())
                {
-                  onPut(entry.getKey(), entry.getValue());
+                  return null;
                }
+               // A single command for all the entries so that they are sent at once to their owners, within
+               // one single implicit transaction if the cache is transactional
+               cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).putAll(map);
             }
             catch (Exception e)//NOSONAR
             {
-               cache.endBatch(false);
                LOG.warn("An error occurs while executing the putMap method", e);
+               return null;
+            }
+            statistics.recordPuts(map.size());
+            for (Map.Entry<CacheKey<K>, V> entry : map.entrySet())
+            {
+               onPut(entry.getKey(), entry.getValue());
             }
             return null;
          }
@@ -447,15 +732,13 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
    /**
     * {@inheritDoc}
     */
-   @SuppressWarnings("unchecked")
    public V remove(Serializable name) throws IllegalArgumentException
    {
       if (name == null)
       {
          throw new IllegalArgumentException("No null cache key accepted");
       }
-      @SuppressWarnings("rawtypes")
-      final CacheKey key = new CacheKey<Serializable>(fullName, name);
+      final CacheKey<K> key = newKey(name);
       V result = SecurityHelper.doPrivilegedAction(new PrivilegedAction<V>()
       {
          @Override
@@ -471,115 +754,513 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
    /**
     * {@inheritDoc}
     */
-   public List<V> removeCachedObjects()
-   {
-      final List<V> list = getCachedObjects();
-      clearCache();
-      return list;
-   }
-
-   /**
-    * {@inheritDoc}
-    */
-   public void select(CachedObjectSelector<? super K, ? super V> selector) throws Exception
+   public Future<V> getAsync(Serializable name)
    {
-      if (selector == null)
+      if (name == null)
       {
-         throw new IllegalArgumentException("No null selector");
+         return new CompletedFuture<V>(null);
       }
-      Map<K, V> map = SecurityHelper.doPrivilegedAction(new PrivilegedAction<Map<K, V>>()
+      final CacheKey<K> key = newKey(name);
+      final long start = statistics.startTimer();
+      NotifyingFuture<V> future = SecurityHelper.doPrivilegedAction(new PrivilegedAction<NotifyingFuture<V>>()
       {
 
          @Override
-         public Map<K, V> run()
+         public NotifyingFuture<V> run()
          {
-            MapReduceTask<CacheKey<K>, V, K, V> task = new MapReduceTask<CacheKey<K>, V, K, V>(cache);
-            task.mappedWith(new GetEntriesMapper<K, V>(fullName)).reducedWith(new GetEntriesReducer<K, V>());
-            return task.execute();
+            return cache.getAsync(key);
          }
-
       });
-
-      for (K key : map.keySet())
+      future.attachListener(new AsyncCallback<V>("getAsync")
       {
-         if (key == null)
-         {
-            continue;
-         }
-         final V value = map.get(key);
-         ObjectCacheInfo<V> info = new ObjectCacheInfo<V>()
+         @Override
+         void onDone(V result)
          {
-            public V get()
+            if (result == null)
             {
-               return value;
+               statistics.recordMiss(start);
             }
-
-            public long getExpireTime()
+            else
             {
-               // Cannot know: The expire time is managed by Infinispan itself
-               return -1;
+               statistics.recordHit(start);
             }
-         };
-         if (selector.select(key, info))
-         {
-            selector.onSelect(this, key, info);
+            onGet(key, result);
          }
-      }
+      });
+      return future;
    }
 
    /**
     * {@inheritDoc}
     */
-   public void setDistributed(boolean distributed)
+   public Future<?> putAsync(final K key, final V value) throws IllegalArgumentException
    {
-      this.distributed = distributed;
+      if (key == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      else if (value == null)
+      {
+         // ignore null values
+         return new CompletedFuture<V>(null);
+      }
+      return putAsync(key, value, new PrivilegedAction<NotifyingFuture<V>>()
+      {
+
+         @Override
+         public NotifyingFuture<V> run()
+         {
+            return cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).putAsync(newKey(key), value);
+         }
+      });
    }
 
    /**
     * {@inheritDoc}
+    * <p>
+    * The time to live is used as lifespan of the Infinispan entry.
     */
-   public void setLabel(String label)
+   public Future<?> putAsync(final K key, final V value, final long liveTimeMillis) throws IllegalArgumentException
    {
-      this.label = label;
+      if (key == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      else if (value == null || liveTimeMillis == 0)
+      {
+         // ignore null values
+         return new CompletedFuture<V>(null);
+      }
+      return putAsync(key, value, new PrivilegedAction<NotifyingFuture<V>>()
+      {
+
+         @Override
+         public NotifyingFuture<V> run()
+         {
+            return cache.withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.IGNORE_RETURN_VALUES).putAsync(newKey(key), value,
+               liveTimeMillis < 0 ? -1 : liveTimeMillis, TimeUnit.MILLISECONDS);
+         }
+      });
    }
 
    /**
-    * {@inheritDoc}
+    * Launches the given asynchronous put then updates the statistics and notifies the listeners once the
+    * put has completed
     */
-   public void setLogEnabled(boolean logEnabled)
+   private Future<?> putAsync(final K key, final V value, PrivilegedAction<NotifyingFuture<V>> action)
    {
-      this.logEnabled = logEnabled;
+      final long start = statistics.startTimer();
+      NotifyingFuture<V> future = SecurityHelper.doPrivilegedAction(action);
+      future.attachListener(new AsyncCallback<V>("putAsync")
+      {
+         @Override
+         void onDone(V result)
+         {
+            statistics.recordPut(start);
+            onPut(key, value);
+         }
+      });
+      return future;
    }
 
    /**
     * {@inheritDoc}
     */
-   public void setName(String name)
+   public Future<V> removeAsync(Serializable name) throws IllegalArgumentException
    {
-      this.name = name;
+      if (name == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      final CacheKey<K> key = newKey(name);
+      NotifyingFuture<V> future = SecurityHelper.doPrivilegedAction(new PrivilegedAction<NotifyingFuture<V>>()
+      {
+
+         @Override
+         public NotifyingFuture<V> run()
+         {
+            return cache.removeAsync(key);
+         }
+      });
+      future.attachListener(new AsyncCallback<V>("removeAsync")
+      {
+         @Override
+         void onDone(V result)
+         {
+            onRemove(key, result);
+         }
+      });
+      return future;
    }
 
    /**
     * {@inheritDoc}
     */
-   public void setReplicated(boolean replicated)
-   {
-      this.replicated = replicated;
-   }
-
-   @SuppressWarnings({"rawtypes", "unchecked"})
-   void onExpire(CacheKey<K> key, V obj)
+   public void removeAll(Collection<? extends K> names) throws IllegalArgumentException
    {
-      List<ListenerContext> listeners = getListeners(key.getFullName());
-      if (listeners == null || listeners.isEmpty())
+      if (names == null)
       {
-         return;
+         throw new IllegalArgumentException("No null collection accepted");
       }
-      for (ListenerContext context : listeners)
+      final Map<CacheKey<K>, V> removed = new LinkedHashMap<CacheKey<K>, V>();
+      for (K name : names)
       {
-         try
+         if (name == null)
          {
-            context.onExpire(key.getKey(), obj);
+            throw new IllegalArgumentException("No null cache key accepted");
+         }
+         removed.put(newKey(name), null);
+      }
+      SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+      {
+
+         @Override
+         public Void run()
+         {
+            // Start transaction
+            cache.startBatch();
+            try
+            {
+               for (Map.Entry<CacheKey<K>, V> entry : removed.entrySet())
+               {
+                  entry.setValue(cache.remove(entry.getKey()));
+               }
+               cache.endBatch(true);
+               // End transaction
+            }
+            catch (Exception e)//NOSONAR
+            {
+               cache.endBatch(false);
+               removed.clear();
+               LOG.warn("An error occurs while executing the removeAll method", e);
+            }
+            return null;
+         }
+      });
+      for (Map.Entry<CacheKey<K>, V> entry : removed.entrySet())
+      {
+         onRemove(entry.getKey(), entry.getValue());
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * <p>
+    * A task is sent to all the nodes of the cluster, each of them removes the matching entries that it stores
+    * thanks to its own index.
+    */
+   public void removeByPrefix(final String prefix) throws IllegalArgumentException
+   {
+      if (prefix == null)
+      {
+         throw new IllegalArgumentException("No null prefix accepted");
+      }
+      SecurityHelper.doPrivilegedAction(new PrivilegedAction<Void>()
+      {
+
+         @Override
+         public Void run()
+         {
+            DistributedExecutorService executor = new DefaultExecutorService(cache);
+            try
+            {
+               List<Future<Void>> futures = executor.submitEverywhere(new RemoveByPrefixTask<K, V>(regionId, prefix));
+               for (Future<Void> future : futures)
+               {
+                  future.get();
+               }
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e)
+            {
+               LOG.warn("An error occurs while executing the removeByPrefix method", e);
+            }
+            finally
+            {
+               executor.shutdown();
+            }
+            return null;
+         }
+      });
+   }
+
+   /**
+    * Gives the index by prefix of the keys of the current generation of the given region that are stored
+    * locally, it is built from the content of the data container the first time.
+    */
+   @SuppressWarnings("rawtypes")
+   static PrefixIndex<Boolean> getPrefixIndex(Cache cache, int regionId)
+   {
+      AdvancedCache advancedCache = cache.getAdvancedCache();
+      Region region = getRegion(advancedCache, regionId);
+      ConcurrentMap<Integer, PrefixIndex<Boolean>> indexes = ALL_PREFIX_INDEXES.get(advancedCache);
+      if (indexes == null)
+      {
+         synchronized (ALL_PREFIX_INDEXES)
+         {
+            indexes = ALL_PREFIX_INDEXES.get(advancedCache);
+            if (indexes == null)
+            {
+               indexes = new ConcurrentHashMap<Integer, PrefixIndex<Boolean>>();
+               advancedCache.addListener(new PrefixListener(indexes, getRegions(advancedCache)));
+               ALL_PREFIX_INDEXES.put(advancedCache, indexes);
+            }
+         }
+      }
+      synchronized (indexes)
+      {
+         PrefixIndex<Boolean> index = indexes.get(regionId);
+         if (index == null)
+         {
+            index = new PrefixIndex<Boolean>();
+            // The index is published first so that the concurrent writes maintain it during the scan
+            indexes.put(regionId, index);
+            long generation = region.generation;
+            for (Object key : advancedCache.getDataContainer().keySet())
+            {
+               if (key instanceof CacheKey && ((CacheKey)key).getRegionId() == regionId
+                  && ((CacheKey)key).getGeneration() == generation)
+               {
+                  index.addIfAbsent(((CacheKey)key).getKey(), Boolean.TRUE);
+               }
+            }
+         }
+         return index;
+      }
+   }
+
+   /**
+    * Gives the state of the regions of the given cache, the listener that maintains their counters is
+    * registered the first time.
+    */
+   @SuppressWarnings("rawtypes")
+   static ConcurrentMap<Integer, Region> getRegions(Cache cache)
+   {
+      AdvancedCache advancedCache = cache.getAdvancedCache();
+      ConcurrentMap<Integer, Region> regions = ALL_REGIONS.get(advancedCache);
+      if (regions == null)
+      {
+         synchronized (ALL_REGIONS)
+         {
+            regions = ALL_REGIONS.get(advancedCache);
+            if (regions == null)
+            {
+               regions = new ConcurrentHashMap<Integer, Region>();
+               advancedCache.addListener(new RegionListener(advancedCache, regions));
+               ALL_REGIONS.put(advancedCache, regions);
+            }
+         }
+      }
+      return regions;
+   }
+
+   /**
+    * Gives the state of the given region, its generation is read from the {@link RegionRegistry} the first
+    * time and its entries are then counted in the background.
+    */
+   @SuppressWarnings("rawtypes")
+   static Region getRegion(Cache cache, int regionId)
+   {
+      ConcurrentMap<Integer, Region> regions = getRegions(cache);
+      Region region = regions.get(regionId);
+      if (region == null)
+      {
+         boolean created = false;
+         synchronized (regions)
+         {
+            region = regions.get(regionId);
+            if (region == null)
+            {
+               region = new Region(regionId, RegionRegistry.getInstance(cache).getGeneration(regionId));
+               regions.put(regionId, region);
+               created = true;
+            }
+         }
+         if (created)
+         {
+            region.recount(cache.getAdvancedCache());
+         }
+      }
+      return region;
+   }
+
+   /**
+    * Moves the given region of the local node to the given generation if it is newer than its current one,
+    * the entries of the previous generations are then removed from the data container in the background.
+    */
+   @SuppressWarnings("rawtypes")
+   static void setGeneration(Cache cache, final int regionId, long generation)
+   {
+      final AdvancedCache advancedCache = cache.getAdvancedCache();
+      final Region region = getRegion(advancedCache, regionId);
+      if (!region.setGeneration(generation))
+      {
+         return;
+      }
+      ConcurrentMap<Integer, PrefixIndex<Boolean>> indexes = ALL_PREFIX_INDEXES.get(advancedCache);
+      if (indexes != null)
+      {
+         // The index will be rebuilt from the entries of the new generation
+         indexes.remove(regionId);
+      }
+      MAINTENANCE.execute(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               long generation = region.generation;
+               DataContainer container = advancedCache.getDataContainer();
+               for (Object key : container.keySet())
+               {
+                  if (key instanceof CacheKey && ((CacheKey)key).getRegionId() == regionId
+                     && ((CacheKey)key).getGeneration() < generation)
+                  {
+                     container.remove(key);
+                  }
+               }
+            }
+            catch (RuntimeException e)
+            {
+               LOG.warn("Could not remove the previous generations of the region " + regionId, e);
+            }
+         }
+      });
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public List<V> removeCachedObjects()
+   {
+      final List<V> list = getCachedObjects();
+      clearCache();
+      return list;
+   }
+
+   /**
+    * {@inheritDoc}
+    * <p>
+    * The entries are streamed node by node: each chunk is fetched from one node of the cluster thanks to a
+    * {@link GetChunkTask}, the node keeps its iterator over its data container from one chunk to the next.
+    * A node only returns the entries of which it is the primary owner so that the copies are ignored, the
+    * cursor can be split by node.
+    */
+   public CacheCursor<K, V> openCursor(int chunkSize)
+   {
+      List<Address> members = cache.getCacheManager().getMembers();
+      List<Address> nodes =
+         members == null || cache.getDistributionManager() == null ? Collections.singletonList(cache
+            .getCacheManager().getAddress()) : members;
+      return new ClusterCursor(chunkSize, new ArrayList<Address>(nodes));
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void select(CachedObjectSelector<? super K, ? super V> selector) throws Exception
+   {
+      if (selector == null)
+      {
+         throw new IllegalArgumentException("No null selector");
+      }
+      String prefix = ExpireKeyStartWithSelector.getKeyStartWith(selector);
+      if (prefix != null)
+      {
+         removeByPrefix(prefix);
+         return;
+      }
+      CacheCursor<K, V> cursor = openCursor(SELECT_CHUNK_SIZE);
+      try
+      {
+         while (cursor.hasNext())
+         {
+            for (Map.Entry<K, V> entry : cursor.next().entrySet())
+            {
+               K key = entry.getKey();
+               final V value = entry.getValue();
+               ObjectCacheInfo<V> info = new ObjectCacheInfo<V>()
+               {
+                  public V get()
+                  {
+                     return value;
+                  }
+
+                  public long getExpireTime()
+                  {
+                     // Cannot know: The expire time is managed by Infinispan itself
+                     return -1;
+                  }
+               };
+               if (selector.select(key, info))
+               {
+                  selector.onSelect(this, key, info);
+               }
+            }
+         }
+      }
+      finally
+      {
+         cursor.close();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setDistributed(boolean distributed)
+   {
+      this.distributed = distributed;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setLabel(String label)
+   {
+      this.label = label;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setLogEnabled(boolean logEnabled)
+   {
+      this.logEnabled = logEnabled;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setName(String name)
+   {
+      this.name = name;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void setReplicated(boolean replicated)
+   {
+      this.replicated = replicated;
+   }
+
+   @SuppressWarnings({"rawtypes", "unchecked"})
+   void onExpire(CacheKey<K> key, V obj)
+   {
+      List<ListenerContext> listeners = getListeners(key.getRegionId());
+      if (listeners == null || listeners.isEmpty())
+      {
+         return;
+      }
+      for (ListenerContext context : listeners)
+      {
+         try
+         {
+            context.onExpire(key.getKey(), obj);
          }
          catch (Exception e)//NOSONAR
          {
@@ -592,7 +1273,7 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
    @SuppressWarnings({"rawtypes", "unchecked"})
    void onRemove(CacheKey<K> key, V obj)
    {
-      List<ListenerContext> listeners = getListeners(key.getFullName());
+      List<ListenerContext> listeners = getListeners(key.getRegionId());
       if (listeners == null || listeners.isEmpty())
       {
          return;
@@ -613,18 +1294,18 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
 
    void onPut(CacheKey<K> key, V obj)
    {
-      onPut(key.getFullName(), key.getKey(), obj);
+      onPut(key.getRegionId(), key.getKey(), obj);
    }
 
    void onPut(K key, V obj)
    {
-      onPut(fullName, key, obj);
+      onPut(regionId, key, obj);
    }
 
    @SuppressWarnings({"rawtypes", "unchecked"})
-   void onPut(String fullName, K key, V obj)
+   void onPut(int regionId, K key, V obj)
    {
-      List<ListenerContext> listeners = getListeners(fullName);
+      List<ListenerContext> listeners = getListeners(regionId);
       if (listeners == null || listeners.isEmpty())
       {
          return;
@@ -646,7 +1327,7 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
    @SuppressWarnings({"rawtypes", "unchecked"})
    void onGet(CacheKey<K> key, V obj)
    {
-      List<ListenerContext> listeners = getListeners(key.getFullName());
+      List<ListenerContext> listeners = getListeners(key.getRegionId());
       if (listeners == null || listeners.isEmpty())
       {
          return;
@@ -665,10 +1346,19 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
       }
    }
 
-   @SuppressWarnings("rawtypes")
    void onClearCache()
    {
-      List<ListenerContext> listeners = getListeners(fullName);
+      onClearCache(cache, regionId);
+   }
+
+   /**
+    * Notifies the local listeners of the given region that it has been cleared
+    */
+   @SuppressWarnings("rawtypes")
+   static void onClearCache(Cache cache, int regionId)
+   {
+      ConcurrentMap<Integer, List<ListenerContext>> allListeners = ALL_LISTENERS.get(cache.getAdvancedCache());
+      List<ListenerContext> listeners = allListeners == null ? null : allListeners.get(regionId);
       if (listeners == null || listeners.isEmpty())
       {
          return;
@@ -681,53 +1371,224 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
          }
          catch (Exception e)//NOSONAR
          {
-            if (LOG.isWarnEnabled())
-               LOG.warn("Cannot execute the CacheListener properly", e);
+            if (LOG.isWarnEnabled())
+               LOG.warn("Cannot execute the CacheListener properly", e);
+         }
+      }
+   }
+
+   @Listener
+   public class CacheEventListener
+   {
+      /**
+       * Warning Infinispan triggers a <code>CacheEntryEvictedEvent</code> only at explicit eviction
+       * that is done lazily which is not exactly what we expect, we still use it to be 
+       * able to use it with <code>avoidValueReplication</code> set to <code>true</code>.
+       */
+      @CacheEntriesEvicted
+      public void cacheEntryEvicted(CacheEntriesEvictedEvent<Object, V> evt)
+      {
+         if (evt.isPre())
+         {
+            for (Map.Entry<Object, V> entry : evt.getEntries().entrySet())
+            {
+               CacheKey<K> key = toCurrentKey(entry.getKey());
+               if (key != null)
+               {
+                  onExpire(key, entry.getValue());
+               }
+            }
+         }
+      }
+
+      @CacheEntryRemoved
+      public void cacheEntryRemoved(CacheEntryRemovedEvent<Object, V> evt)
+      {
+         if (evt.isPre() && !evt.isOriginLocal())
+         {
+            final CacheKey<K> key = toCurrentKey(evt.getKey());
+            if (key != null)
+            {
+               onRemove(key, evt.getValue());
+            }
+         }
+      }
+
+      @CacheEntryModified
+      public void cacheEntryModified(CacheEntryModifiedEvent<Object, V> evt)
+      {
+         if (!evt.isOriginLocal() && !evt.isPre())
+         {
+            final CacheKey<K> key = toCurrentKey(evt.getKey());
+            if (key != null)
+            {
+               onPut(key, evt.getValue());
+            }
+         }
+      }
+
+      /**
+       * Gives the given key if it is a key of the current generation of its region, <code>null</code>
+       * otherwise
+       */
+      @SuppressWarnings("unchecked")
+      private CacheKey<K> toCurrentKey(Object key)
+      {
+         if (key instanceof CacheKey)
+         {
+            CacheKey<K> cacheKey = (CacheKey<K>)key;
+            Region region = getRegions(cache).get(cacheKey.getRegionId());
+            if (region != null && region.generation == cacheKey.getGeneration())
+            {
+               return cacheKey;
+            }
+         }
+         return null;
+      }
+   }
+
+   /**
+    * Maintains the indexes by prefix of the keys stored locally
+    */
+   @Listener
+   public static class PrefixListener
+   {
+      private final ConcurrentMap<Integer, PrefixIndex<Boolean>> indexes;
+
+      private final ConcurrentMap<Integer, Region> regions;
+
+      PrefixListener(ConcurrentMap<Integer, PrefixIndex<Boolean>> indexes, ConcurrentMap<Integer, Region> regions)
+      {
+         this.indexes = indexes;
+         this.regions = regions;
+      }
+
+      @CacheEntryModified
+      public void cacheEntryModified(CacheEntryModifiedEvent<Object, Object> evt)
+      {
+         if (!evt.isPre())
+         {
+            add(evt.getKey());
+         }
+      }
+
+      @CacheEntryLoaded
+      public void cacheEntryLoaded(CacheEntryLoadedEvent<Object, Object> evt)
+      {
+         if (!evt.isPre())
+         {
+            add(evt.getKey());
+         }
+      }
+
+      @CacheEntryRemoved
+      public void cacheEntryRemoved(CacheEntryRemovedEvent<Object, Object> evt)
+      {
+         if (!evt.isPre())
+         {
+            remove(evt.getKey());
+         }
+      }
+
+      @CacheEntryInvalidated
+      public void cacheEntryInvalidated(CacheEntryInvalidatedEvent<Object, Object> evt)
+      {
+         if (!evt.isPre())
+         {
+            remove(evt.getKey());
+         }
+      }
+
+      @CacheEntriesEvicted
+      public void cacheEntriesEvicted(CacheEntriesEvictedEvent<Object, Object> evt)
+      {
+         for (Object key : evt.getEntries().keySet())
+         {
+            remove(key);
+         }
+      }
+
+      @TopologyChanged
+      public void topologyChanged(TopologyChangedEvent<Object, Object> evt)
+      {
+         if (!evt.isPre())
+         {
+            // The indexes will be rebuilt from the new content of the data container
+            indexes.clear();
+         }
+      }
+
+      private void add(Object key)
+      {
+         PrefixIndex<Boolean> index = getIndex(key);
+         if (index != null)
+         {
+            index.add(((CacheKey<?>)key).getKey(), Boolean.TRUE);
+         }
+      }
+
+      private void remove(Object key)
+      {
+         PrefixIndex<Boolean> index = getIndex(key);
+         if (index != null)
+         {
+            index.remove(((CacheKey<?>)key).getKey(), Boolean.TRUE);
+         }
+      }
+
+      /**
+       * Gives the index of the region of the given key if it is a key of the current generation of the region
+       */
+      private PrefixIndex<Boolean> getIndex(Object key)
+      {
+         if (!(key instanceof CacheKey))
+         {
+            return null;
          }
+         CacheKey<?> cacheKey = (CacheKey<?>)key;
+         Region region = regions.get(cacheKey.getRegionId());
+         return region == null || region.generation != cacheKey.getGeneration() ? null : indexes.get(cacheKey
+            .getRegionId());
       }
    }
 
-   @Listener
-   public class CacheEventListener
+   /**
+    * Updates the statistics and notifies the listeners once an asynchronous operation has completed
+    * successfully, it is executed by the thread that completes the operation.
+    */
+   private abstract static class AsyncCallback<T> implements FutureListener<T>
    {
+      private final String method;
+
+      AsyncCallback(String method)
+      {
+         this.method = method;
+      }
+
       /**
-       * Warning Infinispan triggers a <code>CacheEntryEvictedEvent</code> only at explicit eviction
-       * that is done lazily which is not exactly what we expect, we still use it to be 
-       * able to use it with <code>avoidValueReplication</code> set to <code>true</code>.
+       * @see org.infinispan.util.concurrent.FutureListener#futureDone(java.util.concurrent.Future)
        */
-      @CacheEntriesEvicted
-      public void cacheEntryEvicted(CacheEntriesEvictedEvent<CacheKey<K>, V> evt)
+      public void futureDone(Future<T> future)
       {
-         if (evt.isPre())
+         T result;
+         try
          {
-            for (Map.Entry<CacheKey<K>, V> entry : evt.getEntries().entrySet())
-            {
-               onExpire(entry.getKey(), entry.getValue());
-            }
+            result = future.get();
          }
-      }
-
-      @CacheEntryRemoved
-      public void cacheEntryRemoved(CacheEntryRemovedEvent<CacheKey<K>, V> evt)
-      {
-         if (evt.isPre() && !evt.isOriginLocal())
+         catch (InterruptedException e)
          {
-            final CacheKey<K> key = evt.getKey();
-            final V value = evt.getValue();
-            onRemove(key, value);
+            Thread.currentThread().interrupt();
+            return;
          }
-      }
-
-      @CacheEntryModified
-      public void cacheEntryModified(CacheEntryModifiedEvent<CacheKey<K>, V> evt)
-      {
-         if (!evt.isOriginLocal() && !evt.isPre())
+         catch (ExecutionException e)
          {
-            final CacheKey<K> key = evt.getKey();
-            final V value = evt.getValue();
-            onPut(key, value);
+            LOG.warn("An error occurs while executing the " + method + " method", e.getCause());
+            return;
          }
+         onDone(result);
       }
+
+      abstract void onDone(T result);
    }
 
    private static class ListenerContext<K extends Serializable, V> implements CacheListenerContext, CacheInfo
@@ -813,6 +1674,12 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
       return cache.getCacheConfiguration().eviction().maxEntries();
    }
 
+   public long getCacheWeight()
+   {
+      // The entries of all the caches are stored into the same infinispan cache
+      return -1;
+   }
+
    @ManagedName("Lifespan")
    @ManagedDescription("Maximum lifespan of a cache entry, after which the entry is expired cluster-wide."
       + " -1 means the entries never expire.")
@@ -839,19 +1706,33 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
       return cache.getCacheConfiguration().expiration().wakeUpInterval();
    }
 
+   /**
+    * The key of an entry of a region. The region is identified by the compact id given by the
+    * {@link RegionRegistry} rather than by its name so that the keys are smaller both in memory and on the
+    * wire where they are marshalled by the {@link CacheKeyExternalizer}. The generation of the region is part
+    * of the key so that clearing a region only requires to move it to a new generation.
+    */
    public static class CacheKey<K> implements Externalizable
    {
       private K key;
 
-      private String fullName;
+      private int regionId;
+
+      private long generation;
 
       public CacheKey()
       {
       }
 
-      public CacheKey(String fullName, K key)
+      public CacheKey(int regionId, K key)
+      {
+         this(regionId, 0, key);
+      }
+
+      public CacheKey(int regionId, long generation, K key)
       {
-         this.fullName = fullName;
+         this.regionId = regionId;
+         this.generation = generation;
          this.key = key;
       }
 
@@ -864,64 +1745,412 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
       }
 
       /**
-       * @return the fullName
+       * @return the id of the region
+       */
+      int getRegionId()
+      {
+         return regionId;
+      }
+
+      /**
+       * @return the generation of the region
+       */
+      long getGeneration()
+      {
+         return generation;
+      }
+
+      /**
+       * The generation is not part of the hash code so that all the generations of a key are owned by
+       * the same nodes.
+       *
+       * @see java.lang.Object#hashCode()
+       */
+      @Override
+      public int hashCode()
+      {
+         final int prime = 31;
+         int result = 1;
+         result = prime * result + regionId;
+         result = prime * result + ((key == null) ? 0 : key.hashCode());
+         return result;
+      }
+
+      /**
+       * @see java.lang.Object#equals(java.lang.Object)
+       */
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+            return true;
+         if (obj == null)
+            return false;
+         if (getClass() != obj.getClass())
+            return false;
+         @SuppressWarnings("rawtypes")
+         CacheKey other = (CacheKey)obj;
+         if (regionId != other.regionId || generation != other.generation)
+            return false;
+         if (key == null)
+         {
+            if (other.key != null)
+               return false;
+         }
+         else if (!key.equals(other.key))
+            return false;
+         return true;
+      }
+
+      /**
+       * @see java.lang.Object#toString()
+       */
+      @Override
+      public String toString()
+      {
+         return "CacheKey [regionId=" + regionId + ", generation=" + generation + ", key=" + key + "]";
+      }
+
+      /**
+       * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
+       */
+      public void writeExternal(ObjectOutput out) throws IOException
+      {
+         out.writeInt(regionId);
+         out.writeLong(generation);
+         out.writeObject(key);
+      }
+
+      /**
+       * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
+       */
+      @SuppressWarnings("unchecked")
+      public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+      {
+         regionId = in.readInt();
+         generation = in.readLong();
+         key = (K)in.readObject();
+      }
+   }
+
+   /**
+    * Removes the entries of a region stored locally whose key starts with a given prefix, thanks to the
+    * index by prefix of the local node.
+    */
+   public static class RemoveByPrefixTask<K, V> implements DistributedCallable<CacheKey<K>, V, Void>, Externalizable
+   {
+
+      /**
+       * The serial version UID
+       */
+      private static final long serialVersionUID = 2467386745382974518L;
+
+      private int regionId;
+
+      private String prefix;
+
+      private transient Cache<CacheKey<K>, V> cache;
+
+      public RemoveByPrefixTask()
+      {
+      }
+
+      public RemoveByPrefixTask(int regionId, String prefix)
+      {
+         this.regionId = regionId;
+         this.prefix = prefix;
+      }
+
+      /**
+       * @see org.infinispan.distexec.DistributedCallable#setEnvironment(org.infinispan.Cache, java.util.Set)
+       */
+      public void setEnvironment(Cache<CacheKey<K>, V> cache, Set<CacheKey<K>> inputKeys)
+      {
+         this.cache = cache;
+      }
+
+      /**
+       * @see java.util.concurrent.Callable#call()
+       */
+      @SuppressWarnings("unchecked")
+      public Void call() throws Exception
+      {
+         PrefixIndex<Boolean> index = getPrefixIndex(cache, regionId);
+         long generation = getRegion(cache, regionId).generation;
+         AdvancedCache<CacheKey<K>, V> advancedCache =
+            cache.getAdvancedCache().withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.FAIL_SILENTLY);
+         List<String> keys = new ArrayList<String>(index.getEntries(prefix).keySet());
+         for (int i = 0, length = keys.size(); i < length; i++)
+         {
+            String key = keys.get(i);
+            CacheKey<K> cacheKey = new CacheKey<K>(regionId, generation, (K)key);
+            advancedCache.remove(cacheKey);
+            // The expired entries are purged without notification
+            if (!cache.getAdvancedCache().getDataContainer().containsKey(cacheKey))
+            {
+               index.remove(key, Boolean.TRUE);
+            }
+         }
+         return null;
+      }
+
+      /**
+       * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
+       */
+      public void writeExternal(ObjectOutput out) throws IOException
+      {
+         out.writeInt(regionId);
+         byte[] buf = prefix.getBytes("UTF-8");
+         out.writeInt(buf.length);
+         out.write(buf);
+      }
+
+      /**
+       * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
+       */
+      public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+      {
+         regionId = in.readInt();
+         byte[] buf = new byte[in.readInt()];
+         in.readFully(buf);
+         prefix = new String(buf, "UTF-8");
+      }
+   }
+
+   /**
+    * A cursor that fetches the entries of the nodes one after the other
+    */
+   private class ClusterCursor extends AbstractCacheCursor<K, V>
+   {
+      /**
+       * The id under which the nodes keep the iterator of this cursor
+       */
+      private final String id = UUID.randomUUID().toString();
+
+      /**
+       * The nodes whose entries have not been all fetched yet, the first one is the current node
+       */
+      private final List<Address> nodes;
+
+      /**
+       * Indicates whether the current node has been asked for a chunk
+       */
+      private boolean opened;
+
+      ClusterCursor(int chunkSize, List<Address> nodes)
+      {
+         super(chunkSize);
+         this.nodes = nodes;
+      }
+
+      @Override
+      protected boolean fetch(Map<K, V> chunk, int max)
+      {
+         if (nodes.isEmpty())
+         {
+            return false;
+         }
+         Address node = nodes.get(0);
+         Chunk<K, V> result = execute(node, new GetChunkTask<K, V>(regionId, id, max, !opened));
+         opened = true;
+         if (result == null || result.exhausted)
+         {
+            // The node has no more entries
+            nodes.remove(0);
+            opened = false;
+         }
+         if (result != null && result.entries != null)
+         {
+            chunk.putAll(result.entries);
+         }
+         return !nodes.isEmpty();
+      }
+
+      @Override
+      public CacheCursor<K, V> trySplit()
+      {
+         int start = opened ? 1 : 0;
+         if (nodes.size() - start < (opened ? 1 : 2))
+         {
+            return null;
+         }
+         int middle = (start + nodes.size()) >>> 1;
+         List<Address> split = new ArrayList<Address>(nodes.subList(middle, nodes.size()));
+         nodes.subList(middle, nodes.size()).clear();
+         return new ClusterCursor(getChunkSize(), split);
+      }
+
+      @Override
+      public void close()
+      {
+         super.close();
+         if (opened)
+         {
+            // Releases the iterator of the current node
+            try
+            {
+               execute(nodes.get(0), new GetChunkTask<K, V>(regionId, id, 0, false));
+            }
+            catch (IllegalStateException e)
+            {
+               LOG.warn("Cannot release the cursor of the node " + nodes.get(0), e);
+            }
+            opened = false;
+         }
+         nodes.clear();
+      }
+
+      /**
+       * Executes the given task on the given node, an {@link IllegalStateException} is thrown if the task failed
+       * since the entries of the node cannot be fetched anymore without restarting the iteration.
+       */
+      private Chunk<K, V> execute(final Address node, final GetChunkTask<K, V> task)
+      {
+         return SecurityHelper.doPrivilegedAction(new PrivilegedAction<Chunk<K, V>>()
+         {
+
+            @Override
+            public Chunk<K, V> run()
+            {
+               DistributedExecutorService executor = new DefaultExecutorService(cache);
+               try
+               {
+                  return executor.submit(node, task).get();
+               }
+               catch (InterruptedException e)
+               {
+                  Thread.currentThread().interrupt();
+                  throw new IllegalStateException("Interrupted while fetching the entries of the node " + node, e);
+               }
+               catch (ExecutionException e)
+               {
+                  throw new IllegalStateException("Cannot fetch the entries of the node " + node, e.getCause());
+               }
+               finally
+               {
+                  executor.shutdown();
+               }
+            }
+         });
+      }
+   }
+
+   /**
+    * The iterator of a cursor over the data container of this node
+    */
+   private static class NodeCursor
+   {
+      @SuppressWarnings("rawtypes")
+      final Iterator<InternalCacheEntry> iterator;
+
+      volatile long lastAccess = System.currentTimeMillis();
+
+      @SuppressWarnings("rawtypes")
+      NodeCursor(Iterator<InternalCacheEntry> iterator)
+      {
+         this.iterator = iterator;
+      }
+   }
+
+   /**
+    * Gives the next entries of a region of which the local node is the primary owner, the iterator over the
+    * data container is kept until all the entries have been returned or until the cursor is closed, which is
+    * requested with a chunk size of 0. Only the first chunk can open a new iterator, if the iterator of a
+    * later chunk is unknown because it expired, the task fails rather than restarting the iteration.
+    */
+   public static class GetChunkTask<K, V> implements DistributedCallable<CacheKey<K>, V, Chunk<K, V>>, Externalizable
+   {
+
+      /**
+       * The serial version UID
+       */
+      private static final long serialVersionUID = -4213684405720318215L;
+
+      private int regionId;
+
+      private String id;
+
+      private int chunkSize;
+
+      /**
+       * Indicates whether the first chunk of the node is requested
        */
-      String getFullName()
+      private boolean first;
+
+      private transient Cache<CacheKey<K>, V> cache;
+
+      public GetChunkTask()
+      {
+      }
+
+      public GetChunkTask(int regionId, String id, int chunkSize, boolean first)
       {
-         return fullName;
+         this.regionId = regionId;
+         this.id = id;
+         this.chunkSize = chunkSize;
+         this.first = first;
       }
 
       /**
-       * @see java.lang.Object#hashCode()
+       * @see org.infinispan.distexec.DistributedCallable#setEnvironment(org.infinispan.Cache, java.util.Set)
        */
-      @Override
-      public int hashCode()
+      public void setEnvironment(Cache<CacheKey<K>, V> cache, Set<CacheKey<K>> inputKeys)
       {
-         final int prime = 31;
-         int result = 1;
-         result = prime * result + ((fullName == null) ? 0 : fullName.hashCode());
-         result = prime * result + ((key == null) ? 0 : key.hashCode());
-         return result;
+         this.cache = cache;
       }
 
       /**
-       * @see java.lang.Object#equals(java.lang.Object)
+       * @see java.util.concurrent.Callable#call()
        */
-      @Override
-      public boolean equals(Object obj)
+      @SuppressWarnings({"rawtypes", "unchecked"})
+      public Chunk<K, V> call() throws Exception
       {
-         if (this == obj)
-            return true;
-         if (obj == null)
-            return false;
-         if (getClass() != obj.getClass())
-            return false;
-         @SuppressWarnings("rawtypes")
-         CacheKey other = (CacheKey)obj;
-         if (fullName == null)
+         long now = System.currentTimeMillis();
+         for (Iterator<NodeCursor> it = NODE_CURSORS.values().iterator(); it.hasNext();)
          {
-            if (other.fullName != null)
-               return false;
+            if (now - it.next().lastAccess > NODE_CURSOR_TIMEOUT)
+            {
+               it.remove();
+            }
          }
-         else if (!fullName.equals(other.fullName))
-            return false;
-         if (key == null)
+         if (chunkSize <= 0)
          {
-            if (other.key != null)
-               return false;
+            NODE_CURSORS.remove(id);
+            return null;
          }
-         else if (!key.equals(other.key))
-            return false;
-         return true;
-      }
-
-      /**
-       * @see java.lang.Object#toString()
-       */
-      @Override
-      public String toString()
-      {
-         return "CacheKey [fullName=" + fullName + ", key=" + key + "]";
+         AdvancedCache<CacheKey<K>, V> advancedCache = cache.getAdvancedCache();
+         NodeCursor cursor = NODE_CURSORS.get(id);
+         if (cursor == null)
+         {
+            if (!first)
+            {
+               throw new IllegalStateException("The cursor " + id + " is unknown, it has expired or was closed");
+            }
+            cursor = new NodeCursor(advancedCache.getDataContainer().iterator());
+            NODE_CURSORS.put(id, cursor);
+         }
+         cursor.lastAccess = now;
+         DistributionManager dm = advancedCache.getDistributionManager();
+         Address address = advancedCache.getCacheManager().getAddress();
+         long generation = getRegion(advancedCache, regionId).generation;
+         Map<K, V> chunk = new HashMap<K, V>();
+         while (chunk.size() < chunkSize && cursor.iterator.hasNext())
+         {
+            InternalCacheEntry entry = cursor.iterator.next();
+            Object key = entry.getKey();
+            if (key instanceof CacheKey && ((CacheKey)key).getRegionId() == regionId
+               && ((CacheKey)key).getGeneration() == generation && !entry.isExpired(now) && entry.getValue() != null
+               && (dm == null || address.equals(dm.getPrimaryLocation(key))))
+            {
+               chunk.put((K)((CacheKey)key).getKey(), (V)entry.getValue());
+            }
+         }
+         boolean exhausted = !cursor.iterator.hasNext();
+         if (exhausted)
+         {
+            NODE_CURSORS.remove(id);
+         }
+         return new Chunk<K, V>(chunk, exhausted);
       }
 
       /**
@@ -929,54 +2158,68 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
        */
       public void writeExternal(ObjectOutput out) throws IOException
       {
-         byte[] buf = fullName.getBytes("UTF-8");
+         out.writeInt(regionId);
+         byte[] buf = id.getBytes("UTF-8");
          out.writeInt(buf.length);
          out.write(buf);
-         out.writeObject(key);
+         out.writeInt(chunkSize);
+         out.writeBoolean(first);
       }
 
       /**
        * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
        */
-      @SuppressWarnings("unchecked")
       public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
       {
+         regionId = in.readInt();
          byte[] buf = new byte[in.readInt()];
          in.readFully(buf);
-         fullName = new String(buf, "UTF-8");
-         key = (K)in.readObject();
+         id = new String(buf, "UTF-8");
+         chunkSize = in.readInt();
+         first = in.readBoolean();
       }
    }
 
-   private abstract static class AbstractExoCacheMapper<K, V, KOut, VOut> extends
-      AbstractMapper<CacheKey<K>, V, KOut, VOut> implements Externalizable
+   /**
+    * The entries returned by a {@link GetChunkTask}, the node is exhausted once it has no more entries to give
+    * which cannot be deduced from the size of the chunk since the last chunk can be full.
+    */
+   public static class Chunk<K, V> implements Externalizable
    {
+
       /**
-       * The full name of the cache instance
+       * The serial version UID
        */
-      private String fullName;
+      private static final long serialVersionUID = 3310566329384751260L;
+
+      private Map<K, V> entries;
 
-      public AbstractExoCacheMapper()
+      private boolean exhausted;
+
+      public Chunk()
       {
       }
 
-      public AbstractExoCacheMapper(String fullName)
+      public Chunk(Map<K, V> entries, boolean exhausted)
       {
-         this.fullName = fullName;
+         this.entries = entries;
+         this.exhausted = exhausted;
       }
 
       /**
-       * The serial version UID
+       * @return the entries of the chunk
        */
-      private static final long serialVersionUID = 7962676854308932222L;
+      public Map<K, V> getEntries()
+      {
+         return entries;
+      }
 
       /**
-       * @see org.exoplatform.services.ispn.AbstractMapper#isValid(java.lang.Object)
+       * @return <code>true</code> if the node has no more entries, <code>false</code> otherwise
        */
-      @Override
-      protected boolean isValid(CacheKey<K> key)
+      public boolean isExhausted()
       {
-         return fullName.equals(key.getFullName());
+         return exhausted;
       }
 
       /**
@@ -984,206 +2227,433 @@ public class DistributedExoCache<K extends Serializable, V> implements ExoCache<
        */
       public void writeExternal(ObjectOutput out) throws IOException
       {
-         byte[] buf = fullName.getBytes("UTF-8");
-         out.writeInt(buf.length);
-         out.write(buf);
+         out.writeBoolean(exhausted);
+         out.writeObject(entries);
       }
 
       /**
        * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
        */
+      @SuppressWarnings("unchecked")
       public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
       {
-         byte[] buf = new byte[in.readInt()];
-         in.readFully(buf);
-         fullName = new String(buf, "UTF-8");
+         exhausted = in.readBoolean();
+         entries = (Map<K, V>)in.readObject();
       }
    }
 
-   public static class GetSizeMapper<K, V> extends AbstractExoCacheMapper<K, V, String, Integer>
+   /**
+    * The state of a region on the local node
+    */
+   static class Region
    {
+      final int id;
+
+      /**
+       * The current generation of the region, the entries of the previous generations cannot be reached
+       * anymore
+       */
+      volatile long generation;
+
+      /**
+       * The amount of entries of the current generation of which the local node is the primary owner
+       */
+      final AtomicInteger size = new AtomicInteger();
+
+      /**
+       * Indicates whether the counter is being recomputed from the data container
+       */
+      private final AtomicBoolean recounting = new AtomicBoolean();
+
+      /**
+       * The time at which the counter has been recomputed for the last time
+       */
+      volatile long lastCount;
 
-      public GetSizeMapper()
+      Region(int id, long generation)
       {
+         this.id = id;
+         this.generation = generation;
       }
 
-      public GetSizeMapper(String fullName)
+      /**
+       * Moves the region to the given generation if it is newer than its current one, the counter is reset
+       * since the existing entries are not part of the new generation.
+       *
+       * @return <code>true</code> if the generation has changed, <code>false</code> otherwise
+       */
+      synchronized boolean setGeneration(long generation)
       {
-         super(fullName);
+         if (generation <= this.generation)
+         {
+            return false;
+         }
+         size.set(0);
+         this.generation = generation;
+         return true;
       }
 
       /**
-       * {@inheritDoc}
+       * Gives the amount of entries of which the local node is the primary owner as maintained by the
+       * {@link RegionListener}, a recount is started in the background if the counter is too old.
        */
-      @Override
-      protected void _map(CacheKey<K> key, V value, Collector<String, Integer> collector)
+      @SuppressWarnings("rawtypes")
+      int getLocalSize(AdvancedCache cache)
+      {
+         if (System.currentTimeMillis() - lastCount > RECOUNT_PERIOD)
+         {
+            recount(cache);
+         }
+         return Math.max(0, size.get());
+      }
+
+      /**
+       * Recomputes the counter from the data container in the background, unless a recount is already in
+       * progress. The generation is checked against the one of the {@link RegionRegistry} at the same time, in
+       * case a clear has been missed.
+       */
+      @SuppressWarnings("rawtypes")
+      void recount(final AdvancedCache cache)
       {
-         collector.emit("total", Integer.valueOf(1));
+         if (!recounting.compareAndSet(false, true))
+         {
+            return;
+         }
+         MAINTENANCE.execute(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  long stored = RegionRegistry.getInstance(cache).getGeneration(id);
+                  if (stored > generation)
+                  {
+                     DistributedExoCache.setGeneration(cache, id, stored);
+                  }
+                  long now = System.currentTimeMillis();
+                  size.set(count(cache, now));
+                  lastCount = now;
+               }
+               catch (RuntimeException e)
+               {
+                  LOG.warn("Could not count the entries of the region " + id, e);
+               }
+               finally
+               {
+                  recounting.set(false);
+               }
+            }
+         });
       }
 
+      @SuppressWarnings("rawtypes")
+      private int count(AdvancedCache cache, long now)
+      {
+         DistributionManager dm = cache.getDistributionManager();
+         Address address = cache.getCacheManager().getAddress();
+         long generation = this.generation;
+         int count = 0;
+         for (InternalCacheEntry entry : cache.getDataContainer())
+         {
+            Object key = entry.getKey();
+            if (key instanceof CacheKey && ((CacheKey)key).getRegionId() == id
+               && ((CacheKey)key).getGeneration() == generation && !entry.isExpired(now)
+               && (dm == null || address.equals(dm.getPrimaryLocation(key))))
+            {
+               count++;
+            }
+         }
+         return count;
+      }
    }
 
-   public static class GetSizeReducer<K> implements Reducer<K, Integer>
+   /**
+    * Maintains the counters of the regions, only the entries of the current generation of which the local node
+    * is the primary owner are counted
+    */
+   @Listener
+   public static class RegionListener
    {
+      @SuppressWarnings("rawtypes")
+      private final AdvancedCache cache;
 
-      /**
-       * The serial version UID
-       */
-      private static final long serialVersionUID = -5264142863835473112L;
+      private final ConcurrentMap<Integer, Region> regions;
+
+      @SuppressWarnings("rawtypes")
+      RegionListener(AdvancedCache cache, ConcurrentMap<Integer, Region> regions)
+      {
+         this.cache = cache;
+         this.regions = regions;
+      }
+
+      @CacheEntryCreated
+      public void cacheEntryCreated(CacheEntryCreatedEvent<Object, Object> evt)
+      {
+         if (!evt.isPre())
+         {
+            Region region = getCountingRegion(evt.getKey());
+            if (region != null)
+            {
+               region.size.incrementAndGet();
+            }
+         }
+      }
+
+      @CacheEntryRemoved
+      public void cacheEntryRemoved(CacheEntryRemovedEvent<Object, Object> evt)
+      {
+         if (!evt.isPre())
+         {
+            Region region = getCountingRegion(evt.getKey());
+            if (region != null)
+            {
+               region.size.decrementAndGet();
+            }
+         }
+      }
+
+      @CacheEntriesEvicted
+      public void cacheEntriesEvicted(CacheEntriesEvictedEvent<Object, Object> evt)
+      {
+         for (Object key : evt.getEntries().keySet())
+         {
+            Region region = getCountingRegion(key);
+            if (region != null)
+            {
+               region.size.decrementAndGet();
+            }
+         }
+      }
+
+      @TopologyChanged
+      public void topologyChanged(TopologyChangedEvent<Object, Object> evt)
+      {
+         if (!evt.isPre())
+         {
+            // The counters are recomputed from the new content of the data container
+            for (Region region : regions.values())
+            {
+               region.recount(cache);
+            }
+         }
+      }
 
       /**
-       * @see org.infinispan.distexec.mapreduce.Reducer#reduce(java.lang.Object, java.util.Iterator)
+       * Gives the region of the given key if the entry must be counted
        */
-      @Override
-      public Integer reduce(K reducedKey, Iterator<Integer> iter)
+      private Region getCountingRegion(Object key)
       {
-         int sum = 0;
-         while (iter.hasNext())
+         if (!(key instanceof CacheKey))
+         {
+            return null;
+         }
+         CacheKey<?> cacheKey = (CacheKey<?>)key;
+         Region region = regions.get(cacheKey.getRegionId());
+         if (region == null || region.generation != cacheKey.getGeneration())
          {
-            Integer i = iter.next();
-            sum += i;
+            return null;
          }
-         return sum;
+         DistributionManager dm = cache.getDistributionManager();
+         return dm == null || cache.getCacheManager().getAddress().equals(dm.getPrimaryLocation(key)) ? region
+            : null;
       }
    }
 
-   public static class GetCachedObjectsMapper<K, V> extends AbstractExoCacheMapper<K, V, String, List<V>>
+   /**
+    * The key under which the current generation of a region is stored into the {@link RegionRegistry}
+    */
+   public static class GenerationKey implements Externalizable
    {
+      private int regionId;
 
-      public GetCachedObjectsMapper()
+      public GenerationKey()
       {
       }
 
-      public GetCachedObjectsMapper(String fullName)
+      public GenerationKey(int regionId)
       {
-         super(fullName);
+         this.regionId = regionId;
       }
 
       /**
-       * {@inheritDoc}
+       * @see java.lang.Object#hashCode()
        */
       @Override
-      protected void _map(CacheKey<K> key, V value, Collector<String, List<V>> collector)
+      public int hashCode()
       {
-         collector.emit("values", Collections.singletonList(value));
+         return 31 + regionId;
       }
 
-   }
+      /**
+       * @see java.lang.Object#equals(java.lang.Object)
+       */
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (this == obj)
+            return true;
+         if (obj == null || getClass() != obj.getClass())
+            return false;
+         return regionId == ((GenerationKey)obj).regionId;
+      }
 
-   public static class GetCachedObjectsReducer<K, V> implements Reducer<K, List<V>>
-   {
+      /**
+       * @see java.lang.Object#toString()
+       */
+      @Override
+      public String toString()
+      {
+         return "GenerationKey [regionId=" + regionId + "]";
+      }
 
       /**
-       * The serial version UID
+       * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
        */
-      private static final long serialVersionUID = 8069024420056440405L;
+      public void writeExternal(ObjectOutput out) throws IOException
+      {
+         out.writeInt(regionId);
+      }
 
       /**
-       * @see org.infinispan.distexec.mapreduce.Reducer#reduce(java.lang.Object, java.util.Iterator)
+       * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
        */
-      @Override
-      public List<V> reduce(K reducedKey, Iterator<List<V>> iter)
+      public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
       {
-         List<V> values = new ArrayList<V>();
-         while (iter.hasNext())
-         {
-            List<V> vals = iter.next();
-            values.addAll(vals);
-         }
-         return values;
+         regionId = in.readInt();
       }
    }
 
-   public static class ClearCacheMapper<K, V> extends AbstractExoCacheMapper<K, V, Void, Void>
+   /**
+    * Moves a region of the local node to a new generation, which is how a region is cleared, then notifies the
+    * local listeners of the region unless the local node is the one that cleared it since it notified its own
+    * listeners already.
+    */
+   public static class SetGenerationTask<K, V> implements DistributedCallable<CacheKey<K>, V, Void>, Externalizable
    {
 
-      public ClearCacheMapper()
+      /**
+       * The serial version UID
+       */
+      private static final long serialVersionUID = 5830731563278472094L;
+
+      private int regionId;
+
+      private long generation;
+
+      /**
+       * The node that cleared the region
+       */
+      private Address origin;
+
+      private transient Cache<CacheKey<K>, V> cache;
+
+      public SetGenerationTask()
       {
       }
 
-      public ClearCacheMapper(String fullName)
+      public SetGenerationTask(int regionId, long generation, Address origin)
       {
-         super(fullName);
+         this.regionId = regionId;
+         this.generation = generation;
+         this.origin = origin;
       }
 
       /**
-       * {@inheritDoc}
+       * @see org.infinispan.distexec.DistributedCallable#setEnvironment(org.infinispan.Cache, java.util.Set)
        */
-      @Override
-      protected void _map(CacheKey<K> key, V value, Collector<Void, Void> collector)
+      public void setEnvironment(Cache<CacheKey<K>, V> cache, Set<CacheKey<K>> inputKeys)
       {
-         ExoContainer container = ExoContainerContext.getTopContainer();
-         if (container == null)
-         {
-            LOG.error("The top container could not be found");
-            return;
-         }
-         DistributedCacheManager dcm =
-            (DistributedCacheManager)container.getComponentInstanceOfType(DistributedCacheManager.class);
-         if (dcm == null)
+         this.cache = cache;
+      }
+
+      /**
+       * @see java.util.concurrent.Callable#call()
+       */
+      public Void call() throws Exception
+      {
+         setGeneration(cache, regionId, generation);
+         if (origin != null && !origin.equals(cache.getCacheManager().getAddress()))
          {
-            LOG.error("The DistributedCacheManager could not be found at top container level, please configure it.");
-            return;
+            onClearCache(cache, regionId);
          }
-         Cache<CacheKey<K>, V> cache = dcm.getCache(CACHE_NAME);
-         cache.getAdvancedCache().withFlags(Flag.SKIP_REMOTE_LOOKUP, Flag.FAIL_SILENTLY).remove(key);
+         return null;
       }
-   }
-
-   public static class ClearCacheReducer implements Reducer<Void, Void>
-   {
 
       /**
-       * The serial version UID
+       * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
        */
-      private static final long serialVersionUID = -8111087186325793256L;
+      public void writeExternal(ObjectOutput out) throws IOException
+      {
+         out.writeInt(regionId);
+         out.writeLong(generation);
+         out.writeObject(origin);
+      }
 
       /**
-       * @see org.infinispan.distexec.mapreduce.Reducer#reduce(java.lang.Object, java.util.Iterator)
+       * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
        */
-      @Override
-      public Void reduce(Void reducedKey, Iterator<Void> iter)
+      public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
       {
-         return null;
+         regionId = in.readInt();
+         generation = in.readLong();
+         origin = (Address)in.readObject();
       }
    }
 
-   public static class GetEntriesMapper<K, V> extends AbstractExoCacheMapper<K, V, K, V>
+   /**
+    * Gives the amount of entries of a region of which the local node is the primary owner.
+    */
+   public static class GetSizeTask<K, V> implements DistributedCallable<CacheKey<K>, V, Integer>, Externalizable
    {
-      public GetEntriesMapper()
+
+      /**
+       * The serial version UID
+       */
+      private static final long serialVersionUID = -2917063748203521637L;
+
+      private int regionId;
+
+      private transient Cache<CacheKey<K>, V> cache;
+
+      public GetSizeTask()
       {
       }
 
-      public GetEntriesMapper(String fullName)
+      public GetSizeTask(int regionId)
       {
-         super(fullName);
+         this.regionId = regionId;
       }
 
       /**
-       * {@inheritDoc}
+       * @see org.infinispan.distexec.DistributedCallable#setEnvironment(org.infinispan.Cache, java.util.Set)
        */
-      @Override
-      protected void _map(CacheKey<K> key, V value, Collector<K, V> collector)
+      public void setEnvironment(Cache<CacheKey<K>, V> cache, Set<CacheKey<K>> inputKeys)
       {
-         collector.emit(key.getKey(), value);
+         this.cache = cache;
       }
-   }
 
-   public static class GetEntriesReducer<K, V> implements Reducer<K, V>
-   {
+      /**
+       * @see java.util.concurrent.Callable#call()
+       */
+      public Integer call() throws Exception
+      {
+         return getRegion(cache, regionId).getLocalSize(cache.getAdvancedCache());
+      }
 
       /**
-       * The serial version UID
+       * @see java.io.Externalizable#writeExternal(java.io.ObjectOutput)
        */
-      private static final long serialVersionUID = 5153826700048219537L;
+      public void writeExternal(ObjectOutput out) throws IOException
+      {
+         out.writeInt(regionId);
+      }
 
       /**
-       * @see org.infinispan.distexec.mapreduce.Reducer#reduce(java.lang.Object, java.util.Iterator)
+       * @see java.io.Externalizable#readExternal(java.io.ObjectInput)
        */
-      @Override
-      public V reduce(K reducedKey, Iterator<V> iter)
+      public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
       {
-         return iter == null || !iter.hasNext() ? null : iter.next();
+         regionId = in.readInt();
       }
    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.impl.infinispan.distributed;
+
+import org.exoplatform.services.cache.impl.infinispan.distributed.DistributedExoCache.GenerationKey;
+import org.infinispan.AdvancedCache;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.eviction.EvictionStrategy;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachemanagerlistener.annotation.CacheStopped;
+import org.infinispan.notifications.cachemanagerlistener.event.CacheStoppedEvent;
+import org.infinispan.transaction.LockingMode;
+import org.infinispan.transaction.TransactionMode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Gives to each region of the {@link DistributedExoCache} a compact id agreed on cluster-wide, so that the
+ * keys don't need to embed the full name of their region. The ids are stored into a replicated cache
+ * without eviction nor expiration, the id of a region is the first free slot starting from the hash code
+ * of its name. A slot is taken within a pessimistic transaction holding the lock of the slot, since a
+ * <code>putIfAbsent</code> is not atomic cluster-wide on a non transactional cache, so all the nodes probe
+ * the same sequence and end up with the same id for a given region. The registry of a cache manager is
+ * dropped when the manager stops.
+ * <p>
+ * The generations of the regions are stored into the same cache, so that they cannot be evicted. A generation
+ * is a counter that only increases when its region is cleared, it is initialized to the current time when its
+ * region is registered so that the entries of a previous lifetime of the cluster cannot be reached again.
+ *
+ * @version $Id$
+ */
+class RegionRegistry
+{
+   /**
+    * The name of the cache in which the ids of the regions are stored
+    */
+   static final String CACHE_NAME = DistributedExoCache.CACHE_NAME + "Regions";
+
+   /**
+    * The registries by cache manager
+    */
+   private static final Map<EmbeddedCacheManager, RegionRegistry> REGISTRIES =
+      new HashMap<EmbeddedCacheManager, RegionRegistry>();
+
+   /**
+    * The names of the regions by id and their generations by {@link GenerationKey}, shared by all the nodes
+    */
+   private final AdvancedCache<Object, Object> names;
+
+   /**
+    * The ids already known by the local node
+    */
+   private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+   private RegionRegistry(Cache<Object, Object> names)
+   {
+      this.names = names.getAdvancedCache();
+   }
+
+   /**
+    * Gives the registry of the cache manager of the given cache, the underlying cache is created if needed
+    * from the configuration of the given cache.
+    */
+   static synchronized RegionRegistry getInstance(Cache<?, ?> cache)
+   {
+      EmbeddedCacheManager manager = cache.getCacheManager();
+      RegionRegistry registry = REGISTRIES.get(manager);
+      if (registry == null)
+      {
+         Configuration configuration = cache.getCacheConfiguration();
+         ConfigurationBuilder builder = new ConfigurationBuilder().read(configuration);
+         builder.clustering().cacheMode(
+            configuration.clustering().cacheMode().isClustered() ? CacheMode.REPL_SYNC : CacheMode.LOCAL);
+         builder.clustering().l1().disable();
+         builder.eviction().strategy(EvictionStrategy.NONE).maxEntries(-1).expiration().lifespan(-1L).maxIdle(-1L);
+         // The slots are locked explicitly within batches
+         builder.invocationBatching().enable();
+         builder.transaction().transactionMode(TransactionMode.TRANSACTIONAL).lockingMode(LockingMode.PESSIMISTIC);
+         manager.defineConfiguration(CACHE_NAME, builder.build());
+         registry = new RegionRegistry(manager.<Object, Object> getCache(CACHE_NAME));
+         REGISTRIES.put(manager, registry);
+         manager.addListener(new StopListener());
+      }
+      return registry;
+   }
+
+   /**
+    * Drops the registry of the given cache manager
+    */
+   private static synchronized void remove(EmbeddedCacheManager manager)
+   {
+      REGISTRIES.remove(manager);
+   }
+
+   /**
+    * Gives the id of the given region, the region is registered if it is not yet known by the cluster.
+    */
+   int getId(String fullName)
+   {
+      Integer id = ids.get(fullName);
+      if (id == null)
+      {
+         int candidate = fullName.hashCode();
+         for (;;)
+         {
+            String name = (String)names.get(candidate);
+            if (name == null)
+            {
+               claim(candidate, fullName);
+               // Read again what has been committed in case another node took the slot first
+               name = (String)names.get(candidate);
+            }
+            if (fullName.equals(name))
+            {
+               break;
+            }
+            // The slot is taken by another region
+            candidate++;
+         }
+         id = candidate;
+         ids.put(fullName, id);
+      }
+      return id.intValue();
+   }
+
+   /**
+    * Takes the given slot for the given region if it is still free and initializes its generation, the lock of
+    * the slot is held cluster-wide until the end of the batch so that no other node can take it at the same time
+    */
+   private void claim(Integer slot, String fullName)
+   {
+      boolean success = false;
+      names.startBatch();
+      try
+      {
+         names.lock(slot);
+         if (names.get(slot) == null)
+         {
+            names.put(slot, fullName);
+            names.put(new GenerationKey(slot), Long.valueOf(System.currentTimeMillis()));
+         }
+         success = true;
+      }
+      finally
+      {
+         names.endBatch(success);
+      }
+   }
+
+   /**
+    * Gives the current generation of the given region, reading a generation never changes it
+    */
+   long getGeneration(int regionId)
+   {
+      Long generation = (Long)names.get(new GenerationKey(regionId));
+      return generation == null ? 0L : generation.longValue();
+   }
+
+   /**
+    * Increments the generation of the given region while holding the lock of its key cluster-wide, which is
+    * how a region is cleared
+    * @return the new generation of the region
+    */
+   long nextGeneration(int regionId)
+   {
+      GenerationKey key = new GenerationKey(regionId);
+      boolean success = false;
+      names.startBatch();
+      try
+      {
+         names.lock(key);
+         Long current = (Long)names.get(key);
+         long generation = current == null ? 1L : current.longValue() + 1;
+         names.put(key, Long.valueOf(generation));
+         success = true;
+         return generation;
+      }
+      finally
+      {
+         names.endBatch(success);
+      }
+   }
+
+   /**
+    * Drops the registry of the cache manager when its registry cache stops, which happens when the cache manager
+    * stops, so that the stopped cache managers are not retained
+    */
+   @Listener
+   public static class StopListener
+   {
+      @CacheStopped
+      public void cacheStopped(CacheStoppedEvent event)
+      {
+         if (CACHE_NAME.equals(event.getCacheName()))
+         {
+            EmbeddedCacheManager manager = event.getCacheManager();
+            remove(manager);
+            manager.removeListener(this);
+         }
+      }
+   }
+}
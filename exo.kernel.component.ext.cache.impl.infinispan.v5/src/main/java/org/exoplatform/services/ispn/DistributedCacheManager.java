@@ -25,6 +25,7 @@ import org.exoplatform.container.util.TemplateConfigurationHelper;
 import org.exoplatform.container.xml.InitParams;
 import org.exoplatform.container.xml.PropertiesParam;
 import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.impl.infinispan.distributed.CacheKeyExternalizer;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.transaction.TransactionService;
@@ -154,6 +155,8 @@ public class DistributedCacheManager implements Startable
                ConfigurationBuilderHolder holder = parser.parse(helper.fillTemplate(configurationFile, parameters));
                GlobalConfigurationBuilder configBuilder = holder.getGlobalConfigurationBuilder();
                Utils.loadJGroupsConfig(configManager, configBuilder.build(), configBuilder);
+               // Marshal the keys of the distributed cache with the compact id of their region
+               configBuilder.serialization().addAdvancedExternalizer(new CacheKeyExternalizer());
                // Create the CacheManager from the new configuration
                EmbeddedCacheManager manager =
                   new DefaultCacheManager(configBuilder.build(), holder.getDefaultConfigurationBuilder().build());
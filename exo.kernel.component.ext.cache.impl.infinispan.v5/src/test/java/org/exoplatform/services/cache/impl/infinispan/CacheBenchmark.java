@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.impl.infinispan;
+
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExoCacheConfig;
+import org.exoplatform.services.cache.impl.infinispan.LocalCluster.Mode;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the throughput and the latency of a mixed workload of gets, puts and removes executed
+ * concurrently against the nodes of a {@link LocalCluster}. The threads are spread over the nodes, each
+ * of them picks the keys uniformly at random among a fixed set of keys of which half are loaded before the
+ * measure.
+ * <p>
+ * It can be launched from the test classpath with the main method, the workload is then configured with the
+ * following system properties, all prefixed by <code>exo.cache.benchmark.</code>: <code>modes</code> the
+ * comma separated list of modes among local, replicated and distributed, <code>nodes</code>,
+ * <code>threads</code>, <code>keys</code>, <code>valueSize</code> in bytes, <code>get</code> and
+ * <code>put</code> the percentages of gets and puts, the remaining operations being removes,
+ * <code>owners</code> the amount of copies of the distributed entries, <code>warmup</code> and
+ * <code>duration</code> in seconds.
+ *
+ * @version $Id$
+ */
+public class CacheBenchmark
+{
+   private static final String PREFIX = "exo.cache.benchmark.";
+
+   /**
+    * The amount of entries loaded at once before the measure
+    */
+   private static final int LOAD_CHUNK_SIZE = 1000;
+
+   static final int GET = 0;
+
+   static final int PUT = 1;
+
+   static final int REMOVE = 2;
+
+   static final String[] OPERATIONS = {"get", "put", "remove"};
+
+   private final int threads;
+
+   private final String[] keys;
+
+   private final byte[] value;
+
+   private final int getPercent;
+
+   private final int putPercent;
+
+   /**
+    * @param threads the total amount of threads
+    * @param keys the amount of distinct keys
+    * @param valueSize the size in bytes of the values
+    * @param getPercent the percentage of gets
+    * @param putPercent the percentage of puts, the remaining operations are removes
+    */
+   public CacheBenchmark(int threads, int keys, int valueSize, int getPercent, int putPercent)
+   {
+      if (threads <= 0 || keys <= 0 || valueSize < 0 || getPercent < 0 || putPercent < 0
+         || getPercent + putPercent > 100)
+      {
+         throw new IllegalArgumentException("Invalid workload");
+      }
+      this.threads = threads;
+      this.keys = new String[keys];
+      for (int i = 0; i < keys; i++)
+      {
+         this.keys[i] = "key-" + i;
+      }
+      this.value = new byte[valueSize];
+      new Random(0).nextBytes(value);
+      this.getPercent = getPercent;
+      this.putPercent = putPercent;
+   }
+
+   /**
+    * Executes the workload against the given cluster
+    *
+    * @param cluster the cluster on which the workload is executed
+    * @param warmupMillis the amount of milliseconds during which the workload is executed before the measure
+    * @param durationMillis the amount of milliseconds during which the workload is measured
+    * @return the result of the measure
+    * @throws InterruptedException if the current thread is interrupted
+    */
+   public Result run(LocalCluster cluster, long warmupMillis, long durationMillis) throws InterruptedException
+   {
+      List<ExoCache<Serializable, Object>> caches = cluster.getCaches();
+      Map<Serializable, Object> chunk = new HashMap<Serializable, Object>();
+      for (int i = 0; i < keys.length; i += 2)
+      {
+         chunk.put(keys[i], value);
+         if (chunk.size() == LOAD_CHUNK_SIZE)
+         {
+            caches.get(0).putMap(chunk);
+            chunk.clear();
+         }
+      }
+      caches.get(0).putMap(chunk);
+      AtomicBoolean measuring = new AtomicBoolean();
+      AtomicBoolean stopped = new AtomicBoolean();
+      Worker[] workers = new Worker[threads];
+      Thread[] workerThreads = new Thread[threads];
+      for (int i = 0; i < threads; i++)
+      {
+         workers[i] = new Worker(caches.get(i % caches.size()), i, measuring, stopped);
+         workerThreads[i] = new Thread(workers[i], "CacheBenchmark-" + i);
+         workerThreads[i].start();
+      }
+      long duration;
+      try
+      {
+         Thread.sleep(warmupMillis);
+         measuring.set(true);
+         long start = System.nanoTime();
+         Thread.sleep(durationMillis);
+         measuring.set(false);
+         duration = System.nanoTime() - start;
+      }
+      finally
+      {
+         stopped.set(true);
+         for (Thread thread : workerThreads)
+         {
+            thread.join();
+         }
+      }
+      Result result = new Result(cluster.getMode(), caches.size(), threads, duration);
+      for (Worker worker : workers)
+      {
+         for (int i = 0; i < OPERATIONS.length; i++)
+         {
+            result.histograms[i].add(worker.histograms[i]);
+         }
+         result.errors += worker.errors;
+      }
+      return result;
+   }
+
+   /**
+    * Executes the workload configured by the system properties against each requested mode and prints
+    * the results
+    */
+   public static void main(String[] args) throws Exception
+   {
+      String[] modes = System.getProperty(PREFIX + "modes", "local,replicated,distributed").split(",");
+      int nodes = Integer.getInteger(PREFIX + "nodes", 3);
+      int owners = Integer.getInteger(PREFIX + "owners", 2);
+      int keys = Integer.getInteger(PREFIX + "keys", 10000);
+      long warmup = Integer.getInteger(PREFIX + "warmup", 5) * 1000L;
+      long duration = Integer.getInteger(PREFIX + "duration", 20) * 1000L;
+      CacheBenchmark benchmark =
+         new CacheBenchmark(Integer.getInteger(PREFIX + "threads", 8), keys, Integer.getInteger(
+            PREFIX + "valueSize", 256), Integer.getInteger(PREFIX + "get", 80), Integer.getInteger(PREFIX + "put", 15));
+      try
+      {
+         for (String mode : modes)
+         {
+            ExoCacheConfig config = new ExoCacheConfig();
+            config.setName("benchmark-" + mode.trim());
+            config.setMaxSize(keys * 2);
+            LocalCluster cluster =
+               new LocalCluster(Mode.valueOf(mode.trim().toUpperCase(Locale.ENGLISH)), nodes, owners, config);
+            try
+            {
+               System.out.println(benchmark.run(cluster, warmup, duration));//NOSONAR
+            }
+            finally
+            {
+               cluster.stop();
+            }
+         }
+      }
+      finally
+      {
+         // Some threads of the container are not daemon threads
+         System.exit(0);//NOSONAR
+      }
+   }
+
+   /**
+    * Executes the workload against one node
+    */
+   private class Worker implements Runnable
+   {
+      private final ExoCache<Serializable, Object> cache;
+
+      private final Random random;
+
+      private final AtomicBoolean measuring;
+
+      private final AtomicBoolean stopped;
+
+      private final Histogram[] histograms = {new Histogram(), new Histogram(), new Histogram()};
+
+      private long errors;
+
+      Worker(ExoCache<Serializable, Object> cache, long seed, AtomicBoolean measuring, AtomicBoolean stopped)
+      {
+         this.cache = cache;
+         this.random = new Random(seed);
+         this.measuring = measuring;
+         this.stopped = stopped;
+      }
+
+      public void run()
+      {
+         while (!stopped.get())
+         {
+            String key = keys[random.nextInt(keys.length)];
+            int percent = random.nextInt(100);
+            int operation = percent < getPercent ? GET : percent < getPercent + putPercent ? PUT : REMOVE;
+            long start = System.nanoTime();
+            try
+            {
+               switch (operation)
+               {
+                  case GET :
+                     cache.get(key);
+                     break;
+                  case PUT :
+                     cache.put(key, value);
+                     break;
+                  default :
+                     cache.remove(key);
+               }
+            }
+            catch (RuntimeException e)
+            {
+               errors++;
+               continue;
+            }
+            if (measuring.get())
+            {
+               histograms[operation].record(System.nanoTime() - start);
+            }
+         }
+      }
+   }
+
+   /**
+    * The throughput and the latencies measured by a run
+    */
+   public static class Result
+   {
+      private final Mode mode;
+
+      private final int nodes;
+
+      private final int threads;
+
+      private final long durationNanos;
+
+      private final Histogram[] histograms = {new Histogram(), new Histogram(), new Histogram()};
+
+      private long errors;
+
+      Result(Mode mode, int nodes, int threads, long durationNanos)
+      {
+         this.mode = mode;
+         this.nodes = nodes;
+         this.threads = threads;
+         this.durationNanos = durationNanos;
+      }
+
+      /**
+       * @return the amount of operations executed during the measure
+       */
+      public long getOperations()
+      {
+         long count = 0;
+         for (Histogram histogram : histograms)
+         {
+            count += histogram.count;
+         }
+         return count;
+      }
+
+      /**
+       * @param operation the operation among {@link CacheBenchmark#GET}, {@link CacheBenchmark#PUT} and
+       * {@link CacheBenchmark#REMOVE}
+       * @return the amount of operations of the given type executed during the measure
+       */
+      public long getOperations(int operation)
+      {
+         return histograms[operation].count;
+      }
+
+      /**
+       * @return the amount of operations per second
+       */
+      public double getThroughput()
+      {
+         return durationNanos == 0 ? 0 : getOperations() * 1e9 / durationNanos;
+      }
+
+      /**
+       * @return the amount of operations that failed during the whole run
+       */
+      public long getErrors()
+      {
+         return errors;
+      }
+
+      /**
+       * Estimates the latency under which the given fraction of the operations of the given type are
+       *
+       * @return the latency in nanoseconds
+       */
+      public long getLatency(int operation, double fraction)
+      {
+         return histograms[operation].percentile(fraction);
+      }
+
+      @Override
+      public String toString()
+      {
+         StringBuilder sb = new StringBuilder();
+         sb.append(String.format(Locale.ENGLISH, "%s: %d nodes, %d threads, %d ops in %.1f s, %.0f ops/s, %d errors",
+            mode.name().toLowerCase(Locale.ENGLISH), nodes, threads, getOperations(), durationNanos / 1e9,
+            getThroughput(), errors));
+         for (int i = 0; i < OPERATIONS.length; i++)
+         {
+            Histogram histogram = histograms[i];
+            sb.append(String.format(Locale.ENGLISH,
+               "%n   %-6s %10d ops  p50=%.1fus  p90=%.1fus  p99=%.1fus  p99.9=%.1fus  max=%.1fus", OPERATIONS[i],
+               histogram.count, histogram.percentile(0.5) / 1e3, histogram.percentile(0.9) / 1e3,
+               histogram.percentile(0.99) / 1e3, histogram.percentile(0.999) / 1e3, histogram.max / 1e3));
+         }
+         return sb.toString();
+      }
+   }
+
+   /**
+    * A histogram of durations owned by one thread, each power of two is split into four buckets so that
+    * the percentiles are estimated with an error of at most 12.5%
+    */
+   static class Histogram
+   {
+      private static final int SUB_BUCKET_BITS = 2;
+
+      private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+      private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+      private final long[] buckets = new long[BUCKETS];
+
+      private long count;
+
+      private long max;
+
+      void record(long nanos)
+      {
+         buckets[indexOf(Math.max(0, nanos))]++;
+         count++;
+         max = Math.max(max, nanos);
+      }
+
+      void add(Histogram histogram)
+      {
+         for (int i = 0; i < BUCKETS; i++)
+         {
+            buckets[i] += histogram.buckets[i];
+         }
+         count += histogram.count;
+         max = Math.max(max, histogram.max);
+      }
+
+      static int indexOf(long nanos)
+      {
+         if (nanos < SUB_BUCKETS)
+         {
+            return (int)nanos;
+         }
+         int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+         int subBucket = (int)(nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+         return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+      }
+
+      static long lowerBoundOf(int index)
+      {
+         if (index < SUB_BUCKETS)
+         {
+            return index;
+         }
+         int shift = index / SUB_BUCKETS - 1;
+         return (long)(SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+      }
+
+      /**
+       * Estimates the duration under which the given fraction of the recorded durations are
+       */
+      long percentile(double fraction)
+      {
+         if (count == 0)
+         {
+            return 0;
+         }
+         long rank = Math.max(1, (long)Math.ceil(fraction * count));
+         long seen = 0;
+         for (int i = 0; i < BUCKETS; i++)
+         {
+            seen += buckets[i];
+            if (seen >= rank)
+            {
+               // We take the middle of the bucket without going beyond the maximum
+               long lowerBound = lowerBoundOf(i);
+               long upperBound = i == BUCKETS - 1 ? Long.MAX_VALUE : lowerBoundOf(i + 1) - 1;
+               return Math.min(max, lowerBound + (upperBound - lowerBound) / 2);
+            }
+         }
+         return max;
+      }
+   }
+}
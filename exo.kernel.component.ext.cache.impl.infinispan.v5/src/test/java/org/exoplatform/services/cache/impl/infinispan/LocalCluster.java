@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.impl.infinispan;
+
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.PortalContainer;
+import org.exoplatform.container.configuration.ConfigurationManager;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExoCacheConfig;
+import org.exoplatform.services.cache.impl.infinispan.distributed.DistributedExoCache;
+import org.exoplatform.services.ispn.DistributedCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cluster of cache nodes started within the same JVM. The nodes communicate over a loopback JGroups stack
+ * so that the messages are marshalled and go through the whole protocol stack without leaving the JVM.
+ * Each node has its own {@link ExoCacheFactoryImpl} and, for the distributed regions, its own
+ * {@link DistributedCacheManager}.
+ *
+ * @version $Id$
+ */
+public class LocalCluster
+{
+   /**
+    * The kind of regions created on each node
+    */
+   public enum Mode {
+      LOCAL, REPLICATED, DISTRIBUTED
+   }
+
+   /**
+    * The configuration of the cache managers of the local and replicated regions
+    */
+   static final String CACHE_CONFIG_TEMPLATE = "jar:/conf/portal/benchmark-cache-configuration-template.xml";
+
+   /**
+    * The configuration of the cache managers of the distributed regions
+    */
+   static final String DISTRIBUTED_CACHE_CONFIG = "jar:/conf/portal/benchmark-distributed-cache-configuration.xml";
+
+   /**
+    * The maximum amount of time to wait for all the nodes to join the cluster
+    */
+   private static final long JOIN_TIMEOUT = 60000;
+
+   private final Mode mode;
+
+   private final List<ExoCacheFactoryImpl> factories = new ArrayList<ExoCacheFactoryImpl>();
+
+   private final List<DistributedCacheManager> managers = new ArrayList<DistributedCacheManager>();
+
+   private final List<ExoCache<Serializable, Object>> caches = new ArrayList<ExoCache<Serializable, Object>>();
+
+   /**
+    * Starts the nodes and creates on each of them the region described by the given configuration
+    *
+    * @param mode the kind of region to create
+    * @param nodes the amount of nodes
+    * @param numOwners the amount of copies of each entry of a distributed region
+    * @param config the configuration of the region
+    * @throws Exception if a node cannot be started or if the nodes could not join the cluster in time
+    */
+   public LocalCluster(Mode mode, int nodes, int numOwners, ExoCacheConfig config) throws Exception
+   {
+      this.mode = mode;
+      PortalContainer pc = PortalContainer.getInstance();
+      ExoContainerContext ctx = (ExoContainerContext)pc.getComponentInstanceOfType(ExoContainerContext.class);
+      ConfigurationManager cm = (ConfigurationManager)pc.getComponentInstanceOfType(ConfigurationManager.class);
+      Map<String, String> params = new HashMap<String, String>();
+      params.put("infinispan-num-owners", String.valueOf(numOwners));
+      config.setReplicated(mode == Mode.REPLICATED);
+      config.setDistributed(mode == Mode.DISTRIBUTED);
+      try
+      {
+         for (int i = 0; i < nodes; i++)
+         {
+            DistributedCacheManager dcm = null;
+            if (mode == Mode.DISTRIBUTED)
+            {
+               dcm = new DistributedCacheManager(DISTRIBUTED_CACHE_CONFIG, params, cm);
+               managers.add(dcm);
+            }
+            ExoCacheFactoryImpl factory = new ExoCacheFactoryImpl(ctx, CACHE_CONFIG_TEMPLATE, cm, dcm);
+            factories.add(factory);
+            caches.add(factory.createCache(config));
+         }
+         waitForMembers(nodes);
+      }
+      catch (Exception e)
+      {
+         stop();
+         throw e;
+      }
+   }
+
+   /**
+    * Waits until all the nodes have joined the cluster of the region
+    */
+   private void waitForMembers(int nodes) throws InterruptedException
+   {
+      EmbeddedCacheManager manager;
+      if (mode == Mode.LOCAL)
+      {
+         return;
+      }
+      else if (mode == Mode.DISTRIBUTED)
+      {
+         manager = managers.get(0).getCache(DistributedExoCache.CACHE_NAME).getCacheManager();
+      }
+      else
+      {
+         manager = factories.get(0).getCacheManager();
+      }
+      long deadline = System.currentTimeMillis() + JOIN_TIMEOUT;
+      while (manager.getMembers() == null || manager.getMembers().size() < nodes)
+      {
+         if (System.currentTimeMillis() > deadline)
+         {
+            throw new IllegalStateException("Only " + manager.getMembers() + " joined the cluster out of " + nodes
+               + " nodes");
+         }
+         Thread.sleep(100);
+      }
+   }
+
+   /**
+    * @return the kind of region created on each node
+    */
+   public Mode getMode()
+   {
+      return mode;
+   }
+
+   /**
+    * @return the region of each node
+    */
+   public List<ExoCache<Serializable, Object>> getCaches()
+   {
+      return Collections.unmodifiableList(caches);
+   }
+
+   /**
+    * Stops all the nodes
+    */
+   public void stop()
+   {
+      for (DistributedCacheManager dcm : managers)
+      {
+         dcm.stop();
+      }
+      for (ExoCacheFactoryImpl factory : factories)
+      {
+         factory.getCacheManager().stop();
+      }
+   }
+}
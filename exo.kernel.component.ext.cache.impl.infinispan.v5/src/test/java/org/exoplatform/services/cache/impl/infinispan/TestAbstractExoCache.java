@@ -32,9 +32,11 @@ import org.exoplatform.services.cache.ExoCacheConfig;
 import org.exoplatform.services.cache.ExoCacheFactory;
 import org.exoplatform.services.cache.ExoCacheInitException;
 import org.exoplatform.services.cache.ObjectCacheInfo;
+import org.exoplatform.services.cache.Weigher;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -97,6 +99,37 @@ public class TestAbstractExoCache extends TestCase
       cache.clearCache();
    }
 
+   public void testGetAll() throws Exception
+   {
+      cache.put(new MyKey("a"), "a");
+      cache.put(new MyKey("b"), "b");
+      int hits = cache.getCacheHit();
+      int misses = cache.getCacheMiss();
+      Map<Serializable, Object> values =
+         cache.getAll(Arrays.<Serializable> asList(new MyKey("a"), new MyKey("b"), new MyKey("x"), null));
+      assertEquals(2, values.size());
+      assertEquals("a", values.get(new MyKey("a")));
+      assertEquals("b", values.get(new MyKey("b")));
+      assertEquals(2, cache.getCacheHit() - hits);
+      assertEquals(1, cache.getCacheMiss() - misses);
+
+      cache.clearCache();
+   }
+
+   public void testRemoveAll() throws Exception
+   {
+      cache.put(new MyKey("a"), 1);
+      cache.put(new MyKey("b"), 2);
+      cache.put(new MyKey("c"), 3);
+      assertEquals(3, cache.getCacheSize());
+      cache.removeAll(Arrays.<Serializable> asList(new MyKey("a"), new MyKey("b"), new MyKey("x")));
+      assertEquals(1, cache.getCacheSize());
+      assertEquals(null, cache.get(new MyKey("a")));
+      assertEquals(3, cache.get(new MyKey("c")));
+
+      cache.clearCache();
+   }
+
    public void testPutMap() throws Exception
    {
       Map<Serializable, Object> values = new HashMap<Serializable, Object>();
@@ -137,6 +170,14 @@ public class TestAbstractExoCache extends TestCase
       values.put(new MyKey("d"), "d");
       cache.putMap(values);
       assertEquals(2, cache.getCacheSize());
+      // The null values are ignored
+      values = new HashMap<Serializable, Object>();
+      values.put(new MyKey("f"), "f");
+      values.put(new MyKey("g"), null);
+      cache.putMap(values);
+      assertEquals(3, cache.getCacheSize());
+      assertEquals("f", cache.get(new MyKey("f")));
+      assertNull(cache.get(new MyKey("g")));
 
       cache.clearCache();
    }
@@ -735,6 +776,70 @@ public class TestAbstractExoCache extends TestCase
       cache.clearCache();
    }
 
+   public void testMaxWeight() throws Exception
+   {
+      assertEquals(-1, cache.getCacheWeight());
+      cache.setWeigher(new Weigher<Serializable, Object>()
+      {
+         public int weigh(Serializable key, Object value)
+         {
+            return ((String)value).length();
+         }
+      });
+      cache.setMaxWeight(10);
+      try
+      {
+         cache.put(new MyKey("a"), "aaaa");
+         cache.put(new MyKey("b"), "bbbb");
+         assertEquals(8, cache.getCacheWeight());
+         cache.put(new MyKey("b"), "bb");
+         assertEquals(6, cache.getCacheWeight());
+         cache.remove(new MyKey("b"));
+         assertEquals(4, cache.getCacheWeight());
+         cache.put(new MyKey("c"), "cccc");
+         cache.put(new MyKey("d"), "dddd");
+         assertTrue(cache.getCacheWeight() <= 9);
+         assertTrue(cache.getCacheSize() < 3);
+         // The least recently written entry is evicted first
+         assertNull(cache.get(new MyKey("a")));
+         assertEquals("dddd", cache.get(new MyKey("d")));
+         cache.clearCache();
+         assertEquals(0, cache.getCacheWeight());
+      }
+      finally
+      {
+         cache.setMaxWeight(0);
+         cache.setWeigher(null);
+         cache.clearCache();
+      }
+   }
+
+   public void testAsync() throws Exception
+   {
+      cache.putAsync(new MyKey("a"), "a").get();
+      cache.putAsync(new MyKey("b"), "b", 60000).get();
+      assertTrue(cache.putAsync(new MyKey("c"), null).isDone());
+      assertEquals(2, cache.getCacheSize());
+      assertEquals("a", cache.getAsync(new MyKey("a")).get());
+      assertEquals("b", cache.getAsync(new MyKey("b")).get());
+      assertNull(cache.getAsync(new MyKey("c")).get());
+      assertNull(cache.getAsync(null).get());
+      assertEquals("a", cache.removeAsync(new MyKey("a")).get());
+      assertNull(cache.get(new MyKey("a")));
+      assertEquals(1, cache.getCacheSize());
+      try
+      {
+         cache.putAsync(null, "a");
+         fail("An IllegalArgumentException was expected");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+
+      cache.clearCache();
+   }
+
    public void testClearCache() throws Exception
    {
       cache.put(new MyKey("a"), "a");
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.impl.infinispan;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.cache.ExoCacheConfig;
+import org.exoplatform.services.cache.impl.infinispan.CacheBenchmark.Result;
+import org.exoplatform.services.cache.impl.infinispan.LocalCluster.Mode;
+
+/**
+ * Runs a short workload against each kind of region to make sure that the benchmark harness works, the
+ * figures themselves are not checked.
+ *
+ * @version $Id$
+ */
+public class TestCacheBenchmark extends TestCase
+{
+
+   public void testHistogram()
+   {
+      CacheBenchmark.Histogram histogram = new CacheBenchmark.Histogram();
+      for (int i = 1; i <= 1000; i++)
+      {
+         histogram.record(i * 1000L);
+      }
+      assertEquals(500000, histogram.percentile(0.5), 500000 / 8);
+      assertEquals(990000, histogram.percentile(0.99), 990000 / 8);
+      assertTrue(histogram.percentile(1) <= 1000000);
+      CacheBenchmark.Histogram total = new CacheBenchmark.Histogram();
+      total.add(histogram);
+      total.add(histogram);
+      assertEquals(histogram.percentile(0.5), total.percentile(0.5));
+   }
+
+   public void testLocal() throws Exception
+   {
+      run(Mode.LOCAL);
+   }
+
+   public void testReplicated() throws Exception
+   {
+      run(Mode.REPLICATED);
+   }
+
+   public void testDistributed() throws Exception
+   {
+      run(Mode.DISTRIBUTED);
+   }
+
+   private void run(Mode mode) throws Exception
+   {
+      ExoCacheConfig config = new ExoCacheConfig();
+      config.setName("TestCacheBenchmark-" + mode);
+      config.setMaxSize(1000);
+      LocalCluster cluster = new LocalCluster(mode, 2, 1, config);
+      try
+      {
+         assertEquals(2, cluster.getCaches().size());
+         Result result = new CacheBenchmark(4, 100, 64, 60, 30).run(cluster, 100, 500);
+         assertTrue(result.getOperations() > 0);
+         assertTrue(result.getOperations(CacheBenchmark.GET) > 0);
+         assertTrue(result.getThroughput() > 0);
+         assertEquals(0, result.getErrors());
+         assertTrue(result.getLatency(CacheBenchmark.GET, 0.5) <= result.getLatency(CacheBenchmark.GET, 0.99));
+         if (mode != Mode.LOCAL)
+         {
+            // The nodes form one single cluster
+            cluster.getCaches().get(0).put("TestCacheBenchmark", "a");
+            assertEquals("a", cluster.getCaches().get(1).get("TestCacheBenchmark"));
+         }
+      }
+      finally
+      {
+         cluster.stop();
+      }
+   }
+}
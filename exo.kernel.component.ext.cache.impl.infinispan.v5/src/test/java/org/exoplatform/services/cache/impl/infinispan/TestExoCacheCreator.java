@@ -18,7 +18,9 @@
  */
 package org.exoplatform.services.cache.impl.infinispan;
 
+import org.exoplatform.services.cache.CacheCursor;
 import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheStatistics;
 import org.exoplatform.services.cache.CachedObjectSelector;
 import org.exoplatform.services.cache.ExoCache;
 import org.exoplatform.services.cache.ExoCacheConfig;
@@ -27,6 +29,7 @@ import org.infinispan.Cache;
 import org.infinispan.configuration.cache.ConfigurationBuilder;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -79,6 +82,11 @@ public class TestExoCacheCreator implements ExoCacheCreator
          return 0;
       }
 
+      public CacheStatistics getStatistics()
+      {
+         return null;
+      }
+
       public int getCacheSize()
       {
          return 0;
@@ -104,6 +112,11 @@ public class TestExoCacheCreator implements ExoCacheCreator
          return 0;
       }
 
+      public long getCacheWeight()
+      {
+         return -1;
+      }
+
       public String getName()
       {
          return "name";
@@ -174,11 +187,21 @@ public class TestExoCacheCreator implements ExoCacheCreator
          return null;
       }
 
+      public Map<Serializable, Object> getAll(Collection<? extends Serializable> keys) throws NullPointerException
+      {
+         return Collections.emptyMap();
+      }
+
       public void put(Serializable key, Object value) throws NullPointerException
       {
 
       }
 
+      public void put(Serializable key, Object value, long liveTimeMillis) throws NullPointerException
+      {
+
+      }
+
       public void putMap(Map objs) throws NullPointerException, IllegalArgumentException
       {
 
@@ -189,10 +212,26 @@ public class TestExoCacheCreator implements ExoCacheCreator
          return null;
       }
 
+      public void removeAll(Collection<? extends Serializable> keys) throws NullPointerException,
+         IllegalArgumentException
+      {
+
+      }
+
+      public void removeByPrefix(String prefix) throws NullPointerException
+      {
+
+      }
+
       public List removeCachedObjects()
       {
          return null;
       }
 
+      public CacheCursor openCursor(int chunkSize)
+      {
+         return null;
+      }
+
    }
 }
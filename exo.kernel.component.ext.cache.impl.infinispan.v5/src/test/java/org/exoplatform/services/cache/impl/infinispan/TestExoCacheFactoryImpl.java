@@ -20,9 +20,12 @@ package org.exoplatform.services.cache.impl.infinispan;
 
 import junit.framework.TestCase;
 
+import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.PortalContainer;
+import org.exoplatform.container.configuration.ConfigurationManager;
 import org.exoplatform.services.cache.CacheService;
 import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExoCacheConfig;
 import org.exoplatform.services.cache.impl.infinispan.TestExoCacheCreator.TestExoCache;
 import org.infinispan.configuration.cache.CacheMode;
 import org.infinispan.manager.CacheContainer;
@@ -32,7 +35,7 @@ import org.infinispan.manager.CacheContainer;
  * @version $Id$
  *
  */
-@SuppressWarnings("rawtypes")
+@SuppressWarnings({"rawtypes", "unchecked"})
 public class TestExoCacheFactoryImpl extends TestCase
 {
 
@@ -104,4 +107,34 @@ public class TestExoCacheFactoryImpl extends TestCase
       aCache1.cache.stop();
       aCache2.cache.stop();
    }
+
+   public void testParallelCreation() throws Exception
+   {
+      PortalContainer pc = PortalContainer.getInstance();
+      ExoCacheFactoryImpl factory =
+         new ExoCacheFactoryImpl((ExoContainerContext)pc.getComponentInstanceOfType(ExoContainerContext.class),
+            "jar:/conf/portal/cache-configuration-template.xml", ExoCacheFactoryImpl.CREATION_MODE_PARALLEL, "2",
+            (ConfigurationManager)pc.getComponentInstanceOfType(ConfigurationManager.class), null);
+      LazyExoCache[] caches = new LazyExoCache[4];
+      for (int i = 0; i < caches.length; i++)
+      {
+         ExoCacheConfig config = new ExoCacheConfig();
+         config.setName("parallel-" + i);
+         config.setMaxSize(100);
+         ExoCache cache = factory.createCache(config);
+         assertTrue("expect an instance of LazyExoCache", cache instanceof LazyExoCache);
+         caches[i] = (LazyExoCache)cache;
+      }
+      for (LazyExoCache cache : caches)
+      {
+         cache.put("a", "a");
+         assertEquals("a", cache.get("a"));
+         assertTrue(cache.isCreated());
+         assertTrue("expect an instance of AbstractExoCache", cache.getDelegate() instanceof AbstractExoCache);
+         AbstractExoCache aCache = (AbstractExoCache)cache.getDelegate();
+         assertTrue("expect a local cache",
+            aCache.cache.getCacheConfiguration().clustering().cacheMode() == CacheMode.LOCAL);
+      }
+      factory.getCacheManager().stop();
+   }
 }
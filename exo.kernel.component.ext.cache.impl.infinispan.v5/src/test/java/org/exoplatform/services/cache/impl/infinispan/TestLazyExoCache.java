@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2014 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.exoplatform.services.cache.impl.infinispan;
+
+import junit.framework.TestCase;
+
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.CacheStatistics;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.cache.ExoCacheConfig;
+import org.exoplatform.services.cache.concurrent.ConcurrentFIFOExoCache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @version $Id$
+ */
+public class TestLazyExoCache extends TestCase
+{
+
+   private ExoCacheConfig config;
+
+   private AtomicInteger creations;
+
+   @Override
+   protected void setUp() throws Exception
+   {
+      config = new ExoCacheConfig();
+      config.setName("lazy");
+      config.setLabel("lazy-label");
+      config.setMaxSize(100);
+      config.setLiveTime(60);
+      creations = new AtomicInteger();
+   }
+
+   public void testCreationOnFirstAccess()
+   {
+      LazyExoCache<String, String> cache = new LazyExoCache<String, String>(config, creator(null));
+      // The configuration is enough to describe the region
+      assertEquals("lazy", cache.getName());
+      assertEquals("lazy-label", cache.getLabel());
+      assertEquals(100, cache.getMaxSize());
+      assertEquals(60, cache.getLiveTime());
+      assertEquals(0, cache.getCacheSize());
+      assertEquals(0, cache.getCacheHit());
+      // The statistics can be registered before the creation
+      CacheStatistics statistics = cache.getStatistics();
+      assertNotNull(statistics);
+      assertEquals(0, statistics.getHitCount());
+      final AtomicReference<String> put = new AtomicReference<String>();
+      cache.addCacheListener(new CacheListener<String, String>()
+      {
+         public void onExpire(CacheListenerContext context, String key, String obj) throws Exception
+         {
+         }
+
+         public void onRemove(CacheListenerContext context, String key, String obj) throws Exception
+         {
+         }
+
+         public void onPut(CacheListenerContext context, String key, String obj) throws Exception
+         {
+            put.set(obj);
+         }
+
+         public void onGet(CacheListenerContext context, String key, String obj) throws Exception
+         {
+         }
+
+         public void onClearCache(CacheListenerContext context) throws Exception
+         {
+         }
+      });
+      assertEquals(0, creations.get());
+      assertFalse(cache.isCreated());
+
+      cache.put("a", "a");
+      assertTrue(cache.isCreated());
+      assertEquals(1, creations.get());
+      // The listener added before the creation has been given to the cache
+      assertEquals("a", put.get());
+      assertEquals("a", cache.get("a"));
+      assertEquals(1, cache.getCacheSize());
+      assertEquals(1, cache.getCacheHit());
+      // The statistics forward to the ones of the created cache
+      assertSame(statistics, cache.getStatistics());
+      assertEquals(1, statistics.getHitCount());
+      assertEquals(1, statistics.getPutCount());
+      assertEquals(1, cache.getDelegate().getStatistics().getHitCount());
+      assertEquals(1, creations.get());
+   }
+
+   public void testCreationInBackground() throws Exception
+   {
+      CountDownLatch release = new CountDownLatch(1);
+      final LazyExoCache<String, String> cache = new LazyExoCache<String, String>(config, creator(release));
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try
+      {
+         cache.start(executor);
+         final CountDownLatch done = new CountDownLatch(1);
+         Thread reader = new Thread()
+         {
+            public void run()
+            {
+               cache.get("a");
+               done.countDown();
+            }
+         };
+         reader.start();
+         // The access waits for the creation started by the executor
+         assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+         assertFalse(cache.isCreated());
+         release.countDown();
+         assertTrue(done.await(10, TimeUnit.SECONDS));
+         assertTrue(cache.isCreated());
+         assertEquals(1, creations.get());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   public void testCreationFailure()
+   {
+      LazyExoCache<String, String> cache =
+         new LazyExoCache<String, String>(config, new Callable<ExoCache<String, String>>()
+         {
+            public ExoCache<String, String> call() throws Exception
+            {
+               throw new Exception("failure");
+            }
+         });
+      try
+      {
+         cache.get("a");
+         fail("An IllegalStateException was expected");
+      }
+      catch (IllegalStateException e)
+      {
+         assertEquals("failure", e.getCause().getMessage());
+      }
+      assertFalse(cache.isCreated());
+      assertEquals("lazy", cache.getName());
+      assertEquals(0, cache.getStatistics().getHitCount());
+   }
+
+   private Callable<ExoCache<String, String>> creator(final CountDownLatch release)
+   {
+      return new Callable<ExoCache<String, String>>()
+      {
+         public ExoCache<String, String> call() throws Exception
+         {
+            if (release != null)
+            {
+               release.await();
+            }
+            creations.incrementAndGet();
+            return new ConcurrentFIFOExoCache<String, String>(config.getName(), config.getMaxSize());
+         }
+      };
+   }
+}
@@ -23,13 +23,16 @@ import junit.framework.TestCase;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.container.configuration.ConfigurationManager;
+import org.exoplatform.services.cache.CacheCursor;
 import org.exoplatform.services.cache.CacheListener;
 import org.exoplatform.services.cache.CacheListenerContext;
 import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.CacheStatistics;
 import org.exoplatform.services.cache.CachedObjectSelector;
 import org.exoplatform.services.cache.ExoCache;
 import org.exoplatform.services.cache.ExoCacheConfig;
 import org.exoplatform.services.cache.ExoCacheFactory;
+import org.exoplatform.services.cache.ExpireKeyStartWithSelector;
 import org.exoplatform.services.cache.ObjectCacheInfo;
 import org.exoplatform.services.cache.impl.infinispan.ExoCacheFactoryImpl;
 import org.exoplatform.services.ispn.DistributedCacheManager;
@@ -38,10 +41,16 @@ import org.infinispan.affinity.KeyAffinityServiceFactory;
 import org.infinispan.affinity.KeyGenerator;
 import org.infinispan.distribution.DistributionManager;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -97,6 +106,71 @@ public class TestDistributedExoCache extends TestCase
       assertEquals(4, cache.getCacheSize());
    }
 
+   public void testPutWithLiveTime() throws Exception
+   {
+      cache.put(new MyKey("a"), "a", 200);
+      cache.put(new MyKey("b"), "b", 60000);
+      // A negative time to live means that the entry never expires
+      cache.put(new MyKey("c"), "c", -1);
+      // A time to live of 0 means that the entry is not put
+      cache.put(new MyKey("d"), "d", 0);
+      assertEquals("a", cache.get(new MyKey("a")));
+      assertEquals("b", cache.get(new MyKey("b")));
+      assertEquals("c", cache.get(new MyKey("c")));
+      assertNull(cache.get(new MyKey("d")));
+      Thread.sleep(500);
+      assertNull(cache.get(new MyKey("a")));
+      assertEquals("b", cache.get(new MyKey("b")));
+      assertEquals("c", cache.get(new MyKey("c")));
+      // The time to live of the entry overrides the one of the region
+      Thread.sleep(2000);
+      assertEquals("b", cache.get(new MyKey("b")));
+      assertEquals("c", cache.get(new MyKey("c")));
+   }
+
+   public void testPutAsyncWithLiveTime() throws Exception
+   {
+      cache.putAsync(new MyKey("a"), "a", 200).get();
+      cache.putAsync(new MyKey("b"), "b", 60000).get();
+      cache.putAsync(new MyKey("c"), "c", -1).get();
+      assertTrue(cache.putAsync(new MyKey("d"), "d", 0).isDone());
+      assertEquals("a", cache.getAsync(new MyKey("a")).get());
+      assertEquals("b", cache.getAsync(new MyKey("b")).get());
+      assertEquals("c", cache.getAsync(new MyKey("c")).get());
+      assertNull(cache.getAsync(new MyKey("d")).get());
+      Thread.sleep(500);
+      assertNull(cache.getAsync(new MyKey("a")).get());
+      assertEquals("b", cache.getAsync(new MyKey("b")).get());
+      assertEquals("c", cache.getAsync(new MyKey("c")).get());
+      Thread.sleep(2000);
+      assertEquals("b", cache.getAsync(new MyKey("b")).get());
+      assertEquals("c", cache.getAsync(new MyKey("c")).get());
+   }
+
+   public void testAsync() throws Exception
+   {
+      cache.putAsync(new MyKey("a"), "a").get();
+      cache.putAsync(new MyKey("b"), "b", 60000).get();
+      assertTrue(cache.putAsync(new MyKey("c"), null).isDone());
+      assertEquals(2, cache.getCacheSize());
+      assertEquals("a", cache.getAsync(new MyKey("a")).get());
+      assertEquals("b", cache.getAsync(new MyKey("b")).get());
+      assertNull(cache.getAsync(new MyKey("c")).get());
+      assertNull(cache.getAsync(null).get());
+      assertEquals("a", cache.removeAsync(new MyKey("a")).get());
+      assertNull(cache.get(new MyKey("a")));
+      assertEquals(1, cache.getCacheSize());
+      try
+      {
+         cache.putAsync(null, "a");
+         fail("An IllegalArgumentException was expected");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+   }
+
    public void testClearCache() throws Exception
    {
       cache.put(new MyKey("a"), "a");
@@ -107,6 +181,46 @@ public class TestDistributedExoCache extends TestCase
       assertTrue(cache.getCacheSize() == 0);
    }
 
+   public void testClearCacheGeneration() throws Exception
+   {
+      cache.put(new MyKey("a"), "a");
+      cache.put(new MyKey("b"), "b");
+      assertEquals(2, cache.getCacheSize());
+      cache.clearCache();
+      assertEquals(0, cache.getCacheSize());
+      assertNull(cache.get(new MyKey("a")));
+      assertEquals(0, cache.getCachedObjects().size());
+      cache.put(new MyKey("a"), "c");
+      assertEquals("c", cache.get(new MyKey("a")));
+      assertNull(cache.get(new MyKey("b")));
+      assertEquals(1, cache.getCacheSize());
+      // The other regions are not affected
+      assertEquals("a", cache2.get(new MyKey("a")));
+      assertEquals(1, cache2.getCacheSize());
+      cache.remove(new MyKey("a"));
+      assertEquals(0, cache.getCacheSize());
+   }
+
+   public void testRegionId() throws Exception
+   {
+      assertFalse(cache.getRegionId() == cache2.getRegionId());
+      RegionRegistry registry = RegionRegistry.getInstance(cache.getCache());
+      assertEquals(cache.getRegionId(), registry.getId(cache.getFullName()));
+      assertEquals(cache2.getRegionId(), registry.getId(cache2.getFullName()));
+      // A new region gets an id of its own that doesn't change
+      String name = "a-" + cache.getFullName();
+      int id = registry.getId(name);
+      assertFalse(id == cache.getRegionId());
+      assertEquals(id, registry.getId(name));
+      CacheKeyExternalizer externalizer = new CacheKeyExternalizer();
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(baos);
+      DistributedExoCache.CacheKey<MyKey> key = new DistributedExoCache.CacheKey<MyKey>(id, 5, new MyKey("a"));
+      externalizer.writeObject(oos, key);
+      oos.close();
+      assertEquals(key, externalizer.readObject(new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))));
+   }
+
    public void testGet() throws Exception
    {
       cache.put(new MyKey("a"), "a");
@@ -174,6 +288,88 @@ public class TestDistributedExoCache extends TestCase
       assertEquals(2, cache.getCacheSize());
    }
 
+   public void testPutMapStatistics() throws Exception
+   {
+      MyCacheListener listener = new MyCacheListener();
+      cache.addCacheListener(listener);
+      CacheStatistics statistics = cache.getStatistics();
+      long puts = statistics.getPutCount();
+      Map<Serializable, Object> values = new LinkedHashMap<Serializable, Object>();
+      values.put(new MyKey("a"), "a");
+      values.put(new MyKey("b"), "b");
+      // The null values are ignored
+      values.put(new MyKey("c"), null);
+      cache.putMap(values);
+      assertEquals(2, cache.getCacheSize());
+      assertEquals(2, statistics.getPutCount() - puts);
+      assertEquals(2, listener.put);
+      assertEquals(0, listener.get);
+      assertEquals(0, listener.remove);
+   }
+
+   public void testGetAll() throws Exception
+   {
+      cache.put(new MyKey("a"), "a");
+      cache.put(new MyKey("b"), "b");
+      MyCacheListener listener = new MyCacheListener();
+      cache.addCacheListener(listener);
+      CacheStatistics statistics = cache.getStatistics();
+      long hits = statistics.getHitCount();
+      long misses = statistics.getMissCount();
+      Map<Serializable, Object> values =
+         cache.getAll(Arrays.<Serializable> asList(new MyKey("a"), new MyKey("b"), new MyKey("x"), null));
+      assertEquals(2, values.size());
+      assertEquals("a", values.get(new MyKey("a")));
+      assertEquals("b", values.get(new MyKey("b")));
+      assertFalse(values.containsKey(new MyKey("x")));
+      // One hit per found key and one miss per missing key, the null keys are ignored
+      assertEquals(2, statistics.getHitCount() - hits);
+      assertEquals(1, statistics.getMissCount() - misses);
+      assertEquals(3, listener.get);
+      assertEquals(0, listener.put);
+      assertTrue(cache.getAll(Collections.<Serializable> emptyList()).isEmpty());
+      try
+      {
+         cache.getAll(null);
+         fail("An IllegalArgumentException was expected");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+   }
+
+   public void testRemoveAll() throws Exception
+   {
+      cache.put(new MyKey("a"), "a");
+      cache.put(new MyKey("b"), "b");
+      cache.put(new MyKey("c"), "c");
+      MyCacheListener listener = new MyCacheListener();
+      cache.addCacheListener(listener);
+      cache.removeAll(Arrays.<Serializable> asList(new MyKey("a"), new MyKey("b")));
+      assertEquals(1, cache.getCacheSize());
+      assertNull(cache.get(new MyKey("a")));
+      assertNull(cache.get(new MyKey("b")));
+      assertEquals("c", cache.get(new MyKey("c")));
+      assertEquals(2, listener.remove);
+      // The other regions are not affected
+      cache2.removeAll(Arrays.<Serializable> asList(new MyKey("c")));
+      assertEquals("c", cache.get(new MyKey("c")));
+      assertEquals("a", cache2.get(new MyKey("a")));
+      try
+      {
+         cache.removeAll(Arrays.<Serializable> asList(new MyKey("c"), null));
+         fail("An IllegalArgumentException was expected");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+      // Nothing is removed when a key is invalid
+      assertEquals("c", cache.get(new MyKey("c")));
+      assertEquals(2, listener.remove);
+   }
+
    public void testGetCachedObjects() throws Exception
    {
       cache.put(new MyKey("a"), "a");
@@ -229,6 +425,185 @@ public class TestDistributedExoCache extends TestCase
       assertEquals(3, count.intValue());
    }
 
+   public void testRemoveByPrefix() throws Exception
+   {
+      cache.put("a/1", "a1");
+      cache.put("a/2", "a2");
+      cache.put("b/1", "b1");
+      cache.put(new MyKey("a/3"), "a3");
+      // Both regions share the same cache
+      cache2.put("a/1", "a1");
+      cache2.put("a/9", "a9");
+      cache.removeByPrefix("a/");
+      assertNull(cache.get("a/1"));
+      assertNull(cache.get("a/2"));
+      assertEquals("b1", cache.get("b/1"));
+      assertEquals("a3", cache.get(new MyKey("a/3")));
+      assertEquals(2, cache.getCacheSize());
+      // Only the keys of the targeted region are removed
+      assertEquals("a1", cache2.get("a/1"));
+      assertEquals("a9", cache2.get("a/9"));
+      // The index is maintained by the writes once built
+      cache.put("a/4", "a4");
+      cache.removeByPrefix("a/");
+      assertNull(cache.get("a/4"));
+      assertEquals(2, cache.getCacheSize());
+      assertEquals(3, cache2.getCacheSize());
+      try
+      {
+         cache.removeByPrefix(null);
+         fail("An IllegalArgumentException was expected");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // expected
+      }
+   }
+
+   public void testRemoveByPrefixTask() throws Exception
+   {
+      cache.put("a/1", "a1");
+      cache.put("b/1", "b1");
+      cache2.put("a/1", "a1");
+      DistributedExoCache.RemoveByPrefixTask<Serializable, Object> task =
+         new DistributedExoCache.RemoveByPrefixTask<Serializable, Object>(cache.getRegionId(), "a/");
+      // The task survives its serialization
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ObjectOutputStream oos = new ObjectOutputStream(baos);
+      oos.writeObject(task);
+      oos.close();
+      task =
+         (DistributedExoCache.RemoveByPrefixTask<Serializable, Object>)new ObjectInputStream(new ByteArrayInputStream(
+            baos.toByteArray())).readObject();
+      task.setEnvironment(cache.getCache(), null);
+      task.call();
+      assertNull(cache.get("a/1"));
+      assertEquals("b1", cache.get("b/1"));
+      assertEquals("a1", cache2.get("a/1"));
+   }
+
+   public void testSelectByPrefix() throws Exception
+   {
+      cache.put("a/1", "a1");
+      cache.put("b/1", "b1");
+      // The generic selection would fail on this key since the selector expects String keys
+      cache.put(new MyKey("a/2"), "a2");
+      cache2.put("a/1", "a1");
+      cache.select(new ExpireKeyStartWithSelector<Serializable, Object>("a/"));
+      assertNull(cache.get("a/1"));
+      assertEquals("b1", cache.get("b/1"));
+      assertEquals("a2", cache.get(new MyKey("a/2")));
+      assertEquals("a1", cache2.get("a/1"));
+   }
+
+   public void testCursor() throws Exception
+   {
+      for (int i = 0; i < 5; i++)
+      {
+         cache.put(new MyKey("key" + i), "value" + i);
+      }
+      checkCursor(2, 5);
+      // The last chunk of the node is full
+      cache.put(new MyKey("key5"), "value5");
+      checkCursor(2, 6);
+      checkCursor(3, 6);
+      checkCursor(6, 6);
+      checkCursor(7, 6);
+      // The iteration of a node can be closed before the end
+      CacheCursor<Serializable, Object> cursor = cache.openCursor(2);
+      try
+      {
+         assertTrue(cursor.hasNext());
+         assertEquals(2, cursor.next().size());
+      }
+      finally
+      {
+         cursor.close();
+      }
+      checkCursor(4, 6);
+   }
+
+   private void checkCursor(int chunkSize, int total)
+   {
+      Map<Serializable, Object> entries = new HashMap<Serializable, Object>();
+      CacheCursor<Serializable, Object> cursor = cache.openCursor(chunkSize);
+      try
+      {
+         int chunks = 0;
+         while (cursor.hasNext())
+         {
+            Map<Serializable, Object> chunk = cursor.next();
+            assertTrue(chunk.size() <= chunkSize);
+            for (Entry<Serializable, Object> entry : chunk.entrySet())
+            {
+               assertNull("The entry " + entry.getKey() + " has been returned twice",
+                  entries.put(entry.getKey(), entry.getValue()));
+            }
+            assertTrue("The iteration doesn't end", ++chunks <= total / chunkSize + 1);
+         }
+      }
+      finally
+      {
+         cursor.close();
+      }
+      assertEquals(total, entries.size());
+      for (int i = 0; i < total; i++)
+      {
+         assertEquals("value" + i, entries.get(new MyKey("key" + i)));
+      }
+   }
+
+   @SuppressWarnings({"rawtypes", "unchecked"})
+   public void testGetChunkTask() throws Exception
+   {
+      for (int i = 0; i < 4; i++)
+      {
+         cache.put(new MyKey("key" + i), "value" + i);
+      }
+      String id = "testGetChunkTask";
+      DistributedExoCache.GetChunkTask task = new DistributedExoCache.GetChunkTask(cache.getRegionId(), id, 2, true);
+      task.setEnvironment(cache.getCache(), null);
+      DistributedExoCache.Chunk chunk = task.call();
+      assertEquals(2, chunk.getEntries().size());
+      assertFalse(chunk.isExhausted());
+      task = new DistributedExoCache.GetChunkTask(cache.getRegionId(), id, 2, false);
+      task.setEnvironment(cache.getCache(), null);
+      chunk = task.call();
+      assertEquals(2, chunk.getEntries().size());
+      // Exactly full but the node has no more entries
+      assertTrue(chunk.isExhausted());
+      // The node forgot the cursor, it must not restart from the beginning
+      task = new DistributedExoCache.GetChunkTask(cache.getRegionId(), id, 2, false);
+      task.setEnvironment(cache.getCache(), null);
+      try
+      {
+         task.call();
+         fail("An IllegalStateException was expected");
+      }
+      catch (IllegalStateException e)
+      {
+         // expected
+      }
+      // The same goes for a cursor that has been closed
+      task = new DistributedExoCache.GetChunkTask(cache.getRegionId(), id, 1, true);
+      task.setEnvironment(cache.getCache(), null);
+      assertFalse(task.call().isExhausted());
+      task = new DistributedExoCache.GetChunkTask(cache.getRegionId(), id, 0, false);
+      task.setEnvironment(cache.getCache(), null);
+      assertNull(task.call());
+      task = new DistributedExoCache.GetChunkTask(cache.getRegionId(), id, 1, false);
+      task.setEnvironment(cache.getCache(), null);
+      try
+      {
+         task.call();
+         fail("An IllegalStateException was expected");
+      }
+      catch (IllegalStateException e)
+      {
+         // expected
+      }
+   }
+
    public void testGetHitsNMisses() throws Exception
    {
       int hits = cache.getCacheHit();
@@ -514,17 +889,17 @@ public class TestDistributedExoCache extends TestCase
 
       public static final Random rnd = new Random();
 
-      private String fullName;
+      private int regionId;
 
-      public MyKeyGenerator(String fullName)
+      public MyKeyGenerator(int regionId)
       {
-         this.fullName = fullName;
+         this.regionId = regionId;
       }
 
       @Override
       public DistributedExoCache.CacheKey<Serializable> getKey()
       {
-         return new DistributedExoCache.CacheKey<Serializable>(fullName, new MyKey(rnd.nextLong()));
+         return new DistributedExoCache.CacheKey<Serializable>(regionId, new MyKey(rnd.nextLong()));
       }
    }
 
@@ -557,12 +932,14 @@ public class TestDistributedExoCache extends TestCase
          (DistributedExoCache<Serializable, Object>)new ExoCacheFactoryImpl(
             (ExoContainerContext)pc.getComponentInstanceOfType(ExoContainerContext.class),
             "jar:/conf/portal/cache-configuration-template.xml", cm, dcm2).createCache(config);
+      // Both nodes agree on the id of the region
+      assertEquals(cache1.getRegionId(), cache2.getRegionId());
       KeyAffinityService kas1 =
          KeyAffinityServiceFactory.newLocalKeyAffinityService(cache1.getCache(),
-            new MyKeyGenerator(cache1.getFullName()), Executors.newSingleThreadExecutor(), 100);
+            new MyKeyGenerator(cache1.getRegionId()), Executors.newSingleThreadExecutor(), 100);
       KeyAffinityService kas2 =
          KeyAffinityServiceFactory.newLocalKeyAffinityService(cache2.getCache(),
-            new MyKeyGenerator(cache1.getFullName()), Executors.newSingleThreadExecutor(), 100);
+            new MyKeyGenerator(cache1.getRegionId()), Executors.newSingleThreadExecutor(), 100);
 
       try
       {
@@ -629,9 +1006,9 @@ public class TestDistributedExoCache extends TestCase
       cache1.addCacheListener(listener1);
       MyCacheListener listener2 = new MyCacheListener();
       cache2.addCacheListener(listener2);
-      boolean isALocal = dm.getLocality(new DistributedExoCache.CacheKey(cache1.getFullName(), new MyKey(a))).isLocal();
-      boolean isBLocal = dm.getLocality(new DistributedExoCache.CacheKey(cache1.getFullName(), new MyKey(b))).isLocal();
-      boolean isCLocal = dm.getLocality(new DistributedExoCache.CacheKey(cache1.getFullName(), new MyKey(c))).isLocal();
+      boolean isALocal = dm.getLocality(new DistributedExoCache.CacheKey(cache1.getRegionId(), new MyKey(a))).isLocal();
+      boolean isBLocal = dm.getLocality(new DistributedExoCache.CacheKey(cache1.getRegionId(), new MyKey(b))).isLocal();
+      boolean isCLocal = dm.getLocality(new DistributedExoCache.CacheKey(cache1.getRegionId(), new MyKey(c))).isLocal();
       MyKey key = new MyKey(a);
       cache1.put(key, "b");
       assertEquals(1, cache1.getCacheSize());
@@ -737,18 +1114,14 @@ public class TestDistributedExoCache extends TestCase
 
       assertEquals(4, listener1.get);
       assertEquals(4, listener2.get);
-      
-      // Since the clear cache map/reduce can only find cache1, 
-      // the remove calls will be applied to cache1 so cache2
-      // will be notified on its entries, this is due to the
-      // hack used to apply modifications within a map/reduce
-      remove2 += (isBLocal ? 0 : 1) + (isCLocal ? 0 : 1);
-      
+
+      // The clear only changes the generation of the region, no entry is removed
       assertEquals(remove1, listener1.remove);
       assertEquals(remove2, listener2.remove);
 
+      // Both nodes are notified of the clear, the node that cleared the region only once
       assertEquals(1, listener1.clearCache);
-      assertEquals(0, listener2.clearCache);
+      assertEquals(1, listener2.clearCache);
 
       Map<Serializable, Object> values = new HashMap<Serializable, Object>();
       key = new MyKey(a);
@@ -777,7 +1150,7 @@ public class TestDistributedExoCache extends TestCase
       assertEquals(remove2, listener2.remove);
 
       assertEquals(1, listener1.clearCache);
-      assertEquals(0, listener2.clearCache);
+      assertEquals(1, listener2.clearCache);
 
       values = new HashMap<Serializable, Object>()
       {
@@ -823,7 +1196,7 @@ public class TestDistributedExoCache extends TestCase
       assertEquals(remove2, listener2.remove);
 
       assertEquals(1, listener1.clearCache);
-      assertEquals(0, listener2.clearCache);
+      assertEquals(1, listener2.clearCache);
 
       assertEquals(0, listener1.expire);
       assertEquals(0, listener2.expire);
@@ -838,17 +1211,11 @@ public class TestDistributedExoCache extends TestCase
       assertEquals(6, listener1.get);
       assertEquals(6, listener2.get);
 
-      // Since the clear cache map/reduce can only find cache1, 
-      // the remove calls will be applied to cache1 so cache2
-      // will be notified on its entries, this is due to the
-      // hack used to apply modifications within a map/reduce
-      remove2 += (isALocal ? 0 : 1) + (isBLocal ? 0 : 1);
-
       assertEquals(remove1, listener1.remove);
       assertEquals(remove2, listener2.remove);
 
-      assertEquals(1, listener1.clearCache);
-      assertEquals(1, listener2.clearCache);
+      assertEquals(2, listener1.clearCache);
+      assertEquals(2, listener2.clearCache);
 
       assertEquals(0, listener1.expire);
       assertEquals(0, listener2.expire);
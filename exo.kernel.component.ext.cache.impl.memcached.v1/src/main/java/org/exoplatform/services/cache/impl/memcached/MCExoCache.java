@@ -20,6 +20,7 @@ package org.exoplatform.services.cache.impl.memcached;
 
 import net.spy.memcached.CASValue;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.OperationCompletionListener;
 import net.spy.memcached.internal.OperationFuture;
 
 import org.apache.ws.commons.util.Base64;
@@ -27,9 +28,11 @@ import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.management.annotations.Managed;
 import org.exoplatform.management.annotations.ManagedDescription;
 import org.exoplatform.management.annotations.ManagedName;
+import org.exoplatform.services.cache.CacheCursor;
 import org.exoplatform.services.cache.CacheInfo;
 import org.exoplatform.services.cache.CacheListener;
 import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.CacheStatistics;
 import org.exoplatform.services.cache.CachedObjectSelector;
 import org.exoplatform.services.cache.ExoCache;
 import org.exoplatform.services.cache.ExoCacheConfig;
@@ -40,6 +43,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -65,9 +72,16 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
    private static final Log LOG = ExoLogger//NOSONAR
       .getLogger("exo.kernel.component.ext.cache.impl.memcached.v1.AbstractExoCache");//NOSONAR
 
-   private final AtomicInteger hits = new AtomicInteger(0);
+   /**
+    * The statistics of the cache, the evictions are not recorded since memcached does not notify them
+    */
+   private final CacheStatistics statistics = new CacheStatistics(this);
 
-   private final AtomicInteger misses = new AtomicInteger(0);
+   /**
+    * The longest expiration that memcached accepts as a relative amount of seconds, the longer ones must be
+    * given as a unix time
+    */
+   private static final int MAX_RELATIVE_EXPIRATION = 60 * 60 * 24 * 30;
 
    private final AtomicInteger count = new AtomicInteger(0);
 
@@ -208,16 +222,6 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
       return value;
    }
 
-   /**
-    * Gives the name of the key with the prefix
-    * @param name the name of the key without the prefix
-    * @return the full name of the key
-    */
-   private String getKeyFullName(Serializable name)
-   {
-      return getKeyFullName(getNamespace(), name);
-   }
-
    /**
     * Gives the name of the key with the prefix
     * 
@@ -234,6 +238,62 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
       return sb.toString();
    }
 
+   /**
+    * Gives the value of an entry read from memcached. Since the reads touch the entries with the expiration
+    * timeout of the cache, an entry put with its own time to live can outlive it into memcached so its
+    * expiration time is checked here, an expired entry is then deleted without waiting for the response.
+    *
+    * @param namespace the namespace from which the entry has been read
+    * @param key the full name of the key
+    * @param stored the object stored into memcached
+    * @return the value or <code>null</code> if there is none or if it has expired
+    */
+   private <T> T unwrap(final String namespace, String key, Object stored)
+   {
+      if (stored instanceof ExpiringValue && System.currentTimeMillis() >= ((ExpiringValue)stored).expirationTime)
+      {
+         cache.delete(key).addListener(new OperationCompletionListener()
+         {
+            public void onComplete(OperationFuture<?> future) throws Exception
+            {
+               if (future.getStatus().isSuccess() && namespace.equals(lastNamespace.get()))
+               {
+                  // The entry has been removed successfully and the namespace has not been modified meanwhile
+                  count.decrementAndGet();
+               }
+            }
+         });
+         return null;
+      }
+      return MCExoCache.<T> valueOf(stored);
+   }
+
+   /**
+    * Gives the value of an entry read from memcached without checking its expiration
+    */
+   @SuppressWarnings("unchecked")
+   private static <T> T valueOf(Object stored)
+   {
+      return (T)(stored instanceof ExpiringValue ? ((ExpiringValue)stored).value : stored);
+   }
+
+   /**
+    * Converts an expiration time in milliseconds into a memcached expiration
+    *
+    * @param expirationTime the expiration time, {@link Long#MAX_VALUE} if the entry never expires
+    * @return the expiration in seconds, or as a unix time if it is too far
+    */
+   private static int toExpiration(long expirationTime)
+   {
+      if (expirationTime == Long.MAX_VALUE)
+      {
+         return 0;
+      }
+      long now = System.currentTimeMillis();
+      long seconds = Math.max(1, (expirationTime - now + 999) / 1000);
+      return (int)(seconds > MAX_RELATIVE_EXPIRATION ? now / 1000 + seconds : seconds);
+   }
+
    /**
     * Used to serialize the key
     * @param key the key to serialize
@@ -308,26 +368,73 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
       {
          return null;
       }
-      CASValue<Object> casValue = cache.getAndTouch(getKeyFullName(name), expirationTimeout);
-      V result = casValue == null ? null : (V)casValue.getValue();
+      long start = statistics.startTimer();
+      String namespace = getNamespace();
+      String key = getKeyFullName(namespace, name);
+      CASValue<Object> casValue = cache.getAndTouch(key, expirationTimeout);
+      V result = casValue == null ? null : this.<V> unwrap(namespace, key, casValue.getValue());
       if (result == null)
       {
-         misses.incrementAndGet();
+         statistics.recordMiss(start);
       }
       else
       {
-         hits.incrementAndGet();
+         statistics.recordHit(start);
       }
       onGet((K)name, result);
       return result;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public Map<K, V> getAll(Collection<? extends K> names)
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      String namespace = getNamespace();
+      Map<String, K> keys = new LinkedHashMap<String, K>();
+      for (K name : names)
+      {
+         if (name != null)
+         {
+            keys.put(getKeyFullName(namespace, name), name);
+         }
+      }
+      Map<String, Object> values =
+         keys.isEmpty() ? Collections.<String, Object> emptyMap() : cache.getBulk(keys.keySet());
+      Map<K, V> result = new HashMap<K, V>();
+      int hitCount = 0;
+      int missCount = 0;
+      for (Map.Entry<String, K> entry : keys.entrySet())
+      {
+         Object stored = values.get(entry.getKey());
+         V value = unwrap(namespace, entry.getKey(), stored);
+         if (value == null)
+         {
+            missCount++;
+         }
+         else
+         {
+            hitCount++;
+            result.put(entry.getValue(), value);
+            // Pipelined touch to keep the same expiration behavior as get
+            cache.touch(entry.getKey(), expirationTimeout);
+         }
+         onGet(entry.getValue(), value);
+      }
+      statistics.recordGets(hitCount, missCount);
+      return result;
+   }
+
    /**
     * {@inheritDoc}
     */
    public int getCacheHit()
    {
-      return hits.get();
+      return CacheStatistics.toInt(statistics.getHitCount());
    }
 
    /**
@@ -335,7 +442,15 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
     */
    public int getCacheMiss()
    {
-      return misses.get();
+      return CacheStatistics.toInt(statistics.getMissCount());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public CacheStatistics getStatistics()
+   {
+      return statistics;
    }
 
    /**
@@ -411,7 +526,9 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
          // ignore null values
          return;
       }
+      long start = statistics.startTimer();
       putOnly(getNamespace(), key, value);
+      statistics.recordPut(start);
       onPut(key, value);
    }
 
@@ -420,7 +537,41 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
     */
    protected void putOnly(String namespace, K key, V value)
    {
-      OperationFuture<Boolean> resp = cache.add(getKeyFullName(namespace, key), expirationTimeout, value);
+      putOnly(namespace, key, value, expirationTimeout);
+   }
+
+   /**
+    * {@inheritDoc}
+    * <p>
+    * The value is wrapped with its expiration time since the reads touch the entries with the expiration
+    * timeout of the cache, the reads then check its expiration time and remove it once it has expired. So
+    * after a read, memcached keeps the entry for the expiration timeout of the cache even if its own time
+    * to live is longer, it is then only kept until its own expiration time if it is read often enough.
+    */
+   public void put(K key, V value, long liveTimeMillis) throws IllegalArgumentException
+   {
+      if (key == null)
+      {
+         throw new IllegalArgumentException("No null cache key accepted");
+      }
+      else if (value == null || liveTimeMillis == 0)
+      {
+         // ignore null values
+         return;
+      }
+      long start = statistics.startTimer();
+      long expirationTime = liveTimeMillis < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + liveTimeMillis;
+      putOnly(getNamespace(), key, new ExpiringValue(value, expirationTime), toExpiration(expirationTime));
+      statistics.recordPut(start);
+      onPut(key, value);
+   }
+
+   /**
+    * Only puts the given object into the cache with the given memcached expiration nothing more
+    */
+   private void putOnly(String namespace, K key, Object value, int expiration)
+   {
+      OperationFuture<Boolean> resp = cache.add(getKeyFullName(namespace, key), expiration, value);
       Boolean result;
       try
       {
@@ -433,7 +584,7 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
       if (result == null || !result.booleanValue())
       {
          // The value already exists in the cache so we simply replace it
-         resp = cache.replace(getKeyFullName(namespace, key), expirationTimeout, value);
+         resp = cache.replace(getKeyFullName(namespace, key), expiration, value);
          try
          {
             result = resp.get();
@@ -445,7 +596,7 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
          if (result == null || !result.booleanValue())
          {
             // we try again
-            putOnly(namespace, key, value);
+            putOnly(namespace, key, value, expiration);
          }
       }
       else if (namespace.equals(lastNamespace.get()))
@@ -474,11 +625,42 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
       try
       {
          String namespace = getNamespace();
+         // All the adds are sent before waiting for the responses to pay only one network round trip
+         Map<K, OperationFuture<Boolean>> responses = new LinkedHashMap<K, OperationFuture<Boolean>>();
          for (Map.Entry<? extends K, ? extends V> entry : objs.entrySet())
          {
-            putOnly(namespace, entry.getKey(), entry.getValue());
-            onPut(entry.getKey(), entry.getValue());
+            if (entry.getValue() != null)
+            {
+               responses.put(entry.getKey(),
+                  cache.add(getKeyFullName(namespace, entry.getKey()), expirationTimeout, entry.getValue()));
+            }
+         }
+         for (Map.Entry<K, OperationFuture<Boolean>> entry : responses.entrySet())
+         {
+            K key = entry.getKey();
+            V value = objs.get(key);
+            Boolean result;
+            try
+            {
+               result = entry.getValue().get();
+            }
+            catch (Exception e)
+            {
+               throw new RuntimeException("Could not add the new value for the key " + key, e);
+            }
+            if (result == null || !result.booleanValue())
+            {
+               // The value already exists in the cache so we fall back to the regular put
+               putOnly(namespace, key, value);
+            }
+            else if (namespace.equals(lastNamespace.get()))
+            {
+               // A new value has been added and the namespace has not been modified during the process
+               count.incrementAndGet();
+            }
+            onPut(key, value);
          }
+         statistics.recordPuts(responses.size());
       }
       catch (Exception e)//NOSONAR
       {
@@ -497,7 +679,7 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
          throw new IllegalArgumentException("No null cache key accepted");
       }
       String namespace = getNamespace();
-      V value = (V)cache.get(getKeyFullName(namespace, name));
+      V value = MCExoCache.<V> valueOf(cache.get(getKeyFullName(namespace, name)));
       OperationFuture<Boolean> resp = cache.delete(getKeyFullName(namespace, name));
       Boolean result;
       try
@@ -520,6 +702,77 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
       return value;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   @SuppressWarnings("unchecked")
+   public void removeAll(Collection<? extends K> names) throws IllegalArgumentException
+   {
+      if (names == null)
+      {
+         throw new IllegalArgumentException("No null collection accepted");
+      }
+      for (Serializable name : names)
+      {
+         if (name == null)
+         {
+            throw new IllegalArgumentException("No null cache key accepted");
+         }
+      }
+      if (names.isEmpty())
+      {
+         return;
+      }
+      String namespace = getNamespace();
+      Map<String, K> keys = new LinkedHashMap<String, K>();
+      for (K name : names)
+      {
+         keys.put(getKeyFullName(namespace, name), name);
+      }
+      Map<String, Object> values = cache.getBulk(keys.keySet());
+      // All the deletes are sent before waiting for the responses to pay only one network round trip
+      Map<String, OperationFuture<Boolean>> responses = new LinkedHashMap<String, OperationFuture<Boolean>>();
+      for (String key : keys.keySet())
+      {
+         responses.put(key, cache.delete(key));
+      }
+      for (Map.Entry<String, OperationFuture<Boolean>> entry : responses.entrySet())
+      {
+         K name = keys.get(entry.getKey());
+         Boolean result;
+         try
+         {
+            result = entry.getValue().get();
+         }
+         catch (Exception e)
+         {
+            throw new RuntimeException("Could not remove the value for the key " + name, e);
+         }
+         if (result != null && result.booleanValue())
+         {
+            if (namespace.equals(lastNamespace.get()))
+            {
+               // The value has been removed successfully and the namespace has not been modified during the process
+               count.decrementAndGet();
+            }
+            onRemove(name, MCExoCache.<V> valueOf(values.get(entry.getKey())));
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void removeByPrefix(String prefix) throws IllegalArgumentException
+   {
+      if (prefix == null)
+      {
+         throw new IllegalArgumentException("No null prefix accepted");
+      }
+      // Memcached cannot list the keys so neither an index nor a scan can find them
+      throw new UnsupportedOperationException("Cannot remove the entries by prefix");
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -530,6 +783,14 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
       return list;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public CacheCursor<K, V> openCursor(int chunkSize)
+   {
+      throw new UnsupportedOperationException("Cannot iterate over the cached objects");
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -783,8 +1044,35 @@ public class MCExoCache<K extends Serializable, V> implements ExoCache<K, V>
       return -1;
    }
 
+   public long getCacheWeight()
+   {
+      // The weight is managed by the memcached servers
+      return -1;
+   }
+
    public long getLiveTime()
    {
       return expirationTimeout;
    }
+
+   /**
+    * A value put with its own time to live
+    */
+   private static class ExpiringValue implements Serializable
+   {
+      /**
+       * The serial version UID
+       */
+      private static final long serialVersionUID = -4370893467218562217L;
+
+      final Object value;
+
+      final long expirationTime;
+
+      ExpiringValue(Object value, long expirationTime)
+      {
+         this.value = value;
+         this.expirationTime = expirationTime;
+      }
+   }
 }
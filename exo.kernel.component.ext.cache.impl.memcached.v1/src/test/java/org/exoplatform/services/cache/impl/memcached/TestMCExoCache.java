@@ -31,6 +31,7 @@ import org.exoplatform.services.cache.ObjectCacheInfo;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -128,6 +129,23 @@ public class TestMCExoCache extends TestCase
       assertEquals(4, listener.get);
    }
 
+   public void testGetExpired() throws Exception
+   {
+      cache.put(new MyKey("a"), "a", 500);
+      assertEquals(1, cache.getCacheSize());
+      // The read touches the entry with the expiration timeout of the cache so it outlives its own
+      assertEquals("a", cache.get(new MyKey("a")));
+      Thread.sleep(1100);
+      assertNull(cache.get(new MyKey("a")));
+      // The expired entry is deleted asynchronously
+      long deadline = System.currentTimeMillis() + 5000;
+      while (cache.getCacheSize() > 0 && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(10);
+      }
+      assertEquals(0, cache.getCacheSize());
+   }
+
    public void testRemove() throws Exception
    {
       cache.put(new MyKey("a"), 1);
@@ -146,6 +164,46 @@ public class TestMCExoCache extends TestCase
       assertEquals(1, cache.getCacheSize());
    }
 
+   public void testGetAll() throws Exception
+   {
+      cache.put(new MyKey("a"), "a");
+      cache.put(new MyKey("b"), "b");
+      int hits = cache.getCacheHit();
+      int misses = cache.getCacheMiss();
+      Map<Serializable, Object> values =
+         cache.getAll(Arrays.<Serializable> asList(new MyKey("a"), new MyKey("b"), new MyKey("x"), null));
+      assertEquals(2, values.size());
+      assertEquals("a", values.get(new MyKey("a")));
+      assertEquals("b", values.get(new MyKey("b")));
+      assertEquals(3, listener.get);
+      assertEquals(2, cache.getCacheHit() - hits);
+      assertEquals(1, cache.getCacheMiss() - misses);
+      assertTrue(cache.getAll(Collections.<Serializable> emptyList()).isEmpty());
+   }
+
+   public void testRemoveAll() throws Exception
+   {
+      cache.put(new MyKey("a"), 1);
+      cache.put(new MyKey("b"), 2);
+      cache.put(new MyKey("c"), 3);
+      assertEquals(3, cache.getCacheSize());
+      cache.removeAll(Arrays.<Serializable> asList(new MyKey("a"), new MyKey("b"), new MyKey("x")));
+      assertEquals(2, listener.remove);
+      assertEquals(1, cache.getCacheSize());
+      assertNull(cache.get(new MyKey("a")));
+      assertEquals(3, cache.get(new MyKey("c")));
+      try
+      {
+         cache.removeAll(Arrays.<Serializable> asList(new MyKey("c"), null));
+         fail("Was expecting an IllegalArgumentException");
+      }
+      catch (IllegalArgumentException e)
+      {
+         // OK
+      }
+      assertEquals(1, cache.getCacheSize());
+   }
+
    public void testPutMap() throws Exception
    {
       Map<Serializable, Object> values = new HashMap<Serializable, Object>();